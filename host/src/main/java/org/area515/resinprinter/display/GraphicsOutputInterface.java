@@ -14,11 +14,57 @@ public interface GraphicsOutputInterface {
 	public void showCalibrationImage(int xPixels, int yPixels);
 	public void showGridImage(int pixels);
 	public void showImage(BufferedImage image, boolean incrementSlice);
+	
+	/**
+	 * Shows the image and only returns once it has actually been presented on the display, so that an exposure can be
+	 * timed from the moment the light starts. Displays that already present an image before showImage returns don't
+	 * need to override this.
+	 * 
+	 * @return the System.nanoTime() at which the image was presented
+	 */
+	public default long showImageAndWait(BufferedImage image, boolean incrementSlice) throws InterruptedException {
+		showImage(image, incrementSlice);
+		return System.nanoTime();
+	}
+	
+	/**
+	 * The same as showImageAndWait(image, incrementSlice) for an image that is black everywhere outside of litBounds.
+	 * Displays that still hold the last image that they showed can update only the part of the screen that is lit in
+	 * either image, since everything else is black in both. Displays that can't update part of the screen show the
+	 * whole image.
+	 * 
+	 * @param litBounds the smallest rectangle that holds every pixel that isn't black, or null if it isn't known
+	 */
+	public default long showImageAndWait(BufferedImage image, Rectangle litBounds, boolean incrementSlice) throws InterruptedException {
+		return showImageAndWait(image, incrementSlice);
+	}
 	public Rectangle getBoundary();
 	public String getIDstring();
 	public String buildIDString();
 	public GraphicsOutputInterface initializeDisplay(String displayId);
 	
+	/**
+	 * The part of the screen that can differ between two images that are both black outside of their lit bounds.
+	 * 
+	 * @return the changed region, which is empty when both images are black, or null if either lit bounds isn't known
+	 */
+	public static Rectangle getChangedRegion(Rectangle oldLitBounds, Rectangle newLitBounds, Rectangle screenSize) {
+		if (oldLitBounds == null || newLitBounds == null) {
+			return null;
+		}
+		
+		Rectangle region;
+		if (oldLitBounds.isEmpty()) {
+			region = newLitBounds;
+		} else if (newLitBounds.isEmpty()) {
+			region = oldLitBounds;
+		} else {
+			region = oldLitBounds.union(newLitBounds);
+		}
+		region = region.intersection(screenSize);
+		return region.isEmpty()?new Rectangle():region;
+	}
+	
 	public static void showGrid(Graphics2D g2, Rectangle screenSize, int gridSquareSize) {
 		g2.setBackground(Color.black);
 		g2.clearRect(0, 0, screenSize.width, screenSize.height);
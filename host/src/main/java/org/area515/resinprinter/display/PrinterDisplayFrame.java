@@ -6,13 +6,16 @@ import java.awt.Graphics2D;
 import java.awt.GraphicsDevice;
 import java.awt.HeadlessException;
 import java.awt.Rectangle;
+import java.awt.Toolkit;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 
 import javax.imageio.ImageIO;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -133,6 +136,34 @@ public class PrinterDisplayFrame extends JFrame implements GraphicsOutputInterfa
 		displayImage = image;
 		repaint();
 	}
+	
+	/**
+	 * repaint() only asks Swing to paint some time later, so this paints the frame on the event dispatch thread right
+	 * away and waits for it to be flushed to the screen.
+	 */
+	@Override
+	public long showImageAndWait(BufferedImage image, boolean performFullUpdate) throws InterruptedException {
+		logger.debug("Image assigned:{}", () -> Log4jUtil.startGlobalTimer(IMAGE_REALIZE_TIMER));
+		if (performFullUpdate) {
+			sliceNumber++;
+		}
+		setDisplayState(DisplayState.CurrentSlice);	
+		displayImage = image;
+		Runnable present = () -> {
+			getRootPane().paintImmediately(0, 0, getRootPane().getWidth(), getRootPane().getHeight());
+			Toolkit.getDefaultToolkit().sync();
+		};
+		if (SwingUtilities.isEventDispatchThread()) {
+			present.run();
+		} else {
+			try {
+				SwingUtilities.invokeAndWait(present);
+			} catch (InvocationTargetException e) {
+				throw new IllegalStateException("Unable to present image", e.getCause());
+			}
+		}
+		return System.nanoTime();
+	}
 
 	@Override
 	public Rectangle getBoundary() {
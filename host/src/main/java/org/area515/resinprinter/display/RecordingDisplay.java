@@ -0,0 +1,345 @@
+package org.area515.resinprinter.display;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import javax.imageio.ImageIO;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * A display that doesn't show anything. It records every frame that it's asked to show, so that prints can run on
+ * headless hosts and tests can check what would have been exposed and when.
+ *
+ * Each frame is kept in memory with its time, slice number, lit area and pixel checksum. When a directory is given,
+ * frames are also appended to frames.json(one JSON object per line) and every frame that isn't blank is written next
+ * to it as a PNG. A new recording replaces whatever an earlier one left in the directory.
+ */
+public class RecordingDisplay implements GraphicsOutputInterface {
+	public static final String NAME = "Recording display";
+	public static final String INDEX_FILE = "frames.json";
+	private static final Pattern FRAME_FILE_PATTERN = Pattern.compile("frame-\\d{6}\\.png");
+	private static final Logger logger = LogManager.getLogger();
+
+	public enum FrameType {
+		Blank,
+		Image,
+		Grid,
+		Calibration
+	}
+
+	public static class Frame {
+		private int index;
+		private FrameType type;
+		private int sliceNumber;
+		private long presentedNanos;
+		private long timestamp;
+		private int width;
+		private int height;
+		private long area;
+		private long checksum;
+		private String fileName;
+
+		public int getIndex() {
+			return index;
+		}
+		public FrameType getType() {
+			return type;
+		}
+		public int getSliceNumber() {
+			return sliceNumber;
+		}
+
+		/**
+		 * @return the System.nanoTime() at which the frame was shown
+		 */
+		public long getPresentedNanos() {
+			return presentedNanos;
+		}
+		public long getTimestamp() {
+			return timestamp;
+		}
+		public int getWidth() {
+			return width;
+		}
+		public int getHeight() {
+			return height;
+		}
+
+		/**
+		 * @return the number of pixels that aren't black
+		 */
+		public long getArea() {
+			return area;
+		}
+		public long getChecksum() {
+			return checksum;
+		}
+
+		/**
+		 * @return the name of the PNG in the recording directory or null if the frame wasn't written
+		 */
+		public String getFileName() {
+			return fileName;
+		}
+
+		@Override
+		public String toString() {
+			return "Frame [index=" + index + ", type=" + type + ", sliceNumber=" + sliceNumber + ", area=" + area + ", checksum=" + Long.toHexString(checksum) + "]";
+		}
+	}
+
+	private ReentrantLock activityLock = new ReentrantLock(true);
+	private ObjectMapper mapper = new ObjectMapper();
+	private String displayName;
+	private Rectangle bounds;
+	private File directory;
+	private int displayIndex;
+	private List<Frame> frames = new ArrayList<Frame>();
+	private int sliceNumber;
+	private BufferedWriter index;
+	private BufferedImage calibrationAndGridImage;
+
+	public RecordingDisplay() {
+		this(NAME, new Rectangle(0, 0, 1920, 1080), new File(System.getProperty("java.io.tmpdir"), "recordedFrames"));
+	}
+
+	/**
+	 * @param directory where frames are written or null to only keep them in memory
+	 */
+	public RecordingDisplay(String displayName, Rectangle bounds, File directory) {
+		this.displayName = displayName;
+		this.bounds = bounds;
+		this.directory = directory;
+	}
+
+	/**
+	 * The checksum that is recorded for an image, it only depends on the colors of the pixels and not on the type of the
+	 * image.
+	 */
+	public static long checksum(BufferedImage image) {
+		return checksumAndArea(image, null);
+	}
+
+	private static long checksumAndArea(BufferedImage image, Frame frame) {
+		CRC32 crc = new CRC32();
+		int[] rgbRow = new int[image.getWidth()];
+		byte[] bytes = new byte[rgbRow.length * 3];
+		long area = 0;
+		for (int y = 0; y < image.getHeight(); y++) {
+			image.getRGB(0, y, rgbRow.length, 1, rgbRow, 0, rgbRow.length);
+			for (int x = 0; x < rgbRow.length; x++) {
+				int rgb = rgbRow[x];
+				if ((rgb & 0xffffff) != 0) {
+					area++;
+				}
+				bytes[x * 3] = (byte)(rgb >>> 16);
+				bytes[x * 3 + 1] = (byte)(rgb >>> 8);
+				bytes[x * 3 + 2] = (byte)rgb;
+			}
+			crc.update(bytes, 0, bytes.length);
+		}
+		if (frame != null) {
+			frame.area = area;
+		}
+		return crc.getValue();
+	}
+
+	private Frame record(FrameType type, BufferedImage image) {
+		Frame frame = new Frame();
+		frame.presentedNanos = System.nanoTime();
+		frame.timestamp = System.currentTimeMillis();
+		activityLock.lock();
+		try {
+			frame.index = frames.size();
+			frame.type = type;
+			frame.sliceNumber = sliceNumber;
+			if (image != null) {
+				frame.width = image.getWidth();
+				frame.height = image.getHeight();
+				frame.checksum = checksumAndArea(image, frame);
+			} else {
+				frame.width = bounds.width;
+				frame.height = bounds.height;
+			}
+			if (directory != null) {
+				writeFrame(frame, image);
+			}
+			frames.add(frame);
+			logger.debug("Recorded:{}", frame);
+			return frame;
+		} finally {
+			activityLock.unlock();
+		}
+	}
+
+	private void writeFrame(Frame frame, BufferedImage image) {
+		try {
+			if (index == null) {
+				if (!directory.exists() && !directory.mkdirs()) {
+					throw new IOException("Couldn't create:" + directory);
+				}
+				//Indexes start again with every recording, so a new one can't be appended to what an earlier one left behind
+				boolean newRecording = frame.index == 0;
+				if (newRecording) {
+					File[] oldFrames = directory.listFiles((dir, name) -> FRAME_FILE_PATTERN.matcher(name).matches());
+					if (oldFrames == null) {
+						throw new IOException("Couldn't list:" + directory);
+					}
+					for (File oldFrame : oldFrames) {
+						if (!oldFrame.delete()) {
+							throw new IOException("Couldn't delete frame from earlier recording:" + oldFrame);
+						}
+					}
+				}
+				index = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(directory, INDEX_FILE), !newRecording), StandardCharsets.UTF_8));
+			}
+			if (image != null) {
+				String fileName = String.format("frame-%06d.png", frame.index);
+				ImageIO.write(image, "png", new File(directory, fileName));
+				frame.fileName = fileName;
+			}
+			index.write(mapper.writeValueAsString(frame));
+			index.newLine();
+			index.flush();
+		} catch (IOException e) {
+			logger.error("Couldn't record frame:" + frame + " into:" + directory, e);
+		}
+	}
+
+	/**
+	 * @return a copy of every frame that has been shown so far
+	 */
+	public List<Frame> getFrames() {
+		activityLock.lock();
+		try {
+			return new ArrayList<Frame>(frames);
+		} finally {
+			activityLock.unlock();
+		}
+	}
+
+	public int getSliceCount() {
+		return sliceNumber;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	@Override
+	public boolean isDisplayBusy() {
+		return activityLock.isLocked();
+	}
+
+	@Override
+	public void resetSliceCount() {
+		sliceNumber = 0;
+	}
+
+	@Override
+	public void dispose() {
+		activityLock.lock();
+		try {
+			if (index != null) {
+				index.close();
+			}
+		} catch (IOException e) {
+			logger.error("Couldn't close frame index in:" + directory, e);
+		} finally {
+			index = null;
+			calibrationAndGridImage = null;
+			activityLock.unlock();
+		}
+	}
+
+	@Override
+	public void showBlankImage() {
+		record(FrameType.Blank, null);
+	}
+
+	private void initializeCalibrationAndGridImage() {
+		if (calibrationAndGridImage != null) {
+			return;
+		}
+
+		calibrationAndGridImage = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_3BYTE_BGR);
+	}
+
+	@Override
+	public void showCalibrationImage(int xPixels, int yPixels) {
+		initializeCalibrationAndGridImage();
+		Graphics2D graphics = (Graphics2D)calibrationAndGridImage.createGraphics();
+		GraphicsOutputInterface.showCalibration(graphics, bounds, xPixels, yPixels);
+		graphics.dispose();
+		record(FrameType.Calibration, calibrationAndGridImage);
+	}
+
+	@Override
+	public void showGridImage(int pixels) {
+		initializeCalibrationAndGridImage();
+		Graphics2D graphics = (Graphics2D)calibrationAndGridImage.createGraphics();
+		GraphicsOutputInterface.showGrid(graphics, bounds, pixels);
+		graphics.dispose();
+		record(FrameType.Grid, calibrationAndGridImage);
+	}
+
+	@Override
+	public void showImage(BufferedImage image, boolean incrementSlice) {
+		if (incrementSlice) {
+			sliceNumber++;
+		}
+		record(FrameType.Image, image);
+	}
+
+	@Override
+	public long showImageAndWait(BufferedImage image, boolean incrementSlice) {
+		if (incrementSlice) {
+			sliceNumber++;
+		}
+		//The frame is presented before it's checksummed and written so that recording doesn't show up as display latency
+		return record(FrameType.Image, image).getPresentedNanos();
+	}
+
+	@Override
+	public Rectangle getBoundary() {
+		return bounds;
+	}
+
+	@Override
+	public String getIDstring() {
+		return displayName;
+	}
+
+	@Override
+	public String buildIDString() {
+		return displayName + ":" + displayIndex++;
+	}
+
+	@Override
+	public GraphicsOutputInterface initializeDisplay(String displayId) {
+		//Every printer gets its own recording
+		File printerDirectory = directory == null?null:new File(directory, displayId.replaceAll("[^A-Za-z0-9._-]", "_"));
+		return new RecordingDisplay(displayId, new Rectangle(bounds), printerDirectory);
+	}
+
+	@Override
+	public String toString() {
+		return displayName;
+	}
+}
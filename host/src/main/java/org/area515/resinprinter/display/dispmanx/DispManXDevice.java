@@ -3,6 +3,7 @@ package org.area515.resinprinter.display.dispmanx;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.nio.ByteOrder;
 import java.util.concurrent.locks.ReentrantLock;
 
 import java.awt.image.DataBufferByte;
@@ -10,6 +11,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.area515.resinprinter.display.GraphicsOutputInterface;
 import org.area515.resinprinter.display.InappropriateDeviceException;
+import org.area515.resinprinter.server.HostProperties;
 import org.area515.util.Log4jUtil;
 
 import com.sun.jna.Memory;
@@ -29,10 +31,16 @@ public class DispManXDevice implements GraphicsOutputInterface {
     private int displayHandle;
     private boolean screenInitialized = false;
     private String displayName;
+    //Either VC_IMAGE_ARGB8888 or VC_IMAGE_RGB565 which halves what has to be written for every slice
+    private VC_IMAGE_TYPE_T imageType;
     
     //For dispmanx
     private int imageResourceHandle;
     private int imageElementHandle;
+    //What the resource holds
+    private int resourceWidth;
+    private int resourceHeight;
+    private Rectangle resourceLitBounds;
     //For Image
     private Memory imagePixels;
     private int imageWidth;
@@ -84,6 +92,7 @@ public class DispManXDevice implements GraphicsOutputInterface {
         	}
 
         	logger.info("initialize screen");
+        	imageType = HostProperties.Instance().isDispManXRGB565()?VC_IMAGE_TYPE_T.VC_IMAGE_RGB565:VC_IMAGE_TYPE_T.VC_IMAGE_ARGB8888;
 	    	bcmHostInit();
 	    	
 	        IntByReference width = new IntByReference();
@@ -130,26 +139,29 @@ public class DispManXDevice implements GraphicsOutputInterface {
         return ((x + (y)-1) & ~((y)-1));
     }
     
-	private Memory loadBitmapRGB565(BufferedImage image, Memory destPixels, IntByReference width, IntByReference height, IntByReference pitchByRef) {
-		int bytesPerPixel = 2;
-		int pitch = getPitch(bytesPerPixel * image.getWidth(), 32);
+	/**
+	 * Only the rows from firstRow up to endRow are converted, the rest of destPixels is left alone.
+	 */
+	private Memory loadBitmapRGB565(BufferedImage image, Memory destPixels, int firstRow, int endRow, IntByReference width, IntByReference height, IntByReference pitchByRef) {
+		int pitch = RGB565Converter.getPitch(image.getWidth());
 		pitchByRef.setValue(pitch);
 		if (destPixels == null) {
 			destPixels = new Memory(pitch * image.getHeight());
 		}
 		
-        for (int y = 0; y < image.getHeight(); y++) {
-            for (int x = 0; x < image.getWidth(); x++) {
-        		int rgb = image.getRGB(x, y);
-        		destPixels.setShort((y*(pitch / bytesPerPixel) + x) * bytesPerPixel, (short)(((rgb & 0xf80000) >>> 8) | ((rgb & 0xfc00) >>> 5) | (rgb & 0xf8 >>> 3)));
-            }
-        }
+		logger.debug("loadBitmapRGB565 alg started:{}", () -> Log4jUtil.splitTimer(IMAGE_REALIZE_TIMER));
+		RGB565Converter.convert(image, destPixels.getByteBuffer(0, destPixels.size()).order(ByteOrder.LITTLE_ENDIAN), pitch, firstRow, endRow);
+		logger.debug("loadBitmapRGB565 alg complete:{}", () -> Log4jUtil.completeTimer(IMAGE_REALIZE_TIMER));
+		
         width.setValue(image.getWidth());
         height.setValue(image.getHeight());
         return destPixels;
 	}
 
-	private Memory loadBitmapARGB8888(BufferedImage image, Memory destPixels, IntByReference width, IntByReference height, IntByReference pitchByRef) {
+	/**
+	 * Only the rows from firstRow up to endRow are converted, the rest of destPixels is left alone.
+	 */
+	private Memory loadBitmapARGB8888(BufferedImage image, Memory destPixels, int firstRow, int endRow, IntByReference width, IntByReference height, IntByReference pitchByRef) {
 		int bytesPerPixel = 4;
 		int pitch = getPitch(bytesPerPixel * image.getWidth(), 32);
 		pitchByRef.setValue(pitch);
@@ -158,10 +170,27 @@ public class DispManXDevice implements GraphicsOutputInterface {
 		}
 		
 		logger.debug("loadBitmapARGB8888 alg started:{}", () -> Log4jUtil.splitTimer(IMAGE_REALIZE_TIMER));
-		byte[] raw_image = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
-		for (int y = 0; y < image.getHeight(); y++) {
-			destPixels.write(y * pitch, raw_image, y * image.getWidth() * bytesPerPixel,
-					image.getWidth() * bytesPerPixel);
+		if (image.getType() == BufferedImage.TYPE_4BYTE_ABGR) {
+			byte[] raw_image = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+			for (int y = firstRow; y < endRow; y++) {
+				destPixels.write(y * pitch, raw_image, y * image.getWidth() * bytesPerPixel,
+						image.getWidth() * bytesPerPixel);
+			}
+		} else {
+			//Gray, 1 bit and anything else is expanded a row at a time into the same byte order as TYPE_4BYTE_ABGR
+			int[] argbRow = new int[image.getWidth()];
+			byte[] abgrRow = new byte[image.getWidth() * bytesPerPixel];
+			for (int y = firstRow; y < endRow; y++) {
+				image.getRGB(0, y, image.getWidth(), 1, argbRow, 0, image.getWidth());
+				for (int x = 0; x < argbRow.length; x++) {
+					int argb = argbRow[x];
+					abgrRow[x * bytesPerPixel] = (byte)(argb >>> 24);
+					abgrRow[x * bytesPerPixel + 1] = (byte)argb;
+					abgrRow[x * bytesPerPixel + 2] = (byte)(argb >>> 8);
+					abgrRow[x * bytesPerPixel + 3] = (byte)(argb >>> 16);
+				}
+				destPixels.write(y * pitch, abgrRow, 0, abgrRow.length);
+			}
 		}
 		logger.debug("loadBitmapARGB8888 alg complete:{}", () -> Log4jUtil.completeTimer(IMAGE_REALIZE_TIMER));
 
@@ -170,13 +199,32 @@ public class DispManXDevice implements GraphicsOutputInterface {
         return destPixels;
 	}
 
+	private Memory loadBitmap(BufferedImage image, Memory destPixels, int firstRow, int endRow, IntByReference width, IntByReference height, IntByReference pitchByRef) {
+		if (imageType == VC_IMAGE_TYPE_T.VC_IMAGE_RGB565) {
+			return loadBitmapRGB565(image, destPixels, firstRow, endRow, width, height, pitchByRef);
+		}
+		return loadBitmapARGB8888(image, destPixels, firstRow, endRow, width, height, pitchByRef);
+	}
+
+	/**
+	 * The resource is kept so that the next image only needs to write the rows that changed into it.
+	 */
 	@Override
 	public void showBlankImage() {
 		initializeScreen();
-		removeAllElementsFromScreen();
+		removeElementFromScreen();
 	}
 
 	private void removeAllElementsFromScreen() {
+		removeElementFromScreen();
+		deleteResource();
+	}
+
+	private void removeElementFromScreen() {
+		if (imageElementHandle == 0) {
+			return;
+		}
+		
 		logger.info("screen cleanup started");
         int updateHandle = DispManX.INSTANCE.vc_dispmanx_update_start( 0 );
         if (updateHandle == 0) {
@@ -184,10 +232,20 @@ public class DispManXDevice implements GraphicsOutputInterface {
         } else {
         	logger.debug("image vc_dispmanx_element_remove result:" + DispManX.INSTANCE.vc_dispmanx_element_remove(updateHandle, imageElementHandle));
         	logger.debug("vc_dispmanx_update_submit_sync result:" + DispManX.INSTANCE.vc_dispmanx_update_submit_sync(updateHandle));
-        	logger.debug("image vc_dispmanx_resource_delete result:" + DispManX.INSTANCE.vc_dispmanx_resource_delete(imageResourceHandle));
+        	imageElementHandle = 0;
         }
 	}
 	
+	private void deleteResource() {
+		if (imageResourceHandle == 0) {
+			return;
+		}
+		
+    	logger.debug("image vc_dispmanx_resource_delete result:" + DispManX.INSTANCE.vc_dispmanx_resource_delete(imageResourceHandle));
+    	imageResourceHandle = 0;
+    	resourceLitBounds = null;
+	}
+	
 	private void initializeCalibrationAndGridImage() {
 		if (calibrationAndGridImage != null) {
 			return;
@@ -204,7 +262,7 @@ public class DispManXDevice implements GraphicsOutputInterface {
 		Graphics2D graphics = (Graphics2D)calibrationAndGridImage.createGraphics();
 		GraphicsOutputInterface.showCalibration(graphics, bounds, xPixels, yPixels);
 		graphics.dispose();
-		calibrationAndGridPixels = showImage(calibrationAndGridPixels, calibrationAndGridImage);
+		calibrationAndGridPixels = showImage(calibrationAndGridPixels, calibrationAndGridImage, null);
 		logger.debug("Calibration realized:{}", () -> Log4jUtil.completeTimer(IMAGE_REALIZE_TIMER));
 	}
 	
@@ -217,43 +275,66 @@ public class DispManXDevice implements GraphicsOutputInterface {
 		GraphicsOutputInterface.showGrid(graphics, bounds, pixels);
 		graphics.dispose();
 		
-		calibrationAndGridPixels = showImage(calibrationAndGridPixels, calibrationAndGridImage);		
+		calibrationAndGridPixels = showImage(calibrationAndGridPixels, calibrationAndGridImage, null);
 		logger.debug("Grid realized:{}", () -> Log4jUtil.completeTimer(IMAGE_REALIZE_TIMER));
 	}
 	
-	private Memory showImage(Memory memory, BufferedImage image) {
+	/**
+	 * @param litBounds the part of the image that isn't black or null if it isn't known
+	 */
+	private Memory showImage(Memory memory, BufferedImage image, Rectangle litBounds) {
 		activityLock.lock();
 		try {
-			showBlankImage();//delete the old resources because we are creating new ones...
+			initializeScreen();
+			removeElementFromScreen();
 			
 	        IntByReference imageWidth = new IntByReference();
 	        IntByReference imageHeight = new IntByReference();
 	        IntByReference imagePitch = new IntByReference();
 	        
-	        memory = loadBitmapARGB8888(image, memory, imageWidth, imageHeight, imagePitch);
-	        VC_RECT_T.ByReference sourceRect = new VC_RECT_T.ByReference();
-	        DispManX.INSTANCE.vc_dispmanx_rect_set(sourceRect, 0, 0, imageWidth.getValue()<<16, imageHeight.getValue()<<16);//Shifting by 16 is a zoom factor of zero
+	        //The resource still holds the last image, so only the rows where the two images can differ need to be written
+	        Rectangle region = null;
+	        if (imageResourceHandle != 0 && memory != null && image.getWidth() == resourceWidth && image.getHeight() == resourceHeight) {
+	        	region = GraphicsOutputInterface.getChangedRegion(resourceLitBounds, litBounds, new Rectangle(image.getWidth(), image.getHeight()));
+	        }
 	        
-	        IntByReference nativeImageReference = new IntByReference();
-	        imageResourceHandle = DispManX.INSTANCE.vc_dispmanx_resource_create(
-	        		VC_IMAGE_TYPE_T.VC_IMAGE_ARGB8888.getcIndex(), 
-	        		imageWidth.getValue(), 
-	        		imageHeight.getValue(), 
-	        		nativeImageReference);
-	        if (imageResourceHandle == 0) {
-	        	throw new IllegalArgumentException("Couldn't create resourceHandle for dispmanx");
+	        if (region != null) {
+	        	memory = loadBitmap(image, memory, region.y, region.y + region.height, imageWidth, imageHeight, imagePitch);
+	        } else {
+	        	deleteResource();//delete the old resource because we are creating a new one...
+	        	region = new Rectangle(image.getWidth(), image.getHeight());
+		        memory = loadBitmap(image, memory, 0, image.getHeight(), imageWidth, imageHeight, imagePitch);
+	        	
+		        IntByReference nativeImageReference = new IntByReference();
+		        imageResourceHandle = DispManX.INSTANCE.vc_dispmanx_resource_create(
+		        		imageType.getcIndex(), 
+		        		imageWidth.getValue(), 
+		        		imageHeight.getValue(), 
+		        		nativeImageReference);
+		        if (imageResourceHandle == 0) {
+		        	throw new IllegalArgumentException("Couldn't create resourceHandle for dispmanx");
+		        }
+		        resourceWidth = imageWidth.getValue();
+		        resourceHeight = imageHeight.getValue();
 	        }
+	        resourceLitBounds = litBounds == null?null:new Rectangle(litBounds);
 	        
-	        VC_RECT_T.ByReference sizeRect = new VC_RECT_T.ByReference();
-	        DispManX.INSTANCE.vc_dispmanx_rect_set(sizeRect, 0, 0, imageWidth.getValue(), imageHeight.getValue());
-	        int returnCode = DispManX.INSTANCE.vc_dispmanx_resource_write_data( 
-	        		imageResourceHandle, 
-	        		VC_IMAGE_TYPE_T.VC_IMAGE_ARGB8888.getcIndex(), 
-	        		imagePitch.getValue() , 
-	        		memory, 
-	        		sizeRect);
-	        if (returnCode != 0) {
-	        	throw new IllegalArgumentException("Couldn't vc_dispmanx_resource_write_data for dispmanx:" + returnCode);
+	        VC_RECT_T.ByReference sourceRect = new VC_RECT_T.ByReference();
+	        DispManX.INSTANCE.vc_dispmanx_rect_set(sourceRect, 0, 0, imageWidth.getValue()<<16, imageHeight.getValue()<<16);//Shifting by 16 is a zoom factor of zero
+	        
+	        if (!region.isEmpty()) {
+		        //Dispmanx always writes whole rows starting at the row of the rectangle, its x is ignored
+		        VC_RECT_T.ByReference sizeRect = new VC_RECT_T.ByReference();
+		        DispManX.INSTANCE.vc_dispmanx_rect_set(sizeRect, 0, region.y, imageWidth.getValue(), region.height);
+		        int returnCode = DispManX.INSTANCE.vc_dispmanx_resource_write_data( 
+		        		imageResourceHandle, 
+		        		imageType.getcIndex(), 
+		        		imagePitch.getValue() , 
+		        		memory, 
+		        		sizeRect);
+		        if (returnCode != 0) {
+		        	throw new IllegalArgumentException("Couldn't vc_dispmanx_resource_write_data for dispmanx:" + returnCode);
+		        }
 	        }
 	        
 	        int updateHandle = DispManX.INSTANCE.vc_dispmanx_update_start(0);  //This method should be called create update
@@ -283,7 +364,7 @@ public class DispManXDevice implements GraphicsOutputInterface {
 	        	throw new IllegalArgumentException("Couldn't vc_dispmanx_element_add for dispmanx");
 	        }
 	
-	        returnCode = DispManX.INSTANCE.vc_dispmanx_update_submit_sync(updateHandle);//Wait for the update to complete
+	        int returnCode = DispManX.INSTANCE.vc_dispmanx_update_submit_sync(updateHandle);//Wait for the update to complete
 	        if (returnCode != 0) {
 	        	throw new IllegalArgumentException("Couldn't vc_dispmanx_update_submit_sync for dispmanx:" + returnCode);
 	        }
@@ -294,19 +375,32 @@ public class DispManXDevice implements GraphicsOutputInterface {
 		}
 	}
 	
-	@Override
-	public void showImage(BufferedImage image, boolean performFullUpdate) {
+	private void showSlice(BufferedImage image, Rectangle litBounds) {
 		logger.debug("Image assigned:{}", () -> Log4jUtil.startTimer(IMAGE_REALIZE_TIMER));
 		if (image.getWidth() == imageWidth && image.getHeight() == imageHeight) {
-			imagePixels = showImage(imagePixels, image);
+			imagePixels = showImage(imagePixels, image, litBounds);
 		} else {
-			imagePixels = showImage(null, image);
+			imagePixels = showImage(null, image, litBounds);
 		}
 		imageWidth = image.getWidth();
 		imageHeight = image.getHeight();
 		logger.debug("Image realized:{}", () -> Log4jUtil.completeTimer(IMAGE_REALIZE_TIMER));
 	}
 	
+	@Override
+	public void showImage(BufferedImage image, boolean performFullUpdate) {
+		showSlice(image, null);
+	}
+	
+	/**
+	 * The update is submitted synchronously, so the image has been presented once this returns.
+	 */
+	@Override
+	public long showImageAndWait(BufferedImage image, Rectangle litBounds, boolean incrementSlice) {
+		showSlice(image, litBounds);
+		return System.nanoTime();
+	}
+	
 	@Override
 	public void resetSliceCount() {
 		//Since this isn't used for debugging we don't do anything
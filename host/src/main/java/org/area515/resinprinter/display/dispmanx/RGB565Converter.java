@@ -0,0 +1,168 @@
+package org.area515.resinprinter.display.dispmanx;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Converts whole images into RGB565 pixels for a dispmanx resource.
+ *
+ * Each row is converted straight from the data buffer of the image into a row array and then copied into a direct
+ * buffer, so the native memory is written once per row instead of once per pixel. Gray and 1 bit images are converted
+ * through a lookup table of all 256 levels. This doesn't touch any native library, so it runs anywhere.
+ */
+public class RGB565Converter {
+	private static final int BYTES_PER_PIXEL = 2;
+	//The little endian bytes of each gray level, the pixel for a level starts at level * BYTES_PER_PIXEL
+	private static final byte[] GRAY_LEVELS = new byte[256 * BYTES_PER_PIXEL];
+
+	static {
+		for (int level = 0; level < 256; level++) {
+			short pixel = toRGB565(level * 0x010101);
+			GRAY_LEVELS[level * BYTES_PER_PIXEL] = (byte)pixel;
+			GRAY_LEVELS[level * BYTES_PER_PIXEL + 1] = (byte)(pixel >>> 8);
+		}
+	}
+
+	public static short toRGB565(int rgb) {
+		return (short)(((rgb & 0xf80000) >>> 8) | ((rgb & 0xfc00) >>> 5) | ((rgb & 0xf8) >>> 3));
+	}
+
+	public static int getPitch(int width) {
+		return DispManXDevice.getPitch(BYTES_PER_PIXEL * width, 32);
+	}
+
+	private static boolean isSingleBankRaster(WritableRaster raster) {
+		return raster.getDataBuffer().getNumBanks() == 1 &&
+				raster.getDataBuffer().getOffset() == 0 &&
+				raster.getSampleModelTranslateX() == 0 &&
+				raster.getSampleModelTranslateY() == 0;
+	}
+
+	private static void encode(int rgb, byte[] row, int index) {
+		row[index] = (byte)(((rgb & 0x1c00) >>> 5) | ((rgb & 0xf8) >>> 3));
+		row[index + 1] = (byte)(((rgb & 0xf80000) >>> 16) | ((rgb & 0xe000) >>> 13));
+	}
+
+	/*
+	 * Each kind of image has its own loop because the JIT only unrolls loops with a constant stride.
+	 */
+	private static void convertGrayRow(byte[] data, int sourceIndex, byte[] row, int width) {
+		for (int x = 0; x < width; x++) {
+			int level = (data[sourceIndex + x] & 0xff) * BYTES_PER_PIXEL;
+			row[x * BYTES_PER_PIXEL] = GRAY_LEVELS[level];
+			row[x * BYTES_PER_PIXEL + 1] = GRAY_LEVELS[level + 1];
+		}
+	}
+
+	private static void convertBinaryRow(byte[] data, int rowOffset, int bitOffset, byte[] row, int width) {
+		for (int x = 0, bit = bitOffset; x < width; x++, bit++) {
+			byte pixel = (data[rowOffset + (bit >> 3)] & (0x80 >> (bit & 7))) != 0?(byte)0xff:0;
+			row[x * BYTES_PER_PIXEL] = pixel;
+			row[x * BYTES_PER_PIXEL + 1] = pixel;
+		}
+	}
+
+	private static void convertBgrRow(byte[] data, int sourceIndex, byte[] row, int width) {
+		for (int x = 0; x < width; x++, sourceIndex += 3) {
+			encode((data[sourceIndex] & 0xff) | ((data[sourceIndex + 1] & 0xff) << 8) | ((data[sourceIndex + 2] & 0xff) << 16), row, x * BYTES_PER_PIXEL);
+		}
+	}
+
+	//The alpha is the first byte and is skipped
+	private static void convertAbgrRow(byte[] data, int sourceIndex, byte[] row, int width) {
+		for (int x = 0; x < width; x++, sourceIndex += 4) {
+			encode((data[sourceIndex + 1] & 0xff) | ((data[sourceIndex + 2] & 0xff) << 8) | ((data[sourceIndex + 3] & 0xff) << 16), row, x * BYTES_PER_PIXEL);
+		}
+	}
+
+	private static void convertIntRow(int[] data, int sourceIndex, byte[] row, int width) {
+		for (int x = 0; x < width; x++) {
+			encode(data[sourceIndex + x], row, x * BYTES_PER_PIXEL);
+		}
+	}
+
+	/**
+	 * Converts a row of the image into RGB565, the array holds the RGB of the row when the image isn't one of the kinds
+	 * that can be read directly.
+	 */
+	private static void convertRow(BufferedImage image, int y, byte[] row, int[] rgbRow) {
+		int width = image.getWidth();
+		WritableRaster raster = image.getRaster();
+		if (isSingleBankRaster(raster)) {
+			if (raster.getDataBuffer() instanceof DataBufferByte) {
+				byte[] data = ((DataBufferByte)raster.getDataBuffer()).getData();
+				switch (image.getType()) {
+				case BufferedImage.TYPE_BYTE_GRAY:
+					convertGrayRow(data, y * ((ComponentSampleModel)raster.getSampleModel()).getScanlineStride(), row, width);
+					return;
+				case BufferedImage.TYPE_3BYTE_BGR:
+					convertBgrRow(data, y * ((ComponentSampleModel)raster.getSampleModel()).getScanlineStride(), row, width);
+					return;
+				case BufferedImage.TYPE_4BYTE_ABGR:
+				case BufferedImage.TYPE_4BYTE_ABGR_PRE:
+					convertAbgrRow(data, y * ((ComponentSampleModel)raster.getSampleModel()).getScanlineStride(), row, width);
+					return;
+				case BufferedImage.TYPE_BYTE_BINARY:
+					MultiPixelPackedSampleModel sampleModel = (MultiPixelPackedSampleModel)raster.getSampleModel();
+					if (sampleModel.getPixelBitStride() == 1) {
+						convertBinaryRow(data, y * sampleModel.getScanlineStride(), sampleModel.getDataBitOffset(), row, width);
+						return;
+					}
+					break;
+				}
+			} else if (raster.getDataBuffer() instanceof DataBufferInt) {
+				switch (image.getType()) {
+				case BufferedImage.TYPE_INT_RGB:
+				case BufferedImage.TYPE_INT_ARGB:
+				case BufferedImage.TYPE_INT_ARGB_PRE:
+					int[] data = ((DataBufferInt)raster.getDataBuffer()).getData();
+					convertIntRow(data, y * ((SinglePixelPackedSampleModel)raster.getSampleModel()).getScanlineStride(), row, width);
+					return;
+				}
+			}
+		}
+
+		image.getRGB(0, y, width, 1, rgbRow, 0, width);
+		convertIntRow(rgbRow, 0, row, width);
+	}
+
+	/**
+	 * Converts the image into RGB565 rows of pitch bytes.
+	 *
+	 * @param destination the buffer from the last frame, it's only replaced when it's too small
+	 * @return a little endian direct buffer that holds the frame from position 0 to its limit
+	 */
+	public static ByteBuffer convert(BufferedImage image, ByteBuffer destination, int pitch) {
+		return convert(image, destination, pitch, 0, image.getHeight());
+	}
+
+	/**
+	 * Only the rows from firstRow up to endRow are converted, the rest of destination is left alone.
+	 */
+	public static ByteBuffer convert(BufferedImage image, ByteBuffer destination, int pitch, int firstRow, int endRow) {
+		int frameSize = pitch * image.getHeight();
+		if (destination == null || destination.capacity() < frameSize) {
+			destination = ByteBuffer.allocateDirect(frameSize).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		destination.clear();
+		destination.position(firstRow * pitch);
+
+		//Anything in the row past the width of the image is padding and stays zero
+		byte[] row = new byte[pitch];
+		int[] rgbRow = new int[image.getWidth()];
+		for (int y = firstRow; y < endRow; y++) {
+			convertRow(image, y, row, rgbRow);
+			destination.put(row);
+		}
+		destination.limit(frameSize);
+		destination.position(0);
+		return destination;
+	}
+}
@@ -0,0 +1,482 @@
+package org.area515.resinprinter.display.fbdev;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.area515.resinprinter.display.GraphicsOutputInterface;
+import org.area515.util.Log4jUtil;
+
+/**
+ * Shows slices by writing them straight into a Linux framebuffer device(/dev/fbN) so that printers don't need an X
+ * server or the AWT event thread.
+ *
+ * The device is memory mapped whenever the kernel allows it, otherwise each frame is written through the channel. When
+ * the virtual height of the framebuffer holds two screens, frames are drawn into the page that isn't visible and then
+ * shown by panning the display to it, so a slice is never seen half drawn. The geometry is read from
+ * /sys/class/graphics/fbN unless it's given explicitly, which also allows a plain file to stand in for the device.
+ *
+ * Slices that come with their lit bounds only redraw the part of the page that is lit in the slice or in the frame
+ * that was last drawn into that page, the rest of the page is already black.
+ */
+public class FramebufferDevice implements GraphicsOutputInterface {
+	private static final String IMAGE_REALIZE_TIMER = "Image Realize";
+	private static final Pattern MODE_PATTERN = Pattern.compile("(\\d+)x(\\d+)");
+	private static final Logger logger = LogManager.getLogger();
+
+	private ReentrantLock displayLock = new ReentrantLock(true);
+	private ReentrantLock activityLock = new ReentrantLock(true);
+	private String displayName;
+	private File deviceFile;
+	private File sysfsDirectory;
+	private boolean screenInitialized = false;
+
+	//Geometry
+	private FramebufferFormat format;
+	private Rectangle bounds = new Rectangle();
+	private int stride;
+	private int pages;
+	private File panFile;
+
+	//For the device
+	private RandomAccessFile deviceAccess;
+	private FileChannel channel;
+	private ByteBuffer pageBuffer;
+	private boolean mapped;
+	private int visiblePage;
+	private Rectangle[] pageLitBounds;
+	private byte[] row;
+	private int[] rgbRow;
+	//For Calibration and Grid
+	private BufferedImage calibrationAndGridImage;
+
+	/**
+	 * Reads the geometry of the framebuffer from its sysfs directory the first time that it's used.
+	 */
+	public FramebufferDevice(String displayName, File deviceFile, File sysfsDirectory) {
+		this.displayName = displayName;
+		this.deviceFile = deviceFile;
+		this.sysfsDirectory = sysfsDirectory;
+	}
+
+	/**
+	 * @param pages 2 to draw each frame into the hidden half of the framebuffer and pan to it, otherwise 1
+	 * @param panFile the file that the "x,y" pan offset is written to, only needed when there are 2 pages
+	 */
+	public FramebufferDevice(String displayName, File deviceFile, FramebufferFormat format, int width, int height, int stride, int pages, File panFile) {
+		this.displayName = displayName;
+		this.deviceFile = deviceFile;
+		this.format = format;
+		this.bounds.setBounds(0, 0, width, height);
+		this.stride = stride;
+		this.pages = pages;
+		this.panFile = panFile;
+		if (stride < width * format.getBytesPerPixel()) {
+			throw new IllegalArgumentException("Stride:" + stride + " is too small for " + width + " pixels of " + format);
+		}
+		if (pages != 1 && pages != 2) {
+			throw new IllegalArgumentException("Framebuffers can only have 1 or 2 pages");
+		}
+		if (pages == 2 && panFile == null) {
+			throw new IllegalArgumentException("Panning is needed to use 2 pages");
+		}
+	}
+
+	private String readSysfsValue(String name) throws IOException {
+		List<String> lines = Files.readAllLines(new File(sysfsDirectory, name).toPath(), StandardCharsets.US_ASCII);
+		if (lines.isEmpty()) {
+			throw new IOException("No value in:" + new File(sysfsDirectory, name));
+		}
+		return lines.get(0).trim();
+	}
+
+	private void readSysfsGeometry() throws IOException {
+		format = FramebufferFormat.forBitsPerPixel(Integer.parseInt(readSysfsValue("bits_per_pixel")));
+		stride = Integer.parseInt(readSysfsValue("stride"));
+		String[] virtualSize = readSysfsValue("virtual_size").split(",");
+		int width = Integer.parseInt(virtualSize[0].trim());
+		int virtualHeight = Integer.parseInt(virtualSize[1].trim());
+		int height = virtualHeight;
+
+		//The visible resolution is only available from the current mode, the virtual size includes any extra pages
+		File modes = new File(sysfsDirectory, "modes");
+		if (modes.exists()) {
+			Matcher mode = MODE_PATTERN.matcher(readSysfsValue("modes"));
+			if (mode.find()) {
+				width = Integer.parseInt(mode.group(1));
+				height = Integer.parseInt(mode.group(2));
+			}
+		}
+		bounds.setBounds(0, 0, width, height);
+
+		File pan = new File(sysfsDirectory, "pan");
+		if (virtualHeight >= height * 2 && pan.canWrite()) {
+			panFile = pan;
+			pages = 2;
+		} else {
+			pages = 1;
+		}
+	}
+
+	private void initializeScreen() {
+		if (screenInitialized) {
+			return;
+		}
+
+		displayLock.lock();
+		try {
+			if (screenInitialized) {
+				return;
+			}
+
+			logger.info("initialize framebuffer:{}", deviceFile);
+			if (sysfsDirectory != null) {
+				readSysfsGeometry();
+			}
+
+			long pageSize = (long)stride * bounds.height;
+			deviceAccess = new RandomAccessFile(deviceFile, "rw");
+			channel = deviceAccess.getChannel();
+			try {
+				pageBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, pageSize * pages);
+				mapped = true;
+			} catch (IOException e) {
+				//Some kernels and JVMs won't map a character device, so the frames are built in memory and written instead
+				logger.info("Couldn't map framebuffer:{}, writing frames through the channel instead. {}", deviceFile, e.getMessage());
+				pageBuffer = ByteBuffer.allocateDirect((int)(pageSize * pages));
+				mapped = false;
+			}
+			//Nothing is known about what is already on the device
+			pageLitBounds = new Rectangle[pages];
+			row = new byte[bounds.width * format.getBytesPerPixel()];
+			rgbRow = new int[bounds.width];
+			visiblePage = 0;
+			logger.info("framebuffer:{} is {}x{} {} with a stride of {} and {} page(s)", deviceFile, bounds.width, bounds.height, format, stride, pages);
+			screenInitialized = true;
+		} catch (IOException | RuntimeException e) {
+			closeDevice();
+			throw new IllegalArgumentException("Couldn't initialize framebuffer:" + deviceFile, e);
+		} finally {
+			displayLock.unlock();
+		}
+	}
+
+	private void closeDevice() {
+		try {
+			if (deviceAccess != null) {
+				deviceAccess.close();
+			}
+		} catch (IOException e) {
+			logger.error("Couldn't close framebuffer:" + deviceFile, e);
+		}
+		deviceAccess = null;
+		channel = null;
+		pageBuffer = null;
+	}
+
+	@Override
+	public void dispose() {
+		displayLock.lock();
+		try {
+			logger.info("dispose framebuffer");
+			if (screenInitialized) {
+				showBlankImage();
+			}
+			closeDevice();
+			calibrationAndGridImage = null;
+			row = null;
+			rgbRow = null;
+			screenInitialized = false;
+		} finally {
+			displayLock.unlock();
+		}
+	}
+
+	private static boolean isByteRaster(WritableRaster raster) {
+		return raster.getDataBuffer() instanceof DataBufferByte &&
+				raster.getDataBuffer().getNumBanks() == 1 &&
+				raster.getDataBuffer().getOffset() == 0 &&
+				raster.getSampleModelTranslateX() == 0 &&
+				raster.getSampleModelTranslateY() == 0;
+	}
+
+	//Pixels that aren't opaque are shown over black, the same as they would be on a screen
+	private static int overBlack(int argb) {
+		int alpha = argb >>> 24;
+		if (alpha == 0xff) {
+			return argb;
+		}
+		return (((alpha * ((argb >>> 16) & 0xff) + 127) / 255) << 16) |
+				(((alpha * ((argb >>> 8) & 0xff) + 127) / 255) << 8) |
+				((alpha * (argb & 0xff) + 127) / 255);
+	}
+
+	/**
+	 * Encodes width pixels of row sourceY of the image, starting at sourceX, into the row buffer starting at pixel
+	 * destinationX.
+	 */
+	private void encodeRow(BufferedImage image, int sourceX, int sourceY, int destinationX, int width) {
+		int bytesPerPixel = format.getBytesPerPixel();
+		int destinationIndex = destinationX * bytesPerPixel;
+		WritableRaster raster = image.getRaster();
+		if (isByteRaster(raster)) {
+			byte[] data = ((DataBufferByte)raster.getDataBuffer()).getData();
+			switch (image.getType()) {
+			case BufferedImage.TYPE_BYTE_GRAY: {
+				int sourceIndex = sourceY * ((ComponentSampleModel)raster.getSampleModel()).getScanlineStride() + sourceX;
+				if (format == FramebufferFormat.GRAY8) {
+					System.arraycopy(data, sourceIndex, row, destinationIndex, width);
+					return;
+				}
+				byte[] grayLevels = format.getGrayLevels();
+				for (int x = 0; x < width; x++, destinationIndex += bytesPerPixel) {
+					System.arraycopy(grayLevels, (data[sourceIndex + x] & 0xff) * bytesPerPixel, row, destinationIndex, bytesPerPixel);
+				}
+				return;
+			}
+			case BufferedImage.TYPE_BYTE_BINARY: {
+				MultiPixelPackedSampleModel sampleModel = (MultiPixelPackedSampleModel)raster.getSampleModel();
+				if (sampleModel.getPixelBitStride() != 1) {
+					break;
+				}
+				byte[] grayLevels = format.getGrayLevels();
+				int rowOffset = sourceY * sampleModel.getScanlineStride();
+				int bit = sampleModel.getDataBitOffset() + sourceX;
+				for (int x = 0; x < width; x++, bit++, destinationIndex += bytesPerPixel) {
+					int level = (data[rowOffset + (bit >> 3)] & (0x80 >> (bit & 7))) != 0?255:0;
+					System.arraycopy(grayLevels, level * bytesPerPixel, row, destinationIndex, bytesPerPixel);
+				}
+				return;
+			}
+			case BufferedImage.TYPE_3BYTE_BGR: {
+				int sourceIndex = sourceY * ((ComponentSampleModel)raster.getSampleModel()).getScanlineStride() + sourceX * 3;
+				for (int x = 0; x < width; x++, sourceIndex += 3, destinationIndex += bytesPerPixel) {
+					format.encode((data[sourceIndex] & 0xff) | ((data[sourceIndex + 1] & 0xff) << 8) | ((data[sourceIndex + 2] & 0xff) << 16), row, destinationIndex);
+				}
+				return;
+			}
+			case BufferedImage.TYPE_4BYTE_ABGR: {
+				int sourceIndex = sourceY * ((ComponentSampleModel)raster.getSampleModel()).getScanlineStride() + sourceX * 4;
+				for (int x = 0; x < width; x++, sourceIndex += 4, destinationIndex += bytesPerPixel) {
+					format.encode(overBlack(((data[sourceIndex] & 0xff) << 24) | (data[sourceIndex + 1] & 0xff) | ((data[sourceIndex + 2] & 0xff) << 8) | ((data[sourceIndex + 3] & 0xff) << 16)), row, destinationIndex);
+				}
+				return;
+			}
+			}
+		}
+
+		image.getRGB(sourceX, sourceY, width, 1, rgbRow, 0, width);
+		for (int x = 0; x < width; x++, destinationIndex += bytesPerPixel) {
+			format.encode(overBlack(rgbRow[x]), row, destinationIndex);
+		}
+	}
+
+	private void panTo(int page) {
+		try {
+			Files.write(panFile.toPath(), ("0," + (page * bounds.height)).getBytes(StandardCharsets.US_ASCII));
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Couldn't pan framebuffer:" + deviceFile + " to page:" + page, e);
+		}
+	}
+
+	/**
+	 * Draws the image centered into the page, the parts of the page outside of the image are black.
+	 */
+	private void drawCentered(BufferedImage image, int pageStart) {
+		int copyWidth = 0;
+		int copyHeight = 0;
+		int sourceX = 0;
+		int sourceY = 0;
+		int destinationX = 0;
+		int destinationY = 0;
+		if (image != null) {
+			copyWidth = Math.min(bounds.width, image.getWidth());
+			copyHeight = Math.min(bounds.height, image.getHeight());
+			sourceX = Math.max(0, (image.getWidth() - bounds.width) / 2);
+			sourceY = Math.max(0, (image.getHeight() - bounds.height) / 2);
+			destinationX = Math.max(0, (bounds.width - image.getWidth()) / 2);
+			destinationY = Math.max(0, (bounds.height - image.getHeight()) / 2);
+		}
+
+		//Black is zero in every format, and the parts of the row outside the image stay black for the whole frame
+		Arrays.fill(row, (byte)0);
+		for (int y = 0; y < bounds.height; y++) {
+			boolean imageRow = y >= destinationY && y < destinationY + copyHeight;
+			if (imageRow) {
+				encodeRow(image, sourceX, sourceY + y - destinationY, destinationX, copyWidth);
+			} else if (y == destinationY + copyHeight && copyHeight > 0) {
+				Arrays.fill(row, (byte)0);
+			}
+			pageBuffer.position(pageStart + y * stride);
+			pageBuffer.put(row);
+		}
+	}
+
+	/**
+	 * Draws the region of an image that is as big as the screen into the same region of the page, a null image draws
+	 * black.
+	 */
+	private void drawRegion(BufferedImage image, Rectangle region, int pageStart) {
+		int bytesPerPixel = format.getBytesPerPixel();
+		Arrays.fill(row, (byte)0);
+		for (int y = region.y; y < region.y + region.height; y++) {
+			if (image != null) {
+				encodeRow(image, region.x, y, region.x, region.width);
+			}
+			pageBuffer.position(pageStart + y * stride + region.x * bytesPerPixel);
+			pageBuffer.put(row, region.x * bytesPerPixel, region.width * bytesPerPixel);
+		}
+	}
+
+	/**
+	 * Draws the image into the page that isn't visible and then makes it visible, a null image draws black.
+	 *
+	 * Each page remembers the lit bounds of the frame that was drawn into it. When those and the lit bounds of the new
+	 * frame are both known, only the region where they can differ is drawn.
+	 */
+	private void showFrame(BufferedImage image, Rectangle litBounds) {
+		activityLock.lock();
+		try {
+			initializeScreen();
+
+			int page = pages == 1?0:1 - visiblePage;
+			int pageStart = page * stride * bounds.height;
+			Rectangle screen = new Rectangle(bounds.width, bounds.height);
+			boolean fillsScreen = image == null || (image.getWidth() == bounds.width && image.getHeight() == bounds.height);
+			Rectangle frameLitBounds = image == null?new Rectangle():fillsScreen?litBounds:null;
+			Rectangle region = GraphicsOutputInterface.getChangedRegion(pageLitBounds[page], frameLitBounds, screen);
+			if (region != null) {
+				drawRegion(image, region, pageStart);
+			} else {
+				drawCentered(image, pageStart);
+				region = screen;
+			}
+			pageLitBounds[page] = frameLitBounds == null?null:new Rectangle(frameLitBounds);
+
+			if (!mapped && !region.isEmpty()) {
+				//The buffer mirrors the whole device, so the rows of the region are at the same position in both
+				pageBuffer.limit(pageStart + (region.y + region.height) * stride);
+				pageBuffer.position(pageStart + region.y * stride);
+				while (pageBuffer.hasRemaining()) {
+					channel.write(pageBuffer, pageBuffer.position());
+				}
+				pageBuffer.clear();
+			}
+			if (pages > 1) {
+				panTo(page);
+			}
+			visiblePage = page;
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Couldn't write to framebuffer:" + deviceFile, e);
+		} finally {
+			activityLock.unlock();
+		}
+	}
+
+	@Override
+	public void showBlankImage() {
+		showFrame(null, null);
+	}
+
+	private void initializeCalibrationAndGridImage() {
+		if (calibrationAndGridImage != null) {
+			return;
+		}
+
+		calibrationAndGridImage = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_3BYTE_BGR);
+	}
+
+	@Override
+	public void showCalibrationImage(int xPixels, int yPixels) {
+		logger.debug("Calibration assigned:{}", () -> Log4jUtil.startTimer(IMAGE_REALIZE_TIMER));
+		initializeScreen();
+		initializeCalibrationAndGridImage();
+		Graphics2D graphics = (Graphics2D)calibrationAndGridImage.createGraphics();
+		GraphicsOutputInterface.showCalibration(graphics, bounds, xPixels, yPixels);
+		graphics.dispose();
+		showFrame(calibrationAndGridImage, null);
+		logger.debug("Calibration realized:{}", () -> Log4jUtil.completeTimer(IMAGE_REALIZE_TIMER));
+	}
+
+	@Override
+	public void showGridImage(int pixels) {
+		logger.debug("Grid assigned:{}", () -> Log4jUtil.startTimer(IMAGE_REALIZE_TIMER));
+		initializeScreen();
+		initializeCalibrationAndGridImage();
+		Graphics2D graphics = (Graphics2D)calibrationAndGridImage.createGraphics();
+		GraphicsOutputInterface.showGrid(graphics, bounds, pixels);
+		graphics.dispose();
+		showFrame(calibrationAndGridImage, null);
+		logger.debug("Grid realized:{}", () -> Log4jUtil.completeTimer(IMAGE_REALIZE_TIMER));
+	}
+
+	@Override
+	public void showImage(BufferedImage image, boolean performFullUpdate) {
+		logger.debug("Image assigned:{}", () -> Log4jUtil.startTimer(IMAGE_REALIZE_TIMER));
+		showFrame(image, null);
+		logger.debug("Image realized:{}", () -> Log4jUtil.completeTimer(IMAGE_REALIZE_TIMER));
+	}
+
+	@Override
+	public long showImageAndWait(BufferedImage image, Rectangle litBounds, boolean incrementSlice) {
+		logger.debug("Image assigned:{}", () -> Log4jUtil.startTimer(IMAGE_REALIZE_TIMER));
+		showFrame(image, litBounds);
+		logger.debug("Image realized:{}", () -> Log4jUtil.completeTimer(IMAGE_REALIZE_TIMER));
+		return System.nanoTime();
+	}
+
+	@Override
+	public void resetSliceCount() {
+		//Since this isn't used for debugging we don't do anything
+	}
+
+	@Override
+	public Rectangle getBoundary() {
+		initializeScreen();
+		return bounds;
+	}
+
+	@Override
+	public boolean isDisplayBusy() {
+		return activityLock.isLocked();
+	}
+
+	@Override
+	public String getIDstring() {
+		return displayName;
+	}
+
+	@Override
+	public String buildIDString() {
+		//Hosts without this framebuffer can't be assigned to it
+		return deviceFile.exists()?displayName:null;
+	}
+
+	@Override
+	public GraphicsOutputInterface initializeDisplay(String displayId) {
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return displayName + "(" + deviceFile + ")";
+	}
+}
@@ -0,0 +1,84 @@
+package org.area515.resinprinter.display.fbdev;
+
+/**
+ * The layout of a pixel in a Linux framebuffer. Framebuffers are little endian, so the byte order of each format is the
+ * reverse of its name.
+ */
+public enum FramebufferFormat {
+	ARGB8888(4) {
+		@Override
+		public void encode(int rgb, byte[] destination, int index) {
+			destination[index] = (byte)rgb;
+			destination[index + 1] = (byte)(rgb >>> 8);
+			destination[index + 2] = (byte)(rgb >>> 16);
+			destination[index + 3] = (byte)0xff;
+		}
+	},
+	RGB888(3) {
+		@Override
+		public void encode(int rgb, byte[] destination, int index) {
+			destination[index] = (byte)rgb;
+			destination[index + 1] = (byte)(rgb >>> 8);
+			destination[index + 2] = (byte)(rgb >>> 16);
+		}
+	},
+	RGB565(2) {
+		@Override
+		public void encode(int rgb, byte[] destination, int index) {
+			int pixel = ((rgb & 0xf80000) >>> 8) | ((rgb & 0xfc00) >>> 5) | ((rgb & 0xf8) >>> 3);
+			destination[index] = (byte)pixel;
+			destination[index + 1] = (byte)(pixel >>> 8);
+		}
+	},
+	GRAY8(1) {
+		@Override
+		public void encode(int rgb, byte[] destination, int index) {
+			destination[index] = (byte)((((rgb >>> 16) & 0xff) * 77 + ((rgb >>> 8) & 0xff) * 150 + (rgb & 0xff) * 29 + 128) >>> 8);
+		}
+	};
+
+	private int bytesPerPixel;
+	private byte[] grayLevels;
+
+	FramebufferFormat(int bytesPerPixel) {
+		this.bytesPerPixel = bytesPerPixel;
+	}
+
+	public int getBytesPerPixel() {
+		return bytesPerPixel;
+	}
+
+	/**
+	 * Writes an opaque RGB color as the bytes of one pixel starting at index.
+	 */
+	public abstract void encode(int rgb, byte[] destination, int index);
+
+	/**
+	 * @return the encoded bytes of all 256 gray levels, the pixel for a level starts at level * getBytesPerPixel()
+	 */
+	byte[] getGrayLevels() {
+		if (grayLevels == null) {
+			byte[] levels = new byte[256 * bytesPerPixel];
+			for (int level = 0; level < 256; level++) {
+				encode(level * 0x010101, levels, level * bytesPerPixel);
+			}
+			grayLevels = levels;
+		}
+		return grayLevels;
+	}
+
+	public static FramebufferFormat forBitsPerPixel(int bitsPerPixel) {
+		switch (bitsPerPixel) {
+		case 32:
+			return ARGB8888;
+		case 24:
+			return RGB888;
+		case 16:
+			return RGB565;
+		case 8:
+			return GRAY8;
+		default:
+			throw new IllegalArgumentException("Framebuffers with " + bitsPerPixel + " bits per pixel aren't supported");
+		}
+	}
+}
@@ -0,0 +1,9 @@
+package org.area515.resinprinter.display.fbdev;
+
+import java.io.File;
+
+public class LinuxFramebuffer0 extends FramebufferDevice {
+	public LinuxFramebuffer0() {
+		super("Linux Framebuffer 0", new File("/dev/fb0"), new File("/sys/class/graphics/fb0"));
+	}
+}
@@ -1,6 +1,8 @@
 package org.area515.resinprinter.gcode;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -14,9 +16,10 @@ import org.area515.resinprinter.job.PrintJob;
 import org.area515.resinprinter.notification.NotificationManager;
 import org.area515.resinprinter.printer.MachineConfig;
 import org.area515.resinprinter.printer.Printer;
+import org.area515.resinprinter.serial.SerialCommunicationsPort;
+import org.area515.resinprinter.serial.SerialLineReader;
 import org.area515.resinprinter.serial.SerialManager;
 import org.area515.util.IOUtilities;
-import org.area515.util.IOUtilities.ParseState;
 import org.area515.util.TemplateEngine;
 
 import freemarker.template.TemplateException;
@@ -24,57 +27,151 @@ import freemarker.template.TemplateException;
 public abstract class GCodeControl {
 	public static Logger logger = LogManager.getLogger();
 	private int SUGGESTED_TIMEOUT_FOR_ONE_GCODE = 1000 * 60 * 2;//2 minutes
+	private static final String SYNCHRONIZE_GCODE = "M400\n";
+	private static final Pattern DELAY_PATTERN = Pattern.compile(";\\s*<\\s*Delay\\s*>\\s*(\\d+).*", Pattern.CASE_INSENSITIVE);
 	private Pattern GCODE_RESPONSE_PATTERN = Pattern.compile("(?i)(?:(o?k|e?rror:|a?larm:)(.*)|<?([^>]*)>|\\[?([^]]*)\\])\r?\n");
 	
     private Printer printer;
     private ReentrantLock gCodeLock = new ReentrantLock();
-    private StringBuilder builder = new StringBuilder();
-    private int parseLocation = 0;
+    private SerialLineReader lineReader;
     private int gcodeTimeout;
     private boolean restartSerialOnTimeout;
+    private int commandsInFlight;
+    private int bytesInFlightLimit;
     
     public GCodeControl(Printer printer) {
     	this.printer = printer;
     	this.gcodeTimeout = printer.getConfiguration().getMachineConfig().getPrinterResponseTimeoutMillis() != null?printer.getConfiguration().getMachineConfig().getPrinterResponseTimeoutMillis():SUGGESTED_TIMEOUT_FOR_ONE_GCODE;
     	this.restartSerialOnTimeout = printer.getConfiguration().getMachineConfig().getRestartSerialOnTimeout() != null?printer.getConfiguration().getMachineConfig().getRestartSerialOnTimeout():false;
+    	this.commandsInFlight = printer.getConfiguration().getMachineConfig().getGCodeCommandsInFlight() != null?printer.getConfiguration().getMachineConfig().getGCodeCommandsInFlight():1;
+    	Integer bytesInFlight = printer.getConfiguration().getMachineConfig().getGCodeBytesInFlight();
+    	this.bytesInFlightLimit = bytesInFlight != null && bytesInFlight > 0?bytesInFlight:Integer.MAX_VALUE;
     }
 	
     private Printer getPrinter() {
     	return printer;
     }
     
+	private SerialLineReader getLineReader() {
+		SerialCommunicationsPort port = getPrinter().getPrinterFirmwareSerialPort();
+		if (lineReader != null && lineReader.getPort() == port) {
+			return lineReader;
+		}
+		
+		closeLineReader();
+		lineReader = new SerialLineReader(port, GCODE_RESPONSE_PATTERN);
+		return lineReader;
+	}
+	
+	private void closeLineReader() {
+		if (lineReader != null) {
+			lineReader.close();
+			lineReader = null;
+		}
+	}
+	
+	/**
+	 * Stops the thread that reads the firmware serial port, it's started again by the next gcode.
+	 */
+	public void close() {
+		gCodeLock.lock();
+		try {
+			closeLineReader();
+		} finally {
+			gCodeLock.unlock();
+		}
+	}
+	
+	private void write(String cmd) throws IOException {
+		getLineReader().expectResponse();
+		getPrinter().getPrinterFirmwareSerialPort().write(cmd.getBytes());
+	}
+	
 	private PrinterResponse readUntilOkOrStoppedPrinting(boolean exitIfPrintInactive) throws IOException {
+		SerialLineReader reader = getLineReader();
 		PrinterResponse line = null;
 		StringBuilder responseBuilder = new StringBuilder();
-		ParseState state = null;
-		Matcher matcher = null;
-		do {
-			state = IOUtilities.readLine(exitIfPrintInactive?getPrinter():null, getPrinter().getPrinterFirmwareSerialPort(), builder, parseLocation, gcodeTimeout, IOUtilities.CPU_LIMITING_DELAY);
-			parseLocation = state.parseLocation;
-			if (state.currentLine != null) {
-				if (line == null) {
-					line = new PrinterResponse();
-					line.setFullResponse(responseBuilder);
+		SerialLineReader.Line currentLine = null;
+		long lineStartTime = System.currentTimeMillis();
+		boolean timeout = false;
+		try {
+			do {
+				//Only wait in slices when we need to notice that the print has stopped
+				long remaining = lineStartTime + gcodeTimeout - System.currentTimeMillis();
+				currentLine = reader.readLine(exitIfPrintInactive?Math.min(remaining, IOUtilities.CPU_LIMITING_DELAY):remaining);
+				if (currentLine != null) {
+					if (line == null) {
+						line = new PrinterResponse();
+						line.setFullResponse(responseBuilder);
+					}
+					responseBuilder.append(currentLine.getText());
+					line.setLastLineMatcher(currentLine.getResponseMatcher() != null?currentLine.getResponseMatcher():GCODE_RESPONSE_PATTERN.matcher(currentLine.getText()));
+					lineStartTime = System.currentTimeMillis();
+					logger.info("lineRead: {}", currentLine);
+				} else if (exitIfPrintInactive && !getPrinter().isPrintActive()) {
+					resynchronize();
+					return null;
+				} else if (System.currentTimeMillis() - lineStartTime >= gcodeTimeout) {
+					logger.info("lineRead: {}", currentLine);
+					if (line == null) {
+						timeout = true;
+						break;
+					}
+					
+					//Keep waiting for the rest of a response that has already started
+					lineStartTime = System.currentTimeMillis();
+				}
+			} while (currentLine == null || currentLine.getResponseMatcher() == null);
+		} catch (InterruptedException e) {
+			//The owed responses still need to be thrown away, the interrupt is passed on once that's done
+			resynchronize();
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		
+		if (timeout) {
+			if (restartSerialOnTimeout) {
+				try {
+					getPrinter().getPrinterFirmwareSerialPort().restartCommunications();
+				} catch (AlreadyAssignedException | InappropriateDeviceException e) {
+					throw new IOException("Problems restarting serial port:" + getPrinter().getPrinterFirmwareSerialPort(), e);
 				}
-				responseBuilder.append(state.currentLine);
-				matcher = GCODE_RESPONSE_PATTERN.matcher(state.currentLine);
-				line.setLastLineMatcher(matcher);
-			}
-			
-			logger.info("lineRead: {}", state.currentLine);
-		} while (matcher != null && !matcher.matches());
-		if (state.timeout && restartSerialOnTimeout) {
-			try {
-				getPrinter().getPrinterFirmwareSerialPort().restartCommunications();
-			} catch (AlreadyAssignedException | InappropriateDeviceException e) {
-				throw new IOException("Problems restarting serial port:" + getPrinter().getPrinterFirmwareSerialPort(), e);
 			}
+			resynchronize();
 		}
 		return line;
 	}
 	
+	/**
+	 * Makes sure that the responses that the firmware still owes for gcodes that we gave up on can't be taken as the
+	 * response of a later gcode. A M400 is sent and everything is thrown away until the M400 and the owed responses
+	 * have arrived. The firmware answers in order, so nothing owed can arrive after the M400 has been answered. If the
+	 * firmware lost some of the gcodes, we give up after the response timeout.
+	 */
+	private void resynchronize() throws IOException {
+		SerialLineReader reader = getLineReader();
+		int expectedResponses = reader.getOutstandingResponses() + 1;
+		logger.info("Resynchronizing with firmware, {} responses are still owed", expectedResponses - 1);
+		reader.clear();
+		write(SYNCHRONIZE_GCODE);
+		
+		long giveUpTime = System.currentTimeMillis() + gcodeTimeout;
+		try {
+			while (expectedResponses > 0 && System.currentTimeMillis() < giveUpTime) {
+				SerialLineReader.Line currentLine = reader.readLine(giveUpTime - System.currentTimeMillis());
+				if (currentLine != null && currentLine.getResponseMatcher() != null) {
+					expectedResponses--;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			reader.clear();
+		}
+	}
+	
 	private boolean isPausableError(Matcher matcher, PrintJob printJob) {
-		if (matcher.group(1) == null || !matcher.group(1).toLowerCase().endsWith("rror:")) {
+		if (!isError(matcher)) {
 			return false;
 		}
 		
@@ -82,49 +179,171 @@ public abstract class GCodeControl {
 		return responseRegEx != null && responseRegEx.trim().length() > 0 && matcher.group(2) != null && matcher.group(2).matches(responseRegEx);
 	}
 	
+	private boolean isError(Matcher matcher) {
+		return matcher.group(1) != null && matcher.group(1).toLowerCase().endsWith("rror:");
+	}
+	
+	/**
+	 * Pauses the printer because of an error response, gCodeLock must be held exactly once by the caller.
+	 * 
+	 * @return true if the gcode that caused the error should be sent again
+	 */
+	private boolean pauseForError(PrintJob printJob, PrinterResponse response) {
+		printJob.setErrorDescription(response.getLastLineMatcher().group(2));
+		logger.info("Received error from printer:" + response.getLastLineMatcher().group(2));
+		getPrinter().setStatus(JobStatus.PausedWithWarning);
+		NotificationManager.jobChanged(getPrinter(), printJob);
+		
+		//Allow the user to manipulate the printer while paused
+		gCodeLock.unlock();
+		try {
+			return getPrinter().waitForPauseIfRequired();
+		} finally {
+			gCodeLock.lock();
+		}
+	}
+	
 	String sendGcodeAndRespectPrinter(PrintJob printJob, String cmd) throws IOException {
 		gCodeLock.lock();
         try {
-        	if (!cmd.endsWith("\n")) {
-        		cmd += "\n";
+        	return sendWhileLocked(printJob, cmd);
+        } finally {
+        	gCodeLock.unlock();
+        }
+    }
+	
+	private String sendWhileLocked(PrintJob printJob, String cmd) throws IOException {
+    	if (!cmd.endsWith("\n")) {
+    		cmd += "\n";
+    	}
+    	
+    	StringBuilder builder = new StringBuilder();
+    	boolean mustAttempt = true;
+    	for (int attempt = 0; mustAttempt; attempt++) {
+        	logger.info("Write {}: {}", attempt, cmd);
+        	write(cmd);
+        	PrinterResponse response = readUntilOkOrStoppedPrinting(true);
+        	if (response == null) {
+        		return "";//I think this should be null, but I'm preserving backwards compatibility
         	}
         	
-        	StringBuilder builder = new StringBuilder();
-        	boolean mustAttempt = true;
-        	for (int attempt = 0; mustAttempt; attempt++) {
-	        	logger.info("Write {}: {}", attempt, cmd);
-	        	getPrinter().getPrinterFirmwareSerialPort().write(cmd.getBytes());
-	        	PrinterResponse response = readUntilOkOrStoppedPrinting(true);
-	        	if (response == null) {
-	        		return "";//I think this should be null, but I'm preserving backwards compatibility
-	        	}
-	        	
-	        	if (isPausableError(response.getLastLineMatcher(), printJob)) {
-	        		attempt++;
-	        		printJob.setErrorDescription(response.getLastLineMatcher().group(2));
-	        		logger.info("Received error from printer:" + response.getLastLineMatcher().group(2));
-	        		getPrinter().setStatus(JobStatus.PausedWithWarning);
-	        		NotificationManager.jobChanged(getPrinter(), printJob);
-	        		
-	        		//Allow the user to manipulate the printer while paused
-	        		gCodeLock.unlock();
-	        		try {
-	        			mustAttempt = getPrinter().waitForPauseIfRequired();
-	        		} finally {
-	        			gCodeLock.lock();
-	        		}
-	        	} else {
-	        		mustAttempt = false;
-	        	}
-	        	
-	        	builder.append(response.getFullResponse().toString());
+        	if (isPausableError(response.getLastLineMatcher(), printJob)) {
+        		attempt++;
+        		mustAttempt = pauseForError(printJob, response);
+        	} else {
+        		mustAttempt = false;
         	}
         	
-        	return builder.toString();
-        } finally {
-        	gCodeLock.unlock();
-        }
+        	builder.append(response.getFullResponse().toString());
+    	}
+    	
+    	return builder.toString();
     }
+	
+	/**
+	 * Streams gcode to the firmware without waiting for the ok of each gcode before sending the next. Responses are
+	 * matched to the gcodes in the order they were sent. gCodeLock must be held exactly once while it's used.
+	 */
+	private class GCodeStream {
+		private PrintJob printJob;
+		private StringBuilder responses = new StringBuilder();
+		private Deque<String> inFlight = new ArrayDeque<String>();
+		private int bytesInFlight;
+		private PrinterResponse error;
+		private String failedGCode;
+		private boolean stopped;
+		
+		public GCodeStream(PrintJob printJob) {
+			this.printJob = printJob;
+		}
+		
+		/**
+		 * @return false if the printer stopped responding or there is an error to recover from
+		 */
+		private boolean acknowledge() throws IOException {
+			PrinterResponse response = readUntilOkOrStoppedPrinting(true);
+			String gcode = inFlight.poll();
+			bytesInFlight -= gcode.length();
+			if (response == null) {
+				//The oks of everything in flight have already been thrown away
+				stopped = true;
+				inFlight.clear();
+				bytesInFlight = 0;
+				return false;
+			}
+			
+			responses.append(response.getFullResponse().toString());
+			if (error == null && isError(response.getLastLineMatcher())) {
+				error = response;
+				failedGCode = gcode;
+			}
+			return error == null;
+		}
+		
+		private boolean drain() throws IOException {
+			while (!inFlight.isEmpty() && !stopped) {
+				acknowledge();
+			}
+			return error == null && !stopped;
+		}
+		
+		private boolean send(String gcode) throws IOException {
+			while (!inFlight.isEmpty() && (inFlight.size() >= commandsInFlight || bytesInFlight + gcode.length() > bytesInFlightLimit)) {
+				if (!acknowledge()) {
+					return false;
+				}
+			}
+			
+			logger.info("Write: {}", gcode);
+			write(gcode);
+			inFlight.add(gcode);
+			bytesInFlight += gcode.length();
+			return true;
+		}
+		
+		/**
+		 * Waits for everything in flight and then decides whether the stream can go on after an error. Only a pausable
+		 * error lets it go on, the failed gcode is sent again after the pause. The gcodes that were in flight behind the
+		 * failed gcode have already been run by the firmware at that point.
+		 */
+		private boolean recover() throws IOException {
+			drain();
+			if (stopped) {
+				return false;
+			}
+			
+			PrinterResponse currentError = error;
+			error = null;
+			if (!isPausableError(currentError.getLastLineMatcher(), printJob)) {
+				logger.info("Stopped sending gcode after error from printer:" + currentError.getLastLineMatcher().group(2));
+				return false;
+			}
+			if (!pauseForError(printJob, currentError)) {
+				return false;
+			}
+			
+			responses.append(sendWhileLocked(printJob, failedGCode));
+			return true;
+		}
+		
+		public boolean sendOrRecover(String gcode) throws IOException {
+			while (!send(gcode)) {
+				if (!recover()) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		public boolean drainOrRecover() throws IOException {
+			while (!drain()) {
+				if (!recover()) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
     
     public String sendGcode(String cmd) {
 		gCodeLock.lock();
@@ -134,7 +353,7 @@ public abstract class GCodeControl {
         	}
         	
         	logger.info("Write: {}", cmd);
-        	getPrinter().getPrinterFirmwareSerialPort().write(cmd.getBytes());
+        	write(cmd);
         	PrinterResponse response = readUntilOkOrStoppedPrinting(false);
         	if (response == null) {
         		return "";
@@ -158,6 +377,13 @@ public abstract class GCodeControl {
      */
     public String readWelcomeChitChat() throws IOException {
 		try {
+			//Nothing else can be reading the port while we wait for it to go quiet
+			gCodeLock.lock();
+			try {
+				closeLineReader();
+			} finally {
+				gCodeLock.unlock();
+			}
 			StringBuilder builder = new StringBuilder();
 			builder.append(IOUtilities.readWithTimeout(getPrinter().getPrinterFirmwareSerialPort(), SerialManager.READ_TIME_OUT, SerialManager.CPU_LIMITING_DELAY));
 			builder.append(executeSetAbsolutePositioning());
@@ -202,8 +428,7 @@ public abstract class GCodeControl {
     
     private void parseCommentCommand(String comment) {
 		//If a comment was encountered, parse it to determine if something interesting was in there.
-		Pattern delayPattern = Pattern.compile(";\\s*<\\s*Delay\\s*>\\s*(\\d+).*", Pattern.CASE_INSENSITIVE);
-		Matcher matcher = delayPattern.matcher(comment);
+		Matcher matcher = DELAY_PATTERN.matcher(comment);
 		if (matcher.matches()) {
 			try {
 				int sleepTime = Integer.parseInt(matcher.group(1));
@@ -216,6 +441,44 @@ public abstract class GCodeControl {
 		}
     }
     
+    /**
+     * Sends a block of gcode with up to GCodeCommandsInFlight gcodes waiting for their oks at any time. It stops at the
+     * first error that doesn't pause the printer.
+     */
+    String streamGCode(PrintJob printJob, String gcodes, boolean stopSendingGCodeWhenPrintInactive) throws IOException {
+		Pattern gCodePattern = Pattern.compile("\\s*([^;]*)\\s*(;.*)?", Pattern.CASE_INSENSITIVE);
+		gCodeLock.lock();
+		try {
+			GCodeStream stream = new GCodeStream(printJob);
+			for (String gcode : gcodes.split("[\r]?\n")) {
+				if (stopSendingGCodeWhenPrintInactive && !printJob.getPrinter().isPrintActive()) {
+					break;
+				}
+				
+				Matcher matcher = gCodePattern.matcher(gcode);
+				if (matcher.matches()) {
+					String singleGCode = matcher.group(1);
+					String comment = matcher.group(2);
+					if (singleGCode != null && singleGCode.trim().length() > 0 && !stream.sendOrRecover(singleGCode + "\n")) {
+						break;
+					}
+					//A delay is measured from the moment that everything before it has been acknowledged, other comments are just skipped
+					if (comment != null && DELAY_PATTERN.matcher(comment).matches()) {
+						if (!stream.drainOrRecover()) {
+							break;
+						}
+						parseCommentCommand(comment);
+					}
+				}
+			}
+			
+			stream.drainOrRecover();
+			return stream.responses.toString();
+		} finally {
+			gCodeLock.unlock();
+		}
+    }
+    
     public String executeGCodeWithTemplating(PrintJob printJob, String gcodes, boolean stopSendingGCodeWhenPrintInactive) throws InappropriateDeviceException {
 		Pattern gCodePattern = Pattern.compile("\\s*([^;]*)\\s*(;.*)?", Pattern.CASE_INSENSITIVE);
 		try {
@@ -229,6 +492,10 @@ public abstract class GCodeControl {
 				return null;
 			}
 			
+			if (commandsInFlight > 1) {
+				return streamGCode(printJob, gcodes, stopSendingGCodeWhenPrintInactive);
+			}
+			
 			for (String gcode : gcodes.split("[\r]?\n")) {
 				if (stopSendingGCodeWhenPrintInactive && !printJob.getPrinter().isPrintActive()) {
 					break;
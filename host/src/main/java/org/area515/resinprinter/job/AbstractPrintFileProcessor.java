@@ -3,8 +3,10 @@ package org.area515.resinprinter.job;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Paint;
+import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -20,6 +22,7 @@ import javax.script.Invocable;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
+import javax.xml.bind.JAXBException;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.logging.log4j.LogManager;
@@ -28,13 +31,20 @@ import org.area515.resinprinter.display.InappropriateDeviceException;
 import org.area515.resinprinter.exception.NoPrinterFoundException;
 import org.area515.resinprinter.exception.SliceHandlingException;
 import org.area515.resinprinter.job.Customizer.PrinterStep;
+import org.area515.resinprinter.job.render.AffineRasterCopy;
+import org.area515.resinprinter.job.render.BulbMask;
+import org.area515.resinprinter.job.render.ImageBufferPool;
+import org.area515.resinprinter.job.render.PixelStatistics;
 import org.area515.resinprinter.job.render.RenderedData;
 import org.area515.resinprinter.job.render.RenderingCache;
 import org.area515.resinprinter.notification.NotificationManager;
+import org.area515.resinprinter.printer.MachineConfig;
 import org.area515.resinprinter.printer.Printer;
 import org.area515.resinprinter.printer.PrinterConfiguration;
+import org.area515.resinprinter.printer.RenderingFormat;
 import org.area515.resinprinter.printer.SlicingProfile;
 import org.area515.resinprinter.printer.SlicingProfile.InkConfig;
+import org.area515.resinprinter.server.HostProperties;
 import org.area515.resinprinter.server.Main;
 import org.area515.resinprinter.services.CustomizerService;
 import org.area515.resinprinter.slice.StlError;
@@ -59,7 +69,10 @@ public abstract class AbstractPrintFileProcessor<G,E> implements PrintFileProces
 		public InkDetector inkDetector;
 		public long currentSliceTime;
 		public Paint maskPaint;
+		public BulbMask bulbMask;
+		private boolean bulbMaskLoaded;
 		public boolean optimizeWithPreviewMode;
+		public RenderingFormat renderingFormat;
 		private AffineTransform affineTransform;
 		public RenderingCache cache = new RenderingCache();
 		public Customizer customizer;
@@ -76,6 +89,11 @@ public abstract class AbstractPrintFileProcessor<G,E> implements PrintFileProces
 			xResolution = slicingProfile.getxResolution();
 			yResolution = slicingProfile.getyResolution();
 			optimizeWithPreviewMode = false;
+			MachineConfig machineConfig = configuration.getMachineConfig();
+			renderingFormat = machineConfig == null || machineConfig.getRenderingFormat() == null?RenderingFormat.Color:machineConfig.getRenderingFormat();
+			if (!renderingFormat.isGrayLevelsSupported() && machineConfig.getMonitorDriverConfig() != null && machineConfig.getMonitorDriverConfig().isUseMask()) {
+				logger.warn("The bulb mask is ignored because {} images can't show levels of gray", renderingFormat);
+			}
 			customizer = printJob.getCustomizer();
 			
 			if (customizer == null) {
@@ -304,6 +322,19 @@ public abstract class AbstractPrintFileProcessor<G,E> implements PrintFileProces
 		return futures;
 	}
 	
+	/**
+	 * @return the part of the slice that the render stage found to be lit, or null if the slice didn't come from the
+	 * rendering cache
+	 */
+	private Rectangle getLitBounds(DataAid aid, BufferedImage sliceImage) {
+		RenderedData data = aid.cache.getOrCreateIfMissing(aid.cache.getCurrentRenderingPointer());
+		if (data == null || data.getPrintableImage() != sliceImage || data.getPixelStatistics() == null) {
+			return null;
+		}
+		PixelStatistics statistics = data.getPixelStatistics();
+		return statistics.getArea() == 0?new Rectangle():statistics.getBounds();
+	}
+	
 	public JobStatus printImageAndPerformPostProcessing(DataAid aid, ScriptEngine engine, BufferedImage sliceImage) throws ExecutionException, InterruptedException, InappropriateDeviceException, ScriptException {
 		if (aid == null) {
 			throw new IllegalStateException("initializeDataAid must be called before this method");
@@ -336,16 +367,26 @@ public abstract class AbstractPrintFileProcessor<G,E> implements PrintFileProces
 		
 		Future<?>[] timerFutures = startAllExposureTimers(aid, engine, sliceImage);
 		
-		aid.printer.showImage(sliceImage, true);
-		logger.info("ExposureStart:{}", ()->Log4jUtil.startTimer(EXPOSURE_TIMER));
+		//The exposure starts when the display has actually presented the image, not when we asked for it
+		long showStart = System.nanoTime();
+		long exposureStart = Math.max(aid.printer.showImageAndWait(sliceImage, getLitBounds(aid, sliceImage), true), showStart);
+		final long displayLatency = exposureStart - showStart;
+		aid.printJob.addDisplayLatency(TimeUnit.NANOSECONDS.toMillis(displayLatency));
+		logger.info("ExposureStart:{} displayLatency:{}ms", ()->Log4jUtil.startTimer(EXPOSURE_TIMER), ()->displayLatency / 1000000.0);
 		 	
 		if (aid.slicingProfile.getgCodeShutter() != null && aid.slicingProfile.getgCodeShutter().trim().length() > 0) {
 			aid.printer.setShutterOpen(true);
 			aid.printer.getGCodeControl().executeGCodeWithTemplating(aid.printJob, aid.slicingProfile.getgCodeShutter(), true);
+			
+			//With a shutter the resin only sees the light once the shutter is open
+			exposureStart = System.nanoTime();
 		}
 		
-		//Sleep for the amount of time that we are exposing the resin.
-		Thread.sleep(aid.printJob.getExposureTime());
+		//Sleep for the rest of the time that we are exposing the resin.
+		long remainingExposure = aid.printJob.getExposureTime() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - exposureStart);
+		if (remainingExposure > 0) {
+			Thread.sleep(remainingExposure);
+		}
 		
 		if (aid.slicingProfile.getgCodeShutter() != null && aid.slicingProfile.getgCodeShutter().trim().length() > 0) {
 			aid.printer.setShutterOpen(false);
@@ -399,9 +440,9 @@ public abstract class AbstractPrintFileProcessor<G,E> implements PrintFileProces
 		
 		Double buildArea = getBuildAreaMM(aid.printJob);
 		// Log slice settings (in JSON for extraction and processing)
-		logger.info("{ \"layer\": {}, \"exposureTime\": {}, \"liftDistance\": {}, \"liftSpeed\": {} , \"layerAreaMM2\": {} }",
+		logger.info("{ \"layer\": {}, \"exposureTime\": {}, \"liftDistance\": {}, \"liftSpeed\": {} , \"layerAreaMM2\": {}, \"displayLatencyMS\": {} }",
 			aid.printJob.getCurrentSlice(), aid.printJob.getExposureTime(), aid.printJob.getZLiftDistance(),
-			aid.printJob.getZLiftSpeed(), buildArea);
+			aid.printJob.getZLiftSpeed(), buildArea, aid.printJob.getCurrentDisplayLatency());
 		
 		//Perform area and cost manipulations for current slice
 		aid.printJob.addNewSlice(System.currentTimeMillis() - aid.currentSliceTime, buildArea);
@@ -446,31 +487,117 @@ public abstract class AbstractPrintFileProcessor<G,E> implements PrintFileProces
 		}
 	}
 
-	public void applyBulbMask(DataAid aid, ScriptEngine engine, Graphics2D g2, int width, int height) throws ScriptException {
-		if (aid == null) {
-			throw new IllegalStateException("initializeDataAid must be called before this method");
-		}
-		
+	private boolean isBulbMaskUsed(DataAid aid) {
 		if (aid.slicingProfile.getProjectorGradientCalculator() == null || aid.slicingProfile.getProjectorGradientCalculator().trim().length() == 0) {
-			return;
+			return false;
 		}
 		
 		if (!aid.configuration.getMachineConfig().getMonitorDriverConfig().isUseMask()) {
-			return;
+			return false;
 		}
 		
+		//A mask would only turn pixels completely on or off
+		return aid.renderingFormat.isGrayLevelsSupported();
+	}
+	
+	private Paint getMaskPaint(DataAid aid, ScriptEngine engine) throws ScriptException {
 		try {
 			if (aid.maskPaint == null) {
 				aid.maskPaint = (Paint)TemplateEngine.runScript(aid.printJob, aid.printer, engine, aid.slicingProfile.getProjectorGradientCalculator(), "projector gradient script", null);
 			}
-			g2.setPaint(aid.maskPaint);
-			g2.fillRect(0, 0, width, height);
+			return aid.maskPaint;
 		} catch (ClassCastException e) {
 			throw new IllegalArgumentException("The result of your bulb mask script needs to evaluate to an instance of java.awt.Paint");
 		}
 	}
+	
+	/**
+	 * Finds the rasterized mask of the printer next to its configuration, or rasterizes and stores it if the gradient
+	 * script, the job variables it reads or the monitor settings have changed since it was stored.
+	 */
+	private BulbMask loadBulbMask(DataAid aid, ScriptEngine engine) throws ScriptException {
+		File maskFile = null;
+		if (aid.printer.getName() != null) {
+			try {
+				String script = aid.slicingProfile.getProjectorGradientCalculator();
+				Map<String, Object> scriptInputs = TemplateEngine.getScriptContext(aid.printJob, aid.printer, engine).getJobValuesReadBy(script, "projector gradient script");
+				String key = BulbMask.buildKey(script, aid.configuration.getMachineConfig().getMonitorDriverConfig(), aid.xResolution, aid.yResolution, scriptInputs);
+				if (key == null) {
+					logger.info("The projector gradient script reads job variables that change with every print, so its bulb mask won't be stored:{}", scriptInputs.keySet());
+				} else {
+					maskFile = BulbMask.getMaskFile(HostProperties.Instance().getPrinterDir(), aid.printer.getName(), key);
+					BulbMask mask = BulbMask.read(maskFile, aid.xResolution, aid.yResolution);
+					if (mask != null) {
+						logger.info("Loaded bulb mask from:{}", maskFile);
+						return mask;
+					}
+				}
+			} catch (JAXBException | IOException e) {
+				logger.error("Unable to read stored bulb mask for:" + aid.printer.getName(), e);
+			}
+		}
+		
+		BulbMask mask = BulbMask.rasterize(getMaskPaint(aid, engine), aid.xResolution, aid.yResolution);
+		if (mask == null) {
+			logger.info("The bulb mask isn't plain black so it will be painted on every slice");
+			return null;
+		}
+		if (maskFile != null) {
+			try {
+				mask.write(maskFile, aid.printer.getName());
+				logger.info("Stored bulb mask in:{}", maskFile);
+			} catch (IOException e) {
+				logger.error("Unable to store bulb mask in:" + maskFile, e);
+			}
+		}
+		return mask;
+	}
+	
+	public void applyBulbMask(DataAid aid, ScriptEngine engine, Graphics2D g2, int width, int height) throws ScriptException {
+		if (aid == null) {
+			throw new IllegalStateException("initializeDataAid must be called before this method");
+		}
+		
+		if (!isBulbMaskUsed(aid)) {
+			return;
+		}
+		
+		g2.setPaint(getMaskPaint(aid, engine));
+		g2.fillRect(0, 0, width, height);
+	}
+	
+	/**
+	 * Applies the bulb mask with the mask that was rasterized for the printer and only falls back to painting it onto
+	 * g2 when the image or the mask can't be handled that way.
+	 */
+	public void applyBulbMask(DataAid aid, ScriptEngine engine, BufferedImage image, Graphics2D g2) throws ScriptException {
+		if (aid == null) {
+			throw new IllegalStateException("initializeDataAid must be called before this method");
+		}
+		
+		if (!isBulbMaskUsed(aid)) {
+			return;
+		}
+		
+		if (!aid.bulbMaskLoaded) {
+			aid.bulbMask = loadBulbMask(aid, engine);
+			aid.bulbMaskLoaded = true;
+		}
+		if (aid.bulbMask != null && aid.bulbMask.apply(image)) {
+			return;
+		}
+		
+		applyBulbMask(aid, engine, g2, image.getWidth(), image.getHeight());
+	}
 
 	public BufferedImage applyImageTransforms(DataAid aid, ScriptEngine engineForManipulation, BufferedImage imageToRender) throws ScriptException, JobManagerException {
+		return applyImageTransforms(aid, engineForManipulation, imageToRender, null);
+	}
+	
+	/**
+	 * @param imagePool the pool to borrow the transformed image from, or null to build a new one
+	 */
+	public BufferedImage applyImageTransforms(DataAid aid, ScriptEngine engineForManipulation, BufferedImage imageToRender, ImageBufferPool imagePool) throws ScriptException, JobManagerException {
 		if (aid == null) {
 			throw new IllegalStateException("initializeDataAid must be called before this method");
 		}
@@ -484,7 +611,9 @@ public abstract class AbstractPrintFileProcessor<G,E> implements PrintFileProces
 		
 		logger.trace("Writing applyImageTransforms1Begin:{}", () -> Log4jUtil.logImage(imageToRender, "applyImageTransforms1Begin.png"));
 
-		BufferedImage imageToRenderAfterTransformations = new BufferedImage(aid.xResolution, aid.yResolution, BufferedImage.TYPE_4BYTE_ABGR);
+		BufferedImage imageToRenderAfterTransformations = imagePool != null?
+				imagePool.borrow(aid.xResolution, aid.yResolution, aid.renderingFormat.getImageType()):
+				aid.renderingFormat.buildImage(aid.xResolution, aid.yResolution);
 		Graphics2D graphicsAfterTransformations = (Graphics2D)imageToRenderAfterTransformations.getGraphics();
 		graphicsAfterTransformations.setColor(Color.BLACK);
 		graphicsAfterTransformations.fillRect(0, 0, aid.xResolution, aid.yResolution);
@@ -492,7 +621,9 @@ public abstract class AbstractPrintFileProcessor<G,E> implements PrintFileProces
 		logger.trace("Writing applyImageTransforms2AfterFill:{}", () -> Log4jUtil.logImage(imageToRenderAfterTransformations, "applyImageTransforms2AfterFill.png"));
 		
 		AffineTransform transform = aid.getAffineTransform(engineForManipulation, imageToRenderAfterTransformations, imageToRender);
-		graphicsAfterTransformations.drawImage(imageToRender, transform, null);
+		if (!AffineRasterCopy.draw(imageToRender, transform, imageToRenderAfterTransformations)) {
+			graphicsAfterTransformations.drawImage(imageToRender, transform, null);
+		}
 	
 		logger.trace("Writing applyImageTransforms3AfterDraw:{}", () -> Log4jUtil.logImage(imageToRenderAfterTransformations, "applyImageTransforms3AfterDraw.png"));
 
@@ -505,7 +636,7 @@ public abstract class AbstractPrintFileProcessor<G,E> implements PrintFileProces
 		logger.trace("Writing applyImageTransforms4AfterImageManipulation:{}", () -> Log4jUtil.logImage(imageToRenderAfterTransformations, "applyImageTransforms4AfterImageManipulation.png"));
 
 		//TODO: I was using imageToRenderAfterTransformations.getGraphics() but recently changed to graphicsAfterTransformations
-		applyBulbMask(aid, engineForManipulation, graphicsAfterTransformations, aid.xResolution, aid.yResolution);
+		applyBulbMask(aid, engineForManipulation, imageToRenderAfterTransformations, graphicsAfterTransformations);
 
 		logger.trace("Writing applyImageTransforms5AfterBulbMask:{}", () -> Log4jUtil.logImage(imageToRenderAfterTransformations, "applyImageTransforms5AfterBulbMask.png"));
 		return imageToRenderAfterTransformations;
@@ -2,17 +2,12 @@ package org.area515.resinprinter.job;
 
 import java.awt.Font;
 import java.io.File;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 
-import javax.script.Compilable;
-import javax.script.CompiledScript;
 import javax.script.ScriptEngine;
-import javax.script.ScriptException;
 import javax.xml.bind.annotation.XmlTransient;
 
 import org.area515.resinprinter.display.InappropriateDeviceException;
@@ -21,15 +16,21 @@ import org.area515.resinprinter.printer.Printer;
 import org.area515.resinprinter.printer.SlicingProfile.InkConfig;
 import org.area515.resinprinter.printer.SlicingProfile.TwoDimensionalSettings;
 import org.area515.resinprinter.services.PrinterService;
+import org.area515.util.PrintJobScriptContext;
+import org.area515.util.PrintJobTemplateModel;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 public class PrintJob {
 	private volatile int totalSlices = 0;
 	private volatile int currentSlice = 0;
 	private volatile long currentSliceTime = 0;
 	private volatile long averageSliceTime = 0;
+	private volatile long currentDisplayLatency = 0;
+	private volatile long maxDisplayLatency = 0;
 	private volatile long startTime = 0;
 	private volatile long elapsedTime = 0;
 	private volatile double totalCost = 0;
@@ -51,7 +52,9 @@ public class PrintJob {
 	private Printer printer;
 	private CompletableFuture<JobStatus> futureJobStatus;
 	private CountDownLatch futureJobStatusAssigned = new CountDownLatch(1);
-	private Map<String, CompiledScript> scriptsByName = new HashMap<>();
+	//Engines come and go with the rendered images. A context holds its engine, so contexts are soft or their weak keys would never be cleared
+	private Cache<ScriptEngine, PrintJobScriptContext> scriptContexts = CacheBuilder.newBuilder().weakKeys().softValues().build();
+	private volatile PrintJobTemplateModel templateModel;
 
 	private Customizer customizer;
 
@@ -186,7 +189,7 @@ public class PrintJob {
 	public void initializePrintJob(CompletableFuture<JobStatus> futureJobStatus) {
 		this.futureJobStatus = futureJobStatus;
 		futureJobStatusAssigned.countDown();
-		futureJobStatus.whenComplete((s, e) -> scriptsByName.clear());
+		futureJobStatus.whenComplete((s, e) -> scriptContexts.invalidateAll());
 	}
 	
 	public String getErrorDescription() {
@@ -256,14 +259,19 @@ public class PrintJob {
 		this.zLiftDistance = zLiftDistance;
 	}
 
-	public CompiledScript buildCompiledScript(String scriptName, String script, ScriptEngine engine) throws ScriptException {
-		CompiledScript compiledScript = scriptsByName.get(scriptName);
-		if (engine instanceof Compilable && compiledScript == null) {
-			compiledScript = ((Compilable)engine).compile(script);
-			scriptsByName.put(scriptName, compiledScript);
-		}
-		
-		return compiledScript;
+	public PrintJobScriptContext getScriptContext(ScriptEngine engine) {
+		return scriptContexts.getIfPresent(engine);
+	}
+	public void setScriptContext(ScriptEngine engine, PrintJobScriptContext scriptContext) {
+		scriptContexts.put(engine, scriptContext);
+	}
+	
+	@JsonIgnore
+	public PrintJobTemplateModel getTemplateModel() {
+		return templateModel;
+	}
+	public void setTemplateModel(PrintJobTemplateModel templateModel) {
+		this.templateModel = templateModel;
 	}
 	
 	public void stopOverridingZLiftSpeed() {
@@ -318,6 +326,28 @@ public class PrintJob {
 		this.averageSliceTime = averageSliceTime;
 	}
 
+	/**
+	 * @return the milliseconds it took the display to present the image of the current slice
+	 */
+	public long getCurrentDisplayLatency() {
+		return currentDisplayLatency;
+	}
+	public void setCurrentDisplayLatency(long currentDisplayLatency) {
+		this.currentDisplayLatency = currentDisplayLatency;
+	}
+
+	public long getMaxDisplayLatency() {
+		return maxDisplayLatency;
+	}
+	public void setMaxDisplayLatency(long maxDisplayLatency) {
+		this.maxDisplayLatency = maxDisplayLatency;
+	}
+	
+	public void addDisplayLatency(long displayLatency) {
+		currentDisplayLatency = displayLatency;
+		maxDisplayLatency = Math.max(maxDisplayLatency, displayLatency);
+	}
+
 	public double getTotalCost() {
 		return totalCost;
 	}
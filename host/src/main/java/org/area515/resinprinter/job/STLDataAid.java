@@ -1,10 +1,13 @@
 package org.area515.resinprinter.job;
 
 import org.area515.resinprinter.job.AbstractPrintFileProcessor.DataAid;
+import org.area515.resinprinter.slice.LayerStore;
 import org.area515.resinprinter.slice.ZSlicer;
 
 public class STLDataAid extends DataAid {
 	public ZSlicer slicer;
+	//Only set when the model was sliced before the print started
+	public LayerStore layerStore;
 	
 	public STLDataAid(PrintJob printJob) throws JobManagerException {
 		super(printJob);
@@ -2,7 +2,6 @@ package org.area515.resinprinter.job;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -15,8 +14,10 @@ import org.area515.resinprinter.exception.SliceHandlingException;
 import org.area515.resinprinter.job.render.CurrentImageRenderer;
 import org.area515.resinprinter.job.render.RenderedData;
 import org.area515.resinprinter.printer.BuildDirection;
+import org.area515.resinprinter.server.HostProperties;
 import org.area515.resinprinter.server.Main;
 import org.area515.resinprinter.slice.CloseOffMend;
+import org.area515.resinprinter.slice.LayerStore;
 import org.area515.resinprinter.slice.StlError;
 import org.area515.resinprinter.slice.ZSlicer;
 import org.area515.resinprinter.stl.Triangle3d;
@@ -57,12 +58,15 @@ public class STLFileProcessor extends AbstractPrintFileProcessor<Iterator<Triang
 					overrideNormals,
 					new CloseOffMend());
 			dataAid.slicer = slicer;
-			dataAid.slicer.loadFile(new FileInputStream(printJob.getJobFile()), null, null);
+			dataAid.slicer.loadFile(printJob.getJobFile(), null, null);
 			printJob.setTotalSlices(slicer.getZMaxIndex() - slicer.getZMinIndex());
 			
 			//Get the slicer queued up for the first image;
 			int startPoint = dataAid.slicingProfile.getDirection() == BuildDirection.Bottom_Up?(slicer.getZMinIndex() + 1 + dataAid.customizer.getNextSlice()): (slicer.getZMaxIndex() + 1);
 			int endPoint = dataAid.slicingProfile.getDirection() == BuildDirection.Bottom_Up?(slicer.getZMaxIndex() + 1 - dataAid.customizer.getNextSlice()): (slicer.getZMinIndex() + 1);
+			if (HostProperties.Instance().isPreSliceStlFiles()) {
+				preSlice(dataAid, overrideNormals, Math.min(startPoint, endPoint), Math.max(startPoint, endPoint));
+			}
 			dataAid.slicer.setZIndex(startPoint);
 			Boolean nextRenderingPointer = (Boolean)dataAid.cache.getCurrentRenderingPointer();
 			CurrentImageRenderer renderingImage = new STLImageRenderer(dataAid, this, nextRenderingPointer, false);
@@ -112,6 +116,27 @@ public class STLFileProcessor extends AbstractPrintFileProcessor<Iterator<Triang
 		}
 	}
 	
+	/**
+	 * Slices every layer of the model into the layer store before the header runs, so that no layer has to be sliced
+	 * while the printer waits for it. Layers that are already in the store from an earlier print aren't sliced again.
+	 * If the store can't be used the print carries on slicing one layer ahead like it always has.
+	 */
+	private void preSlice(STLDataAid dataAid, boolean overrideNormals, int firstZ, int lastZ) throws InterruptedException {
+		String profile = dataAid.customizer.getZScale() + ":" + 
+				dataAid.xPixelsPerMM + ":" + 
+				dataAid.yPixelsPerMM + ":" + 
+				dataAid.sliceHeight + ":" + 
+				overrideNormals;
+		try {
+			LayerStore layerStore = LayerStore.open(HostProperties.Instance().getSliceCacheDir(), dataAid.printJob.getJobFile(), profile);
+			LayerStore.evict(HostProperties.Instance().getSliceCacheDir(), HostProperties.Instance().getSliceCacheMaxBytes(), HostProperties.Instance().getSliceCacheMaxAgeMillis(), layerStore);
+			layerStore.preSlice(dataAid.slicer, firstZ, lastZ, Main.GLOBAL_EXECUTOR, HostProperties.Instance().getSlicerParallelism());
+			dataAid.layerStore = layerStore;
+		} catch (IOException e) {
+			logger.error("Unable to pre-slice:" + dataAid.printJob.getJobFile(), e);
+		}
+	}
+	
 	@Override
 	public BufferedImage renderPreviewImage(DataAid aid) throws SliceHandlingException {
 		try {
@@ -126,7 +151,7 @@ public class STLFileProcessor extends AbstractPrintFileProcessor<Iterator<Triang
 					true, 
 					overrideNormals,
 					new CloseOffMend());
-			dataAid.slicer.loadFile(new FileInputStream(dataAid.printJob.getJobFile()), null, null);
+			dataAid.slicer.loadFile(dataAid.printJob.getJobFile(), null, null);
 			dataAid.printJob.setTotalSlices(dataAid.slicer.getZMaxIndex() - dataAid.slicer.getZMinIndex());
 			//Get the slicer queued up for the first image;
 			dataAid.slicer.setZIndex(dataAid.slicer.getZMinIndex() + dataAid.customizer.getNextSlice());
@@ -146,6 +171,11 @@ public class STLFileProcessor extends AbstractPrintFileProcessor<Iterator<Triang
 
 	@Override
 	public void cleanupEnvironment(File processingFile) throws JobManagerException {
+		try {
+			LayerStore.delete(HostProperties.Instance().getSliceCacheDir(), processingFile);
+		} catch (IOException e) {
+			throw new JobManagerException("Couldn't delete the pre-sliced layers of:" + processingFile, e);
+		}
 	}
 
 	@Override
@@ -156,21 +186,16 @@ public class STLFileProcessor extends AbstractPrintFileProcessor<Iterator<Triang
 		}
 		
 		return new Iterator<Triangle3d>() {
-			private Triangle3d nextTriangle;
-			{
-				nextTriangle = data.slicer.getFirstTriangle();
-			}
+			private int nextTriangle = 0;
 			
 			@Override
 			public boolean hasNext() {
-				return nextTriangle != null;
+				return nextTriangle < data.slicer.getTriangleCount();
 			}
 
 			@Override
 			public Triangle3d next() {
-				Triangle3d t = nextTriangle;
-				nextTriangle = nextTriangle.getNextTriangle();
-				return t;
+				return data.slicer.getTriangle(nextTriangle++);
 			}
 		};
 	}
@@ -5,11 +5,17 @@ import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.TexturePaint;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.area515.resinprinter.job.AbstractPrintFileProcessor.DataAid;
 import org.area515.resinprinter.job.render.CurrentImageRenderer;
+import org.area515.resinprinter.slice.StlError;
 
 public class STLImageRenderer extends CurrentImageRenderer {
+	private static final Logger logger = LogManager.getLogger();
 	private boolean previewMode;
 	
 	public class HatchPaint extends TexturePaint {
@@ -59,12 +65,31 @@ public class STLImageRenderer extends CurrentImageRenderer {
 	@Override
 	public BufferedImage renderImage(BufferedImage imageToDisplay) {
 		STLDataAid aid = (STLDataAid)this.aid;
-		aid.slicer.colorizePolygons(null, null);
+		BufferedImage storedLayer = null;
+		if (aid.layerStore != null && !previewMode) {
+			try {
+				List<StlError> storedErrors = aid.layerStore.readErrors(aid.slicer.getZIndex(), aid.slicer);
+				storedLayer = aid.layerStore.readLayer(aid.slicer.getZIndex());
+				if (storedLayer != null) {
+					aid.slicer.setStlErrors(storedErrors);
+				}
+			} catch (IOException e) {
+				logger.error("Unable to read pre-sliced layer:" + aid.slicer.getZIndex() + " slicing it again", e);
+			}
+		}
+		if (storedLayer == null) {
+			aid.slicer.colorizePolygons(null, null);
+		}
 		if (imageToDisplay == null) {
 			imageToDisplay = buildImage((int)aid.slicer.getWidthPixels(), (int)aid.slicer.getHeightPixels());
 		}
 		
 		Graphics2D g2 = (Graphics2D)imageToDisplay.getGraphics();
+		if (storedLayer != null) {
+			g2.drawImage(storedLayer, 0, 0, null);
+			return imageToDisplay;
+		}
+		
 		if (previewMode) {
 			g2.setPaint(new HatchPaint(50, 8, Color.RED, Color.RED.darker().darker()));
 			g2.fillRect(0, 0, (int)aid.slicer.getWidthPixels() - 1, (int)aid.slicer.getHeightPixels() - 1);
@@ -72,7 +97,7 @@ public class STLImageRenderer extends CurrentImageRenderer {
 			g2.drawRect(0, 0, (int)aid.slicer.getWidthPixels() - 1, (int)aid.slicer.getHeightPixels() - 1);
 		}
 
-		aid.slicer.paintSlice(g2, !previewMode);
+		aid.slicer.paintSlice(imageToDisplay, !previewMode);
 		
 		//imageToDisplay.setArea((double)aid.slicer.getBuildArea());//TODO: This won't work if affine transforms are applied afterwards!
 		return imageToDisplay;
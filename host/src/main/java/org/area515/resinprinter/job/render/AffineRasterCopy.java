@@ -0,0 +1,178 @@
+package org.area515.resinprinter.job.render;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Draws an image through the kinds of transforms that almost every printer uses by copying pixels straight between the
+ * data buffers of the images, instead of going through Graphics2D.
+ *
+ * Only transforms that move whole pixels are handled: integer translations combined with flips and rotations by a
+ * multiple of 90 degrees. Every destination pixel then comes from exactly one source pixel, the same one that
+ * drawImage() would pick with nearest neighbor sampling. Anything that scales or shears, or images of different types,
+ * are left to Graphics2D.
+ */
+public class AffineRasterCopy {
+	//Rotations built from Math.toRadians() are never exact, so anything this close to a whole number is treated as one
+	private static final double TOLERANCE = 1e-9;
+
+	private static boolean isWhole(double value) {
+		return Math.abs(value - Math.rint(value)) < TOLERANCE;
+	}
+
+	private static boolean isUnitOrZero(double value) {
+		return isWhole(value) && Math.abs(Math.rint(value)) <= 1;
+	}
+
+	/**
+	 * @return true if transform only moves whole pixels and can be drawn with draw()
+	 */
+	public static boolean isPixelAligned(AffineTransform transform) {
+		if (!isUnitOrZero(transform.getScaleX()) || !isUnitOrZero(transform.getShearX()) ||
+			!isUnitOrZero(transform.getShearY()) || !isUnitOrZero(transform.getScaleY()) ||
+			!isWhole(transform.getTranslateX()) || !isWhole(transform.getTranslateY())) {
+			return false;
+		}
+
+		//Each axis must map onto exactly one other axis
+		return Math.abs(Math.rint(transform.getScaleX()) * Math.rint(transform.getScaleY()) - Math.rint(transform.getShearX()) * Math.rint(transform.getShearY())) == 1;
+	}
+
+	private static boolean isByteRaster(WritableRaster raster) {
+		return raster.getDataBuffer() instanceof DataBufferByte &&
+				raster.getDataBuffer().getNumBanks() == 1 &&
+				raster.getDataBuffer().getOffset() == 0 &&
+				raster.getSampleModelTranslateX() == 0 &&
+				raster.getSampleModelTranslateY() == 0;
+	}
+
+	/**
+	 * Draws source onto destination through transform, just like drawImage(source, transform, null) would onto a
+	 * destination that has been filled with opaque black. Destination pixels that no source pixel lands on are left
+	 * alone.
+	 *
+	 * @return false if the transform or the images aren't supported and nothing was drawn
+	 */
+	public static boolean draw(BufferedImage source, AffineTransform transform, BufferedImage destination) {
+		if (source.getType() != destination.getType() || !isPixelAligned(transform)) {
+			return false;
+		}
+		WritableRaster sourceRaster = source.getRaster();
+		WritableRaster destinationRaster = destination.getRaster();
+		if (!isByteRaster(sourceRaster) || !isByteRaster(destinationRaster)) {
+			return false;
+		}
+		switch (source.getType()) {
+		case BufferedImage.TYPE_4BYTE_ABGR:
+		case BufferedImage.TYPE_3BYTE_BGR:
+		case BufferedImage.TYPE_BYTE_GRAY:
+			break;
+		case BufferedImage.TYPE_BYTE_BINARY:
+			if (((MultiPixelPackedSampleModel)sourceRaster.getSampleModel()).getPixelBitStride() != 1 ||
+				((MultiPixelPackedSampleModel)destinationRaster.getSampleModel()).getPixelBitStride() != 1) {
+				return false;
+			}
+			break;
+		default:
+			return false;
+		}
+
+		AffineTransform exactTransform = new AffineTransform(
+				Math.rint(transform.getScaleX()), Math.rint(transform.getShearY()),
+				Math.rint(transform.getShearX()), Math.rint(transform.getScaleY()),
+				Math.rint(transform.getTranslateX()), Math.rint(transform.getTranslateY()));
+		AffineTransform inverse;
+		try {
+			inverse = exactTransform.createInverse();
+		} catch (NoninvertibleTransformException e) {
+			return false;
+		}
+
+		//Every destination pixel is sampled at its center, so the source pixel of (x, y) is (xx*x + xy*y + x0, yx*x + yy*y + y0)
+		int xx = (int)Math.rint(inverse.getScaleX());
+		int xy = (int)Math.rint(inverse.getShearX());
+		int yx = (int)Math.rint(inverse.getShearY());
+		int yy = (int)Math.rint(inverse.getScaleY());
+		int x0 = (int)Math.floor((xx + xy) * 0.5 + inverse.getTranslateX());
+		int y0 = (int)Math.floor((yx + yy) * 0.5 + inverse.getTranslateY());
+
+		Rectangle area = exactTransform.createTransformedShape(new Rectangle(source.getWidth(), source.getHeight())).getBounds();
+		area = area.intersection(new Rectangle(destination.getWidth(), destination.getHeight()));
+		if (area.isEmpty()) {
+			return true;
+		}
+
+		byte[] sourceData = ((DataBufferByte)sourceRaster.getDataBuffer()).getData();
+		byte[] destinationData = ((DataBufferByte)destinationRaster.getDataBuffer()).getData();
+		if (source.getType() == BufferedImage.TYPE_BYTE_BINARY) {
+			int sourceStride = ((MultiPixelPackedSampleModel)sourceRaster.getSampleModel()).getScanlineStride();
+			int destinationStride = ((MultiPixelPackedSampleModel)destinationRaster.getSampleModel()).getScanlineStride();
+			int sourceBitOffset = ((MultiPixelPackedSampleModel)sourceRaster.getSampleModel()).getDataBitOffset();
+			int destinationBitOffset = ((MultiPixelPackedSampleModel)destinationRaster.getSampleModel()).getDataBitOffset();
+			for (int y = area.y; y < area.y + area.height; y++) {
+				int destinationRow = y * destinationStride;
+				int sx = xx * area.x + xy * y + x0;
+				int sy = yx * area.x + yy * y + y0;
+				for (int x = area.x; x < area.x + area.width; x++, sx += xx, sy += yx) {
+					int sourceBit = sourceBitOffset + sx;
+					int destinationBit = destinationBitOffset + x;
+					int mask = 0x80 >> (destinationBit & 7);
+					if ((sourceData[sy * sourceStride + (sourceBit >> 3)] & (0x80 >> (sourceBit & 7))) != 0) {
+						destinationData[destinationRow + (destinationBit >> 3)] |= mask;
+					} else {
+						destinationData[destinationRow + (destinationBit >> 3)] &= ~mask;
+					}
+				}
+			}
+			return true;
+		}
+
+		ComponentSampleModel sourceModel = (ComponentSampleModel)sourceRaster.getSampleModel();
+		ComponentSampleModel destinationModel = (ComponentSampleModel)destinationRaster.getSampleModel();
+		int pixelStride = sourceModel.getPixelStride();
+		int sourceStride = sourceModel.getScanlineStride();
+		int destinationStride = destinationModel.getScanlineStride();
+		boolean hasAlpha = source.getType() == BufferedImage.TYPE_4BYTE_ABGR;
+		for (int y = area.y; y < area.y + area.height; y++) {
+			int destinationIndex = y * destinationStride + area.x * pixelStride;
+			int sx = xx * area.x + xy * y + x0;
+			int sy = yx * area.x + yy * y + y0;
+			if (!hasAlpha && xx == 1 && yx == 0) {
+				//The row is in the same order in both images
+				System.arraycopy(sourceData, sy * sourceStride + sx * pixelStride, destinationData, destinationIndex, area.width * pixelStride);
+				continue;
+			}
+
+			int sourceStep = xx * pixelStride + yx * sourceStride;
+			int sourceIndex = sy * sourceStride + sx * pixelStride;
+			for (int x = 0; x < area.width; x++, sourceIndex += sourceStep, destinationIndex += pixelStride) {
+				if (!hasAlpha) {
+					for (int band = 0; band < pixelStride; band++) {
+						destinationData[destinationIndex + band] = sourceData[sourceIndex + band];
+					}
+					continue;
+				}
+
+				//Blend onto opaque black the same way Graphics2D does: alpha is the first byte and the colors aren't premultiplied
+				int alpha = sourceData[sourceIndex] & 0xff;
+				destinationData[destinationIndex] = (byte)0xff;
+				if (alpha == 0xff) {
+					destinationData[destinationIndex + 1] = sourceData[sourceIndex + 1];
+					destinationData[destinationIndex + 2] = sourceData[sourceIndex + 2];
+					destinationData[destinationIndex + 3] = sourceData[sourceIndex + 3];
+				} else {
+					destinationData[destinationIndex + 1] = (byte)((alpha * (sourceData[sourceIndex + 1] & 0xff) + 127) / 255);
+					destinationData[destinationIndex + 2] = (byte)((alpha * (sourceData[sourceIndex + 2] & 0xff) + 127) / 255);
+					destinationData[destinationIndex + 3] = (byte)((alpha * (sourceData[sourceIndex + 3] & 0xff) + 127) / 255);
+				}
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,230 @@
+package org.area515.resinprinter.job.render;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.imageio.ImageIO;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.namespace.QName;
+
+import org.area515.resinprinter.printer.MachineConfig.MonitorDriverConfig;
+import org.area515.util.IOUtilities;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * The bulb mask of a printer rasterized into a plane of gains, one for every pixel of the projector.
+ *
+ * The projector gradient script produces a black Paint with varying transparency that is laid over every slice. Laying
+ * black with an alpha of a over a pixel just multiplies every color in it by 255 - a, so once the Paint has been
+ * rasterized the mask can be applied to each slice with a single multiply per byte instead of filling the Paint again.
+ * The gains are kept next to the printer configuration as a gray png so they don't need to be rasterized for every print.
+ * The job variables that the gradient script reads are part of the key of a stored mask, anything else the script reads
+ * (the time, the printer or java calls) has to be the same for every print or the stored mask has to be deleted.
+ */
+public class BulbMask {
+	//Change this whenever the way masks are rasterized or stored changes so that old masks are never reused
+	private static final int MASK_VERSION = 1;
+	private static final String MASK_EXTENSION = ".mask.png";
+	private static final int MASK_KEY_LENGTH = 16;
+
+	private int width;
+	private int height;
+	private byte[] gains;
+	private byte[] abgrGains;
+
+	private BulbMask(int width, int height, byte[] gains) {
+		this.width = width;
+		this.height = height;
+		this.gains = gains;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the mask or null if paint isn't black everywhere it isn't transparent, such a paint can't be turned into gains
+	 */
+	public static BulbMask rasterize(Paint paint, int width, int height) {
+		BufferedImage maskImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g2 = maskImage.createGraphics();
+		try {
+			g2.setComposite(AlphaComposite.Src);
+			g2.setPaint(paint);
+			g2.fillRect(0, 0, width, height);
+		} finally {
+			g2.dispose();
+		}
+
+		int[] colors = maskImage.getRGB(0, 0, width, height, null, 0, width);
+		byte[] gains = new byte[colors.length];
+		for (int t = 0; t < colors.length; t++) {
+			int alpha = colors[t] >>> 24;
+			if (alpha != 0 && (colors[t] & 0xffffff) != 0) {
+				return null;
+			}
+			gains[t] = (byte)(0xff - alpha);
+		}
+		return new BulbMask(width, height, gains);
+	}
+
+	/**
+	 * @param scriptInputs the job variables that the gradient script reads
+	 * @return a key that changes whenever anything that the mask of a printer is built from changes or null if the
+	 * script reads a job variable that is different for every print, such a mask shouldn't be stored
+	 */
+	public static String buildKey(String projectorGradientScript, MonitorDriverConfig monitorDriverConfig, int width, int height, Map<String, Object> scriptInputs) throws JAXBException {
+		Hasher hasher = Hashing.sha256().newHasher()
+				.putInt(MASK_VERSION)
+				.putInt(width)
+				.putInt(height)
+				.putString(projectorGradientScript, StandardCharsets.UTF_8);
+		for (Map.Entry<String, Object> input : new TreeMap<String, Object>(scriptInputs).entrySet()) {
+			Object value = input.getValue();
+			if (value != null && !(value instanceof Number) && !(value instanceof Boolean) && !(value instanceof String)) {
+				return null;
+			}
+			hasher.putString(input.getKey() + "=" + value + "\n", StandardCharsets.UTF_8);
+		}
+
+		StringWriter monitorDriverXml = new StringWriter();
+		JAXBContext.newInstance(MonitorDriverConfig.class).createMarshaller().marshal(
+				new JAXBElement<MonitorDriverConfig>(new QName("MonitorDriverConfig"), MonitorDriverConfig.class, monitorDriverConfig), monitorDriverXml);
+		return hasher
+				.putString(monitorDriverXml.toString(), StandardCharsets.UTF_8)
+				.hash()
+				.toString();
+	}
+
+	public static File getMaskFile(File directory, String printerName, String key) {
+		return new File(directory, printerName + "." + key.substring(0, MASK_KEY_LENGTH) + MASK_EXTENSION);
+	}
+
+	private static File[] listMasks(File directory, final String printerName) {
+		final int maskNameLength = printerName.length() + 1 + MASK_KEY_LENGTH + MASK_EXTENSION.length();
+		File[] masks = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(printerName + ".") && name.endsWith(MASK_EXTENSION) && name.length() == maskNameLength;
+			}
+		});
+		return masks == null?new File[0]:masks;
+	}
+
+	/**
+	 * Deletes every stored mask of the printer, so the next print rasterizes its mask again.
+	 *
+	 * @return the number of masks that were deleted
+	 */
+	public static int delete(File directory, String printerName) {
+		int deletedMasks = 0;
+		for (File mask : listMasks(directory, printerName)) {
+			if (mask.delete()) {
+				deletedMasks++;
+			}
+		}
+		return deletedMasks;
+	}
+
+	/**
+	 * @return the mask or null if it hasn't been stored or it isn't the right size
+	 */
+	public static BulbMask read(File maskFile, int width, int height) throws IOException {
+		if (!maskFile.isFile()) {
+			return null;
+		}
+		BufferedImage maskImage = ImageIO.read(maskFile);
+		if (maskImage == null || maskImage.getType() != BufferedImage.TYPE_BYTE_GRAY || maskImage.getWidth() != width || maskImage.getHeight() != height) {
+			return null;
+		}
+		return new BulbMask(width, height, (byte[])maskImage.getRaster().getDataElements(0, 0, width, height, new byte[width * height]));
+	}
+
+	/**
+	 * Stores the mask and removes the masks that were stored for the printer with settings that are now gone.
+	 */
+	public void write(File maskFile, final String printerName) throws IOException {
+		BufferedImage maskImage = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+		maskImage.getRaster().setDataElements(0, 0, width, height, gains);
+		IOUtilities.writeImageAtomically(maskImage, "png", maskFile);
+
+		for (File oldMask : listMasks(maskFile.getParentFile(), printerName)) {
+			if (!oldMask.getName().equals(maskFile.getName())) {
+				oldMask.delete();
+			}
+		}
+	}
+
+	private static int getPixelStride(BufferedImage image) {
+		switch (image.getType()) {
+		case BufferedImage.TYPE_4BYTE_ABGR:
+			return 4;
+		case BufferedImage.TYPE_BYTE_GRAY:
+			return 1;
+		default:
+			return 0;
+		}
+	}
+
+	private synchronized byte[] getGains(int pixelStride) {
+		if (pixelStride == 1) {
+			return gains;
+		}
+
+		//Alpha is the first byte of every pixel and is left alone by multiplying it by 255
+		if (abgrGains == null) {
+			abgrGains = new byte[gains.length * 4];
+			for (int t = 0; t < gains.length; t++) {
+				abgrGains[t * 4] = (byte)0xff;
+				abgrGains[t * 4 + 1] = gains[t];
+				abgrGains[t * 4 + 2] = gains[t];
+				abgrGains[t * 4 + 3] = gains[t];
+			}
+		}
+		return abgrGains;
+	}
+
+	/**
+	 * Multiplies every pixel in image by its gain, which leaves exactly the same pixels as filling the mask Paint over it.
+	 *
+	 * @return false if the image isn't a projector sized 4 byte ABGR or gray image and nothing was done
+	 */
+	public boolean apply(BufferedImage image) {
+		int pixelStride = getPixelStride(image);
+		WritableRaster raster = image.getRaster();
+		if (pixelStride == 0 || image.getWidth() != width || image.getHeight() != height ||
+			!(raster.getDataBuffer() instanceof DataBufferByte) || raster.getDataBuffer().getOffset() != 0 ||
+			raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0 ||
+			((ComponentSampleModel)raster.getSampleModel()).getScanlineStride() != width * pixelStride) {
+			return false;
+		}
+
+		byte[] data = ((DataBufferByte)raster.getDataBuffer()).getData();
+		byte[] pixelGains = getGains(pixelStride);
+		//(x + 128) * 257 >> 16 is the rounded x / 255 for every product of two bytes, without the divide
+		for (int t = 0; t < pixelGains.length; t++) {
+			data[t] = (byte)(((pixelGains[t] & 0xff) * (data[t] & 0xff) + 128) * 257 >> 16);
+		}
+		return true;
+	}
+}
@@ -1,7 +1,6 @@
 package org.area515.resinprinter.job.render;
 
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
 import java.util.concurrent.Callable;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -13,6 +12,7 @@ import org.apache.logging.log4j.Logger;
 import org.area515.resinprinter.job.AbstractPrintFileProcessor;
 import org.area515.resinprinter.job.AbstractPrintFileProcessor.DataAid;
 import org.area515.resinprinter.job.JobManagerException;
+import org.area515.resinprinter.slice.SlicingPool;
 import org.area515.util.Log4jUtil;
 
 public abstract class CurrentImageRenderer implements Callable<RenderedData> {
@@ -27,8 +27,14 @@ public abstract class CurrentImageRenderer implements Callable<RenderedData> {
 		this.imageIndexToBuild = imageIndexToBuild;
 	}
 	
+	/**
+	 * Previews are shown to people so they are always in color, everything else is built in the rendering format of the printer.
+	 */
 	public BufferedImage buildImage(int renderedWidth, int renderedHeight) {
-		return new BufferedImage(renderedWidth, renderedHeight, BufferedImage.TYPE_4BYTE_ABGR);
+		if (aid.optimizeWithPreviewMode || aid.renderingFormat == null) {
+			return new BufferedImage(renderedWidth, renderedHeight, BufferedImage.TYPE_4BYTE_ABGR);
+		}
+		return aid.renderingFormat.buildImage(renderedWidth, renderedHeight);
 	}
 	
 	public RenderedData call() throws JobManagerException {
@@ -42,14 +48,19 @@ public abstract class CurrentImageRenderer implements Callable<RenderedData> {
 			preImageCache.setPreTransformedImage(image);
 			logger.trace("Writing applyTransformsToRenderedData1pre" + imageIndexToBuild + ":{}", () -> Log4jUtil.logImage(image, "applyTransformsToRenderedData1pre" + imageIndexToBuild + ".png"));
 
-			BufferedImage after = processor.applyImageTransforms(aid, preImageCache.getScriptEngine(), image);
-			preImageCache.setPrintableImage(after);
+			if (aid.optimizeWithPreviewMode) {
+				preImageCache.setPrintableImage(processor.applyImageTransforms(aid, preImageCache.getScriptEngine(), image));
+			} else {
+				preImageCache.setBorrowedPrintableImage(processor.applyImageTransforms(aid, preImageCache.getScriptEngine(), image, aid.cache.getImagePool()));
+			}
 			logger.trace("Writing applyTransformsToRenderedData2pre" + imageIndexToBuild + ":{}", () -> Log4jUtil.logImage(image, "applyTransformsToRenderedData2pre" + imageIndexToBuild + ".png"));
 
 			if (!aid.optimizeWithPreviewMode) {
-				long pixelArea = computePixelArea(image);//TODO: shouldn't this be after?
-				preImageCache.setArea((double)pixelArea);
-				logger.info("Loaded {} with {} non-black pixels in {}ms", imageIndexToBuild, pixelArea, System.currentTimeMillis()-startTime);
+				//Count what is actually going to be exposed, after every transform and the bulb mask
+				PixelStatistics statistics = computePixelStatistics(preImageCache.getPrintableImage());
+				preImageCache.setPixelStatistics(statistics);
+				preImageCache.setArea((double)statistics.getArea());
+				logger.info("Loaded {} with {} in {}ms", imageIndexToBuild, statistics, System.currentTimeMillis()-startTime);
 			}
 			return preImageCache;
 		} catch (ScriptException e) {
@@ -67,64 +78,23 @@ public abstract class CurrentImageRenderer implements Callable<RenderedData> {
 	abstract public BufferedImage renderImage(BufferedImage image) throws JobManagerException;
 
 	/**
-	 * Compute the number of non-black pixels in an image as a measure of its
-	 * area as a pixel count. We can only handle 3 and 4 byte formats though.
-	 * 
-	 * @param image
-	 * @return
+	 * We can only handle 1 bit, gray, 3 and 4 byte formats.
 	 */
-	private long computePixelArea(BufferedImage image) throws JobManagerException {
-		int type = image.getType();
-		if (type != BufferedImage.TYPE_3BYTE_BGR
-				&& type != BufferedImage.TYPE_4BYTE_ABGR
-				&& type != BufferedImage.TYPE_4BYTE_ABGR_PRE
-				&& type != BufferedImage.TYPE_BYTE_GRAY) {
+	private PixelStatistics computePixelStatistics(BufferedImage image) throws JobManagerException {
+		if (!PixelStatistics.isSupported(image)) {
 			// BufferedImage is not any of the types that are currently supported.
 			throw(new JobManagerException(
 					"Slice image is not in a 3 or 4 byte BGR/ABGR format."
 					+"Please open an issue about this and let us you know have an image of type: "
-					+type)
+					+image.getType())
 					);
 		}
 		
-		long area = 0;
-		
-		// We only need a count pixels, without regard to the X,Y orientation,
-		// so use the method described at:
-		// http://stackoverflow.com/questions/6524196/java-get-pixel-array-from-image
-		// to get the byte buffer backing the BufferedImage and iterate through it
-		boolean hasAlpha = image.getAlphaRaster() != null;
-		byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
-		
-		// Pixels are in groups of 3 if there is no alpha, 4 if there is an alpha
-		int pixLen = 3;
-		if (hasAlpha) {
-			pixLen = 4;
-		}
-		
-		// except for TYPE_BYTE_GRAY, where the pixel is just one byte
-		if (type == BufferedImage.TYPE_BYTE_GRAY) {
-			pixLen = 1;
-		}
-		
-		// Iterate linearly across the pixels, summing up cases where the color
-		// is not black (e.g. any color channel nonzero)
-		for (int i = 0; i<pixels.length; i+=pixLen) {
-			if (pixLen == 3) {
-				if (pixels[i] != 0 || pixels[i+1] != 0 || pixels[i+2] != 0) {
-					area++;
-				}
-			} else if (pixLen == 4) {
-				if (pixels[i+1] != 0 || pixels[i+2] != 0 || pixels[i+3] != 0) {
-					area++;
-				}
-			} else if (pixLen == 1) {
-				if (pixels[i] != 0) {
-					area++;
-				}
-			}
+		try {
+			return PixelStatistics.compute(image, SlicingPool.getPool());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JobManagerException("Interrupted while counting pixels", e);
 		}
-		
-		return area;
 	}
 }
\ No newline at end of file
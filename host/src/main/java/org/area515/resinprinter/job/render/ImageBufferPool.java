@@ -0,0 +1,87 @@
+package org.area515.resinprinter.job.render;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A pool of full resolution images that are reused from one slice to the next during a print.
+ *
+ * Every slice of a print is rendered into an image of the same size and type, so once an image is no longer displayed
+ * it can be handed to the next slice instead of allocating another 30MB+ image and leaving the old one to the garbage
+ * collector. Borrowed images still hold whatever was last drawn into them, so they must be painted over completely.
+ */
+public class ImageBufferPool {
+	//Slices are double buffered so there is never a need to keep more than a couple of idle images of a kind
+	private static final int MAX_IDLE_IMAGES_PER_KIND = 2;
+
+	private Map<String, Deque<BufferedImage>> idleImages = new HashMap<>();
+	private long hits;
+	private long misses;
+	private long bytesInFlight;
+
+	private static String getKey(int width, int height, int imageType) {
+		return width + "x" + height + ":" + imageType;
+	}
+
+	public static long getBytes(BufferedImage image) {
+		DataBuffer buffer = image.getRaster().getDataBuffer();
+		return (long)buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+	}
+
+	public synchronized BufferedImage borrow(int width, int height, int imageType) {
+		Deque<BufferedImage> images = idleImages.get(getKey(width, height, imageType));
+		BufferedImage image = images != null?images.poll():null;
+		if (image != null) {
+			hits++;
+		} else {
+			misses++;
+			image = new BufferedImage(width, height, imageType);
+		}
+		bytesInFlight += getBytes(image);
+		return image;
+	}
+
+	/**
+	 * Gives an image that came from borrow() back to the pool. The image must not be displayed or used again after this.
+	 */
+	public synchronized void giveBack(BufferedImage image) {
+		if (image == null) {
+			return;
+		}
+
+		bytesInFlight -= getBytes(image);
+		String key = getKey(image.getWidth(), image.getHeight(), image.getType());
+		Deque<BufferedImage> images = idleImages.get(key);
+		if (images == null) {
+			images = new ArrayDeque<>();
+			idleImages.put(key, images);
+		}
+		if (images.size() < MAX_IDLE_IMAGES_PER_KIND) {
+			images.push(image);
+		}
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of bytes in images that have been borrowed and not given back yet
+	 */
+	public synchronized long getBytesInFlight() {
+		return bytesInFlight;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ImageBufferPool [hits=" + hits + ", misses=" + misses + ", bytesInFlight=" + bytesInFlight + "]";
+	}
+}
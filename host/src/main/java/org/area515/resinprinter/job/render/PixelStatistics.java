@@ -0,0 +1,299 @@
+package org.area515.resinprinter.job.render;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * The non-black pixels of a printable image: how many there are, the rectangle that holds all of them and how many
+ * land in each quadrant of the image.
+ *
+ * Bands of rows are counted on the slicing pool and every row is split at the middle of the image so that the count
+ * of each half of a row goes straight into its quadrant. Only 1 bit, gray, 3 and 4 byte images can be counted.
+ */
+public class PixelStatistics {
+	public static final int TOP_LEFT = 0;
+	public static final int TOP_RIGHT = 1;
+	public static final int BOTTOM_LEFT = 2;
+	public static final int BOTTOM_RIGHT = 3;
+	//Images smaller than this aren't worth handing to other threads
+	private static final int PARALLEL_PIXEL_THRESHOLD = 512 * 512;
+	private static final int BANDS_PER_THREAD = 4;
+
+	private int width;
+	private int height;
+	private long area;
+	private long[] quadrantAreas = new long[4];
+	private int minX = Integer.MAX_VALUE;
+	private int minY = Integer.MAX_VALUE;
+	private int maxX = -1;
+	private int maxY = -1;
+	private int lastLitIndex;
+
+	private PixelStatistics(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * @return the number of non-black pixels
+	 */
+	public long getArea() {
+		return area;
+	}
+
+	/**
+	 * @return the smallest rectangle that holds every non-black pixel or null if the image is completely black
+	 */
+	public Rectangle getBounds() {
+		if (area == 0) {
+			return null;
+		}
+		return new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+	}
+
+	/**
+	 * @param quadrant one of TOP_LEFT, TOP_RIGHT, BOTTOM_LEFT or BOTTOM_RIGHT
+	 */
+	public long getQuadrantArea(int quadrant) {
+		return quadrantAreas[quadrant];
+	}
+
+	/**
+	 * @return the fraction of the pixels in the quadrant that aren't black
+	 */
+	public double getQuadrantCoverage(int quadrant) {
+		int quadrantWidth = (quadrant == TOP_LEFT || quadrant == BOTTOM_LEFT)?width / 2:width - width / 2;
+		int quadrantHeight = (quadrant == TOP_LEFT || quadrant == TOP_RIGHT)?height / 2:height - height / 2;
+		long pixels = (long)quadrantWidth * quadrantHeight;
+		return pixels == 0?0:(double)quadrantAreas[quadrant] / pixels;
+	}
+
+	private void addRow(int y, int quadrant, long rowArea, int firstX, int lastX) {
+		if (rowArea == 0) {
+			return;
+		}
+		area += rowArea;
+		quadrantAreas[quadrant] += rowArea;
+		minX = Math.min(minX, firstX);
+		maxX = Math.max(maxX, lastX);
+		minY = Math.min(minY, y);
+		maxY = Math.max(maxY, y);
+	}
+
+	private void add(PixelStatistics band) {
+		area += band.area;
+		for (int t = 0; t < quadrantAreas.length; t++) {
+			quadrantAreas[t] += band.quadrantAreas[t];
+		}
+		minX = Math.min(minX, band.minX);
+		maxX = Math.max(maxX, band.maxX);
+		minY = Math.min(minY, band.minY);
+		maxY = Math.max(maxY, band.maxY);
+	}
+
+	private static int getQuadrant(int x, int y, int width, int height) {
+		return (y < height / 2?TOP_LEFT:BOTTOM_LEFT) + (x < width / 2?0:1);
+	}
+
+	/*
+	 * Each pixel size has its own loop because the JIT only unrolls loops with a constant stride. Each loop remembers
+	 * the index of the last lit pixel, the first one is cheaper to find afterwards by searching from the start.
+	 */
+	private long countGray(byte[] data, int startIndex, int endIndex) {
+		long count = 0;
+		int lastLit = -1;
+		for (int index = startIndex; index < endIndex; index++) {
+			if (data[index] != 0) {
+				count++;
+				lastLit = index;
+			}
+		}
+		lastLitIndex = lastLit;
+		return count;
+	}
+
+	private long countBgr(byte[] data, int startIndex, int endIndex) {
+		long count = 0;
+		int lastLit = -1;
+		for (int index = startIndex; index < endIndex; index += 3) {
+			if (data[index] != 0 || data[index + 1] != 0 || data[index + 2] != 0) {
+				count++;
+				lastLit = index;
+			}
+		}
+		lastLitIndex = lastLit;
+		return count;
+	}
+
+	private long countAbgr(byte[] data, int startIndex, int endIndex) {
+		long count = 0;
+		int lastLit = -1;
+		for (int index = startIndex; index < endIndex; index += 4) {
+			if (data[index] != 0 || data[index + 1] != 0 || data[index + 2] != 0) {
+				count++;
+				lastLit = index;
+			}
+		}
+		lastLitIndex = lastLit;
+		return count;
+	}
+
+	private static boolean isLit(byte[] data, int index, int colorBytes) {
+		return colorBytes == 1?data[index] != 0:(data[index] | data[index + 1] | data[index + 2]) != 0;
+	}
+
+	/**
+	 * Counts a part of a row of a component image where each pixel is pixelStride bytes and colorBytes of them, starting
+	 * at the first byte, hold the color.
+	 */
+	private void countComponentRow(byte[] data, int rowOffset, int y, int startX, int endX, int pixelStride, int colorBytes) {
+		int startIndex = rowOffset + startX * pixelStride;
+		int endIndex = rowOffset + endX * pixelStride;
+		long rowArea = pixelStride == 1?countGray(data, startIndex, endIndex):
+			pixelStride == 3?countBgr(data, startIndex, endIndex):
+			countAbgr(data, startIndex, endIndex);
+		if (rowArea == 0) {
+			return;
+		}
+
+		//Only the pixels to the left of the bounds that have already been found can move them
+		int firstX = startX;
+		int firstXLimit = Math.min(minX, endX);
+		while (firstX < firstXLimit && !isLit(data, rowOffset + firstX * pixelStride, colorBytes)) {
+			firstX++;
+		}
+		addRow(y, getQuadrant(startX, y, width, height), rowArea, firstX, (lastLitIndex - rowOffset) / pixelStride);
+	}
+
+	/**
+	 * Counts a part of a row of a 1 bit image a byte at a time, only the bytes at the ends of the row need a mask.
+	 */
+	private void countPackedRow(byte[] data, int rowOffset, int y, int startX, int endX, int bitOffset) {
+		if (startX >= endX) {
+			return;
+		}
+		int firstBit = bitOffset + startX;
+		int lastBit = bitOffset + endX - 1;
+		long rowArea = 0;
+		int firstX = -1;
+		int lastX = -1;
+		for (int byteIndex = firstBit >> 3; byteIndex <= lastBit >> 3; byteIndex++) {
+			int bits = data[rowOffset + byteIndex] & 0xff;
+			if (byteIndex == firstBit >> 3) {
+				bits &= 0xff >> (firstBit & 7);
+			}
+			if (byteIndex == lastBit >> 3) {
+				bits &= 0xff << (7 - (lastBit & 7));
+			}
+			if (bits == 0) {
+				continue;
+			}
+			if (firstX < 0) {
+				firstX = byteIndex * 8 + Integer.numberOfLeadingZeros(bits) - 24 - bitOffset;
+			}
+			lastX = byteIndex * 8 + 7 - Integer.numberOfTrailingZeros(bits) - bitOffset;
+			rowArea += Integer.bitCount(bits);
+		}
+		addRow(y, getQuadrant(startX, y, width, height), rowArea, firstX, lastX);
+	}
+
+	private static PixelStatistics countBand(BufferedImage image, int firstY, int lastY) {
+		PixelStatistics statistics = new PixelStatistics(image.getWidth(), image.getHeight());
+		WritableRaster raster = image.getRaster();
+		byte[] data = ((DataBufferByte)raster.getDataBuffer()).getData();
+		int middleX = image.getWidth() / 2;
+		if (image.getType() == BufferedImage.TYPE_BYTE_BINARY) {
+			MultiPixelPackedSampleModel sampleModel = (MultiPixelPackedSampleModel)raster.getSampleModel();
+			for (int y = firstY; y <= lastY; y++) {
+				int rowOffset = y * sampleModel.getScanlineStride();
+				statistics.countPackedRow(data, rowOffset, y, 0, middleX, sampleModel.getDataBitOffset());
+				statistics.countPackedRow(data, rowOffset, y, middleX, image.getWidth(), sampleModel.getDataBitOffset());
+			}
+			return statistics;
+		}
+
+		ComponentSampleModel sampleModel = (ComponentSampleModel)raster.getSampleModel();
+		int pixelStride = sampleModel.getPixelStride();
+		//The alpha of a 4 byte image is the first byte and says nothing about whether a pixel is black
+		int firstColorByte = pixelStride == 4?1:0;
+		int colorBytes = pixelStride == 1?1:3;
+		for (int y = firstY; y <= lastY; y++) {
+			int rowOffset = y * sampleModel.getScanlineStride() + firstColorByte;
+			statistics.countComponentRow(data, rowOffset, y, 0, middleX, pixelStride, colorBytes);
+			statistics.countComponentRow(data, rowOffset, y, middleX, image.getWidth(), pixelStride, colorBytes);
+		}
+		return statistics;
+	}
+
+	public static boolean isSupported(BufferedImage image) {
+		WritableRaster raster = image.getRaster();
+		if (!(raster.getDataBuffer() instanceof DataBufferByte) || raster.getDataBuffer().getNumBanks() != 1 ||
+			raster.getDataBuffer().getOffset() != 0 || raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0) {
+			return false;
+		}
+
+		switch (image.getType()) {
+		case BufferedImage.TYPE_3BYTE_BGR:
+		case BufferedImage.TYPE_4BYTE_ABGR:
+		case BufferedImage.TYPE_4BYTE_ABGR_PRE:
+		case BufferedImage.TYPE_BYTE_GRAY:
+			return true;
+		case BufferedImage.TYPE_BYTE_BINARY:
+			return ((MultiPixelPackedSampleModel)raster.getSampleModel()).getPixelBitStride() == 1;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @param pool the pool that bands of rows are counted on, or null to count them on this thread
+	 * @throws IllegalArgumentException if the image isn't supported
+	 */
+	public static PixelStatistics compute(final BufferedImage image, ForkJoinPool pool) throws InterruptedException {
+		if (!isSupported(image)) {
+			throw new IllegalArgumentException("Pixel statistics can't be computed for images of type:" + image.getType());
+		}
+
+		int height = image.getHeight();
+		if (pool == null || pool.getParallelism() < 2 || (long)image.getWidth() * height < PARALLEL_PIXEL_THRESHOLD) {
+			return countBand(image, 0, height - 1);
+		}
+
+		int bandCount = Math.min(height, pool.getParallelism() * BANDS_PER_THREAD);
+		List<Callable<PixelStatistics>> bands = new ArrayList<>();
+		for (int band = 0; band < bandCount; band++) {
+			final int firstY = band * height / bandCount;
+			final int lastY = (band + 1) * height / bandCount - 1;
+			bands.add(() -> countBand(image, firstY, lastY));
+		}
+
+		PixelStatistics statistics = new PixelStatistics(image.getWidth(), height);
+		for (Future<PixelStatistics> band : pool.invokeAll(bands)) {
+			try {
+				statistics.add(band.get());
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException)e.getCause();
+				}
+				throw new IllegalStateException("Unable to count pixels", e.getCause());
+			}
+		}
+		return statistics;
+	}
+
+	@Override
+	public String toString() {
+		return "PixelStatistics [area=" + area + ", bounds=" + getBounds() +
+				", quadrants=" + quadrantAreas[TOP_LEFT] + "/" + quadrantAreas[TOP_RIGHT] + "/" + quadrantAreas[BOTTOM_LEFT] + "/" + quadrantAreas[BOTTOM_RIGHT] + "]";
+	}
+}
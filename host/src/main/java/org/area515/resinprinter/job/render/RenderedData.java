@@ -9,8 +9,10 @@ import org.area515.resinprinter.server.HostProperties;
 
 public class RenderedData {
 	private BufferedImage image;
+	private boolean printableImageBorrowed;
 	private BufferedImage preTransformedImage;
 	private Double area;
+	private PixelStatistics pixelStatistics;
 	private ReentrantLock lock = new ReentrantLock();
 	private ScriptEngine scriptEngine = HostProperties.Instance().buildScriptEngine();
 	
@@ -19,6 +21,22 @@ public class RenderedData {
 	
 	public void setPrintableImage(BufferedImage image) {
 		this.image = image;
+		this.printableImageBorrowed = false;
+	}
+	/**
+	 * Sets a printable image that was borrowed from the image pool of the RenderingCache, it's given back as soon as
+	 * the RenderingCache moves its pointer away from this data.
+	 */
+	public void setBorrowedPrintableImage(BufferedImage image) {
+		this.image = image;
+		this.printableImageBorrowed = true;
+	}
+	void givePrintableImageBack(ImageBufferPool imagePool) {
+		if (printableImageBorrowed) {
+			imagePool.giveBack(image);
+			image = null;
+			printableImageBorrowed = false;
+		}
 	}
 	public BufferedImage getPrintableImage() {
 		return this.image;
@@ -37,6 +55,13 @@ public class RenderedData {
 	public Double getArea() {
 		return this.area;
 	}
+
+	public PixelStatistics getPixelStatistics() {
+		return pixelStatistics;
+	}
+	public void setPixelStatistics(PixelStatistics pixelStatistics) {
+		this.pixelStatistics = pixelStatistics;
+	}
 	
 	public ReentrantLock getLock() {
 		return lock;
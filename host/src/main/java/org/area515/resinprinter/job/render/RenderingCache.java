@@ -22,6 +22,7 @@ public class RenderingCache {
 			});
 	
 	private Object currentImagePointer = Boolean.TRUE;
+	private ImageBufferPool imagePool = new ImageBufferPool();
 
 	public RenderedData getOrCreateIfMissing(Object imageToBuild) {
 		try {
@@ -52,7 +53,31 @@ public class RenderingCache {
 		return currentImagePointer;
 	}
 	
+	public ImageBufferPool getImagePool() {
+		return imagePool;
+	}
+	
+	/**
+	 * Moving the pointer means that the image of the old pointer has already been exposed and blanked, so the image it
+	 * borrowed is given back to the pool for the next slice to render into.
+	 */
 	public void setCurrentRenderingPointer(Object pointer) {
+		Object oldImagePointer = currentImagePointer;
 		currentImagePointer = pointer;
+		if (oldImagePointer.equals(pointer)) {
+			return;
+		}
+		
+		RenderedData oldData = imageSync.getIfPresent(oldImagePointer);
+		if (oldData != null) {
+			ReentrantLock lock = oldData.getLock();
+			lock.lock();
+			try {
+				oldData.givePrintableImageBack(imagePool);
+			} finally {
+				lock.unlock();
+			}
+			logger.debug("Rendering pointer moved to {}:{}", pointer, imagePool);
+		}
 	}
 }
\ No newline at end of file
@@ -137,6 +137,12 @@ public class MachineConfig implements Named {
 	private Boolean overrideModelNormalsWithRightHandRule;
 	@XmlElement(name="RestartSerialOnTimeout")
 	private Boolean restartSerialOnTimeout;
+	@XmlElement(name="GCodeCommandsInFlight")
+	private Integer gCodeCommandsInFlight;
+	@XmlElement(name="GCodeBytesInFlight")
+	private Integer gCodeBytesInFlight;
+	@XmlElement(name="RenderingFormat")
+	private RenderingFormat renderingFormat;
 	private String name;
 
 	@XmlTransient
@@ -249,6 +255,38 @@ public class MachineConfig implements Named {
 	public void setRestartSerialOnTimeout(Boolean restartSerialOnTimeout) {
 		this.restartSerialOnTimeout = restartSerialOnTimeout;
 	}
+	
+	/**
+	 * The number of gcodes that can be sent before the first of them is acknowledged. This should be no larger than
+	 * the command buffer of the firmware(BUFSIZE in Marlin). null or 1 sends one gcode at a time.
+	 */
+	@XmlTransient
+	public Integer getGCodeCommandsInFlight() {
+		return gCodeCommandsInFlight;
+	}
+	public void setGCodeCommandsInFlight(Integer gCodeCommandsInFlight) {
+		this.gCodeCommandsInFlight = gCodeCommandsInFlight;
+	}
+	
+	/**
+	 * The number of bytes of unacknowledged gcode that the serial receive buffer of the firmware can hold. null means
+	 * only GCodeCommandsInFlight limits what's sent.
+	 */
+	@XmlTransient
+	public Integer getGCodeBytesInFlight() {
+		return gCodeBytesInFlight;
+	}
+	public void setGCodeBytesInFlight(Integer gCodeBytesInFlight) {
+		this.gCodeBytesInFlight = gCodeBytesInFlight;
+	}
+	
+	@XmlTransient
+	public RenderingFormat getRenderingFormat() {
+		return renderingFormat;
+	}
+	public void setRenderingFormat(RenderingFormat renderingFormat) {
+		this.renderingFormat = renderingFormat;
+	}
 
 
 	@XmlTransient
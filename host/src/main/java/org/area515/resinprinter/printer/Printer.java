@@ -203,6 +203,14 @@ public class Printer {
 		refreshFrame.showImage(image, performFullUpdate);
 	}
 	
+	/**
+	 * @param litBounds the part of the image that isn't black or null if it isn't known
+	 * @return the System.nanoTime() at which the image was presented on the display
+	 */
+	public long showImageAndWait(BufferedImage image, Rectangle litBounds, boolean performFullUpdate) throws InterruptedException {
+		return refreshFrame.showImageAndWait(image, litBounds, performFullUpdate);
+	}
+	
 	@JsonIgnore
 	@XmlTransient
 	public boolean isDisplayBusy() {
@@ -323,6 +331,9 @@ public class Printer {
 	}
 	
 	public void close() {
+		if (gCodeControl != null) {
+			gCodeControl.close();
+		}
 		if (printerFirmwareSerialPort != null) {
 			printerFirmwareSerialPort.close();
 		}
@@ -0,0 +1,34 @@
+package org.area515.resinprinter.printer;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * The kind of image that slices are rendered into for a printer.
+ *
+ * An exposure is only ever a mask of light, so printers that can't show color don't need 4 bytes per pixel. Gray keeps
+ * every level of light that a bulb mask or anti aliasing can produce in 1 byte per pixel. Monochrome is for LCDs that
+ * are either on or off and packs 8 pixels into every byte, anything that isn't white enough to be on turns off.
+ */
+public enum RenderingFormat {
+	Color(BufferedImage.TYPE_4BYTE_ABGR),
+	Gray(BufferedImage.TYPE_BYTE_GRAY),
+	Monochrome(BufferedImage.TYPE_BYTE_BINARY);
+
+	private int imageType;
+
+	RenderingFormat(int imageType) {
+		this.imageType = imageType;
+	}
+
+	public int getImageType() {
+		return imageType;
+	}
+
+	public boolean isGrayLevelsSupported() {
+		return this != Monochrome;
+	}
+
+	public BufferedImage buildImage(int width, int height) {
+		return new BufferedImage(width, height, imageType);
+	}
+}
@@ -1,5 +1,7 @@
 package org.area515.resinprinter.serial;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.area515.resinprinter.printer.ComPortSettings;
@@ -10,8 +12,8 @@ public class ConsoleCommPort implements SerialCommunicationsPort {
 	private static int consoleNumber = 0;
 	
 	private String name = GCODE_RESPONSE_SIMULATION;
-	private int readCount;
-	private int timeout;
+	private volatile boolean chitChatSent;
+	private AtomicInteger pendingResponses = new AtomicInteger();
 	
 	private ConsoleCommPort() {
 	}
@@ -29,8 +31,8 @@ public class ConsoleCommPort implements SerialCommunicationsPort {
 	
 	@Override
 	public void open(String printerName, int timeout, ComPortSettings settings) {
-		readCount = 0;
-		this.timeout = timeout;
+		chitChatSent = false;
+		pendingResponses.set(0);
 		logger.info("Printer opened");
 	}
 
@@ -52,19 +54,22 @@ public class ConsoleCommPort implements SerialCommunicationsPort {
 	@Override
 	public void write(byte[] gcode) {
 		logger.info("Printer received:{}", new String(gcode));
+		for (byte current : gcode) {
+			if (current == '\n') {
+				pendingResponses.incrementAndGet();
+			}
+		}
 	}
 
 	@Override
 	public byte[] read() {
-		switch (readCount) {
-		case 0:
-			readCount = 1;
+		if (!chitChatSent) {
+			chitChatSent = true;
 			return "Console chitchat\n".getBytes();
-		case 1:
-			try {
-				Thread.sleep(timeout+1);
-			} catch (InterruptedException e) {}
-			readCount = 2;
+		}
+		
+		//Every line that was written gets exactly one ok, so a reader that keeps reading doesn't see extra responses
+		if (pendingResponses.getAndUpdate(pending -> pending > 0?pending - 1:0) == 0) {
 			return null;
 		}
 		
@@ -0,0 +1,188 @@
+package org.area515.resinprinter.serial;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Reads a serial port on its own thread and splits what arrives into lines, so that the thread waiting for a
+ * response blocks on a queue instead of sleeping between reads.
+ *
+ * Every line is matched against the response pattern as soon as it's complete, so a waiting thread is handed a line
+ * that already knows whether it ends a response(ok, error, alarm...). The ports only have a non blocking read, so
+ * the reader polls them itself. It polls every few milliseconds while responses are outstanding and backs off further
+ * when nothing is expected.
+ */
+public class SerialLineReader implements Runnable {
+    private static final Logger logger = LogManager.getLogger();
+	public static final int MIN_IDLE_DELAY_MICROS = 500;
+	public static final int MAX_WAITING_DELAY_MICROS = 2000;
+	public static final int MAX_IDLE_DELAY_MICROS = 10000;
+
+	public static class Line {
+		private String text;
+		private Matcher matcher;
+
+		private Line(String text, Matcher matcher) {
+			this.text = text;
+			this.matcher = matcher;
+		}
+
+		/**
+		 * @return the line including its line terminator
+		 */
+		public String getText() {
+			return text;
+		}
+
+		/**
+		 * @return the matcher of the response pattern against this line or null if the line doesn't end a response
+		 */
+		public Matcher getResponseMatcher() {
+			return matcher;
+		}
+
+		public String toString() {
+			return text;
+		}
+	}
+
+	private SerialCommunicationsPort port;
+	private Pattern responsePattern;
+	private BlockingQueue<Line> lines = new LinkedBlockingQueue<Line>();
+	private StringBuilder partialLine = new StringBuilder();
+	private volatile IOException exceptionThrown;
+	private volatile long idleDelayMicros = MIN_IDLE_DELAY_MICROS;
+	private AtomicInteger outstandingResponses = new AtomicInteger();
+	private volatile boolean running = true;
+	private Thread thread;
+
+	public SerialLineReader(SerialCommunicationsPort port, Pattern responsePattern) {
+		this.port = port;
+		this.responsePattern = responsePattern;
+		thread = new Thread(this, "SerialLineReader:" + port);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public SerialCommunicationsPort getPort() {
+		return port;
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			byte[] data = null;
+			try {
+				data = port.read();
+			} catch (IOException e) {
+				//The waiting thread gets the exception, the port might come back after restartCommunications()
+				exceptionThrown = e;
+				idleDelayMicros = MAX_IDLE_DELAY_MICROS;
+			} catch (RuntimeException e) {
+				logger.error("Problem reading from:" + port, e);
+				idleDelayMicros = MAX_IDLE_DELAY_MICROS;
+			}
+
+			if (data != null && data.length > 0) {
+				addData(new String(data));
+				idleDelayMicros = MIN_IDLE_DELAY_MICROS;
+			} else {
+				LockSupport.parkNanos(this, idleDelayMicros * 1000);
+				idleDelayMicros = Math.min(idleDelayMicros * 2, outstandingResponses.get() > 0?MAX_WAITING_DELAY_MICROS:MAX_IDLE_DELAY_MICROS);
+			}
+		}
+	}
+
+	private void addData(String data) {
+		partialLine.append(data);
+		int lineStart = 0;
+		for (int t = 0; t < partialLine.length(); t++) {
+			if (partialLine.charAt(t) == '\n') {
+				String text = partialLine.substring(lineStart, t + 1);
+				Matcher matcher = responsePattern != null?responsePattern.matcher(text):null;
+				if (matcher != null && matcher.matches()) {
+					outstandingResponses.getAndUpdate(outstanding -> outstanding > 0?outstanding - 1:0);
+				} else {
+					matcher = null;
+				}
+				lines.add(new Line(text, matcher));
+				lineStart = t + 1;
+			}
+		}
+		partialLine.delete(0, lineStart);
+	}
+
+	/**
+	 * Call this after writing a line to the port so that its response is picked up as soon as it arrives.
+	 */
+	public void expectResponse() {
+		outstandingResponses.incrementAndGet();
+		idleDelayMicros = MIN_IDLE_DELAY_MICROS;
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * @return the number of responses that were expected with expectResponse() and haven't arrived yet
+	 */
+	public int getOutstandingResponses() {
+		return outstandingResponses.get();
+	}
+
+	/**
+	 * Throws away the lines that haven't been read yet and forgets about the responses that are still expected. Call
+	 * this after the waiting thread gave up on a response, so that nothing that arrived for an earlier line is taken
+	 * as the response of a later one.
+	 */
+	public void clear() {
+		lines.clear();
+		outstandingResponses.set(0);
+	}
+
+	/**
+	 * Waits for the next complete line.
+	 *
+	 * @return the line or null if no line arrived before the timeout
+	 * @throws IOException if the port failed since the last call
+	 */
+	public Line readLine(long timeoutMillis) throws IOException, InterruptedException {
+		IOException e = exceptionThrown;
+		if (e != null) {
+			exceptionThrown = null;
+			throw e;
+		}
+
+		return lines.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the reader thread and waits for it so that nothing else is reading the port afterwards.
+	 */
+	public void close() {
+		running = false;
+		LockSupport.unpark(thread);
+		if (Thread.currentThread() != thread) {
+			try {
+				thread.join(MAX_IDLE_DELAY_MICROS / 1000 * 10);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	public boolean isRunning() {
+		return thread.isAlive();
+	}
+
+	public String toString() {
+		return thread.getName();
+	}
+}
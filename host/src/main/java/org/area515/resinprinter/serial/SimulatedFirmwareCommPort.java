@@ -0,0 +1,396 @@
+package org.area515.resinprinter.serial;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.area515.resinprinter.printer.ComPortSettings;
+
+/**
+ * A serial port that behaves like a Marlin or Grbl firmware, including how long things take, so that the gcode sender
+ * and the print loop can be load tested without a printer. ConsoleCommPort answers every line right away, this port:
+ *
+ * - delays every byte in both directions by the baud rate and adds a fixed latency to every write and response
+ * - acknowledges G0/G1 as soon as the move fits in the planner queue and runs the moves one after the other at their
+ * feed rate(mm/min)
+ * - holds back the ok of M400 and G4 until the planner queue has run dry(plus the dwell for G4)
+ * - drops lines that don't fit in the receive buffer
+ * - answers lines that match an injected fault with a scripted response or not at all
+ *
+ * Everything is computed from the time that the bytes are written, so the responses only depend on the clock. Tests
+ * can pass their own clock with setClock() to make the port completely deterministic, and setTimeScale() shrinks or
+ * stretches every duration that the port simulates.
+ */
+public class SimulatedFirmwareCommPort implements SerialCommunicationsPort {
+    private static final Logger logger = LogManager.getLogger();
+	public static final String SIMULATED_FIRMWARE = "Simulated firmware";
+	private static final Pattern PARAMETER_PATTERN = Pattern.compile("([A-Z])\\s*([-+]?[0-9]*\\.?[0-9]+)", Pattern.CASE_INSENSITIVE);
+	private static final String AXES = "XYZE";
+
+	private static class Fault {
+		private Pattern gcodePattern;
+		private String response;
+		private int remaining;
+	}
+
+	private static class Response {
+		private long time;
+		private String text;
+	}
+
+	private String name = SIMULATED_FIRMWARE;
+	private int baudRate = 115200;
+	private long latencyMicros;
+	private long processingMicros;
+	private int plannerQueueDepth = 16;
+	private int receiveBufferBytes;
+	private double defaultFeedRate = 600;
+	private double timeScale = 1.0;
+	private String welcomeMessage = "start\n";
+	private LongSupplier clock = System::nanoTime;
+
+	private StringBuilder partialLine = new StringBuilder();
+	private long receiveLinkFree = Long.MIN_VALUE;
+	private long sendLinkFree = Long.MIN_VALUE;
+	private long commandDone = Long.MIN_VALUE;
+	private Deque<Long> plannedMoveEnds = new ArrayDeque<Long>();
+	private Deque<long[]> bufferedLines = new ArrayDeque<long[]>();
+	private int bufferedBytes;
+	private Deque<Response> responses = new ArrayDeque<Response>();
+	private List<Fault> faults = new ArrayList<Fault>();
+	private boolean relative;
+	private double feedRate;
+	private double[] position = new double[AXES.length()];
+
+	private List<String> received = new ArrayList<String>();
+	private List<String> droppedLines = new ArrayList<String>();
+	private int maxPlannedMoves;
+	private long motionNanos;
+
+	public SimulatedFirmwareCommPort() {
+		reset();
+	}
+
+	private void reset() {
+		partialLine.setLength(0);
+		receiveLinkFree = Long.MIN_VALUE;
+		sendLinkFree = Long.MIN_VALUE;
+		commandDone = Long.MIN_VALUE;
+		plannedMoveEnds.clear();
+		bufferedLines.clear();
+		bufferedBytes = 0;
+		responses.clear();
+		relative = false;
+		feedRate = defaultFeedRate;
+		position = new double[AXES.length()];
+	}
+
+	private long scale(double nanos) {
+		return (long)(nanos * timeScale);
+	}
+
+	private long transmitNanos(int bytes) {
+		return baudRate <= 0?0:scale(bytes * 10 * 1e9 / baudRate);
+	}
+
+	@Override
+	public synchronized void open(String printerName, int timeout, ComPortSettings settings) {
+		reset();
+		if (welcomeMessage != null) {
+			respond(clock.getAsLong(), welcomeMessage);
+		}
+		logger.info("Simulated firmware opened");
+	}
+
+	@Override
+	public void close() {
+		logger.info("Simulated firmware closed");
+	}
+
+	@Override
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public synchronized void write(byte[] data) {
+		long now = clock.getAsLong();
+		long firstByte = Math.max(now + scale(latencyMicros * 1000), receiveLinkFree);
+		int lineBytes = partialLine.length();
+		for (int t = 0; t < data.length; t++) {
+			partialLine.append((char)data[t]);
+			lineBytes++;
+			if (data[t] == '\n') {
+				receiveLine(partialLine.toString(), firstByte + transmitNanos(t + 1), lineBytes);
+				partialLine.setLength(0);
+				lineBytes = 0;
+			}
+		}
+		receiveLinkFree = firstByte + transmitNanos(data.length);
+	}
+
+	@Override
+	public synchronized byte[] read() {
+		long now = clock.getAsLong();
+		StringBuilder arrived = null;
+		while (!responses.isEmpty() && responses.peek().time <= now) {
+			if (arrived == null) {
+				arrived = new StringBuilder();
+			}
+			arrived.append(responses.poll().text);
+		}
+		return arrived == null?null:arrived.toString().getBytes();
+	}
+
+	@Override
+	public synchronized void restartCommunications() {
+		partialLine.setLength(0);
+	}
+
+	private void respond(long time, String text) {
+		long arrival = Math.max(time + scale(latencyMicros * 1000), sendLinkFree) + transmitNanos(text.length());
+		sendLinkFree = arrival;
+		Response response = new Response();
+		response.time = arrival;
+		response.text = text;
+		responses.add(response);
+	}
+
+	private static String stripLine(String line) {
+		int comment = line.indexOf(';');
+		if (comment >= 0) {
+			line = line.substring(0, comment);
+		}
+		int checksum = line.indexOf('*');
+		if (checksum >= 0) {
+			line = line.substring(0, checksum);
+		}
+		line = line.trim();
+		if (line.length() > 0 && Character.toUpperCase(line.charAt(0)) == 'N') {
+			line = line.replaceFirst("^[Nn]\\d+\\s*", "");
+		}
+		return line;
+	}
+
+	private void receiveLine(String line, long arrival, int bytes) {
+		//Lines that the firmware has started on are out of the receive buffer
+		while (!bufferedLines.isEmpty() && bufferedLines.peek()[0] <= arrival) {
+			bufferedBytes -= bufferedLines.poll()[1];
+		}
+
+		String gcode = stripLine(line);
+		if (receiveBufferBytes > 0 && bufferedBytes + bytes > receiveBufferBytes) {
+			logger.info("Simulated firmware receive buffer overflowed, dropped:{}", gcode);
+			droppedLines.add(gcode);
+			return;
+		}
+		if (gcode.length() == 0) {
+			return;
+		}
+
+		received.add(gcode);
+		long start = Math.max(arrival, commandDone);
+		bufferedLines.add(new long[] {start, bytes});
+		bufferedBytes += bytes;
+
+		Fault fault = findFault(gcode);
+		if (fault != null) {
+			commandDone = start + scale(processingMicros * 1000);
+			if (fault.response != null) {
+				respond(commandDone, fault.response);
+			}
+			return;
+		}
+
+		commandDone = execute(gcode, start);
+		respond(commandDone, "ok\n");
+	}
+
+	private Fault findFault(String gcode) {
+		Iterator<Fault> iterator = faults.iterator();
+		while (iterator.hasNext()) {
+			Fault fault = iterator.next();
+			if (fault.gcodePattern.matcher(gcode).matches()) {
+				if (--fault.remaining <= 0) {
+					iterator.remove();
+				}
+				return fault;
+			}
+		}
+		return null;
+	}
+
+	private long lastMoveEnd(long time) {
+		return plannedMoveEnds.isEmpty()?time:Math.max(time, plannedMoveEnds.peekLast());
+	}
+
+	/**
+	 * @return the time that the firmware is done with the gcode and sends its ok
+	 */
+	private long execute(String gcode, long start) {
+		Matcher matcher = PARAMETER_PATTERN.matcher(gcode);
+		if (!matcher.lookingAt()) {
+			return start + scale(processingMicros * 1000);
+		}
+		String command = matcher.group(1).toUpperCase() + (int)Double.parseDouble(matcher.group(2));
+		//The axes, then the feed rate and then the dwell in milliseconds
+		int feed = AXES.length();
+		int dwell = AXES.length() + 1;
+		double[] values = new double[AXES.length() + 2];
+		boolean[] present = new boolean[AXES.length() + 2];
+		Matcher parameters = PARAMETER_PATTERN.matcher(gcode.substring(matcher.end()));
+		while (parameters.find()) {
+			char letter = Character.toUpperCase(parameters.group(1).charAt(0));
+			double value = Double.parseDouble(parameters.group(2));
+			int index = letter == 'F'?feed:letter == 'P' || letter == 'S'?dwell:AXES.indexOf(letter);
+			if (index >= 0) {
+				values[index] = letter == 'S'?value * 1000:value;
+				present[index] = true;
+			}
+		}
+
+		long done = start + scale(processingMicros * 1000);
+		switch (command) {
+		case "G0":
+		case "G1":
+			if (present[feed] && values[feed] > 0) {
+				feedRate = values[feed];
+			}
+			double distance = 0;
+			for (int axis = 0; axis < AXES.length() - 1; axis++) {
+				distance += moveAxis(axis, values[axis], present[axis]);
+			}
+			distance = Math.sqrt(distance);
+			double extrusion = Math.sqrt(moveAxis(AXES.length() - 1, values[AXES.length() - 1], present[AXES.length() - 1]));
+			long duration = feedRate <= 0?0:scale((distance > 0?distance:extrusion) / (feedRate / 60) * 1e9);
+
+			//The ok only comes back once the move has a place in the planner queue
+			while (!plannedMoveEnds.isEmpty() && plannedMoveEnds.peek() <= start) {
+				plannedMoveEnds.poll();
+			}
+			if (plannedMoveEnds.size() >= plannerQueueDepth) {
+				start = plannedMoveEnds.poll();
+				done = start + scale(processingMicros * 1000);
+			}
+			plannedMoveEnds.add(lastMoveEnd(start) + duration);
+			maxPlannedMoves = Math.max(maxPlannedMoves, plannedMoveEnds.size());
+			motionNanos += duration;
+			return done;
+		case "G4":
+			done = lastMoveEnd(start) + scale(values[dwell] * 1000000) + scale(processingMicros * 1000);
+			plannedMoveEnds.clear();
+			return done;
+		case "M400":
+			done = lastMoveEnd(start) + scale(processingMicros * 1000);
+			plannedMoveEnds.clear();
+			return done;
+		case "G90":
+			relative = false;
+			return done;
+		case "G91":
+			relative = true;
+			return done;
+		case "G92":
+			for (int axis = 0; axis < AXES.length(); axis++) {
+				if (present[axis]) {
+					position[axis] = values[axis];
+				}
+			}
+			return done;
+		default:
+			return done;
+		}
+	}
+
+	//Returns the square of the distance that the axis moved
+	private double moveAxis(int axis, double value, boolean present) {
+		if (!present) {
+			return 0;
+		}
+		double delta = relative?value:value - position[axis];
+		position[axis] += delta;
+		return delta * delta;
+	}
+
+	/**
+	 * Answers the next matching gcodes with the response instead of running them(e.g. "Error: Printer halted\n").
+	 */
+	public synchronized void injectResponse(String gcodeRegex, String response, int times) {
+		Fault fault = new Fault();
+		fault.gcodePattern = Pattern.compile(gcodeRegex, Pattern.CASE_INSENSITIVE);
+		fault.response = response;
+		fault.remaining = times;
+		faults.add(fault);
+	}
+
+	/**
+	 * Never answers the next matching gcodes, so the sender runs into its response timeout.
+	 */
+	public synchronized void injectTimeout(String gcodeRegex, int times) {
+		injectResponse(gcodeRegex, null, times);
+	}
+
+	public void setBaudRate(int baudRate) {
+		this.baudRate = baudRate;
+	}
+	public void setLatencyMicros(long latencyMicros) {
+		this.latencyMicros = latencyMicros;
+	}
+	public void setProcessingMicros(long processingMicros) {
+		this.processingMicros = processingMicros;
+	}
+	public void setPlannerQueueDepth(int plannerQueueDepth) {
+		this.plannerQueueDepth = plannerQueueDepth;
+	}
+	public void setReceiveBufferBytes(int receiveBufferBytes) {
+		this.receiveBufferBytes = receiveBufferBytes;
+	}
+	public void setDefaultFeedRate(double defaultFeedRate) {
+		this.defaultFeedRate = defaultFeedRate;
+		this.feedRate = defaultFeedRate;
+	}
+	public void setTimeScale(double timeScale) {
+		this.timeScale = timeScale;
+	}
+	public void setWelcomeMessage(String welcomeMessage) {
+		this.welcomeMessage = welcomeMessage;
+	}
+	public void setClock(LongSupplier nanoClock) {
+		this.clock = nanoClock;
+	}
+
+	/**
+	 * @return the gcodes that the firmware received without comments, line numbers and checksums
+	 */
+	public synchronized List<String> getReceived() {
+		return new ArrayList<String>(received);
+	}
+	public synchronized List<String> getDroppedLines() {
+		return new ArrayList<String>(droppedLines);
+	}
+	public synchronized int getMaxPlannedMoves() {
+		return maxPlannedMoves;
+	}
+	/**
+	 * @return the time that the simulated moves take, without any time that the planner waited for gcodes
+	 */
+	public synchronized long getMotionMillis() {
+		return motionNanos / 1000000;
+	}
+
+	public String toString() {
+		return name;
+	}
+}
@@ -80,6 +80,12 @@ public class HostProperties {
 	private boolean removeJobOnCompletion = true;
 	private boolean forceCalibrationOnFirstUse = false;
 	private boolean limitLiveStreamToOneCPU = false;
+	private int slicerParallelism;
+	private boolean preSliceStlFiles = false;
+	private boolean dispManXRGB565 = false;
+	private File sliceCacheDir;
+	private long sliceCacheMaxBytes;
+	private long sliceCacheMaxAgeMillis;
 	private ConcurrentHashMap<String, PrinterConfiguration> configurations;
 	private Map<Class<Feature>, String> featureClasses = new HashMap<Class<Feature>, String>();
 	private List<Class<Notifier>> notificationClasses = new ArrayList<Class<Notifier>>();
@@ -305,6 +311,20 @@ public class HostProperties {
 		removeJobOnCompletion = new Boolean(configurationProperties.getProperty("removeJobOnCompletion", "true"));
 		forceCalibrationOnFirstUse = new Boolean(configurationProperties.getProperty("forceCalibrationOnFirstUse", "false"));
 		limitLiveStreamToOneCPU = new Boolean(configurationProperties.getProperty("limitLiveStreamToOneCPU", "false"));
+		slicerParallelism = new Integer(configurationProperties.getProperty("slicerParallelism", Runtime.getRuntime().availableProcessors() + ""));
+		if (slicerParallelism < 1) {
+			slicerParallelism = 1;
+		}
+		preSliceStlFiles = new Boolean(configurationProperties.getProperty("preSliceStlFiles", "false"));
+		dispManXRGB565 = new Boolean(configurationProperties.getProperty("dispManXRGB565", "false"));
+		String sliceCacheDirString = configurationProperties.getProperty("sliceCacheDir");
+		if (sliceCacheDirString == null) {
+			sliceCacheDir = new File(System.getProperty("user.home"), "sliceCache");
+		} else {
+			sliceCacheDir = new File(sliceCacheDirString);
+		}
+		sliceCacheMaxBytes = new Long(configurationProperties.getProperty("sliceCacheMaxMB", "2048")) * 1024 * 1024;
+		sliceCacheMaxAgeMillis = new Long(configurationProperties.getProperty("sliceCacheMaxAgeDays", "30")) * 24 * 60 * 60 * 1000;
 		scriptEngineLanguage = configurationProperties.getProperty("scriptEngineLanguage", "js");
 		printerProfileRepo = configurationProperties.getProperty("printerProfileRepo", "WesGilster/Creation-Workshop-Host");
 		
@@ -567,6 +587,34 @@ public class HostProperties {
 		return limitLiveStreamToOneCPU;
 	}
 
+	public int getSlicerParallelism() {
+		return slicerParallelism;
+	}
+
+	public boolean isPreSliceStlFiles() {
+		return preSliceStlFiles;
+	}
+
+	public boolean isDispManXRGB565() {
+		return dispManXRGB565;
+	}
+
+	public File getSliceCacheDir() {
+		return sliceCacheDir;
+	}
+
+	public long getSliceCacheMaxBytes() {
+		return sliceCacheMaxBytes;
+	}
+
+	public long getSliceCacheMaxAgeMillis() {
+		return sliceCacheMaxAgeMillis;
+	}
+
+	public File getPrinterDir() {
+		return printerDir;
+	}
+
 	public List<String> getVisibleCards() {
 		return visibleCards;
 	}
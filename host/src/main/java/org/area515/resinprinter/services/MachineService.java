@@ -74,6 +74,7 @@ import org.area515.resinprinter.notification.NotificationManager;
 import org.area515.resinprinter.printer.MachineConfig;
 import org.area515.resinprinter.printer.SlicingProfile;
 import org.area515.resinprinter.serial.SerialCommunicationsPort;
+import org.area515.resinprinter.slice.SlicingPool;
 import org.area515.resinprinter.serial.SerialManager;
 import org.area515.resinprinter.server.CwhEmailSettings;
 import org.area515.resinprinter.server.HostInformation;
@@ -264,6 +265,19 @@ public class MachineService {
 		return fileTypes;
 	}
 	
+    @ApiOperation(value="Retrieves the current load on the shared slicing pool. "
+    		+ "A queuedTaskCount or queuedSubmissionCount that stays above zero means that the host has too few cores for the slicing work it's been given. "
+    		+ "The parallelism of this pool is set with the slicerParallelism setting in config.properties.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = SwaggerMetadata.SUCCESS),
+            @ApiResponse(code = 500, message = SwaggerMetadata.UNEXPECTED_ERROR)})
+	@GET
+	@Path("slicingPool/statistics")
+	@Produces(MediaType.APPLICATION_JSON)
+	public SlicingPool.Statistics getSlicingPoolStatistics() {
+		return SlicingPool.getStatistics();
+	}
+	
     @ApiOperation(value="Upload TrueType fonts to be used with 2D file processing settings.")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = SwaggerMetadata.SUCCESS),
@@ -20,7 +20,6 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.annotation.security.RolesAllowed;
-import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
@@ -45,6 +44,7 @@ import org.area515.resinprinter.job.InkDetector;
 import org.area515.resinprinter.job.JobManagerException;
 import org.area515.resinprinter.job.PrintJob;
 import org.area515.resinprinter.job.PrintJobManager;
+import org.area515.resinprinter.job.render.BulbMask;
 import org.area515.resinprinter.job.render.StubPrintFileProcessor;
 import org.area515.resinprinter.printer.BuildDirection;
 import org.area515.resinprinter.printer.ComPortSettings;
@@ -63,6 +63,7 @@ import org.area515.resinprinter.serial.SerialManager;
 import org.area515.resinprinter.server.HostProperties;
 import org.area515.resinprinter.services.TestingResult.ChartData;
 import org.area515.resinprinter.util.security.PhotonicUser;
+import org.area515.util.PrintJobScriptContext;
 import org.area515.util.TemplateEngine;
 
 @Api(value="printers")
@@ -216,6 +217,20 @@ public class PrinterService {
 		}
 	}
 
+    @ApiOperation(value="Deletes the stored bulb mask of the Printer specified by the printername, so the next print rasterizes it from the projector gradient script again.")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, response=MachineResponse.class, message = SwaggerMetadata.MACHINE_RESPONSE),
+            @ApiResponse(code = 500, message = SwaggerMetadata.UNEXPECTED_ERROR)})
+	@GET
+	@POST
+	@DELETE
+	@Path("clearBulbMask/{printername}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public MachineResponse clearBulbMask(@PathParam("printername") String printerName) {
+		int deletedMasks = BulbMask.delete(HostProperties.Instance().getPrinterDir(), printerName);
+		return new MachineResponse("clearBulbMask", true, "Deleted " + deletedMasks + " bulb masks of:" + printerName);
+	}
+
 	//TODO: We need to synchronize on this printer to make sure it isn't in use.
     @ApiOperation(value="Saves the Printer.")
     @ApiResponses(value = {
@@ -929,7 +944,8 @@ public class PrinterService {
 				expectedReturnType = Class.forName(expectedReturnTypeString);
 			}
 
-			ScriptEngine engine = HostProperties.Instance().buildScriptEngine();
+			//The engine is thrown away after this test, so its context isn't kept on the job
+			PrintJobScriptContext scriptContext = new PrintJobScriptContext(job, printer, HostProperties.Instance().buildScriptEngine());
 			
 			if (chartData == null) {
 				BufferedImage imageToDisplay = new BufferedImage(200, 200, BufferedImage.TYPE_4BYTE_ABGR_PRE);
@@ -937,7 +953,7 @@ public class PrinterService {
 
 				Map<String, Object> overrides = new HashMap<>();
 				overrides.put("affineTransform", new AffineTransform());
-				Object returnObject = TemplateEngine.runScriptInImagingContext(imageToDisplay, targetImage, job, printer, engine, overrides, javascript, scriptName, false);
+				Object returnObject = TemplateEngine.runScriptInImagingContext(imageToDisplay, targetImage, scriptContext, overrides, javascript, scriptName, false);
 				//Object returnObject = TemplateEngine.runScript(job, printer, engine, javascript, scriptName, buildPrintInProgressSimulation());
 				
 				if (expectedReturnType.equals(Void.class)) {
@@ -967,7 +983,7 @@ public class PrinterService {
 					bindings.put(currentData.getName(), currentDataValue);
 					chart.getLabels()[valueIndex] = currentData.getName() + ":" + currentDataValue;
 					
-					Object returnObject = TemplateEngine.runScript(job, printer, engine, javascript, scriptName, bindings);
+					Object returnObject = scriptContext.eval(javascript, scriptName, bindings);
 					if (returnObject == null) {
 						TestingResult result = new TestingResult("You returned a null from your script.", -1);
 						return result;
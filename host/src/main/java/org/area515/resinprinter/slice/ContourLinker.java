@@ -0,0 +1,287 @@
+package org.area515.resinprinter.slice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.area515.resinprinter.stl.Line3d;
+import org.area515.resinprinter.stl.Mesh3d;
+
+/**
+ * Joins the lines of a single slice into outlines by walking the edge adjacency of a welded mesh.
+ *
+ * A line that ends part way along an edge continues with the line of the facet on the other side of that edge,
+ * so most joins are a single array lookup and no coordinates are ever compared. Lines that end right on a vertex,
+ * or on an edge that isn't shared by exactly two facets, are joined through the topological key of their end point.
+ *
+ * Lines that can't be joined into a closed loop are handed back as open chains for the coordinate based linkage search.
+ *
+ * The facets of every chain are remembered in order, so a following slice that doesn't pass a vertex can be relinked
+ * from them without searching for facets or walking the adjacency again.
+ */
+public class ContourLinker {
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private Mesh3d mesh;
+	//The line that each facet produced in the current slice or -1
+	private int[] lineByFacet;
+	private Line3d[] lines = new Line3d[INITIAL_CAPACITY];
+	private int[] facets = new int[INITIAL_CAPACITY];
+	private long[] startKeys = new long[INITIAL_CAPACITY];
+	private long[] endKeys = new long[INITIAL_CAPACITY];
+	private int[] startEdges = new int[INITIAL_CAPACITY];
+	private int[] endEdges = new int[INITIAL_CAPACITY];
+	private int lineCount;
+	private long[] endpoints = new long[4];
+
+	//The facets of every chain found by the last call to link(), closed loops first
+	private int[] linkedFacets = new int[INITIAL_CAPACITY];
+	private int[] linkedChainStarts;
+	private int linkedFacetCount;
+	private int linkedChainCount;
+	private int closedChainCount;
+
+	//Only valid while a slice is being linked
+	private boolean[] used;
+	private Map<Long, Integer> firstByStartKey;
+	private int[] nextWithSameStart;
+	private int[] chainByFirstLine;
+
+	public ContourLinker(Mesh3d mesh) {
+		this.mesh = mesh;
+		lineByFacet = new int[mesh.getFacetCount()];
+		Arrays.fill(lineByFacet, -1);
+	}
+
+	/**
+	 * Intersects a facet with the plane at z and keeps the line for linking.
+	 *
+	 * @return the line that was added or null if the facet doesn't cross the plane
+	 */
+	public Line3d addFacet(int facet, double z) {
+		Line3d line = mesh.getZIntersection(facet, z, endpoints);
+		if (line == null) {
+			return null;
+		}
+
+		if (lineCount == lines.length) {
+			int newLength = lineCount * 2;
+			lines = Arrays.copyOf(lines, newLength);
+			facets = Arrays.copyOf(facets, newLength);
+			startKeys = Arrays.copyOf(startKeys, newLength);
+			endKeys = Arrays.copyOf(endKeys, newLength);
+			startEdges = Arrays.copyOf(startEdges, newLength);
+			endEdges = Arrays.copyOf(endEdges, newLength);
+		}
+		lines[lineCount] = line;
+		facets[lineCount] = facet;
+		startKeys[lineCount] = endpoints[0];
+		endKeys[lineCount] = endpoints[1];
+		startEdges[lineCount] = (int)endpoints[2];
+		endEdges[lineCount] = (int)endpoints[3];
+		lineByFacet[facet] = lineCount;
+		lineCount++;
+		return line;
+	}
+
+	public int getLineCount() {
+		return lineCount;
+	}
+
+	//Points that aren't in the middle of an edge shared by exactly two facets can only be found by their key
+	private boolean isJoinedByKey(int facet, int edge) {
+		return edge == -1 || mesh.getNeighbor(facet, edge) == -1;
+	}
+
+	/**
+	 * Links every line that was added since the last call into closed loops and open chains and then forgets them.
+	 *
+	 * Two lines that run between the same two points in opposite directions come from facets that meet along an
+	 * edge sitting right on this slice. The slice only passes through the crease between them, so neither line is part
+	 * of an outline and both are dropped. Duplicate lines running in the same direction are only kept once.
+	 */
+	public void link(List<List<Line3d>> closedLoops, List<List<Line3d>> openChains) {
+		if (linkedChainStarts == null) {
+			linkedChainStarts = new int[16];
+		}
+		used = new boolean[lineCount];
+		firstByStartKey = new HashMap<Long, Integer>();
+		nextWithSameStart = new int[lineCount];
+		nextLine : for (int line = 0; line < lineCount; line++) {
+			if (!isJoinedByKey(facets[line], startEdges[line])) {
+				continue;
+			}
+
+			Integer sameStart = firstByStartKey.get(startKeys[line]);
+			for (int other = sameStart == null?-1:sameStart; other != -1; other = nextWithSameStart[other]) {
+				if (!used[other] && endKeys[other] == endKeys[line]) {
+					used[line] = true;
+					continue nextLine;
+				}
+			}
+			Integer reversed = firstByStartKey.get(endKeys[line]);
+			for (int other = reversed == null?-1:reversed; other != -1; other = nextWithSameStart[other]) {
+				if (!used[other] && endKeys[other] == startKeys[line]) {
+					used[other] = true;
+					used[line] = true;
+					continue nextLine;
+				}
+			}
+
+			nextWithSameStart[line] = sameStart == null?-1:sameStart;
+			firstByStartKey.put(startKeys[line], line);
+		}
+
+		//Walk the lines into chains, recording which line follows which
+		int[] successors = new int[lineCount];
+		Arrays.fill(successors, -1);
+		List<Integer> closedFirstLines = new ArrayList<Integer>();
+		List<Integer> openFirstLines = new ArrayList<Integer>();
+		chainByFirstLine = new int[lineCount];
+		Arrays.fill(chainByFirstLine, -1);
+		for (int first = 0; first < lineCount; first++) {
+			if (used[first]) {
+				continue;
+			}
+
+			used[first] = true;
+			int current = first;
+			while (true) {
+				int next = findNext(current, first);
+				if (next == first) {
+					successors[current] = first;
+					closedFirstLines.add(first);
+					break;
+				}
+				if (next == -1) {
+					chainByFirstLine[first] = openFirstLines.size();
+					openFirstLines.add(first);
+					break;
+				}
+				successors[current] = next;
+				if (used[next]) {
+					//We've run into the beginning of a chain that was walked earlier, so that chain goes on the end of this one
+					int earlierChain = chainByFirstLine[next];
+					openFirstLines.set(earlierChain, first);
+					chainByFirstLine[next] = -1;
+					chainByFirstLine[first] = earlierChain;
+					break;
+				}
+				used[next] = true;
+				current = next;
+			}
+		}
+
+		//Remember the facets of each chain in order so the next slice can reuse them if nothing has changed
+		Line3d[] linesInOrder = new Line3d[lineCount];
+		linkedFacetCount = 0;
+		linkedChainCount = 0;
+		closedChainCount = closedFirstLines.size();
+		for (List<Integer> firstLines : Arrays.asList(closedFirstLines, openFirstLines)) {
+			for (int first : firstLines) {
+				if (linkedChainCount == linkedChainStarts.length - 1) {
+					linkedChainStarts = Arrays.copyOf(linkedChainStarts, linkedChainStarts.length * 2);
+				}
+				linkedChainStarts[linkedChainCount++] = linkedFacetCount;
+				int line = first;
+				do {
+					if (linkedFacetCount == linkedFacets.length) {
+						linkedFacets = Arrays.copyOf(linkedFacets, linkedFacets.length * 2);
+					}
+					linesInOrder[linkedFacetCount] = lines[line];
+					linkedFacets[linkedFacetCount++] = facets[line];
+					line = successors[line];
+				} while (line != -1 && line != first);
+			}
+		}
+		linkedChainStarts[linkedChainCount] = linkedFacetCount;
+		buildLinkedChains(linesInOrder, closedLoops, openChains);
+
+		for (int line = 0; line < lineCount; line++) {
+			lineByFacet[facets[line]] = -1;
+			lines[line] = null;
+		}
+		lineCount = 0;
+		used = null;
+		firstByStartKey = null;
+		nextWithSameStart = null;
+		chainByFirstLine = null;
+	}
+
+	/**
+	 * Relinks the chains that were found by the last call to link() at a new z without looking at any other facets.
+	 *
+	 * This is only valid when no vertex of the mesh lies between the z of the last link() and the new z(inclusive).
+	 * In that case every facet has the same vertices above and below the plane, so the same facets cross the plane
+	 * through the same edges and only the coordinates of the lines change.
+	 *
+	 * @return false if there is nothing to reuse and link() needs to be called instead
+	 */
+	public boolean relink(double z, List<List<Line3d>> closedLoops, List<List<Line3d>> openChains) {
+		if (linkedChainStarts == null || lineCount > 0) {
+			return false;
+		}
+
+		Line3d[] relinkedLines = new Line3d[linkedFacetCount];
+		for (int t = 0; t < linkedFacetCount; t++) {
+			relinkedLines[t] = mesh.getZIntersection(linkedFacets[t], z);
+			if (relinkedLines[t] == null) {
+				return false;
+			}
+		}
+		buildLinkedChains(relinkedLines, closedLoops, openChains);
+		return true;
+	}
+
+	/**
+	 * Forgets the chains of the last call to link() so that they can't be reused.
+	 */
+	public void reset() {
+		linkedChainStarts = null;
+	}
+
+	private void buildLinkedChains(Line3d[] linesInOrder, List<List<Line3d>> closedLoops, List<List<Line3d>> openChains) {
+		for (int chain = 0; chain < linkedChainCount; chain++) {
+			List<Line3d> lines = new ArrayList<Line3d>(linkedChainStarts[chain + 1] - linkedChainStarts[chain]);
+			for (int t = linkedChainStarts[chain]; t < linkedChainStarts[chain + 1]; t++) {
+				lines.add(linesInOrder[t]);
+			}
+			(chain < closedChainCount?closedLoops:openChains).add(lines);
+		}
+	}
+
+	private boolean isAvailable(int line, int first) {
+		return line == first || !used[line] || chainByFirstLine[line] != -1;
+	}
+
+	/**
+	 * @return the line that continues where current ends. That's either first if the loop is closed, a line that
+	 * hasn't been walked, the first line of an open chain that was walked earlier, or -1 if there isn't one.
+	 */
+	private int findNext(int current, int first) {
+		int facet = facets[current];
+		int edge = endEdges[current];
+		if (!isJoinedByKey(facet, edge)) {
+			int next = lineByFacet[mesh.getNeighbor(facet, edge)];
+			//A neighbor that was wound the other way ends where this line ends instead of starting there
+			if (next == -1 || startKeys[next] != endKeys[current] || !isAvailable(next, first)) {
+				return -1;
+			}
+			return next;
+		}
+
+		Integer sameStart = firstByStartKey.get(endKeys[current]);
+		int found = -1;
+		for (int other = sameStart == null?-1:sameStart; other != -1; other = nextWithSameStart[other]) {
+			if (other == first) {
+				return first;
+			}
+			if (isAvailable(other, first) && (found == -1 || used[found])) {
+				found = other;
+			}
+		}
+		return found;
+	}
+}
@@ -0,0 +1,295 @@
+package org.area515.resinprinter.slice;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.area515.resinprinter.slice.StlError.ErrorType;
+import org.area515.resinprinter.stl.Line3d;
+import org.area515.resinprinter.stl.Point3d;
+import org.area515.resinprinter.stl.Triangle3d;
+import org.area515.util.IOUtilities;
+import org.area515.util.Log4jUtil;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * An on disk store of the sliced layers of a single model.
+ *
+ * Layers are kept as 1 bit pngs in a directory named after a hash of the model file and the settings it was sliced
+ * with, so a later print or a resume of the same model with the same settings finds every layer already sliced. Each
+ * layer is written to a temporary file and moved into place, so a layer that exists is always complete.
+ *
+ * Every store remembers the model file it was last opened for, so the stores of a printable can be deleted along
+ * with it, and the modification time of a store is when it was last opened, so the least recently used stores can be
+ * evicted. A print that finds a layer missing from its store slices that layer again. The stl errors found while
+ * slicing a layer are stored next to it, so a print that takes the layer from the store still reports them.
+ */
+public class LayerStore {
+	private static final Logger logger = LogManager.getLogger();
+	//Change this whenever the way layers are rendered or stored changes so that old layers are never reused
+	private static final int STORE_VERSION = 1;
+	private static final String LAYER_EXTENSION = ".png";
+	private static final String ERRORS_EXTENSION = ".errors";
+	private static final String MODEL_FILE = "model.path";
+
+	private File layerDirectory;
+
+	private LayerStore(File layerDirectory) {
+		this.layerDirectory = layerDirectory;
+	}
+
+	/**
+	 * @param profile everything about the slicing settings that changes the rendered layers
+	 */
+	public static LayerStore open(File cacheDirectory, File modelFile, String profile) throws IOException {
+		String key = Hashing.sha256().newHasher()
+				.putInt(STORE_VERSION)
+				.putBytes(com.google.common.io.Files.asByteSource(modelFile).hash(Hashing.sha256()).asBytes())
+				.putString(profile, StandardCharsets.UTF_8)
+				.hash()
+				.toString();
+		File layerDirectory = new File(cacheDirectory, key);
+		if (!layerDirectory.isDirectory() && !layerDirectory.mkdirs()) {
+			throw new IOException("Unable to create layer store:" + layerDirectory);
+		}
+		byte[] modelPath = modelFile.getCanonicalPath().getBytes(StandardCharsets.UTF_8);
+		IOUtilities.writeAtomically(new File(layerDirectory, MODEL_FILE), file -> Files.write(file.toPath(), modelPath));
+		layerDirectory.setLastModified(System.currentTimeMillis());
+		return new LayerStore(layerDirectory);
+	}
+
+	private static File[] listStores(File cacheDirectory) {
+		File[] layerDirectories = cacheDirectory.listFiles(File::isDirectory);
+		return layerDirectories == null?new File[0]:layerDirectories;
+	}
+
+	/**
+	 * Deletes the stores that were last opened for the model file.
+	 *
+	 * @return the number of stores that were deleted
+	 */
+	public static int delete(File cacheDirectory, File modelFile) throws IOException {
+		String modelPath = modelFile.getCanonicalPath();
+		int deletedStores = 0;
+		for (File layerDirectory : listStores(cacheDirectory)) {
+			File storedModelFile = new File(layerDirectory, MODEL_FILE);
+			if (storedModelFile.isFile() && modelPath.equals(new String(Files.readAllBytes(storedModelFile.toPath()), StandardCharsets.UTF_8))) {
+				FileUtils.deleteDirectory(layerDirectory);
+				deletedStores++;
+			}
+		}
+		return deletedStores;
+	}
+
+	/**
+	 * Deletes every store that hasn't been opened for maxAgeMillis and then the least recently opened stores until the
+	 * stores take up no more than maxBytes. A limit of zero or less isn't applied. The store in use is never deleted.
+	 *
+	 * @return the number of stores that were deleted
+	 */
+	public static int evict(File cacheDirectory, long maxBytes, long maxAgeMillis, LayerStore inUse) throws IOException {
+		File[] layerDirectories = listStores(cacheDirectory);
+		final Map<File, Long> lastOpened = new HashMap<File, Long>();
+		for (File layerDirectory : layerDirectories) {
+			lastOpened.put(layerDirectory, layerDirectory.lastModified());
+		}
+		Arrays.sort(layerDirectories, (first, second) -> Long.compare(lastOpened.get(second), lastOpened.get(first)));
+
+		long oldestAllowed = System.currentTimeMillis() - maxAgeMillis;
+		long storeBytes = inUse != null?FileUtils.sizeOfDirectory(inUse.layerDirectory):0;
+		boolean full = false;
+		int deletedStores = 0;
+		for (File layerDirectory : layerDirectories) {
+			if (inUse != null && layerDirectory.equals(inUse.layerDirectory)) {
+				continue;
+			}
+			if (!full) {
+				storeBytes += FileUtils.sizeOfDirectory(layerDirectory);
+				full = maxBytes > 0 && storeBytes > maxBytes;
+			}
+			if (full || (maxAgeMillis > 0 && lastOpened.get(layerDirectory) < oldestAllowed)) {
+				FileUtils.deleteDirectory(layerDirectory);
+				deletedStores++;
+			}
+		}
+		return deletedStores;
+	}
+
+	public File getLayerDirectory() {
+		return layerDirectory;
+	}
+
+	private File getLayerFile(int z) {
+		return new File(layerDirectory, "layer" + z + LAYER_EXTENSION);
+	}
+
+	public boolean hasLayer(int z) {
+		return getLayerFile(z).isFile();
+	}
+
+	/**
+	 * @return the layer or null if it hasn't been stored
+	 */
+	public BufferedImage readLayer(int z) throws IOException {
+		File layerFile = getLayerFile(z);
+		if (!layerFile.isFile()) {
+			return null;
+		}
+		return ImageIO.read(layerFile);
+	}
+
+	public void writeLayer(int z, BufferedImage layer) throws IOException {
+		IOUtilities.writeImageAtomically(layer, "png", getLayerFile(z));
+	}
+
+	private File getErrorsFile(int z) {
+		return new File(layerDirectory, "layer" + z + ERRORS_EXTENSION);
+	}
+
+	private static void appendPoint(StringBuilder builder, Point3d point) {
+		builder.append(' ').append(point.x).append(' ').append(point.y).append(' ').append(point.z);
+	}
+
+	private static Point3d parsePoint(String[] fields, int first) {
+		return new Point3d(Double.parseDouble(fields[first]), Double.parseDouble(fields[first + 1]), Double.parseDouble(fields[first + 2]));
+	}
+
+	/**
+	 * Stores the stl errors of a layer, they have to be stored before the layer itself so that a layer that exists
+	 * always has its errors.
+	 */
+	public void writeErrors(int z, List<StlError> errors) throws IOException {
+		if (errors.isEmpty()) {
+			return;
+		}
+
+		StringBuilder builder = new StringBuilder();
+		for (StlError error : errors) {
+			Triangle3d triangle = error.getTriangle();
+			builder.append(error.getType()).append(' ').append(triangle == null || triangle.getOriginalIndex() == null?-1:triangle.getOriginalIndex());
+			Line3d edge = error.getNonManifoldEdge();
+			if (edge != null) {
+				appendPoint(builder, edge.getPointOne());
+				appendPoint(builder, edge.getPointTwo());
+				appendPoint(builder, edge.getNormal());
+			}
+			builder.append('\n');
+		}
+		byte[] data = builder.toString().getBytes(StandardCharsets.UTF_8);
+		IOUtilities.writeAtomically(getErrorsFile(z), file -> Files.write(file.toPath(), data));
+	}
+
+	/**
+	 * @return the stl errors of a layer with their triangles taken from the slicer, empty if the layer had none
+	 */
+	public List<StlError> readErrors(int z, ZSlicer slicer) throws IOException {
+		List<StlError> errors = new ArrayList<StlError>();
+		File errorsFile = getErrorsFile(z);
+		if (!errorsFile.isFile()) {
+			return errors;
+		}
+
+		for (String line : Files.readAllLines(errorsFile.toPath(), StandardCharsets.UTF_8)) {
+			String[] fields = line.split(" ");
+			try {
+				ErrorType type = ErrorType.valueOf(fields[0]);
+				int triangleIndex = Integer.parseInt(fields[1]);
+				Triangle3d triangle = triangleIndex < 0?null:slicer.getTriangle(triangleIndex);
+				if (fields.length < 11) {
+					errors.add(new StlError(triangle, type));
+				} else {
+					StlError error = new StlError(triangle, new Line3d(parsePoint(fields, 2), parsePoint(fields, 5), parsePoint(fields, 8), triangle, false));
+					error.setType(type);
+					errors.add(error);
+				}
+			} catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+				throw new IOException("Unable to read stl error:" + line + " from:" + errorsFile, e);
+			}
+		}
+		return errors;
+	}
+
+	/**
+	 * Slices the current z of the slicer into a black and white layer.
+	 *
+	 * Java2D doesn't rasterize lines onto a 1 bit image exactly like it does onto the 4 byte image that a print is
+	 * rendered on, so the slice is painted onto the same kind of image and packed into 1 bit afterwards.
+	 */
+	public static BufferedImage renderLayer(ZSlicer slicer) {
+		slicer.colorizePolygons(null, null);
+		BufferedImage slice = new BufferedImage((int)slicer.getWidthPixels(), (int)slicer.getHeightPixels(), BufferedImage.TYPE_4BYTE_ABGR);
+		slicer.paintSlice(slice, true);
+
+		BufferedImage layer = new BufferedImage(slice.getWidth(), slice.getHeight(), BufferedImage.TYPE_BYTE_BINARY);
+		Graphics2D g2 = layer.createGraphics();
+		try {
+			g2.drawImage(slice, 0, 0, null);
+		} finally {
+			g2.dispose();
+		}
+		return layer;
+	}
+
+	/**
+	 * Slices every layer from firstZ to lastZ(inclusive) that isn't already in the store. Each worker takes the next
+	 * layer that nobody has taken yet with its own slicer, all of which share the model of loadedSlicer.
+	 *
+	 * @return the number of layers that had to be sliced
+	 */
+	public int preSlice(final ZSlicer loadedSlicer, int firstZ, final int lastZ, ExecutorService executor, int workerCount) throws IOException, InterruptedException {
+		logger.info("Pre-slice start", ()->Log4jUtil.startTimer("preSliceTime"));
+		final AtomicInteger nextZ = new AtomicInteger(firstZ);
+		final AtomicInteger stlErrors = new AtomicInteger();
+		List<Future<Integer>> workers = new ArrayList<Future<Integer>>();
+		for (int t = 0; t < workerCount; t++) {
+			workers.add(executor.submit(() -> {
+				ZSlicer slicer = new ZSlicer(loadedSlicer);
+				int slicedLayers = 0;
+				for (int z = nextZ.getAndIncrement(); z <= lastZ; z = nextZ.getAndIncrement()) {
+					if (hasLayer(z)) {
+						continue;
+					}
+					slicer.setZIndex(z);
+					BufferedImage layer = renderLayer(slicer);
+					writeErrors(z, slicer.getStlErrors());
+					stlErrors.addAndGet(slicer.getStlErrors().size());
+					writeLayer(z, layer);
+					slicedLayers++;
+				}
+				return slicedLayers;
+			}));
+		}
+
+		int slicedLayers = 0;
+		try {
+			for (Future<Integer> worker : workers) {
+				slicedLayers += worker.get();
+			}
+		} catch (ExecutionException e) {
+			throw new IOException("Unable to pre-slice layers into:" + layerDirectory, e.getCause());
+		} finally {
+			//Stop the remaining workers from taking any more layers if one of them failed
+			nextZ.set(lastZ + 1);
+		}
+		logger.info("Pre-sliced {} of {} layers with {} stl errors into {}:{}", slicedLayers, lastZ - firstZ + 1, stlErrors.get(), layerDirectory, Log4jUtil.completeTimer("preSliceTime"));
+		return slicedLayers;
+	}
+}
@@ -0,0 +1,154 @@
+package org.area515.resinprinter.slice;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * The filled pixels of a band of rows in a slice, kept as runs of x coordinates.
+ *
+ * Each run is a pair of ints holding the first and last pixel(inclusive) of a scanline and the runs of every row are
+ * kept one after another in a single array. Runs must be added in order of increasing y, which is the order the
+ * scanline fill finds them in.
+ */
+public class RunLengthRaster {
+	private static final int INITIAL_RUNS = 64;
+
+	private int firstY;
+	private int[] rowStarts;
+	private int startedRows;
+	private int[] runs = new int[INITIAL_RUNS * 2];
+	private int runCount;
+	private int area;
+
+	public RunLengthRaster(int firstY, int lastY) {
+		this.firstY = firstY;
+		this.rowStarts = new int[lastY - firstY + 1];
+	}
+
+	public void addRun(int y, int startX, int endX) {
+		int row = y - firstY;
+		while (startedRows <= row) {
+			rowStarts[startedRows++] = runCount;
+		}
+		if (runCount * 2 == runs.length) {
+			runs = Arrays.copyOf(runs, runs.length * 2);
+		}
+		runs[runCount * 2] = startX;
+		runs[runCount * 2 + 1] = endX;
+		runCount++;
+		area += endX - startX + 1;
+	}
+
+	public int getFirstY() {
+		return firstY;
+	}
+
+	public int getLastY() {
+		return firstY + rowStarts.length - 1;
+	}
+
+	public int getRunCount() {
+		return runCount;
+	}
+
+	private int getRowStart(int row) {
+		return row < startedRows?rowStarts[row]:runCount;
+	}
+
+	/**
+	 * @return the number of pixels that are covered by the runs
+	 */
+	public int getArea() {
+		return area;
+	}
+
+	/**
+	 * Draws every run as a line in the current color of g.
+	 */
+	public void paint(Graphics2D g) {
+		for (int row = 0; row < rowStarts.length; row++) {
+			int y = firstY + row;
+			for (int run = getRowStart(row); run < getRowStart(row + 1); run++) {
+				g.drawLine(runs[run * 2], y, runs[run * 2 + 1], y);
+			}
+		}
+	}
+
+	/**
+	 * Writes every run as white pixels straight into the data buffer of the image. This covers exactly the pixels that
+	 * paint(Graphics2D) would have drawn.
+	 *
+	 * @return false if the image isn't one of the byte based formats that can be written to directly
+	 */
+	public boolean paint(BufferedImage image) {
+		WritableRaster raster = image.getRaster();
+		if (!(raster.getDataBuffer() instanceof DataBufferByte) || raster.getDataBuffer().getNumBanks() != 1) {
+			return false;
+		}
+
+		SampleModel sampleModel = raster.getSampleModel();
+		byte[] data = ((DataBufferByte)raster.getDataBuffer()).getData();
+		int dataOffset = raster.getDataBuffer().getOffset();
+		int translateX = raster.getSampleModelTranslateX();
+		int translateY = raster.getSampleModelTranslateY();
+		int minX = raster.getMinX();
+		int maxX = minX + raster.getWidth() - 1;
+		int minY = Math.max(raster.getMinY(), firstY);
+		int maxY = Math.min(raster.getMinY() + raster.getHeight() - 1, getLastY());
+
+		switch (image.getType()) {
+		case BufferedImage.TYPE_4BYTE_ABGR:
+		case BufferedImage.TYPE_4BYTE_ABGR_PRE:
+		case BufferedImage.TYPE_3BYTE_BGR:
+		case BufferedImage.TYPE_BYTE_GRAY:
+			//White has every band at full intensity, so each pixel is a run of 0xff bytes
+			ComponentSampleModel componentModel = (ComponentSampleModel)sampleModel;
+			int pixelStride = componentModel.getPixelStride();
+			int scanlineStride = componentModel.getScanlineStride();
+			int firstBand = Integer.MAX_VALUE;
+			for (int bandOffset : componentModel.getBandOffsets()) {
+				firstBand = Math.min(firstBand, bandOffset);
+			}
+			for (int y = minY; y <= maxY; y++) {
+				int row = y - firstY;
+				int rowOffset = dataOffset + (y - translateY) * scanlineStride + firstBand;
+				for (int run = getRowStart(row); run < getRowStart(row + 1); run++) {
+					int startX = Math.max(runs[run * 2], minX);
+					int endX = Math.min(runs[run * 2 + 1], maxX);
+					if (startX <= endX) {
+						Arrays.fill(data, rowOffset + (startX - translateX) * pixelStride, rowOffset + (endX - translateX + 1) * pixelStride, (byte)0xff);
+					}
+				}
+			}
+			return true;
+		case BufferedImage.TYPE_BYTE_BINARY:
+			MultiPixelPackedSampleModel packedModel = (MultiPixelPackedSampleModel)sampleModel;
+			if (packedModel.getPixelBitStride() != 1) {
+				return false;
+			}
+			int packedScanlineStride = packedModel.getScanlineStride();
+			int bitOffset = packedModel.getDataBitOffset();
+			for (int y = minY; y <= maxY; y++) {
+				int row = y - firstY;
+				int rowOffset = dataOffset + (y - translateY) * packedScanlineStride;
+				for (int run = getRowStart(row); run < getRowStart(row + 1); run++) {
+					int startX = Math.max(runs[run * 2], minX);
+					int endX = Math.min(runs[run * 2 + 1], maxX);
+					for (int x = startX; x <= endX; x++) {
+						int bit = bitOffset + x - translateX;
+						data[rowOffset + (bit >> 3)] |= 0x80 >> (bit & 7);
+					}
+				}
+			}
+			return true;
+		default:
+			return false;
+		}
+	}
+}
@@ -1,6 +1,5 @@
 package org.area515.resinprinter.slice;
 
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -11,6 +10,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.area515.resinprinter.stl.Face3d;
 import org.area515.resinprinter.stl.Line3d;
+import org.area515.resinprinter.stl.MeshFacet3d;
 import org.area515.resinprinter.stl.Point3d;
 import org.area515.resinprinter.stl.Triangle3d;
 import org.area515.resinprinter.stl.XYComparatord;
@@ -20,34 +20,34 @@ public class ScanlineFillPolygonWork extends RecursiveTask<ScanlineFillPolygonWo
 	private static final long serialVersionUID = 217859858236513212L;
 	public static final int SMALLEST_UNIT_OF_WORK = 20;
 	private List<Line3d> potentialLinesInRange;
-	private List<Line3d> scanLines = new ArrayList<Line3d>();
+	private RunLengthRaster raster;
 	private Set<Face3d> insideOutPolygons = new HashSet<Face3d>();
-	private List<Triangle3d> watchedTriangles;
-	private int buildArea;
+	private Set<Integer> watchedFacets;
 	private int start;
 	private int stop;
 	private int z;
 	private List<Integer> watchedYs;
 	
-	public ScanlineFillPolygonWork(List<Line3d> potentialLinesInRange, List<Triangle3d> watchedTriangles, List<Integer> watchedYs, int start, int stop, int z) {
+	public ScanlineFillPolygonWork(List<Line3d> potentialLinesInRange, Set<Integer> watchedFacets, List<Integer> watchedYs, int start, int stop, int z) {
 		this.potentialLinesInRange = potentialLinesInRange;
-		this.watchedTriangles = watchedTriangles;
+		this.watchedFacets = watchedFacets;
 		this.watchedYs = watchedYs;
 		this.start = start;
 		this.stop = stop;
 		this.z = z;
+		this.raster = new RunLengthRaster(start, stop);
 	}
 	
 	public Set<Face3d> getInsideOutPolygons() {
 		return insideOutPolygons;
 	}
 	
-	public List<Line3d> getScanLines() {
-		return scanLines;
+	public RunLengthRaster getRaster() {
+		return raster;
 	}
 	
 	public int getBuildArea() {
-		return buildArea;
+		return raster.getArea();
 	}
 	
 	@Override
@@ -56,9 +56,9 @@ public class ScanlineFillPolygonWork extends RecursiveTask<ScanlineFillPolygonWo
 	         for (int y = start; y <= stop; y++) {
 		    	 Set<Point3d> intersectedPoints = new TreeSet<Point3d>(new XYComparatord(Triangle3d.EQUAL_TOLERANCE));
 	        	 for (Line3d currentLine : potentialLinesInRange) {
-	        		 if (watchedTriangles != null) {
+	        		 if (watchedFacets != null) {
 	        			 Face3d face = currentLine.getOriginatingFace();
-	        			 if (watchedTriangles.contains(face)) {
+	        			 if (face instanceof MeshFacet3d && watchedFacets.contains(((MeshFacet3d)face).getIndex())) {
 	        				 logger.debug("Watch triangle:{}", face);
 	        				 watch = true;
 	        			 }
@@ -110,8 +110,7 @@ public class ScanlineFillPolygonWork extends RecursiveTask<ScanlineFillPolygonWo
 	        			 if (drawingValue > 0) {
 	        				 insideOutPolygons.add(intersectedPoint.getOriginatingShape());
 	        			 } else if (drawingValue == 0) {
-	        				 scanLines.add(new Line3d(firstPoint, intersectedPoint, null, null, false));
-	        				 buildArea += intersectedPoint.x - firstPoint.x;
+	        				 raster.addRun(y, (int)Math.round(firstPoint.x), (int)Math.round(intersectedPoint.x));
 	        				 firstPoint = null;
 	        			 }
 	        		 }
@@ -14,7 +14,6 @@ import java.awt.event.AdjustmentListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URISyntaxException;
@@ -137,7 +136,7 @@ C:\Users\wgilster\Documents\ArduinoMegaEnclosureBottom.stl
 		public List<Triangle3d> getSelectedTriangles() {
 			List<Triangle3d> triangles = new ArrayList<Triangle3d>();
 			for (Line3d line : selectedLines) {
-				triangles.add((Triangle3d)line.getOriginatingFace());
+				triangles.add(slicer.getTriangle(line.getOriginatingFace()));
 			}
 			
 			return triangles;
@@ -214,8 +213,9 @@ C:\Users\wgilster\Documents\ArduinoMegaEnclosureBottom.stl
 							 parent.add(lineNode);
 							 Face3d face3d = line.getOriginatingFace();
 							 
-							 if (face3d instanceof Triangle3d) {
-								 lineNode.add(new SliceBrowserTreeNode(slicer.translateTriangle((Triangle3d)face3d)));
+							 Triangle3d triangle = slicer.getTriangle(face3d);
+							 if (triangle != null) {
+								 lineNode.add(new SliceBrowserTreeNode(slicer.translateTriangle(triangle)));
 							 }
 						 }
 					 }
@@ -256,7 +256,7 @@ C:\Users\wgilster\Documents\ArduinoMegaEnclosureBottom.stl
 			 false, 
 			 new CloseOffMend());
 		try {
-			newSlicer.loadFile(new FileInputStream(new File(loadStlText.getText())), tools.getBuildPlatformX(), tools.getBuildPlatformY());
+			newSlicer.loadFile(new File(loadStlText.getText()), tools.getBuildPlatformX(), tools.getBuildPlatformY());
 			slicer = newSlicer;
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
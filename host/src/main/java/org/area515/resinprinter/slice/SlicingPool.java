@@ -0,0 +1,107 @@
+package org.area515.resinprinter.slice;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.area515.resinprinter.server.HostProperties;
+
+/**
+ * The one ForkJoinPool that all slicing work is executed on.
+ *
+ * Slicing used to create and shutdown a new pool for every slice of every print. This pool is created the first time
+ * it's needed and is shared across all layers and all jobs that are slicing at the same time. The parallelism is taken
+ * from the slicerParallelism setting in config.properties.
+ */
+public class SlicingPool {
+	private static final Logger logger = LogManager.getLogger();
+	private static ForkJoinPool POOL = null;
+
+	public static class Statistics {
+		private int parallelism;
+		private int poolSize;
+		private int activeThreadCount;
+		private int runningThreadCount;
+		private long queuedTaskCount;
+		private int queuedSubmissionCount;
+		private long stealCount;
+
+		public int getParallelism() {
+			return parallelism;
+		}
+
+		public int getPoolSize() {
+			return poolSize;
+		}
+
+		public int getActiveThreadCount() {
+			return activeThreadCount;
+		}
+
+		public int getRunningThreadCount() {
+			return runningThreadCount;
+		}
+
+		public long getQueuedTaskCount() {
+			return queuedTaskCount;
+		}
+
+		public int getQueuedSubmissionCount() {
+			return queuedSubmissionCount;
+		}
+
+		public long getStealCount() {
+			return stealCount;
+		}
+
+		public String toString() {
+			return "parallelism:" + parallelism +
+					" poolSize:" + poolSize +
+					" active:" + activeThreadCount +
+					" running:" + runningThreadCount +
+					" queuedTasks:" + queuedTaskCount +
+					" queuedSubmissions:" + queuedSubmissionCount +
+					" steals:" + stealCount;
+		}
+	}
+
+	private static class SlicerThreadFactory implements ForkJoinWorkerThreadFactory {
+		private AtomicInteger threadNumber = new AtomicInteger();
+
+		@Override
+		public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("SlicerThread-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	private SlicingPool() {}
+
+	public synchronized static ForkJoinPool getPool() {
+		if (POOL == null) {
+			int parallelism = HostProperties.Instance().getSlicerParallelism();
+			logger.info("Starting slicing pool with parallelism:{}", parallelism);
+			POOL = new ForkJoinPool(parallelism, new SlicerThreadFactory(), null, false);
+		}
+
+		return POOL;
+	}
+
+	public static Statistics getStatistics() {
+		ForkJoinPool pool = getPool();
+		Statistics statistics = new Statistics();
+		statistics.parallelism = pool.getParallelism();
+		statistics.poolSize = pool.getPoolSize();
+		statistics.activeThreadCount = pool.getActiveThreadCount();
+		statistics.runningThreadCount = pool.getRunningThreadCount();
+		statistics.queuedTaskCount = pool.getQueuedTaskCount();
+		statistics.queuedSubmissionCount = pool.getQueuedSubmissionCount();
+		statistics.stealCount = pool.getStealCount();
+		return statistics;
+	}
+}
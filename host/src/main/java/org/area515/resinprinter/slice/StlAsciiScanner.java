@@ -0,0 +1,275 @@
+package org.area515.resinprinter.slice;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * A byte level tokenizer for ASCII stl files.
+ *
+ * Tokens are runs of printable characters separated by whitespace and ends of line are significant, which is the same
+ * tokenization that the StreamTokenizer based parser used. The difference is that words are never turned into Strings
+ * unless they are asked for. Keywords are compared in place(case insensitively) and numbers are parsed straight out of
+ * the buffer.
+ */
+public class StlAsciiScanner {
+	public static final int TT_EOF = -1;
+	public static final int TT_EOL = '\n';
+	public static final int TT_WORD = -3;
+
+	static final byte[] SOLID = keyword("solid");
+	static final byte[] ENDSOLID = keyword("endsolid");
+	static final byte[] FACET = keyword("facet");
+	static final byte[] ENDFACET = keyword("endfacet");
+	static final byte[] NORMAL = keyword("normal");
+	static final byte[] OUTER = keyword("outer");
+	static final byte[] VERTEX = keyword("vertex");
+	static final byte[] ENDLOOP = keyword("endloop");
+
+	private static final int BUFFER_SIZE = 65536;
+	//Decimals with this many significant digits or less are exactly representable as a double
+	private static final int MAX_EXACT_DIGITS = 15;
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+	private InputStream inputStream;
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	private int position;
+	private int limit;
+	private boolean endOfStream;
+	private int lineNumber = 1;
+
+	private int wordStart;
+	private int wordEnd;
+	public int ttype;
+	public double nval;
+
+	public StlAsciiScanner(InputStream inputStream) {
+		this.inputStream = inputStream;
+	}
+
+	private static byte[] keyword(String word) {
+		return word.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Makes sure there is at least one unread byte in the buffer. Any word that has been started is kept in the buffer.
+	 */
+	private boolean fill(boolean keepWord) throws IOException {
+		if (position < limit) {
+			return true;
+		}
+		if (endOfStream) {
+			return false;
+		}
+
+		int keepFrom = keepWord?wordStart:position;
+		int kept = limit - keepFrom;
+		if (kept == buffer.length) {
+			byte[] larger = new byte[buffer.length * 2];
+			System.arraycopy(buffer, keepFrom, larger, 0, kept);
+			buffer = larger;
+		} else if (kept > 0) {
+			System.arraycopy(buffer, keepFrom, buffer, 0, kept);
+		}
+		wordStart -= keepFrom;
+		wordEnd -= keepFrom;
+		position -= keepFrom;
+		limit = kept;
+
+		int read = inputStream.read(buffer, limit, buffer.length - limit);
+		while (read == 0) {
+			read = inputStream.read(buffer, limit, buffer.length - limit);
+		}
+		if (read < 0) {
+			endOfStream = true;
+			return false;
+		}
+		limit += read;
+		return true;
+	}
+
+	/**
+	 * Reads the next token into ttype. Both \n and \r(as well as \r\n) end a line.
+	 */
+	public int nextToken() throws IOException {
+		while (fill(false)) {
+			byte current = buffer[position];
+			if (current == '\n') {
+				position++;
+				lineNumber++;
+				return ttype = TT_EOL;
+			}
+			if (current == '\r') {
+				position++;
+				lineNumber++;
+				if (fill(false) && buffer[position] == '\n') {
+					position++;
+				}
+				return ttype = TT_EOL;
+			}
+			if (current <= ' ' && current >= 0) {
+				position++;
+				continue;
+			}
+
+			wordStart = position;
+			wordEnd = ++position;
+			while (fill(true)) {
+				current = buffer[position];
+				if (current <= ' ' && current >= 0) {
+					break;
+				}
+				wordEnd = ++position;
+			}
+			return ttype = TT_WORD;
+		}
+
+		return ttype = TT_EOF;
+	}
+
+	/**
+	 * Skips everything up to and including the next end of line.
+	 */
+	public void skipLine() throws IOException {
+		while (ttype != TT_EOL && ttype != TT_EOF) {
+			nextToken();
+		}
+	}
+
+	/**
+	 * @return true if the current token is the given lower case keyword ignoring case
+	 */
+	public boolean isWord(byte[] keyword) {
+		if (ttype != TT_WORD || wordEnd - wordStart != keyword.length) {
+			return false;
+		}
+		for (int t = 0; t < keyword.length; t++) {
+			byte current = buffer[wordStart + t];
+			if (current != keyword[t] && (current | 0x20) != keyword[t]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the current word in lower case, or null if the current token isn't a word
+	 */
+	public String getWord() {
+		if (ttype != TT_WORD) {
+			return null;
+		}
+		return new String(buffer, wordStart, wordEnd - wordStart, StandardCharsets.ISO_8859_1).toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Reads the next token as a number and stores it in nval.
+	 *
+	 * @return false if the next token isn't a number
+	 */
+	public boolean getNumber() throws IOException {
+		nextToken();
+		if (ttype != TT_WORD) {
+			return false;
+		}
+
+		if (parseDecimal()) {
+			return true;
+		}
+
+		//Anything the fast path can't represent exactly is left to the JDK so we always get the correctly rounded value
+		try {
+			nval = Double.parseDouble(new String(buffer, wordStart, wordEnd - wordStart, StandardCharsets.ISO_8859_1));
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private boolean parseDecimal() {
+		int current = wordStart;
+		boolean negative = false;
+		if (buffer[current] == '-' || buffer[current] == '+') {
+			negative = buffer[current] == '-';
+			current++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean anyDigits = false;
+		boolean decimalPoint = false;
+		for (; current < wordEnd; current++) {
+			byte character = buffer[current];
+			if (character >= '0' && character <= '9') {
+				anyDigits = true;
+				if (mantissa == 0 && character == '0') {
+					if (decimalPoint) {
+						exponent--;
+					}
+					continue;
+				}
+				if (++digits > MAX_EXACT_DIGITS) {
+					return false;
+				}
+				mantissa = mantissa * 10 + (character - '0');
+				if (decimalPoint) {
+					exponent--;
+				}
+			} else if (character == '.' && !decimalPoint) {
+				decimalPoint = true;
+			} else {
+				break;
+			}
+		}
+		if (!anyDigits) {
+			return false;
+		}
+
+		if (current < wordEnd) {
+			if ((buffer[current] | 0x20) != 'e' || ++current == wordEnd) {
+				return false;
+			}
+			boolean negativeExponent = false;
+			if (buffer[current] == '-' || buffer[current] == '+') {
+				negativeExponent = buffer[current] == '-';
+				if (++current == wordEnd) {
+					return false;
+				}
+			}
+			int explicitExponent = 0;
+			for (; current < wordEnd; current++) {
+				byte character = buffer[current];
+				if (character < '0' || character > '9' || explicitExponent > 1000) {
+					return false;
+				}
+				explicitExponent = explicitExponent * 10 + (character - '0');
+			}
+			exponent += negativeExponent?-explicitExponent:explicitExponent;
+		}
+
+		if (mantissa == 0) {
+			nval = negative?-0.0:0.0;
+			return true;
+		}
+		if (exponent < -POWERS_OF_TEN.length + 1 || exponent > POWERS_OF_TEN.length - 1) {
+			return false;
+		}
+
+		//Both operands are exact, so a single multiply or divide is correctly rounded
+		double value = exponent < 0?mantissa / POWERS_OF_TEN[-exponent]:mantissa * POWERS_OF_TEN[exponent];
+		nval = negative?-value:value;
+		return true;
+	}
+
+	public int lineno() {
+		return lineNumber;
+	}
+
+	public String toString() {
+		return "Token[" + (ttype == TT_WORD?getWord():ttype == TT_EOL?"EOL":"EOF") + "], line " + lineNumber;
+	}
+}
@@ -12,15 +12,30 @@ package org.area515.resinprinter.slice;
    limitations under the License.
 */
 
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.PushbackInputStream;
-import java.io.Reader;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 // New from JDK 1.4 for endian related problems
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -44,10 +59,23 @@ import org.apache.logging.log4j.Logger;
 
 public abstract class StlFile<T,P> {
   private static final Logger logger = LogManager.getLogger();
+  private static final int HEADER_BYTES = 80;
+  private static final int FACET_BYTES = 50;
+  //Large files are mapped a window at a time so we never exceed the 2GB limit of a single mapping
+  private static final int FACETS_PER_MAPPING = 1 << 20;
+  private static final int PROGRESS_REPORTS = 10;
+  private static final int ASCII_DETERMINANT_SIZE = 2048;
+  private static final int FACETS_PER_RANGE = 16384;
+  //Small files aren't worth the overhead of handing out work to the slicing pool
+  private static final int PARALLEL_RANGES_THRESHOLD = 4;
 
   //private int flag;                         // Needed cause implements Loader
   private boolean Ascii = true;             // File type Ascii -> true o binary -> false
   private boolean rewriteNormalsWithRightHandRule = false;
+  private int facetCount = 0;
+  private volatile int expectedFacetCount = 0;
+  private final AtomicInteger facetsLoaded = new AtomicInteger();
+  private ForkJoinPool loadPool;
   
   protected Collection<T> triangles;
   protected double zmin = Double.MAX_VALUE;
@@ -70,15 +98,13 @@ public abstract class StlFile<T,P> {
    * Method that reads the EOL
    * Needed for verifying that the file has a correct format
    *
-   * @param parser The file parser. An instance of StlFileParser.
+   * @param scanner The file scanner. An instance of StlAsciiScanner.
    */
-  private void readEOL(StlFileParser parser) throws IOException {
+  private void readEOL(StlAsciiScanner scanner) throws IOException {
 	try {
-		do {
-			parser.nextToken();
-		} while (parser.ttype != StlFileParser.TT_EOL);
+		scanner.skipLine();
 	} catch (IOException e) {
-	    throw new IOException("Error getting next token:" + parser, e);
+	    throw new IOException("Error getting next token:" + scanner, e);
 	}
   }
 
@@ -89,11 +115,11 @@ public abstract class StlFile<T,P> {
    *    1.- Better way control of exceptions?
    *    2.- Better way to decide between Ascii and Binary?
    *
-   * @param parser The file parser. An instance of StlFileParser.
+   * @param scanner The file scanner. An instance of StlAsciiScanner.
    */
-	private void readSolid(StlFileParser parser) throws IOException {
-		if (parser.sval == null || !parser.sval.equals("solid")) {
-			logger.warn("Expecting solid on line:{}", parser.lineno());
+	private void readSolid(StlAsciiScanner scanner) throws IOException {
+		if (!scanner.isWord(StlAsciiScanner.SOLID)) {
+			logger.warn("Expecting solid on line:{}", scanner.lineno());
 			// If the first word is not "solid" then we consider the file is
 			// binary
 			// Can give us problems if the comment of the binary file begins by
@@ -101,17 +127,17 @@ public abstract class StlFile<T,P> {
 			this.setAscii(false);
 		} else { // It's an ASCII file
 			try {
-				parser.nextToken();
+				scanner.nextToken();
 			} catch (IOException e) {
-				throw new IOException("IO Error on line " + parser.lineno() + ": " + e.getMessage());
+				throw new IOException("IO Error on line " + scanner.lineno() + ": " + e.getMessage());
 			}
-			if (parser.ttype != StlFileParser.TT_WORD) {
+			if (scanner.ttype != StlAsciiScanner.TT_WORD) {
 				// Is the object name always provided???
-				throw new IOException("Format Error:expecting the object name on line " + parser.lineno());
+				throw new IOException("Format Error:expecting the object name on line " + scanner.lineno());
 			} else {
 				// Store the object Name
-				this.setObjectName(new String(parser.sval));
-				this.readEOL(parser);
+				this.setObjectName(scanner.getWord());
+				this.readEOL(scanner);
 			}
 		}
 	}// End of readSolid
@@ -121,96 +147,129 @@ public abstract class StlFile<T,P> {
    * Method that reads tokens and allows iteration through facet definition
    * Written by adevalla
    * 
-   * @param parser - file parser, instance of StlFileParser
-   * @param parseKey - string "outer", "loop", "endloop", or "endfacet"
+   * @param scanner - file scanner, instance of StlAsciiScanner
+   * @param parseKey - keyword "outer", "endloop", or "endfacet"
    * */
   
-  private void readToken(StlFileParser parser, String parseKey) throws IOException {
-		if (parser.ttype != StlFileParser.TT_WORD || !parser.sval.equals(parseKey)) {
-			throw new IOException("Format Error:expecting " + parseKey + " on line " + parser.lineno());
+  private void readToken(StlAsciiScanner scanner, byte[] parseKey) throws IOException {
+		if (!scanner.isWord(parseKey)) {
+			throw new IOException("Format Error:expecting " + new String(parseKey, StandardCharsets.US_ASCII) + " on line " + scanner.lineno());
 	    } else {
-	    	if (parseKey.equals("outer")) {
+	    	if (parseKey == StlAsciiScanner.OUTER) {
 	    		try {
-					parser.nextToken();
+					scanner.nextToken();
 				} catch (IOException e) {
 					throw new IOException("Expected next token after outer", e);
 				}
 	    	}
 	    	
-	    	readEOL(parser);
+	    	readEOL(scanner);
 	    }
   }
   
   /**
-   * Method that reads normal, vertex coordinates; stores them as Point3f.
+   * Method that reads normal, vertex coordinates into the given array.
    * Written by adevalla
    * 
-   * @param parser - file parser, instance of StlFileParser
-   * @param parseKey - string "normal", "vertex"
+   * @param scanner - file scanner, instance of StlAsciiScanner
+   * @param parseKey - keyword "normal", "vertex"
    * */
   
-  	private double[] read3d(StlFileParser parser, String parseKey, boolean buildPointForNormal) throws IOException {
-		double x, y, z;
-
-		if (!(parser.ttype == StlFileParser.TT_WORD && parser.sval.equals(parseKey))) {
-			throw new IOException("Format Error:expecting '" + parseKey + "' on line " + parser.lineno());
-		}
-		
-		if (!parser.getNumber()) {
-			throw new IOException("Format Error: expecting coordinate on line " + parser.lineno());
-		}
-		x = parser.nval;
-		
-		if (!parser.getNumber()) {
-			throw new IOException("Format Error: expecting coordinate on line " + parser.lineno());
+  	private void read3d(StlAsciiScanner scanner, byte[] parseKey, double[] coordinates) throws IOException {
+		if (!scanner.isWord(parseKey)) {
+			throw new IOException("Format Error:expecting '" + new String(parseKey, StandardCharsets.US_ASCII) + "' on line " + scanner.lineno());
 		}
-		y = parser.nval;
 		
-		if (!parser.getNumber()) {
-			throw new IOException("Format Error: expecting coordinate on line " + parser.lineno());
+		for (int t = 0; t < 3; t++) {
+			if (!scanner.getNumber()) {
+				logger.error("Couldn't convert:{} on line {}", scanner, scanner.lineno());
+				throw new IOException("Format Error: expecting coordinate on line " + scanner.lineno());
+			}
+			coordinates[t] = scanner.nval;
 		}
-		z = parser.nval;
-		
-		readEOL(parser);
 		
-		return new double[]{x, y, z};
+		readEOL(scanner);
 	}
   
   /**
    * Method that reads a face of the object. 
    * (Cares about the format).
    *
-   * @param parser The file parser. An instance of StlFileParser.
+   * @param scanner The file scanner. An instance of StlAsciiScanner.
    */
-  private void readFacet(StlFileParser parser) throws IOException {
-		if (parser.ttype != StlFileParser.TT_WORD || !parser.sval.equals("facet")) {
-			throw new IOException("Format Error:expecting 'facet' on line " + parser.lineno());
+  private void readFacet(StlAsciiScanner scanner) throws IOException {
+		if (!scanner.isWord(StlAsciiScanner.FACET)) {
+			throw new IOException("Format Error:expecting 'facet' on line " + scanner.lineno());
 		}
 		
-		parser.nextToken();
-		double[] normal = read3d(parser, "normal", true);
-		parser.nextToken();
-		readToken(parser, "outer");
+		double[] normal = new double[3];
+		scanner.nextToken();
+		read3d(scanner, StlAsciiScanner.NORMAL, normal);
+		scanner.nextToken();
+		readToken(scanner, StlAsciiScanner.OUTER);
 		
-		double triangle[][] = new double[3][];
+		double triangle[][] = new double[3][3];
 		for (int i = 0; i < 3; i++) {
-			parser.nextToken();
-			triangle[i] = read3d(parser, "vertex", false);
+			scanner.nextToken();
+			read3d(scanner, StlAsciiScanner.VERTEX, triangle[i]);
 		}
 
-		parser.nextToken();
-		readToken(parser, "endloop");
+		scanner.nextToken();
+		readToken(scanner, StlAsciiScanner.ENDLOOP);
 
-		parser.nextToken();
-		readToken(parser, "endfacet");
+		scanner.nextToken();
+		readToken(scanner, StlAsciiScanner.ENDFACET);
 		
 		fixNormalIfBadSTLFile(normal, triangle[0], triangle[1], triangle[2]);
-		buildTriangle(
-				buildPoint(triangle[0][0], triangle[0][1], triangle[0][2]), 
-				buildPoint(triangle[1][0], triangle[1][1], triangle[1][2]), 
-				buildPoint(triangle[2][0], triangle[2][1], triangle[2][2]), normal);
+		buildFacet(facetCount++, triangle[0], triangle[1], triangle[2], normal);
   }// End of readFacet
 
+  /**
+   * Called once for every facet in the file with the raw coordinates of the facet.
+   * The default implementation builds points and triangles through buildPoint() and buildTriangle(),
+   * subclasses that store their geometry in some other fashion can override this to avoid creating those objects.
+   * 
+   * @param index The position of this facet in the file
+   */
+  protected void buildFacet(int index, double[] p1, double[] p2, double[] p3, double[] normal) {
+		buildTriangle(
+				buildPoint(p1[0], p1[1], p1[2]), 
+				buildPoint(p2[0], p2[1], p2[2]), 
+				buildPoint(p3[0], p3[1], p3[2]), normal);
+  }
+
+  /**
+   * Called before any facets are read when the number of facets is known ahead of time(binary files).
+   */
+  protected void prepareForFacets(int facetCount) {
+  }
+
+  /**
+   * Called once a consecutive range of facets has been built. This is where a subclass should merge its bounds
+   * if it's building facets in parallel.
+   */
+  protected void completeFacetRange(int firstIndex, int count) {
+  }
+
+  /**
+   * Binary facets can be decoded in parallel if buildFacet() is safe to call from multiple threads as long as
+   * each call is for a different index.
+   */
+  protected boolean isParallelLoadSupported() {
+	  return false;
+  }
+
+  /**
+   * Sets the pool that binary facets are decoded on, the slicing pool is used when this isn't set.
+   */
+  public void setLoadPool(ForkJoinPool loadPool) {
+	  this.loadPool = loadPool;
+  }
+  
+  private ForkJoinPool getLoadPool() {
+	  return loadPool != null?loadPool:SlicingPool.getPool();
+  }
+
   protected abstract void buildTriangle(P point1, P point2, P point3, double[] normal);
   protected abstract P buildPoint(double x, double y, double z);
   protected abstract Collection<T> createSet();
@@ -250,13 +309,9 @@ public abstract class StlFile<T,P> {
 		double p2[] = new double[]{dataBuffer.getFloat(), dataBuffer.getFloat(), dataBuffer.getFloat()};
 		double p3[] = new double[]{dataBuffer.getFloat(), dataBuffer.getFloat(), dataBuffer.getFloat()};
 		
-		P point1 = buildPoint(p1[0], p1[1], p1[2]);
-		P point2 = buildPoint(p2[0], p2[1], p2[2]);
-		P point3 = buildPoint(p3[0], p3[1], p3[2]);
-		
 		fixNormalIfBadSTLFile(normal, p1, p2, p3);
 		
-		buildTriangle(point1, point2, point3, normal);
+		buildFacet(index, p1, p2, p3, normal);
 		
 		//TODO: After each facet there are 2 bytes that can be used for color information, we should add those two bytes to the triangle.
         dataBuffer.get();
@@ -278,79 +333,180 @@ public abstract class StlFile<T,P> {
    *
    * @throws IOException
    */
-  private void readBinaryFile(InputStream data) throws IOException {
+  private void readBinaryFile(InputStream stream) throws IOException {
     ByteBuffer dataBuffer;                // For reading in the correct endian
-    byte[] Info=new byte[80];             // Header data
+    byte[] Info=new byte[HEADER_BYTES];   // Header data
     byte[] Array_number= new byte[4];     // Holds the number of faces
     byte[] Temp_Info;                     // Intermediate array
+    DataInputStream data = new DataInputStream(stream);
 
     int Number_faces; // First info (after the header) on the file
 
-
       // First 80 bytes aren't important
-      if(80 != data.read(Info)) { // File is incorrect
-    	logger.error("Format Error: 80 bytes expected");
-        throw new IOException("STL Format Error: 80 bytes expected");
-      } else { // We must first read the number of faces -> 4 bytes int
-        // It depends on the endian so..
-
-        data.read(Array_number);                      // We get the 4 bytes
-        dataBuffer = ByteBuffer.wrap(Array_number);   // ByteBuffer for reading correctly the int
-        dataBuffer.order(ByteOrder.nativeOrder());    // Set the right order
-        Number_faces = dataBuffer.getInt();
-
-        Temp_Info = new byte[50*Number_faces];        // Each face has 50 bytes of data
-
-        data.read(Temp_Info);                         // We get the rest of the file
-
-        dataBuffer = ByteBuffer.wrap(Temp_Info);      // Now we have all the data in this ByteBuffer
-        dataBuffer.order(ByteOrder.nativeOrder());
-
-        // We can create that array directly as we know how big it's going to be
-        //coordArray = new Point3f[Number_faces*3]; // Each face has 3 vertex
-        //normArray = new Vector3f[Number_faces];
-        //stripCounts = new int[Number_faces];
-
-        for(int i=0;i<Number_faces;i++) {
-          //stripCounts[i]=3;
-          try {
-            readFacetB(dataBuffer,i);
-            
-          } catch (IOException e) {
-            // Quitar
-            logger.error("Format Error: iteration number " + i, e);
-            throw new IOException("Format Error: iteration number " + i, e);
-          }
-        }//End for
-      }// End file reading
+      try {
+        data.readFully(Info);
+        // We must first read the number of faces -> 4 bytes int
+        data.readFully(Array_number);                 // We get the 4 bytes
+      } catch (EOFException e) { // File is incorrect
+    	logger.error("Format Error: 84 bytes expected");
+        throw new IOException("STL Format Error: 84 bytes expected", e);
+      }
+
+      // Binary stl files are always little endian
+      dataBuffer = ByteBuffer.wrap(Array_number);   // ByteBuffer for reading correctly the int
+      dataBuffer.order(ByteOrder.LITTLE_ENDIAN);
+      Number_faces = dataBuffer.getInt();
+      if (Number_faces < 0) {
+        throw new IOException("STL Format Error: header declares " + Integer.toUnsignedString(Number_faces) + " faces");
+      }
+
+      Temp_Info = new byte[FACET_BYTES*Number_faces];        // Each face has 50 bytes of data
+
+      try {
+        data.readFully(Temp_Info);                         // We get the rest of the file
+      } catch (EOFException e) {
+        throw new IOException("STL Format Error: header declares " + Number_faces + " faces but the file ended early", e);
+      }
+
+      dataBuffer = ByteBuffer.wrap(Temp_Info);      // Now we have all the data in this ByteBuffer
+      dataBuffer.order(ByteOrder.LITTLE_ENDIAN);
+      expectedFacetCount = Number_faces;
+      prepareForFacets(Number_faces);
+
+      readFacetsB(dataBuffer, 0, Number_faces);
   }// End of readBinaryFile
 
+  /**
+   * Reads a binary stl file straight out of a memory mapped file instead of copying the whole file onto the heap.
+   * The face count from the header is validated against the size of the file before any facets are read.
+   */
+  private void readMappedBinaryFile(FileChannel channel) throws IOException {
+	  long fileSize = channel.size();
+	  if (fileSize < HEADER_BYTES + 4) {
+		  throw new IOException("STL Format Error: 84 bytes expected, but file only has " + fileSize);
+	  }
+	  
+	  ByteBuffer header = channel.map(MapMode.READ_ONLY, HEADER_BYTES, 4);
+	  header.order(ByteOrder.LITTLE_ENDIAN);
+	  long numberOfFaces = Integer.toUnsignedLong(header.getInt());
+	  long expectedFileSize = HEADER_BYTES + 4 + numberOfFaces * FACET_BYTES;
+	  if (numberOfFaces > Integer.MAX_VALUE || fileSize < expectedFileSize) {
+		  throw new IOException("STL Format Error: header declares " + numberOfFaces + " faces which requires " + expectedFileSize + " bytes, but file only has " + fileSize);
+	  }
+	  if (fileSize > expectedFileSize) {
+		  logger.warn("Ignoring {} bytes after the last facet of stl file", fileSize - expectedFileSize);
+	  }
+	  
+	  expectedFacetCount = (int)numberOfFaces;
+	  prepareForFacets((int)numberOfFaces);
+	  for (int start = 0; start < numberOfFaces; start += FACETS_PER_MAPPING) {
+		  int count = (int)Math.min(FACETS_PER_MAPPING, numberOfFaces - start);
+		  MappedByteBuffer dataBuffer = channel.map(MapMode.READ_ONLY, HEADER_BYTES + 4 + (long)start * FACET_BYTES, (long)count * FACET_BYTES);
+		  readFacetsB(dataBuffer, start, count);
+	  }
+  }
+  
+  /**
+   * Decodes a buffer of consecutive binary facets starting with facet firstIndex.
+   * Binary facets are fixed size records, so when the subclass supports it, large buffers are split into ranges
+   * that are decoded on the slicing pool. Facet indexes don't depend on the order that ranges are decoded in.
+   */
+  private void readFacetsB(ByteBuffer dataBuffer, int firstIndex, int count) throws IOException {
+	  List<Callable<Void>> ranges = new ArrayList<Callable<Void>>();
+	  for (int start = 0; start < count; start += FACETS_PER_RANGE) {
+		  int rangeStart = start;
+		  int rangeCount = Math.min(FACETS_PER_RANGE, count - start);
+		  ranges.add(() -> {
+			  //Each range gets its own position and limit over the same data
+			  ByteBuffer rangeBuffer = dataBuffer.duplicate();
+			  rangeBuffer.order(ByteOrder.LITTLE_ENDIAN);
+			  rangeBuffer.position(rangeStart * FACET_BYTES);
+			  for (int i = firstIndex + rangeStart; i < firstIndex + rangeStart + rangeCount; i++) {
+				  try {
+					  readFacetB(rangeBuffer, i);
+				  } catch (IOException | BufferUnderflowException e) {
+					  logger.error("Format Error: iteration number " + i, e);
+					  throw new IOException("Format Error: iteration number " + i, e);
+				  }
+			  }
+			  completeFacetRange(firstIndex + rangeStart, rangeCount);
+			  reportProgress(rangeCount);
+			  return null;
+		  });
+	  }
+	  
+	  if (ranges.size() < PARALLEL_RANGES_THRESHOLD || !isParallelLoadSupported() || getLoadPool().getParallelism() < 2) {
+		  for (Callable<Void> range : ranges) {
+			  try {
+				  range.call();
+			  } catch (IOException e) {
+				  throw e;
+			  } catch (Exception e) {
+				  throw new IOException("Couldn't decode facets", e);
+			  }
+		  }
+		  return;
+	  }
+	  
+	  for (Future<Void> range : getLoadPool().invokeAll(ranges)) {
+		  try {
+			  range.get();
+		  } catch (InterruptedException e) {
+			  Thread.currentThread().interrupt();
+			  throw new IOException("Interrupted while decoding facets", e);
+		  } catch (ExecutionException e) {
+			  if (e.getCause() instanceof IOException) {
+				  throw (IOException)e.getCause();
+			  }
+			  throw new IOException("Couldn't decode facets", e.getCause());
+		  }
+	  }
+  }
+  
+  private void reportProgress(int newlyLoaded) {
+	  int total = expectedFacetCount;
+	  int after = facetsLoaded.addAndGet(newlyLoaded);
+	  if (total >= PROGRESS_REPORTS && (after - newlyLoaded) / (total / PROGRESS_REPORTS) != after / (total / PROGRESS_REPORTS)) {
+		  logger.info("Loaded {} of {} facets", after, total);
+	  }
+  }
+  
   private void readASCIIFile(InputStream inputStream) throws IOException {
 		setAscii(true);
 		
-		Reader reader = new InputStreamReader(inputStream);
-		StlFileParser parser = new StlFileParser(reader);
+		StlAsciiScanner scanner = new StlAsciiScanner(inputStream);
 		
 		try {
-			parser.nextToken();
+			nextNonBlankToken(scanner);
 		} catch (IOException e) {
-			throw new IOException("File seems to be empty. IO Error on line " + parser.lineno() + ": " + e.getMessage(), e);
+			throw new IOException("File seems to be empty. IO Error on line " + scanner.lineno() + ": " + e.getMessage(), e);
 		}
 		
 		// Here we try to detect what kind of file it is (see readSolid)
-		readSolid(parser);
-		parser.nextToken();
+		readSolid(scanner);
+		nextNonBlankToken(scanner);
 
 		// Read all the facets of the object
-		while (parser.ttype != StlFileParser.TT_EOF && !parser.sval.equals("endsolid")) {
-			readFacet(parser);
-				parser.nextToken();
+		while (scanner.ttype != StlAsciiScanner.TT_EOF && !scanner.isWord(StlAsciiScanner.ENDSOLID)) {
+			readFacet(scanner);
+			nextNonBlankToken(scanner);
 		}// End while
 
 		// Why are we out of the while?: EOF or endsolid
-		if (parser.ttype == StlFileParser.TT_EOF) {
-			throw new IOException("Format Error:expecting 'endsolid', line " + parser.lineno());
+		if (scanner.ttype == StlAsciiScanner.TT_EOF) {
+			throw new IOException("Format Error:expecting 'endsolid', line " + scanner.lineno());
 		}
+		
+		//The number of facets in an ASCII file is only known once it's been read
+		completeFacetRange(0, facetCount);
+		expectedFacetCount = facetCount;
+		facetsLoaded.set(facetCount);
+  }
+  
+  private void nextNonBlankToken(StlAsciiScanner scanner) throws IOException {
+		do {
+			scanner.nextToken();
+		} while (scanner.ttype == StlAsciiScanner.TT_EOL);
   }
   
   private boolean isASCIIFile(PushbackInputStream pushStream, int determinantSize) throws IOException {
@@ -403,13 +559,9 @@ public abstract class StlFile<T,P> {
   }
   /** Entry point for all STL file types */
   public void load(InputStream inputStream, boolean rewriteNormalsWithRightHandRule) throws IOException {
-	this.rewriteNormalsWithRightHandRule = rewriteNormalsWithRightHandRule;
-	int determinantSize = 2048;
-	PushbackInputStream pushStream = new PushbackInputStream(inputStream, determinantSize);
-	triangles = createSet();
-	
+	PushbackInputStream pushStream = startLoad(inputStream, rewriteNormalsWithRightHandRule);
 	try {
-		if (isASCIIFile(pushStream, determinantSize)) {
+		if (isASCIIFile(pushStream, ASCII_DETERMINANT_SIZE)) {
 			readASCIIFile(pushStream);
 		} else {
 			readBinaryFile(pushStream);
@@ -419,6 +571,47 @@ public abstract class StlFile<T,P> {
 	}
   }
 
+  /**
+   * Binary stl files that are regular files are memory mapped instead of being streamed onto the heap.
+   */
+  public void load(File file, boolean rewriteNormalsWithRightHandRule) throws IOException {
+	if (!file.isFile()) {
+		load(new FileInputStream(file), rewriteNormalsWithRightHandRule);
+		return;
+	}
+	
+	PushbackInputStream pushStream = startLoad(new FileInputStream(file), rewriteNormalsWithRightHandRule);
+	try {
+		if (isASCIIFile(pushStream, ASCII_DETERMINANT_SIZE)) {
+			readASCIIFile(pushStream);
+			return;
+		}
+	} finally {
+		pushStream.close();
+	}
+	
+	try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+		readMappedBinaryFile(channel);
+	}
+  }
+  
+  private PushbackInputStream startLoad(InputStream inputStream, boolean rewriteNormalsWithRightHandRule) {
+	this.rewriteNormalsWithRightHandRule = rewriteNormalsWithRightHandRule;
+	triangles = createSet();
+	facetCount = 0;
+	expectedFacetCount = 0;
+	facetsLoaded.set(0);
+	return new PushbackInputStream(inputStream, ASCII_DETERMINANT_SIZE);
+  }
+
+  /**
+   * @return the fraction of facets that have been loaded so far, or 0 if the number of facets isn't known ahead of time(ASCII files)
+   */
+  public double getLoadProgress() {
+	  int total = expectedFacetCount;
+	  return total == 0?0:(double)facetsLoaded.get() / total;
+  }
+
   public boolean getAscii()
   {
     return this.Ascii;
@@ -0,0 +1,153 @@
+package org.area515.resinprinter.slice;
+
+import java.util.Arrays;
+
+/**
+ * A static centered interval tree over the z extents of a set of faces.
+ *
+ * Faces are referred to by their position (0..n-1) in the arrays that were handed to the constructor.
+ * A query for a z value returns the positions of every face where minZ <= z <= maxZ in ascending order,
+ * so that callers get back the same ordering they would have seen by iterating over the whole model.
+ *
+ * The tree is built once per model and doesn't care which direction the z values are queried in.
+ */
+public class ZIntervalIndex {
+	private static final int[] EMPTY = new int[0];
+
+	private final double[] minZ;
+	private final double[] maxZ;
+	private final Node root;
+	private final int size;
+
+	private static class Node {
+		private double center;
+		//Faces that straddle center, sorted by ascending minZ
+		private int[] byMin;
+		//The same faces sorted by descending maxZ
+		private int[] byMax;
+		private Node left;
+		private Node right;
+	}
+
+	public ZIntervalIndex(double[] minZ, double[] maxZ) {
+		if (minZ.length != maxZ.length) {
+			throw new IllegalArgumentException("minZ and maxZ must be the same length");
+		}
+
+		this.minZ = minZ;
+		this.maxZ = maxZ;
+		this.size = minZ.length;
+		int[] all = new int[size];
+		for (int t = 0; t < size; t++) {
+			all[t] = t;
+		}
+		this.root = build(all, all.length);
+	}
+
+	private Node build(int[] faces, int count) {
+		if (count == 0) {
+			return null;
+		}
+
+		//Use the median of the face midpoints so the tree stays balanced
+		double[] centers = new double[count];
+		for (int t = 0; t < count; t++) {
+			centers[t] = (minZ[faces[t]] + maxZ[faces[t]]) / 2;
+		}
+		Arrays.sort(centers);
+
+		Node node = new Node();
+		node.center = centers[count / 2];
+
+		int[] left = new int[count];
+		int[] right = new int[count];
+		int[] middle = new int[count];
+		int leftCount = 0;
+		int rightCount = 0;
+		int middleCount = 0;
+		for (int t = 0; t < count; t++) {
+			int face = faces[t];
+			if (maxZ[face] < node.center) {
+				left[leftCount++] = face;
+			} else if (minZ[face] > node.center) {
+				right[rightCount++] = face;
+			} else {
+				middle[middleCount++] = face;
+			}
+		}
+
+		node.byMin = sortBy(middle, middleCount, minZ, false);
+		node.byMax = sortBy(middle, middleCount, maxZ, true);
+		node.left = build(left, leftCount);
+		node.right = build(right, rightCount);
+		return node;
+	}
+
+	private static int[] sortBy(int[] faces, int count, double[] values, boolean descending) {
+		Integer[] boxed = new Integer[count];
+		for (int t = 0; t < count; t++) {
+			boxed[t] = faces[t];
+		}
+		Arrays.sort(boxed, (first, second) -> descending?Double.compare(values[second], values[first]):Double.compare(values[first], values[second]));
+
+		int[] sorted = new int[count];
+		for (int t = 0; t < count; t++) {
+			sorted[t] = boxed[t];
+		}
+		return sorted;
+	}
+
+	/**
+	 * @return the positions of every face whose z extent contains z, in ascending order
+	 */
+	public int[] findIntersecting(double z) {
+		int[] found = new int[16];
+		int count = 0;
+
+		Node node = root;
+		while (node != null) {
+			if (z < node.center) {
+				for (int face : node.byMin) {
+					if (minZ[face] > z) {
+						break;
+					}
+					if (count == found.length) {
+						found = Arrays.copyOf(found, count * 2);
+					}
+					found[count++] = face;
+				}
+				node = node.left;
+			} else if (z > node.center) {
+				for (int face : node.byMax) {
+					if (maxZ[face] < z) {
+						break;
+					}
+					if (count == found.length) {
+						found = Arrays.copyOf(found, count * 2);
+					}
+					found[count++] = face;
+				}
+				node = node.right;
+			} else {
+				if (count + node.byMin.length > found.length) {
+					found = Arrays.copyOf(found, count + node.byMin.length);
+				}
+				System.arraycopy(node.byMin, 0, found, count, node.byMin.length);
+				count += node.byMin.length;
+				break;
+			}
+		}
+
+		if (count == 0) {
+			return EMPTY;
+		}
+
+		found = Arrays.copyOf(found, count);
+		Arrays.sort(found);
+		return found;
+	}
+
+	public int size() {
+		return size;
+	}
+}
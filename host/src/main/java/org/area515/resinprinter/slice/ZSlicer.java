@@ -5,17 +5,21 @@ import java.awt.Graphics2D;
 import java.awt.Polygon;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
@@ -26,10 +30,11 @@ import org.area515.resinprinter.slice.StlError.ErrorType;
 import org.area515.resinprinter.stl.BrokenFace3d;
 import org.area515.resinprinter.stl.Face3d;
 import org.area515.resinprinter.stl.Line3d;
+import org.area515.resinprinter.stl.Mesh3d;
+import org.area515.resinprinter.stl.MeshFacet3d;
 import org.area515.resinprinter.stl.Point3d;
 import org.area515.resinprinter.stl.Shape3d;
 import org.area515.resinprinter.stl.Triangle3d;
-import org.area515.resinprinter.stl.XYComparatord;
 import org.area515.util.Log4jUtil;
 
 public class ZSlicer {
@@ -52,10 +57,19 @@ public class ZSlicer {
 	 private boolean rewriteNormalsWithRightHandRule = false;
 	 private PolygonMendingMechanism fixBrokenLoops;
 	 
+	 //All of the geometry of the model lives in this mesh
+	 private Mesh3d mesh;
+	 //Built once per model in loadFile() so that a slice only needs to look at the triangles that cross it
+	 private ZIntervalIndex zIntervalIndex;
+	 private ContourLinker contourLinker;
+	 //Every vertex z in ascending order so we can tell if the plane has passed a vertex between two slices
+	 private double[] vertexZ;
+	 private double lastLinkedZ = Double.NaN;
+	 
 	 //These are the variables per z
 	 private List<StlError> errors = new ArrayList<StlError>();
 	 private List<Polygon> fillInPolygons = null;
-	 private List<Line3d> fillInScanLines = null;
+	 private List<RunLengthRaster> fillInRasters = null;
 	 private int z = 0;
 	 private int sliceMaxX;
 	 private int sliceMaxY;
@@ -77,9 +91,6 @@ public class ZSlicer {
 		 this.fixBrokenLoops = fixBrokenLoops;
 		 
 		 stlFile = new StlFile<Triangle3d, Point3d>() {
-			private Triangle3d lastTriangle;
-			private Triangle3d firstTriangle;
-			
 			@Override
 			protected Point3d buildPoint(double x, double y, double z) {
 				return new Point3d(
@@ -88,41 +99,112 @@ public class ZSlicer {
 						z * (ZSlicer.this.precisionScaler * ZSlicer.this.stlScale));
 			}
 			
+			//Triangles are views into the mesh and are only built when they are asked for
 			@Override
-			public Set<Triangle3d> createSet() {
-				return new TreeSet<Triangle3d>();
+			public Collection<Triangle3d> createSet() {
+				mesh = new Mesh3d();
+				return new AbstractList<Triangle3d>() {
+					@Override
+					public Triangle3d get(int index) {
+						return mesh.getTriangle(index);
+					}
+
+					@Override
+					public int size() {
+						return mesh.getFacetCount();
+					}
+				};
 			}
 			
 			@Override
-			protected void buildTriangle(Point3d point1, Point3d point2, Point3d point3, double[] normal) {
-				Triangle3d newTriangle = new Triangle3d(new Point3d[]{point1, point2, point3}, new Point3d(normal[0], normal[1], normal[2]), null, null, triangles.size());
-				if (lastTriangle != null) {
-					lastTriangle.setNextTriangle(newTriangle);
+			protected void prepareForFacets(int facetCount) {
+				mesh = new Mesh3d(facetCount);
+				mesh.setFacetCount(facetCount);
+			}
+			
+			@Override
+			protected boolean isParallelLoadSupported() {
+				return true;
+			}
+			
+			@Override
+			protected void buildFacet(int index, double[] p1, double[] p2, double[] p3, double[] normal) {
+				//ASCII files don't know their facet count ahead of time
+				if (index >= mesh.getFacetCount()) {
+					mesh.setFacetCount(index + 1);
 				}
-			    triangles.add(newTriangle);
-			    
-			    zmin = Math.min(point1.z, Math.min(point2.z, Math.min(point3.z, zmin)));
-			    zmax = Math.max(point1.z, Math.max(point2.z, Math.max(point3.z, zmax)));
-			    xmin = Math.min(point1.x, Math.min(point2.x, Math.min(point3.x, xmin)));
-			    xmax = Math.max(point1.x, Math.max(point2.x, Math.max(point3.x, xmax)));
-			    ymin = Math.min(point1.y, Math.min(point2.y, Math.min(point3.y, ymin)));
-			    ymax = Math.max(point1.y, Math.max(point2.y, Math.max(point3.y, ymax)));
-			    lastTriangle = newTriangle;
-			    if (firstTriangle == null) {
-			    	firstTriangle = newTriangle;
-			    }
+				double scale = ZSlicer.this.precisionScaler * ZSlicer.this.stlScale;
+				mesh.setFacet(index, 
+						p1[0] * scale, p1[1] * scale, p1[2] * scale, 
+						p2[0] * scale, p2[1] * scale, p2[2] * scale, 
+						p3[0] * scale, p3[1] * scale, p3[2] * scale, 
+						normal[0], normal[1], normal[2]);
+			}
+			
+			@Override
+			protected void buildTriangle(Point3d point1, Point3d point2, Point3d point3, double[] normal) {
+				//Points built with buildPoint() have already been scaled
+				int index = mesh.getFacetCount();
+				mesh.setFacetCount(index + 1);
+				mesh.setFacet(index, 
+						point1.x, point1.y, point1.z, 
+						point2.x, point2.y, point2.z, 
+						point3.x, point3.y, point3.z, 
+						normal[0], normal[1], normal[2]);
+			}
+			
+			@Override
+			protected synchronized void completeFacetRange(int firstIndex, int count) {
+				double[] bounds = mesh.getBounds(firstIndex, count);
+			    xmin = Math.min(bounds[0], xmin);
+			    ymin = Math.min(bounds[1], ymin);
+			    zmin = Math.min(bounds[2], zmin);
+			    xmax = Math.max(bounds[3], xmax);
+			    ymax = Math.max(bounds[4], ymax);
+			    zmax = Math.max(bounds[5], zmax);
 			}
 			
 			public Triangle3d getFirstTriangle() {
-				return firstTriangle;
+				return mesh.getFacetCount() > 0?mesh.getTriangle(0):null;
 			}
 		  };
 	 }
-	 
+
+	 /**
+	  * Builds a slicer that shares the model of a slicer that has already been loaded, so that several layers can be
+	  * sliced at the same time. The model is only read while slicing, everything that changes from layer to layer
+	  * belongs to each slicer.
+	  */
+	 public ZSlicer(ZSlicer loadedSlicer) {
+		 this(loadedSlicer.stlScale,
+				 loadedSlicer.pixelsPerMMX,
+				 loadedSlicer.pixelsPerMMY,
+				 loadedSlicer.sliceResolution,
+				 loadedSlicer.zOffset,
+				 loadedSlicer.keepTrackOfErrors,
+				 loadedSlicer.rewriteNormalsWithRightHandRule,
+				 loadedSlicer.fixBrokenLoops);
+		 precisionScaler = loadedSlicer.precisionScaler;
+		 imageOffsetX = loadedSlicer.imageOffsetX;
+		 imageOffsetY = loadedSlicer.imageOffsetY;
+		 stlFile = loadedSlicer.stlFile;
+		 mesh = loadedSlicer.mesh;
+		 zIntervalIndex = loadedSlicer.zIntervalIndex;
+		 vertexZ = loadedSlicer.vertexZ;
+		 contourLinker = new ContourLinker(mesh);
+	 }
+
 	 public List<StlError> getStlErrors() {
 		 return errors;
 	 }
 	 
+	 /**
+	  * Sets the errors of the current z when its slice was taken from somewhere else instead of being colorized.
+	  */
+	 public void setStlErrors(List<StlError> errors) {
+		 this.errors = new ArrayList<StlError>(errors);
+	 }
+	 
 	 public void placeIntoCompletedLoopList(List<Line3d> completedLoop, List<List<Line3d>> completedFillInLoops) {
 		 List<Line3d> lines = new ArrayList<Line3d>();
 		 for (Line3d line : completedLoop) {
@@ -342,10 +424,34 @@ public class ZSlicer {
 		 return stlFile.getFirstTriangle();
 	 }
 	 
+	 /**
+	  * These triangles are built on demand from the mesh, so iterating this collection is expensive.
+	  */
 	 public Collection<Triangle3d> getAllTriangles() {
 		 return stlFile.getTriangles();
 	 }
 	 
+	 public int getTriangleCount() {
+		 return mesh.getFacetCount();
+	 }
+	 
+	 public Triangle3d getTriangle(int index) {
+		 return mesh.getTriangle(index);
+	 }
+	 
+	 /**
+	  * @return the Triangle3d view of the face that a line was sliced from or null if the line didn't come from the mesh
+	  */
+	 public Triangle3d getTriangle(Face3d face) {
+		 if (face instanceof MeshFacet3d) {
+			 return ((MeshFacet3d)face).getTriangle();
+		 }
+		 if (face instanceof Triangle3d) {
+			 return (Triangle3d)face;
+		 }
+		 return null;
+	 }
+	 
 	 private boolean isIntersecting(Line3d line, int x, int y) {
 		  double translatedX1 = (x - 1 - imageOffsetX) * precisionScaler / pixelsPerMMX;
 		  double translatedY1 = (y - 1 - imageOffsetY) * precisionScaler / pixelsPerMMY;
@@ -404,7 +510,7 @@ public class ZSlicer {
 				 triangle.getNormal(), 
 				 parentShape,
 				 null,
-				 parentShape instanceof Triangle3d?((Triangle3d)parentShape).getOriginalIndex():null);
+				 triangle.getOriginalIndex());
 	 }
 	 
 	 public Point3d translatePoint(Point3d point) {
@@ -423,16 +529,41 @@ public class ZSlicer {
 		 return z / precisionScaler;// / sliceResolution;
 	 }
 	 
+	 private void buildZIntervalIndex() {
+		 double[] minZ = new double[mesh.getFacetCount()];
+		 double[] maxZ = new double[mesh.getFacetCount()];
+		 for (int t = 0; t < minZ.length; t++) {
+			 minZ[t] = mesh.getMinZ(t);
+			 maxZ[t] = mesh.getMaxZ(t);
+		 }
+		 zIntervalIndex = new ZIntervalIndex(minZ, maxZ);
+		 
+		 vertexZ = new double[mesh.getVertexCount()];
+		 for (int t = 0; t < vertexZ.length; t++) {
+			 vertexZ[t] = mesh.getZ(t);
+		 }
+		 Arrays.sort(vertexZ);
+	 }
+	 
+	 //True if there is a vertex between the two z values(inclusive)
+	 private boolean isVertexBetween(double z1, double z2) {
+		 int index = Arrays.binarySearch(vertexZ, Math.min(z1, z2));
+		 if (index >= 0) {
+			 return true;
+		 }
+		 index = -index - 1;
+		 return index < vertexZ.length && vertexZ[index] <= Math.max(z1, z2);
+	 }
+	 
 	 //NOT used in org.area515.resinprinter.job.STLImageRenderer.STLImageRenderer
 	 private List<Shape3d> getPolygonsOnSlice() {
 		 List<Shape3d> shapes = new ArrayList<Shape3d>();
-		  for (Triangle3d triangle : stlFile.getTriangles()) {
-			  //if (triangle.intersectsZ(z + zOffset)) {
-				  Shape3d shape = triangle.getZIntersection(z * precisionScaler * sliceResolution + zOffset);
-				  if (shape != null) {
-					  shapes.add(shape);
-				  }
-			  //}
+		  double actualZ = z * precisionScaler * sliceResolution + zOffset;
+		  for (int facet : zIntervalIndex.findIntersecting(actualZ)) {
+			  Shape3d shape = mesh.getZIntersection(facet, actualZ);
+			  if (shape != null) {
+				  shapes.add(shape);
+			  }
 		  }
 		  
 		  return shapes;
@@ -497,11 +628,11 @@ public class ZSlicer {
 		  }
 		  
 		  //Red alpha
-		  if (fillInScanLines != null) {
+		  if (fillInRasters != null) {
 			  g.setColor(new Color(0xff, 0xff/2, 0xff/2, 75));
 			  g.setBackground(new Color(0xff, 0xff/2, 0xff/2, 75));
-			  for (Line3d currentLine : fillInScanLines) {
-				  g.drawLine((int)currentLine.getPointOne().x, (int)currentLine.getPointOne().y, (int)currentLine.getPointTwo().x, (int)currentLine.getPointTwo().y);
+			  for (RunLengthRaster raster : fillInRasters) {
+				  raster.paint(g);
 			  }
 		  }
 	 }
@@ -521,21 +652,44 @@ public class ZSlicer {
 	    Kernel kernel = new Kernel(3, 3, data);
 	    ConvolveOp convolve = new ConvolveOp(kernel, ConvolveOp.EDGE_NO_OP, null);
 	    */
-		if (fillInScanLines != null) {
-			for (Line3d currentLine : fillInScanLines) {
-				int x1 = (int)Math.round(currentLine.getPointOne().x);
-				int y1 = (int)Math.round(currentLine.getPointOne().y);
-				int x2 = (int)Math.round(currentLine.getPointTwo().x);
-				int y2 = (int)Math.round(currentLine.getPointTwo().y);
-				
-				g.setColor(Color.white);
-				g.drawLine(x1, y1, x2, y2);
-				//g.setColor(Color.darkGray);
-				//g.drawLine(x1, y1, x1, y1);
-				//g.drawLine(x2, y2, x2, y2);
+		if (fillInRasters != null) {
+			g.setColor(Color.white);
+			for (RunLengthRaster raster : fillInRasters) {
+				raster.paint(g);
 			}
 		}
 		
+		paintPolygons(g);
+	 }
+	 
+	 /**
+	  * Paints the slice onto an image. The scanlines are written straight into the pixels of the image when it's one of
+	  * the byte based formats and only the outlines of the polygons are drawn through Java2D.
+	  */
+	 public void paintSlice(BufferedImage image, boolean fillBlackFirst) {
+		 Graphics2D g = image.createGraphics();
+		 try {
+			 if (fillBlackFirst) {
+				 g.setBackground(Color.black);
+				 g.clearRect(0, 0, image.getWidth(), image.getHeight());
+			 }
+			 
+			 if (fillInRasters != null) {
+				 g.setColor(Color.white);
+				 for (RunLengthRaster raster : fillInRasters) {
+					 if (!raster.paint(image)) {
+						 raster.paint(g);
+					 }
+				 }
+			 }
+			 
+			 paintPolygons(g);
+		 } finally {
+			 g.dispose();
+		 }
+	 }
+	 
+	 private void paintPolygons(Graphics2D g) {
 		if (fillInPolygons != null) {
 			g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
 			g.setColor(Color.white);
@@ -598,86 +752,88 @@ public class ZSlicer {
 		  sliceMaxY = -Integer.MAX_VALUE;
 		  sliceMinX = Integer.MAX_VALUE;
 		  sliceMinY = Integer.MAX_VALUE;
-		  ForkJoinPool pool = new ForkJoinPool();
 		  List<Face3d> trianglesAndBrokenFacesForMazeTraversal = new ArrayList<Face3d>();
 		  List<List<Line3d>> completedFillInLoops = new ArrayList<List<Line3d>>();
 		  List<List<Line3d>> brokenLoops = new ArrayList<List<Line3d>>();
 		  errors.clear();
+		  Set<Integer> watchedFacets = null;
+		  if (watchedTriangles != null) {
+			  watchedFacets = new HashSet<Integer>();
+			  for (Triangle3d triangle : watchedTriangles) {
+				  if (triangle.getOriginalIndex() != null) {
+					  watchedFacets.add(triangle.getOriginalIndex());
+				  }
+			  }
+		  }
 
-		  //Find all intersections and put them into a sorted list.
-		  //We put them in a sorted list because the join algorithm can be executed in virtually constant time
-		  //Effectively, this loop is log n due to the sort into XYComparator
-		  
+		  //The interval index only hands back triangles that span actualZ and the contour linker joins their lines
+		  //by walking from each facet to its neighbor, so nothing needs to be sorted or compared by coordinates
 		  logger.info("===================");
 		  logger.info("ZSlice started", ()->Log4jUtil.startTimer("sliceTime"));
-		  Set<Line3d> zIntersectionsBySortedX = new TreeSet<Line3d>(new XYComparatord(Triangle3d.EQUAL_TOLERANCE));
-		  for (Triangle3d triangle : stlFile.getTriangles()) {
-			  if (watchedTriangles != null && watchedTriangles.contains(triangle)) {
-				  logger.debug("Watched triangle:{}", ()-> translateTriangle(triangle));
-			  }
-			  /*if (triangle.onZeroZ())  {
-				  logger.debug("on z");//123456
-			  }*/
-			  double actualZ = (double)z * precisionScaler * sliceResolution + zOffset;
-			  if (triangle.intersectsZ(actualZ)) {
-				  Shape3d shape = triangle.getZIntersection(actualZ);
-				  if (shape instanceof Triangle3d) {
-					  //TODO: This is experimental
-					  //placeIntoCompletedLoopList(((Triangle3d)shape).getLines(), completedFillInLoops);
-					  //trianglesAndBrokenFacesForMazeTraversal.add((Triangle3d)shape);
-					  //TODO: This is experimental
-					  zIntersectionsBySortedX.addAll(((Triangle3d)shape).getLines());
-					  logger.debug("Triangle:{}", ()-> translateTriangle((Triangle3d)shape));
-				  } else if (shape instanceof Line3d) {
-					  zIntersectionsBySortedX.add((Line3d)shape);
-					  logger.debug("Line:" +  translateLine((Line3d)shape));
-				  } else if (shape != null) {
-					  logger.debug("Ignored Point:{}", () -> translatePoint((Point3d)shape));
-				  }	 else {
+		  double actualZ = (double)z * precisionScaler * sliceResolution + zOffset;
+		  List<List<Line3d>> workingLoops = new ArrayList<List<Line3d>>();
+		  List<List<Line3d>> linkedLoops = new ArrayList<List<Line3d>>();
+		  
+		  //If the plane hasn't passed a vertex since the last slice, the same triangles are cut through the same edges
+		  //and the loops from the last slice only need their lines recomputed
+		  boolean reusedLoops = watchedFacets == null && 
+				  !Double.isNaN(lastLinkedZ) && 
+				  !isVertexBetween(lastLinkedZ, actualZ) && 
+				  contourLinker.relink(actualZ, linkedLoops, workingLoops);
+		  if (!reusedLoops) {
+			  for (int facet : zIntervalIndex.findIntersecting(actualZ)) {
+				  if (watchedFacets != null && watchedFacets.contains(facet)) {
+					  logger.debug("Watched triangle:{}", ()-> translateTriangle(mesh.getTriangle(facet)));
+				  }
+				  Line3d line = contourLinker.addFacet(facet, actualZ);
+				  if (line != null) {
+					  logger.debug("Line:{}", () -> translateLine(line));
+				  } else {
 					  logger.debug("No geometrical intersection");
 				  }
-			  } else {
-				  logger.debug("Intersection was optimized out");
-			  }//*/
+			  }
 		  }
+		  lastLinkedZ = actualZ;
 		  
+		  int intersectionCount = contourLinker.getLineCount();
+		  if (reusedLoops) {
+			  for (List<Line3d> loop : linkedLoops) {
+				  intersectionCount += loop.size();
+			  }
+			  for (List<Line3d> loop : workingLoops) {
+				  intersectionCount += loop.size();
+			  }
+		  }
 		  logger.info("IntersectionTime:{}", ()->Log4jUtil.splitTimer("sliceTime"));
 		  logger.debug("===================");
-		  logger.debug("zIntersectionsBySortedX:{}", zIntersectionsBySortedX.size());
+		  logger.debug("intersections:{} reused loops:{}", intersectionCount, reusedLoops);
 		  logger.debug("completedFillInLoops:{}", completedFillInLoops.size());
 		  logger.debug("===================");
 		  
-		  //Even though this algorithm is structured to be n^2 it executes in (n * constant) time because of the comparator
-		  //We join a set of loose lines into working loops of lines
-		  //This algorithm is slightly more efficient than the below algorithm since reversals are less expensive
-		  List<List<Line3d>> workingLoops = new ArrayList<List<Line3d>>();
-		  Iterator<Line3d> lineIterator = zIntersectionsBySortedX.iterator();
-		  nextLine : while (lineIterator.hasNext()) {
-			  Line3d currentLine = lineIterator.next();
-			  
-			  Iterator<List<Line3d>> workingLoopIter = workingLoops.iterator();
-			  while (workingLoopIter.hasNext()) {
-				  List<Line3d> currentWorkingLoop = workingLoopIter.next();
-				  switch (findLinkage(currentWorkingLoop, currentLine)) {
-				  case FoundCompletion :
-					  placeIntoCompletedLoopList(currentWorkingLoop, completedFillInLoops);
-					  workingLoopIter.remove();
-					  continue nextLine;
-				  case FoundLink :
-					  continue nextLine;
-				  }
+		  //Lines that couldn't be joined through the mesh are left as working loops for the search below
+		  if (!reusedLoops) {
+			  contourLinker.link(linkedLoops, workingLoops);
+		  }
+		  for (List<Line3d> loop : linkedLoops) {
+			  placeIntoCompletedLoopList(loop, completedFillInLoops);
+		  }
+		  
+		  //Cracks in the mesh(vertices that are close but not identical) leave chains that nearly close on themselves
+		  Iterator<List<Line3d>> workingLoopIter = workingLoops.iterator();
+		  while (workingLoopIter.hasNext()) {
+			  List<Line3d> currentWorkingLoop = workingLoopIter.next();
+			  if (currentWorkingLoop.get(currentWorkingLoop.size() - 1).getPointTwo().pointEquals(currentWorkingLoop.get(0).getPointOne())) {
+				  logger.debug("Completed Link with [{}] links (Closed crack)", currentWorkingLoop.size());
+				  placeIntoCompletedLoopList(currentWorkingLoop, completedFillInLoops);
+				  workingLoopIter.remove();
 			  }
-			  
-			  List<Line3d> newLoop = new ArrayList<Line3d>();
-			  newLoop.add(currentLine);
-			  workingLoops.add(newLoop);
 		  }
 		  
 		  logger.info("Primary linkage search:{}", ()->Log4jUtil.splitTimer("sliceTime"));
 
 		  if (logger.isDebugEnabled()) {
 			  logger.debug("===================");
-			  logger.debug("zIntersectionsBySortedX:{}", zIntersectionsBySortedX.size());
+			  logger.debug("intersections:{}", intersectionCount);
 			  logger.debug("completedFillInLoops count:{}", completedFillInLoops.size());
 			  int value = 0;
 			  for (List<Line3d> loop : completedFillInLoops) {
@@ -694,9 +850,8 @@ public class ZSlicer {
 			  logger.debug("Debug print time:{}", ()->Log4jUtil.splitTimer("sliceTime"));
 		  }
 		  
-		  //Empirically I've found that about half of all loops need to be joined with this method
 		  //Now combine workingLoops into completedLoops. This algorithm is a bit more inefficient
-		  //but there shouldn't be that many stray loops left to connect...
+		  //but only lines from flipped facets, holes and other broken geometry should be left to connect...
 		  nextWorkingLoop : while (workingLoops.size() > 0) {
 			  List<Line3d> currentWorkingLoop = workingLoops.get(0);
 
@@ -724,7 +879,7 @@ public class ZSlicer {
 
 		  if (logger.isDebugEnabled()) {
 			  logger.debug("===================");
-			  logger.debug("zIntersectionsBySortedX:{}", zIntersectionsBySortedX.size());
+			  logger.debug("intersections:{}", intersectionCount);
 			  logger.debug("completedFillInLoops count:{}", completedFillInLoops.size());
 			  int value = 0;
 			  for (List<Line3d> loop : completedFillInLoops) {
@@ -829,10 +984,10 @@ public class ZSlicer {
 			  logger.debug("Broken Loops({}):{}",brokenLoops.size(), brokenLoops);
 			  for (List<Line3d> currentBrokenLoop : brokenLoops) {
 				  Line3d side = currentBrokenLoop.get(0);
-				  errors.add(new StlError((Triangle3d)side.getOriginatingFace(), side));
+				  errors.add(new StlError(getTriangle(side.getOriginatingFace()), side));
 				  if (currentBrokenLoop.size() > 1) {
 					  side = currentBrokenLoop.get(currentBrokenLoop.size() - 1);
-					  errors.add(new StlError((Triangle3d)side.getOriginatingFace(), side));
+					  errors.add(new StlError(getTriangle(side.getOriginatingFace()), side));
 				  }
 			  }
 			  
@@ -846,25 +1001,27 @@ public class ZSlicer {
 		  }
 		  
 		  //Preperation work for the Scanline algorithm
-		  Map<Integer, List<Line3d>> inRangeLines = new HashMap<Integer, List<Line3d>>();
 		  int breakupSize = (sliceMaxY - sliceMinY) / ScanlineFillPolygonWork.SMALLEST_UNIT_OF_WORK;
 		  if (completedFillInLoops.size() % ScanlineFillPolygonWork.SMALLEST_UNIT_OF_WORK > 0) {
 			  breakupSize++;
 		  }
+		  @SuppressWarnings("unchecked")
+		  List<Line3d>[] inRangeLines = new List[Math.max(breakupSize, 0)];
 		  for (List<Line3d> currentPolygon : completedFillInLoops) {
 			 for (Line3d currentLine : currentPolygon) {
 				 double minY = currentLine.getMinY();
 				 double maxY = currentLine.getMaxY();
-				 for (int t = 0; t < breakupSize; t++) {
+				 //Only the pieces near the y extent of the line need to be checked
+				 int first = Math.max(0, (int)Math.floor((minY - sliceMinY) / ScanlineFillPolygonWork.SMALLEST_UNIT_OF_WORK) - 2);
+				 int last = Math.min(breakupSize - 1, (int)Math.ceil((maxY - sliceMinY) / ScanlineFillPolygonWork.SMALLEST_UNIT_OF_WORK) + 1);
+				 for (int t = first; t <= last; t++) {
 					 if (minY <= (double)(t + 1) * ScanlineFillPolygonWork.SMALLEST_UNIT_OF_WORK + sliceMinY  &&
 					     maxY >= (double)t * ScanlineFillPolygonWork.SMALLEST_UNIT_OF_WORK + sliceMinY) {
-						 List<Line3d> range = inRangeLines.get(t);
-						 if (range == null) {
-							 range = new ArrayList<Line3d>();
-							 inRangeLines.put(t, range);
+						 if (inRangeLines[t] == null) {
+							 inRangeLines[t] = new ArrayList<Line3d>();
 						 }
 						 
-						 range.add(currentLine); 
+						 inRangeLines[t].add(currentLine); 
 					 }
 				 }
 			 }
@@ -873,23 +1030,24 @@ public class ZSlicer {
 
 		  List<Future<ScanlineFillPolygonWork>> completedWork = new ArrayList<Future<ScanlineFillPolygonWork>>();
 		  for (int y = 0; y < breakupSize; y++) {
-			  List<Line3d> inRange = inRangeLines.get(y);
+			  List<Line3d> inRange = inRangeLines[y];
 			  if (inRange == null) {
 				  continue;
 			  }
 			  
 			  ScanlineFillPolygonWork work = new ScanlineFillPolygonWork(
 					  inRange, 
-					  watchedTriangles,
+					  watchedFacets,
 					  watchedYs,
 					  y * ScanlineFillPolygonWork.SMALLEST_UNIT_OF_WORK + sliceMinY,
 					  (y + 1) * ScanlineFillPolygonWork.SMALLEST_UNIT_OF_WORK + sliceMinY - 1,
 					  z);
-			  completedWork.add(pool.submit(work));
+			  completedWork.add(SlicingPool.getPool().submit(work));
 		  }
 		  logger.info("Submit scanline work:{}", ()->Log4jUtil.splitTimer("sliceTime"));
+		  logger.debug("Slicing pool:{}", ()->SlicingPool.getStatistics());
 		  
-		  fillInScanLines = new ArrayList<Line3d>();
+		  fillInRasters = new ArrayList<RunLengthRaster>();
 		  buildArea = 0;
 		  for (Future<ScanlineFillPolygonWork> currentWork : completedWork) {
 			  ScanlineFillPolygonWork work;
@@ -897,11 +1055,11 @@ public class ZSlicer {
 					work = currentWork.get();
 					if (keepTrackOfErrors) {
 						  for (Face3d currentInsideOutPolygon : work.getInsideOutPolygons()) {
-							  errors.add(new StlError((Triangle3d)currentInsideOutPolygon, ErrorType.Insideout));
+							  errors.add(new StlError(getTriangle(currentInsideOutPolygon), ErrorType.Insideout));
 						  }
 					}
 					
-					fillInScanLines.addAll(work.getScanLines());
+					fillInRasters.add(work.getRaster());
 					buildArea += work.getBuildArea();
 				} catch (InterruptedException | ExecutionException e) {
 					logger.error("Error in executing polygon work", e);
@@ -930,7 +1088,6 @@ public class ZSlicer {
 			  logger.debug("======");//*/
 			  logger.debug("Print working loops:{}", ()->Log4jUtil.splitTimer("sliceTime"));
 		  }
-		  pool.shutdown();
 		  logger.info("ZSlice complete:{}", ()->Log4jUtil.completeTimer("sliceTime"));
 		  return completedFillInLoops;
 	 }
@@ -938,6 +1095,38 @@ public class ZSlicer {
 	 public void loadFile(InputStream stream, Double buildPlatformXPixels, Double buildPlatformYPixels) throws IOException {
 		  logger.info("Load file start", ()->Log4jUtil.startTimer("fileLoadTime"));
 		  stlFile.load(stream, rewriteNormalsWithRightHandRule);
+		  completeLoad(buildPlatformXPixels, buildPlatformYPixels);
+	 }
+	 
+	 /**
+	  * Binary stl files are memory mapped when loaded through this method.
+	  */
+	 public void loadFile(File file, Double buildPlatformXPixels, Double buildPlatformYPixels) throws IOException {
+		  logger.info("Load file start", ()->Log4jUtil.startTimer("fileLoadTime"));
+		  stlFile.load(file, rewriteNormalsWithRightHandRule);
+		  completeLoad(buildPlatformXPixels, buildPlatformYPixels);
+	 }
+	 
+	 public double getLoadProgress() {
+		 return stlFile.getLoadProgress();
+	 }
+	 
+	 public void setLoadPool(ForkJoinPool loadPool) {
+		 stlFile.setLoadPool(loadPool);
+	 }
+	 
+	 StlFile<Triangle3d, Point3d> getStlFile() {
+		 return stlFile;
+	 }
+	 
+	 private void completeLoad(Double buildPlatformXPixels, Double buildPlatformYPixels) {
+		  mesh.trimToSize();
+		  int weldedVertices = mesh.weldVertices();
+		  mesh.buildEdgeAdjacency();
+		  contourLinker = new ContourLinker(mesh);
+		  lastLinkedZ = Double.NaN;
+		  buildZIntervalIndex();
+		  logger.info("Loaded {} triangles with {} vertices({} welded) into {} bytes of mesh", mesh.getFacetCount(), mesh.getVertexCount(), weldedVertices, mesh.getMemoryFootprint());
  
 		if (imageOffsetX == null) {
 			if (buildPlatformXPixels != null) {
@@ -967,7 +1156,7 @@ public class ZSlicer {
      public void setZIndex(int z) {
  		this.z = z;
 		fillInPolygons = null;
-		fillInScanLines = null;
+		fillInRasters = null;
 		buildArea = 0;
 	 }
 	
@@ -0,0 +1,406 @@
+package org.area515.resinprinter.stl;
+
+import java.util.Arrays;
+
+/**
+ * A compact triangle mesh that keeps all of its geometry in primitive arrays instead of one object per vertex and facet.
+ *
+ * vertices holds x,y,z for each vertex, facets holds the three vertex indexes of each facet and normals holds
+ * the x,y,z of each facet's normal. Facet indexes are the order in which the facets were read from the stl file.
+ *
+ * Triangle3d and MeshFacet3d objects are only created on demand as views into this mesh.
+ *
+ * Once a model is loaded, weldVertices() merges vertices with identical coordinates so that neighboring facets
+ * share vertex indexes, and buildEdgeAdjacency() records which facet lies across each edge of every facet.
+ */
+public class Mesh3d {
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private double[] vertices;
+	private int vertexCount;
+	private int[] facets;
+	private double[] normals;
+	private int facetCount;
+	//The facet across edge (corner, corner + 1) of each facet or -1 if that edge isn't shared by exactly two facets
+	private int[] neighbors;
+
+	public Mesh3d() {
+		this(INITIAL_CAPACITY);
+	}
+
+	public Mesh3d(int expectedFacetCount) {
+		expectedFacetCount = Math.max(expectedFacetCount, 1);
+		vertices = new double[expectedFacetCount * 9];
+		facets = new int[expectedFacetCount * 3];
+		normals = new double[expectedFacetCount * 3];
+	}
+
+	private void ensureVertexCapacity(int count) {
+		if (count * 3 > vertices.length) {
+			vertices = Arrays.copyOf(vertices, Math.max(count * 3, vertices.length * 2));
+		}
+	}
+
+	private void ensureFacetCapacity(int count) {
+		if (count * 3 > facets.length) {
+			int newLength = Math.max(count * 3, facets.length * 2);
+			facets = Arrays.copyOf(facets, newLength);
+			normals = Arrays.copyOf(normals, newLength);
+		}
+	}
+
+	public int addVertex(double x, double y, double z) {
+		ensureVertexCapacity(vertexCount + 1);
+		vertices[vertexCount * 3] = x;
+		vertices[vertexCount * 3 + 1] = y;
+		vertices[vertexCount * 3 + 2] = z;
+		return vertexCount++;
+	}
+
+	public int addFacet(int vertex1, int vertex2, int vertex3, double normalX, double normalY, double normalZ) {
+		ensureFacetCapacity(facetCount + 1);
+		facets[facetCount * 3] = vertex1;
+		facets[facetCount * 3 + 1] = vertex2;
+		facets[facetCount * 3 + 2] = vertex3;
+		normals[facetCount * 3] = normalX;
+		normals[facetCount * 3 + 1] = normalY;
+		normals[facetCount * 3 + 2] = normalZ;
+		return facetCount++;
+	}
+
+	/**
+	 * Sets the number of facets in the mesh where each facet owns its own three vertices.
+	 * Once the mesh is sized, setFacet() can be called from multiple threads as long as each call is for a different facet.
+	 */
+	public void setFacetCount(int count) {
+		ensureFacetCapacity(count);
+		ensureVertexCapacity(count * 3);
+		facetCount = count;
+		vertexCount = count * 3;
+	}
+
+	public void setFacet(int facet, double x1, double y1, double z1, double x2, double y2, double z2, double x3, double y3, double z3, double normalX, double normalY, double normalZ) {
+		int vertex = facet * 9;
+		vertices[vertex] = x1;
+		vertices[vertex + 1] = y1;
+		vertices[vertex + 2] = z1;
+		vertices[vertex + 3] = x2;
+		vertices[vertex + 4] = y2;
+		vertices[vertex + 5] = z2;
+		vertices[vertex + 6] = x3;
+		vertices[vertex + 7] = y3;
+		vertices[vertex + 8] = z3;
+		facets[facet * 3] = facet * 3;
+		facets[facet * 3 + 1] = facet * 3 + 1;
+		facets[facet * 3 + 2] = facet * 3 + 2;
+		normals[facet * 3] = normalX;
+		normals[facet * 3 + 1] = normalY;
+		normals[facet * 3 + 2] = normalZ;
+	}
+
+	/**
+	 * @return {minX, minY, minZ, maxX, maxY, maxZ} of the vertices used by a range of facets
+	 */
+	public double[] getBounds(int firstFacet, int count) {
+		double[] bounds = new double[]{Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+		for (int facet = firstFacet; facet < firstFacet + count; facet++) {
+			for (int corner = 0; corner < 3; corner++) {
+				int vertex = facets[facet * 3 + corner] * 3;
+				for (int axis = 0; axis < 3; axis++) {
+					bounds[axis] = Math.min(bounds[axis], vertices[vertex + axis]);
+					bounds[axis + 3] = Math.max(bounds[axis + 3], vertices[vertex + axis]);
+				}
+			}
+		}
+		return bounds;
+	}
+
+	private static int hashVertex(double x, double y, double z) {
+		//0.0 and -0.0 are equal, but their bits aren't
+		long bits = Double.doubleToLongBits(x == 0?0:x) * 31 + Double.doubleToLongBits(y == 0?0:y);
+		bits = bits * 31 + Double.doubleToLongBits(z == 0?0:z);
+		return (int)(bits ^ (bits >>> 32)) * 0x9E3779B9;
+	}
+
+	/**
+	 * Merges vertices with exactly the same coordinates into a single vertex and rewrites the facets to use them.
+	 * Facet indexes don't change.
+	 *
+	 * @return the number of vertices that were merged away
+	 */
+	public int weldVertices() {
+		int tableSize = Integer.highestOneBit(Math.max(vertexCount, 1) * 2 - 1) << 1;
+		int[] table = new int[tableSize];
+		Arrays.fill(table, -1);
+		int[] weldedIndex = new int[vertexCount];
+		int welded = 0;
+		for (int vertex = 0; vertex < vertexCount; vertex++) {
+			double x = vertices[vertex * 3];
+			double y = vertices[vertex * 3 + 1];
+			double z = vertices[vertex * 3 + 2];
+			int slot = hashVertex(x, y, z) & (tableSize - 1);
+			while (table[slot] != -1) {
+				int existing = table[slot];
+				if (vertices[existing * 3] == x && vertices[existing * 3 + 1] == y && vertices[existing * 3 + 2] == z) {
+					break;
+				}
+				slot = (slot + 1) & (tableSize - 1);
+			}
+			if (table[slot] == -1) {
+				//Welded vertices are compacted in place, which is safe since welded never passes vertex
+				table[slot] = welded;
+				vertices[welded * 3] = x;
+				vertices[welded * 3 + 1] = y;
+				vertices[welded * 3 + 2] = z;
+				welded++;
+			}
+			weldedIndex[vertex] = table[slot];
+		}
+
+		for (int corner = 0; corner < facetCount * 3; corner++) {
+			facets[corner] = weldedIndex[facets[corner]];
+		}
+		int merged = vertexCount - welded;
+		vertexCount = welded;
+		vertices = Arrays.copyOf(vertices, vertexCount * 3);
+		neighbors = null;
+		return merged;
+	}
+
+	/**
+	 * Records the facet on the other side of each edge. This is only meaningful after weldVertices() since facets
+	 * are only considered neighbors if they share vertex indexes.
+	 */
+	public void buildEdgeAdjacency() {
+		//Facets touching each vertex in compressed row form
+		int[] firstIncident = new int[vertexCount + 1];
+		for (int corner = 0; corner < facetCount * 3; corner++) {
+			firstIncident[facets[corner] + 1]++;
+		}
+		for (int vertex = 0; vertex < vertexCount; vertex++) {
+			firstIncident[vertex + 1] += firstIncident[vertex];
+		}
+		int[] incident = new int[facetCount * 3];
+		int[] filled = Arrays.copyOf(firstIncident, vertexCount);
+		for (int corner = 0; corner < facetCount * 3; corner++) {
+			incident[filled[facets[corner]]++] = corner / 3;
+		}
+
+		neighbors = new int[facetCount * 3];
+		for (int facet = 0; facet < facetCount; facet++) {
+			for (int edge = 0; edge < 3; edge++) {
+				int first = facets[facet * 3 + edge];
+				int second = facets[facet * 3 + (edge < 2?edge + 1:0)];
+				int neighbor = -1;
+				for (int t = firstIncident[first]; t < firstIncident[first + 1] && first != second; t++) {
+					int other = incident[t];
+					if (other == facet || other == neighbor ||
+						(facets[other * 3] != second && facets[other * 3 + 1] != second && facets[other * 3 + 2] != second)) {
+						continue;
+					}
+					if (neighbor != -1) {
+						//More than two facets share this edge
+						neighbor = -1;
+						break;
+					}
+					neighbor = other;
+				}
+				neighbors[facet * 3 + edge] = neighbor;
+			}
+		}
+	}
+
+	/**
+	 * @return a key that is the same for both directions of the edge between two vertices
+	 */
+	public static long edgeKey(int vertex1, int vertex2) {
+		return vertex1 < vertex2?((long)vertex1 << 32) | vertex2:((long)vertex2 << 32) | vertex1;
+	}
+
+	public boolean hasEdgeAdjacency() {
+		return neighbors != null;
+	}
+
+	/**
+	 * @return the facet across the edge from corner edge to corner edge + 1, or -1 if the edge is open or shared by more than two facets
+	 */
+	public int getNeighbor(int facet, int edge) {
+		return neighbors[facet * 3 + edge];
+	}
+
+	/**
+	 * Releases the spare capacity that was allocated while the mesh was growing.
+	 */
+	public void trimToSize() {
+		vertices = Arrays.copyOf(vertices, vertexCount * 3);
+		facets = Arrays.copyOf(facets, facetCount * 3);
+		normals = Arrays.copyOf(normals, facetCount * 3);
+	}
+
+	public int getFacetCount() {
+		return facetCount;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public long getMemoryFootprint() {
+		return (long)vertices.length * 8 + (long)normals.length * 8 + (long)facets.length * 4 + (neighbors != null?(long)neighbors.length * 4:0);
+	}
+
+	public int getVertexIndex(int facet, int corner) {
+		return facets[facet * 3 + corner];
+	}
+
+	public double getX(int vertex) {
+		return vertices[vertex * 3];
+	}
+
+	public double getY(int vertex) {
+		return vertices[vertex * 3 + 1];
+	}
+
+	public double getZ(int vertex) {
+		return vertices[vertex * 3 + 2];
+	}
+
+	public double getMinZ(int facet) {
+		return Math.min(getZ(facets[facet * 3]), Math.min(getZ(facets[facet * 3 + 1]), getZ(facets[facet * 3 + 2])));
+	}
+
+	public double getMaxZ(int facet) {
+		return Math.max(getZ(facets[facet * 3]), Math.max(getZ(facets[facet * 3 + 1]), getZ(facets[facet * 3 + 2])));
+	}
+
+	public Point3d getNormal(int facet) {
+		return new Point3d(normals[facet * 3], normals[facet * 3 + 1], normals[facet * 3 + 2]);
+	}
+
+	public Point3d getPoint(int facet, int corner) {
+		int vertex = facets[facet * 3 + corner];
+		return new Point3d(vertices[vertex * 3], vertices[vertex * 3 + 1], vertices[vertex * 3 + 2]);
+	}
+
+	public MeshFacet3d getFace(int facet) {
+		return new MeshFacet3d(this, facet);
+	}
+
+	/**
+	 * Builds a full Triangle3d for a facet. These are heavy, so they should only be built for reporting purposes.
+	 */
+	public Triangle3d getTriangle(int facet) {
+		return new Triangle3d(new Point3d[]{getPoint(facet, 0), getPoint(facet, 1), getPoint(facet, 2)}, getNormal(facet), null, null, facet);
+	}
+
+	/**
+	 * Intersects a facet with the plane at z.
+	 *
+	 * A vertex that lies exactly on the plane is treated as if it were just below the plane. That way every edge
+	 * either crosses the plane or it doesn't and a facet produces exactly zero or two crossing points. Each edge
+	 * is always interpolated from its lower vertex to its higher vertex so that two facets sharing an edge produce
+	 * exactly the same intersection point.
+	 *
+	 * The only facets that would be missed by this rule are the walls directly underneath a flat top that sits on
+	 * the plane, so a facet with an edge on the plane and the rest of it below returns that edge.
+	 *
+	 * Lines are oriented by the winding of the facet so that the lines of all facets run the same way around an outline.
+	 * Two facets that only meet along an edge sitting on the plane produce the same line in opposite directions.
+	 *
+	 * @return a Line3d if the facet crosses the plane, otherwise null
+	 */
+	public Line3d getZIntersection(int facet, double z) {
+		return getZIntersection(facet, z, null);
+	}
+
+	/**
+	 * The same as getZIntersection(facet, z), but also identifies where the line starts and ends by mesh topology
+	 * instead of by coordinates. endpoints[0] and endpoints[1] are the keys of the start and end points. The key of a
+	 * point that was interpolated along an edge is edgeKey() of that edge's vertices and the key of a point that sits
+	 * on a vertex is edgeKey(vertex, vertex). endpoints[2] and endpoints[3] are the edges(0-2) of this facet that the
+	 * start and end points lie on, or -1 if the point is a vertex.
+	 */
+	public Line3d getZIntersection(int facet, double z, long[] endpoints) {
+		double startX = 0, startY = 0, endX = 0, endY = 0;
+		long startKey = 0, endKey = 0;
+		int startEdge = -1, endEdge = -1;
+		boolean foundStart = false, foundEnd = false;
+		int onPlaneEdge = -1;
+		for (int t = 0; t < 3; t++) {
+			int first = facets[facet * 3 + t];
+			int second = facets[facet * 3 + (t < 2?t + 1:0)];
+			boolean firstAbove = getZ(first) > z;
+			boolean secondAbove = getZ(second) > z;
+			if (firstAbove == secondAbove) {
+				if (getZ(first) == z && getZ(second) == z) {
+					onPlaneEdge = t;
+				}
+				continue;
+			}
+
+			int low = firstAbove?second:first;
+			int high = firstAbove?first:second;
+			double lowZ = getZ(low);
+			double ix;
+			double iy;
+			long key;
+			int edge;
+			if (lowZ == z) {
+				ix = getX(low);
+				iy = getY(low);
+				key = edgeKey(low, low);
+				edge = -1;
+			} else {
+				double k = (z - lowZ) / (getZ(high) - lowZ);
+				ix = getX(low) + (getX(high) - getX(low)) * k;
+				iy = getY(low) + (getY(high) - getY(low)) * k;
+				key = edgeKey(low, high);
+				edge = t;
+			}
+
+			if (secondAbove) {
+				startX = ix;
+				startY = iy;
+				startKey = key;
+				startEdge = edge;
+				foundStart = true;
+			} else {
+				endX = ix;
+				endY = iy;
+				endKey = key;
+				endEdge = edge;
+				foundEnd = true;
+			}
+		}
+
+		if (!foundStart && !foundEnd && onPlaneEdge > -1) {
+			int first = facets[facet * 3 + onPlaneEdge];
+			int second = facets[facet * 3 + (onPlaneEdge < 2?onPlaneEdge + 1:0)];
+			int third = facets[facet * 3 + (onPlaneEdge > 0?onPlaneEdge - 1:2)];
+			if (getZ(third) >= z) {
+				return null;
+			}
+
+			startX = getX(first);
+			startY = getY(first);
+			endX = getX(second);
+			endY = getY(second);
+			startKey = edgeKey(first, first);
+			endKey = edgeKey(second, second);
+			startEdge = -1;
+			endEdge = -1;
+		} else if (!foundStart || !foundEnd || (startX == endX && startY == endY)) {
+			//Both crossing edges meet at a vertex that is sitting on the plane
+			return null;
+		}
+
+		if (endpoints != null) {
+			endpoints[0] = startKey;
+			endpoints[1] = endKey;
+			endpoints[2] = startEdge;
+			endpoints[3] = endEdge;
+		}
+		MeshFacet3d face = getFace(facet);
+		return new Line3d(new Point3d(startX, startY, z, null, face), new Point3d(endX, endY, z, null, face), getNormal(facet), face, false);
+	}
+}
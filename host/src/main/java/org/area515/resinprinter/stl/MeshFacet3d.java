@@ -0,0 +1,57 @@
+package org.area515.resinprinter.stl;
+
+/**
+ * A lightweight handle to a single facet of a Mesh3d. This is what slice geometry points back to as its originating face.
+ */
+public class MeshFacet3d implements Face3d {
+	private Mesh3d mesh;
+	private int index;
+
+	public MeshFacet3d(Mesh3d mesh, int index) {
+		this.mesh = mesh;
+		this.index = index;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public Mesh3d getMesh() {
+		return mesh;
+	}
+
+	public Triangle3d getTriangle() {
+		return mesh.getTriangle(index);
+	}
+
+	@Override
+	public Point3d[] getBrokenEnds() {
+		return new Point3d[]{mesh.getPoint(index, 0), mesh.getPoint(index, 1), mesh.getPoint(index, 2)};
+	}
+
+	@Override
+	public Point3d getNormal() {
+		return mesh.getNormal(index);
+	}
+
+	@Override
+	public int hashCode() {
+		return index;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		MeshFacet3d other = (MeshFacet3d) obj;
+		return mesh == other.mesh && index == other.index;
+	}
+
+	public String toString() {
+		return "Facet:" + index;
+	}
+}
@@ -99,6 +99,10 @@ public class Triangle3d implements Shape3d, Face3d, Comparable<Triangle3d> {
 		return min[2];
 	}	
 	
+	public double getMaxZ() {
+		return max[2];
+	}
+	
 	public double getMinY() {
 		return min[1];
 	}
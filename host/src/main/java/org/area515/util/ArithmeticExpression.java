@@ -0,0 +1,204 @@
+package org.area515.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A script that is nothing more than numbers, variables, + - * / % and parentheses(e.g. "$LayerTime * 1.5"). These are
+ * evaluated in Java with the same double arithmetic as javascript so calculators like this don't have to go through the
+ * script engine on every layer.
+ */
+public class ArithmeticExpression {
+	private static final char NUMBER = '#';
+	private static final char VARIABLE = '$';
+	private static final char NEGATE = 'n';
+
+	private char operator;
+	private double number;
+	private String variable;
+	private ArithmeticExpression left;
+	private ArithmeticExpression right;
+	private List<String> variables = new ArrayList<String>();
+
+	private static class Parser {
+		private String script;
+		private int position;
+
+		private Parser(String script) {
+			this.script = script;
+		}
+
+		private char peek() {
+			while (position < script.length() && Character.isWhitespace(script.charAt(position))) {
+				position++;
+			}
+			return position < script.length()?script.charAt(position):0;
+		}
+
+		private ArithmeticExpression parseSum() {
+			ArithmeticExpression expression = parseProduct();
+			while (expression != null && (peek() == '+' || peek() == '-')) {
+				char operator = script.charAt(position++);
+				expression = ArithmeticExpression.combine(operator, expression, parseProduct());
+			}
+			return expression;
+		}
+
+		private ArithmeticExpression parseProduct() {
+			ArithmeticExpression expression = parseUnary();
+			while (expression != null && (peek() == '*' || peek() == '/' || peek() == '%')) {
+				char operator = script.charAt(position++);
+				expression = ArithmeticExpression.combine(operator, expression, parseUnary());
+			}
+			return expression;
+		}
+
+		private ArithmeticExpression parseUnary() {
+			if (peek() == '-') {
+				position++;
+				return ArithmeticExpression.combine(NEGATE, parseUnary(), null);
+			}
+			return parsePrimary();
+		}
+
+		private ArithmeticExpression parsePrimary() {
+			char next = peek();
+			if (next == '(') {
+				position++;
+				ArithmeticExpression expression = parseSum();
+				if (expression == null || peek() != ')') {
+					return null;
+				}
+				position++;
+				return expression;
+			}
+
+			int start = position;
+			if (Character.isJavaIdentifierStart(next)) {
+				while (position < script.length() && Character.isJavaIdentifierPart(script.charAt(position))) {
+					position++;
+				}
+				ArithmeticExpression expression = new ArithmeticExpression(VARIABLE);
+				expression.variable = script.substring(start, position);
+				expression.variables.add(expression.variable);
+				return expression;
+			}
+
+			//Plain decimal numbers only, javascript reads 0x.. and 0.. differently than Java
+			if (next == '0' && position + 1 < script.length() && Character.isLetterOrDigit(script.charAt(position + 1))) {
+				return null;
+			}
+			while (position < script.length() && (Character.isDigit(script.charAt(position)) || script.charAt(position) == '.')) {
+				position++;
+			}
+			if (position < script.length() && (script.charAt(position) == 'e' || script.charAt(position) == 'E')) {
+				position++;
+				if (position < script.length() && (script.charAt(position) == '+' || script.charAt(position) == '-')) {
+					position++;
+				}
+				while (position < script.length() && Character.isDigit(script.charAt(position))) {
+					position++;
+				}
+			}
+			if (start == position) {
+				return null;
+			}
+			ArithmeticExpression expression = new ArithmeticExpression(NUMBER);
+			try {
+				expression.number = Double.parseDouble(script.substring(start, position));
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			return expression;
+		}
+	}
+
+	private ArithmeticExpression(char operator) {
+		this.operator = operator;
+	}
+
+	private static ArithmeticExpression combine(char operator, ArithmeticExpression left, ArithmeticExpression right) {
+		if (left == null || (right == null && operator != NEGATE)) {
+			return null;
+		}
+		ArithmeticExpression expression = new ArithmeticExpression(operator);
+		expression.left = left;
+		expression.right = right;
+		expression.variables.addAll(left.variables);
+		if (right != null) {
+			expression.variables.addAll(right.variables);
+		}
+		return expression;
+	}
+
+	/**
+	 * @return the parsed script or null if the script is anything more than arithmetic
+	 */
+	public static ArithmeticExpression parse(String script) {
+		//"--" and "++" are increments in javascript, not two signs
+		if (script == null || script.contains("--") || script.contains("++")) {
+			return null;
+		}
+		Parser parser = new Parser(script);
+		ArithmeticExpression expression = parser.parseSum();
+		while (parser.peek() == ';') {
+			parser.position++;
+		}
+		if (expression == null || parser.position < script.length()) {
+			return null;
+		}
+		return expression;
+	}
+
+	/**
+	 * @return true if the expression doesn't use any variables, it always evaluates to the same value
+	 */
+	public boolean isConstant() {
+		return variables.isEmpty();
+	}
+
+	public List<String> getVariables() {
+		return variables;
+	}
+
+	/**
+	 * Evaluates the expression the way javascript would. A lone variable returns its value unchanged, any arithmetic on
+	 * variables returns a Double.
+	 *
+	 * @return the result or null if a variable isn't an Integer or a Double, the script engine has to decide what that means
+	 */
+	public Number evaluate(Function<String, Object> values) {
+		for (String name : variables) {
+			Object value = values.apply(name);
+			if (!(value instanceof Integer) && !(value instanceof Double)) {
+				return null;
+			}
+		}
+		if (operator == VARIABLE) {
+			return (Number)values.apply(variable);
+		}
+		return calculate(values);
+	}
+
+	private double calculate(Function<String, Object> values) {
+		switch (operator) {
+		case NUMBER:
+			return number;
+		case VARIABLE:
+			return ((Number)values.apply(variable)).doubleValue();
+		case NEGATE:
+			return -left.calculate(values);
+		case '+':
+			return left.calculate(values) + right.calculate(values);
+		case '-':
+			return left.calculate(values) - right.calculate(values);
+		case '*':
+			return left.calculate(values) * right.calculate(values);
+		case '/':
+			return left.calculate(values) / right.calculate(values);
+		default:
+			return left.calculate(values) % right.calculate(values);
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package org.area515.util;
 
+import java.awt.image.RenderedImage;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -7,6 +8,9 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.List;
@@ -15,6 +19,8 @@ import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
+import javax.imageio.ImageIO;
+
 import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -63,6 +69,35 @@ public class IOUtilities {
 		}
 	}
 	
+	public static interface FileContentWriter {
+		public void write(File file) throws IOException;
+	}
+	
+	/**
+	 * Writes a temporary file next to the destination and moves it into place, so a destination that exists is always complete.
+	 */
+	public static void writeAtomically(File destination, FileContentWriter writer) throws IOException {
+		File temporaryFile = File.createTempFile(destination.getName(), ".tmp", destination.getAbsoluteFile().getParentFile());
+		try {
+			writer.write(temporaryFile);
+			try {
+				Files.move(temporaryFile.toPath(), destination.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporaryFile.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			temporaryFile.delete();
+		}
+	}
+	
+	public static void writeImageAtomically(RenderedImage image, String formatName, File destination) throws IOException {
+		writeAtomically(destination, file -> {
+			if (!ImageIO.write(image, formatName, file)) {
+				throw new IOException("No " + formatName + " writer is available for:" + destination);
+			}
+		});
+	}
+	
 	public static ZipEntry zipFile(File fileToZip, ZipOutputStream zipOutputStream) {
 		ZipEntry entry = new ZipEntry(fileToZip.getName());
 		InputStream inStream = null;
@@ -0,0 +1,161 @@
+package org.area515.util;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+import org.area515.resinprinter.job.PrintJob;
+import org.area515.resinprinter.printer.Printer;
+import org.area515.resinprinter.printer.SlicingProfile;
+import org.area515.resinprinter.printer.SlicingProfile.InkConfig;
+import org.area515.resinprinter.server.HostProperties;
+
+/**
+ * Runs the scripts of a job(exposure time, lift speed, lift distance...) in one script engine. Each script is compiled
+ * once, the job variables stay in the engine bindings between scripts and only the ones that changed since the last
+ * script(usually $CURSLICE and $buildAreaMM) are put again. Scripts that are only arithmetic are evaluated without the
+ * engine at all.
+ *
+ * Since variables are only put when they change, scripts shouldn't assign to the job variables.
+ */
+public class PrintJobScriptContext {
+	private PrintJob job;
+	private Printer printer;
+	private ScriptEngine engine;
+	private Bindings bindings;
+	private Map<String, Object> boundValues = new HashMap<String, Object>();
+	private Map<String, CompiledScript> scriptsBySource = new HashMap<String, CompiledScript>();
+	private Map<String, ArithmeticExpression> expressionsBySource = new HashMap<String, ArithmeticExpression>();
+	private Map<String, Object> constantsBySource = new HashMap<String, Object>();
+
+	public PrintJobScriptContext(PrintJob job, Printer printer, ScriptEngine engine) {
+		this.job = job;
+		this.printer = printer;
+		this.engine = engine;
+	}
+
+	public PrintJob getJob() {
+		return job;
+	}
+
+	public Printer getPrinter() {
+		return printer;
+	}
+
+	public ScriptEngine getEngine() {
+		return engine;
+	}
+
+	private void bind(String name, Object value) {
+		if (!boundValues.containsKey(name) || !Objects.equals(boundValues.get(name), value)) {
+			bindings.put(name, value);
+			boundValues.put(name, value);
+		}
+	}
+
+	private void bindJobValues(String scriptName) {
+		Bindings engineBindings = engine.getBindings(ScriptContext.ENGINE_SCOPE);
+		if (engineBindings != bindings) {
+			bindings = engineBindings;
+			boundValues.clear();
+		}
+
+		SlicingProfile slicingProfile = printer.getConfiguration().getSlicingProfile();
+		InkConfig inkConfig = slicingProfile.getSelectedInkConfig();
+		bind("now", new Date());
+		bind("$shutterOpen", printer.isShutterOpen());
+		Integer bulbHours = printer.getCachedBulbHours();
+		bind("$bulbHours", bulbHours == null || bulbHours < 0?Double.NaN:new Double(bulbHours));
+		bind("$CURSLICE", job.getCurrentSlice());
+		bind("$LayerThickness", inkConfig.getSliceHeight());
+		bind("$ZDir", slicingProfile.getDirection().getVector());
+		bind("$ZLiftRate", job.getZLiftSpeed());
+		bind("$ZLiftDist", job.getZLiftDistance());
+		Double buildArea = job.getPrintFileProcessor().getBuildAreaMM(job);
+		bind("$buildAreaMM", buildArea == null || buildArea < 0?Double.NaN:buildArea);
+		bind("$LayerTime", inkConfig.getExposureTime());
+		bind("$FirstLayerTime", inkConfig.getFirstLayerExposureTime());
+		bind("$NumFirstLayers", inkConfig.getNumberOfFirstLayers());
+		bind("$SlideTiltVal", slicingProfile.getSlideTiltValue());
+		bind("$buildPlatformXPixels", slicingProfile.getxResolution());
+		bind("$buildPlatformYPixels", slicingProfile.getyResolution());
+		bind("pixelsPerMMX", slicingProfile.getDotsPermmX());
+		bind("pixelsPerMMY", slicingProfile.getDotsPermmY());
+		bind("hostProperties", HostProperties.Instance());
+		bind("job", job);
+		bind("printer", printer);
+		bind(ScriptEngine.FILENAME, scriptName);
+	}
+
+	private Object evalInEngine(String script) throws ScriptException {
+		CompiledScript compiledScript = scriptsBySource.get(script);
+		if (compiledScript == null && engine instanceof Compilable) {
+			compiledScript = ((Compilable)engine).compile(script);
+			scriptsBySource.put(script, compiledScript);
+		}
+		//The bindings are the engine's own, so the engine's context is used rather than building a new one for every script
+		if (compiledScript != null) {
+			return compiledScript.eval();
+		}
+
+		return engine.eval(script);
+	}
+
+	/**
+	 * @return the current values of the job variables that are named in the script, whether or not it really reads them
+	 */
+	public synchronized Map<String, Object> getJobValuesReadBy(String script, String scriptName) {
+		bindJobValues(scriptName);
+		Map<String, Object> values = new HashMap<String, Object>();
+		for (Map.Entry<String, Object> value : boundValues.entrySet()) {
+			if (Pattern.compile("(?<![\\w$])" + Pattern.quote(value.getKey()) + "(?![\\w$])").matcher(script).find()) {
+				values.put(value.getKey(), value.getValue());
+			}
+		}
+		return values;
+	}
+
+	public synchronized Object eval(String script, String scriptName, Map<String, Object> overrides) throws ScriptException {
+		bindJobValues(scriptName);
+		if (overrides != null) {
+			for (Map.Entry<String, Object> entry : overrides.entrySet()) {
+				bindings.put(entry.getKey(), entry.getValue());
+
+				//The override hides the job value, so the job value needs to be put again for the next script
+				boundValues.remove(entry.getKey());
+			}
+		}
+
+		ArithmeticExpression expression = expressionsBySource.get(script);
+		if (expression == null && !expressionsBySource.containsKey(script)) {
+			expression = ArithmeticExpression.parse(script);
+			expressionsBySource.put(script, expression);
+		}
+		if (expression == null) {
+			return evalInEngine(script);
+		}
+
+		//Constants are left to the engine, since it decides whether they are an Integer or a Double, but only once
+		if (expression.isConstant()) {
+			if (!constantsBySource.containsKey(script)) {
+				constantsBySource.put(script, evalInEngine(script));
+			}
+			return constantsBySource.get(script);
+		}
+
+		Number value = expression.evaluate(name -> overrides != null && overrides.containsKey(name)?overrides.get(name):boundValues.get(name));
+		if (value != null) {
+			return value;
+		}
+		return evalInEngine(script);
+	}
+}
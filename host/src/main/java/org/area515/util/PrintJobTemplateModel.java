@@ -0,0 +1,110 @@
+package org.area515.util;
+
+import java.util.Date;
+
+import org.area515.resinprinter.job.PrintJob;
+import org.area515.resinprinter.printer.Printer;
+import org.area515.resinprinter.printer.SlicingProfile;
+import org.area515.resinprinter.server.HostProperties;
+
+import freemarker.template.ObjectWrapper;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+
+/**
+ * The root data model of gcode templates. Nothing is copied out of the job when the model is built, each variable is
+ * read when the template asks for it, so the same model can be used for every template of a job and only the
+ * variables that a template uses are ever computed(buildAreaMM can be expensive).
+ */
+public class PrintJobTemplateModel implements TemplateHashModel {
+	private PrintJob job;
+	private Printer printer;
+	private ObjectWrapper wrapper;
+	private TemplateModel wrappedJob;
+	private TemplateModel wrappedPrinter;
+
+	public PrintJobTemplateModel(PrintJob job, Printer printer, ObjectWrapper wrapper) {
+		this.job = job;
+		this.printer = printer;
+		this.wrapper = wrapper;
+	}
+
+	public PrintJob getJob() {
+		return job;
+	}
+
+	public Printer getPrinter() {
+		return printer;
+	}
+
+	private Object getValue(String key) {
+		SlicingProfile slicingProfile = printer.getConfiguration().getSlicingProfile();
+		switch (key) {
+		case "now":
+			return new Date();
+		case "shutterOpen":
+			return printer.isShutterOpen();
+		case "bulbHours":
+			return printer.getCachedBulbHours();
+		case "CURSLICE":
+			return job.getCurrentSlice();
+		case "LayerThickness":
+			return slicingProfile.getSelectedInkConfig().getSliceHeight();
+		case "ZDir":
+			return slicingProfile.getDirection().getVector();
+		case "ZLiftRate":
+			return job.getZLiftSpeed();
+		case "ZLiftDist":
+			return job.getZLiftDistance();
+		case "buildAreaMM":
+			Double buildArea = job.getPrintFileProcessor().getBuildAreaMM(job);
+			return buildArea == null || buildArea < 0?null:buildArea;
+		case "LayerTime":
+			return slicingProfile.getSelectedInkConfig().getExposureTime();
+		case "FirstLayerTime":
+			return slicingProfile.getSelectedInkConfig().getFirstLayerExposureTime();
+		case "NumFirstLayers":
+			return slicingProfile.getSelectedInkConfig().getNumberOfFirstLayers();
+		case "SlideTiltVal":
+			return slicingProfile.getSlideTiltValue();
+		case "buildPlatformXPixels":
+			return slicingProfile.getxResolution();
+		case "buildPlatformYPixels":
+			return slicingProfile.getyResolution();
+		case "pixelsPerMMX":
+			return slicingProfile.getDotsPermmX();
+		case "pixelsPerMMY":
+			return slicingProfile.getDotsPermmY();
+		case "hostProperties":
+			return HostProperties.Instance();
+		default:
+			return null;
+		}
+	}
+
+	@Override
+	public TemplateModel get(String key) throws TemplateModelException {
+		//The job and printer are wrapped once since their bean models are reused by every template
+		if (key.equals("job")) {
+			if (wrappedJob == null) {
+				wrappedJob = wrapper.wrap(job);
+			}
+			return wrappedJob;
+		}
+		if (key.equals("printer")) {
+			if (wrappedPrinter == null) {
+				wrappedPrinter = wrapper.wrap(printer);
+			}
+			return wrappedPrinter;
+		}
+
+		Object value = getValue(key);
+		return value == null?null:wrapper.wrap(value);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return false;
+	}
+}
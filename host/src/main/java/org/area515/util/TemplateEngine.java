@@ -9,13 +9,11 @@ import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.script.Bindings;
-import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
@@ -24,9 +22,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.area515.resinprinter.job.PrintJob;
 import org.area515.resinprinter.printer.Printer;
-import org.area515.resinprinter.server.HostProperties;
 
-import freemarker.cache.StringTemplateLoader;
 import freemarker.core.Environment;
 import freemarker.template.Configuration;
 import freemarker.template.Template;
@@ -35,7 +31,8 @@ import freemarker.template.TemplateExceptionHandler;
 
 public class TemplateEngine {
     private static final Logger logger = LogManager.getLogger();
-	private static StringTemplateLoader templateLoader = new StringTemplateLoader();
+	private static final int MAX_CACHED_TEMPLATES = 100;
+	private static Map<String, Template> templatesBySource = new ConcurrentHashMap<String, Template>();
 	private static Configuration config = null;
 	
 	public static final TemplateExceptionHandler INFO_IGNORE_HANDLER = new TemplateExceptionHandler() {
@@ -69,17 +66,48 @@ public class TemplateEngine {
 		return template;
 	}
 	
-	public static String buildData(PrintJob job, Printer printer, String templateString) throws IOException, TemplateException {
+	private static synchronized Configuration getConfiguration() {
 		if (config == null) {
 	        config = new Configuration(Configuration.VERSION_2_3_21);
 	        config.setDefaultEncoding("UTF-8");
 	        config.setTemplateExceptionHandler(INFO_IGNORE_HANDLER);
-	        config.setTemplateLoader(templateLoader);
 	        config.setBooleanFormat("yes,no");
 		}
+		return config;
+	}
+	
+	/**
+	 * Returns the compiled template for the source. Templates are only parsed the first time that their source is seen.
+	 */
+	public static Template getTemplate(String templateString) throws IOException {
+		Template template = templatesBySource.get(templateString);
+		if (template != null) {
+			return template;
+		}
 		
-		//com.cfs.daq.script.SharedInterpreter has similar stuff in it...
-        Map<String, Object> root = new HashMap<String, Object>();
+		//Templates come from printer profiles, so this only fills up when templates are edited over and over
+		if (templatesBySource.size() >= MAX_CACHED_TEMPLATES) {
+			templatesBySource.clear();
+		}
+		template = new Template(templateString, templateString, getConfiguration());
+		template.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
+		templatesBySource.put(templateString, template);
+		return template;
+	}
+	
+	/**
+	 * Returns the data model for the templates of a job, the model is kept on the job so that it's only built once.
+	 */
+	public static PrintJobTemplateModel getTemplateModel(PrintJob job, Printer printer) {
+		PrintJobTemplateModel model = job.getTemplateModel();
+		if (model == null || model.getPrinter() != printer) {
+			model = new PrintJobTemplateModel(job, printer, getConfiguration().getObjectWrapper());
+			job.setTemplateModel(model);
+		}
+		return model;
+	}
+	
+	public static String buildData(PrintJob job, Printer printer, String templateString) throws IOException, TemplateException {
         /*
         	$ZDir
         	$CURSLICE
@@ -94,36 +122,8 @@ public class TemplateEngine {
         	$FirstLayerTime// time to expose the first layers in ms
         	$NumFirstLayers// number of first layers
         */
-
-		root.put("now", new Date());
-		root.put("shutterOpen", printer.isShutterOpen());
-		root.put("bulbHours", printer.getCachedBulbHours());
-		root.put("CURSLICE", job.getCurrentSlice());
-		root.put("LayerThickness", printer.getConfiguration().getSlicingProfile().getSelectedInkConfig().getSliceHeight());
-		root.put("ZDir", printer.getConfiguration().getSlicingProfile().getDirection().getVector());
-		root.put("ZLiftRate", job.getZLiftSpeed());
-		root.put("ZLiftDist", job.getZLiftDistance());
-		Double buildArea = job.getPrintFileProcessor().getBuildAreaMM(job);
-		root.put("buildAreaMM", buildArea == null || buildArea < 0?null:buildArea);
-		root.put("LayerTime", printer.getConfiguration().getSlicingProfile().getSelectedInkConfig().getExposureTime());
-		root.put("FirstLayerTime", printer.getConfiguration().getSlicingProfile().getSelectedInkConfig().getFirstLayerExposureTime());
-		root.put("NumFirstLayers", printer.getConfiguration().getSlicingProfile().getSelectedInkConfig().getNumberOfFirstLayers());
-		root.put("SlideTiltVal", printer.getConfiguration().getSlicingProfile().getSlideTiltValue());
-		root.put("buildPlatformXPixels", printer.getConfiguration().getSlicingProfile().getxResolution());
-		root.put("buildPlatformYPixels", printer.getConfiguration().getSlicingProfile().getyResolution());
-		root.put("pixelsPerMMX", printer.getConfiguration().getSlicingProfile().getDotsPermmX());
-		root.put("pixelsPerMMY", printer.getConfiguration().getSlicingProfile().getDotsPermmY());
-		root.put("hostProperties", HostProperties.Instance());
-		root.put("job", job);
-		root.put("printer", printer);
-		
-        /* Get the template (uses cache internally) */
-        Object source = templateLoader.findTemplateSource(templateString);
-        if (source == null) {
-        	templateLoader.putTemplate(templateString, templateString);
-        }
-        Template template = config.getTemplate(templateString);
-        template.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
+		PrintJobTemplateModel root = getTemplateModel(job, printer);
+        Template template = getTemplate(templateString);
         
         try {
 	        Writer out = new StringWriter();
@@ -159,6 +159,17 @@ public class TemplateEngine {
 			String calculatorScript, 
 			String scriptName, 
 			boolean clearMasterImage) throws ScriptException {
+		return runScriptInImagingContext(platformImage, printImage, getScriptContext(printJob, printer, scriptEngine), overrides, calculatorScript, scriptName, clearMasterImage);
+	}
+
+	public static Object runScriptInImagingContext(
+			BufferedImage platformImage, 
+			BufferedImage printImage, 
+			PrintJobScriptContext scriptContext, 
+			Map<String, Object> overrides, 
+			String calculatorScript, 
+			String scriptName, 
+			boolean clearMasterImage) throws ScriptException {
 		
 		Graphics graphics = platformImage.getGraphics();
 		if (clearMasterImage) {
@@ -179,7 +190,7 @@ public class TemplateEngine {
 		overrides.put("centerX", platformImage.getWidth() / 2);//int centerX = aid.xResolution / 2;
 		overrides.put("centerY", platformImage.getHeight() / 2);//int centerY = aid.yResolution / 2;
 		
-		Bindings bindings = scriptEngine.getBindings(ScriptContext.ENGINE_SCOPE);
+		Bindings bindings = scriptContext.getEngine().getBindings(ScriptContext.ENGINE_SCOPE);
 		if (!bindings.containsKey("exposureTimers")) {
 			ArrayList<?> timers = new ArrayList<>();
 			bindings.put("exposureTimers", timers);
@@ -189,49 +200,25 @@ public class TemplateEngine {
 			bindings.put("printableShape", new Rectangle(0, 0, printImage.getWidth(), printImage.getHeight()));
 		}
 		
-		Object returnValue = TemplateEngine.runScript(printJob, printer, scriptEngine, calculatorScript, scriptName, overrides);
+		Object returnValue = scriptContext.eval(calculatorScript, scriptName, overrides);
 		return returnValue;
 	}
 
-	public static Object runScript(PrintJob job, Printer printer, ScriptEngine engine, String script, String scriptName, Map<String, Object> overrides) throws ScriptException {
-		Bindings bindings = engine.getBindings(ScriptContext.ENGINE_SCOPE);
-		bindings.put("now", new Date());
-		bindings.put("$shutterOpen", printer.isShutterOpen());
-		Integer bulbHours = printer.getCachedBulbHours();
-		bindings.put("$bulbHours", bulbHours == null || bulbHours < 0?Double.NaN:new Double(bulbHours));
-		bindings.put("$CURSLICE", job.getCurrentSlice());
-		bindings.put("$LayerThickness", printer.getConfiguration().getSlicingProfile().getSelectedInkConfig().getSliceHeight());
-		bindings.put("$ZDir", printer.getConfiguration().getSlicingProfile().getDirection().getVector());
-		bindings.put("$ZLiftRate", job.getZLiftSpeed());
-		bindings.put("$ZLiftDist", job.getZLiftDistance());
-		Double buildArea = job.getPrintFileProcessor().getBuildAreaMM(job);
-		bindings.put("$buildAreaMM", buildArea == null || buildArea < 0?Double.NaN:buildArea);
-		bindings.put("$LayerTime", printer.getConfiguration().getSlicingProfile().getSelectedInkConfig().getExposureTime());
-		bindings.put("$FirstLayerTime", printer.getConfiguration().getSlicingProfile().getSelectedInkConfig().getFirstLayerExposureTime());
-		bindings.put("$NumFirstLayers", printer.getConfiguration().getSlicingProfile().getSelectedInkConfig().getNumberOfFirstLayers());
-		bindings.put("$SlideTiltVal", printer.getConfiguration().getSlicingProfile().getSlideTiltValue());
-		bindings.put("$buildPlatformXPixels", printer.getConfiguration().getSlicingProfile().getxResolution());
-		bindings.put("$buildPlatformYPixels", printer.getConfiguration().getSlicingProfile().getyResolution());
-		bindings.put("pixelsPerMMX", printer.getConfiguration().getSlicingProfile().getDotsPermmX());
-		bindings.put("pixelsPerMMY", printer.getConfiguration().getSlicingProfile().getDotsPermmY());
-		bindings.put("hostProperties", HostProperties.Instance());
-		bindings.put("job", job);
-		bindings.put("printer", printer);
-		bindings.put(ScriptEngine.FILENAME, scriptName);
-		
-		if (overrides != null) {
-			Iterator<Map.Entry<String, Object>> entries = overrides.entrySet().iterator();
-			while (entries.hasNext()) {
-				Map.Entry<String, Object> entry = entries.next();
-				bindings.put(entry.getKey(), entry.getValue());
-			}
-		}
-		
-		CompiledScript compiledScript = job.buildCompiledScript(scriptName, script, engine);
-		if (compiledScript != null) {
-			return compiledScript.eval(bindings);
+	/**
+	 * Returns the script context of a job for a script engine, the context is kept on the job so that scripts are only
+	 * compiled once per engine. An engine that's only used for a few scripts should have its own PrintJobScriptContext
+	 * instead.
+	 */
+	public static PrintJobScriptContext getScriptContext(PrintJob job, Printer printer, ScriptEngine engine) {
+		PrintJobScriptContext context = job.getScriptContext(engine);
+		if (context == null || context.getPrinter() != printer) {
+			context = new PrintJobScriptContext(job, printer, engine);
+			job.setScriptContext(engine, context);
 		}
-		
-		return engine.eval(script, bindings);
+		return context;
+	}
+
+	public static Object runScript(PrintJob job, Printer printer, ScriptEngine engine, String script, String scriptName, Map<String, Object> overrides) throws ScriptException {
+		return getScriptContext(job, printer, engine).eval(script, scriptName, overrides);
 	}
 }
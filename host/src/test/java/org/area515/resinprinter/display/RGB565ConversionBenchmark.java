@@ -0,0 +1,59 @@
+package org.area515.resinprinter.display;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+
+import org.area515.resinprinter.display.dispmanx.RGB565Converter;
+
+import com.sun.jna.Memory;
+
+public class RGB565ConversionBenchmark {
+	private static final int ITERATIONS = 20;
+	
+	//The way DispManXDevice used to convert a frame, a native write for every pixel
+	private static Memory convertPerPixel(BufferedImage image, Memory destPixels, int pitch) {
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				int rgb = image.getRGB(x, y);
+				destPixels.setShort((y*(pitch / 2) + x) * 2, RGB565Converter.toRGB565(rgb));
+			}
+		}
+		return destPixels;
+	}
+	
+	//java -cp lib/*:. org.area515.resinprinter.display.RGB565ConversionBenchmark 1920 1080
+	public static void main(String[] args) {
+		int width = args.length > 0?Integer.parseInt(args[0]):1920;
+		int height = args.length > 1?Integer.parseInt(args[1]):1080;
+		for (int type : new int[]{BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_GRAY}) {
+			BufferedImage image = new BufferedImage(width, height, type);
+			Graphics2D g = image.createGraphics();
+			g.setColor(Color.WHITE);
+			g.fillOval(width / 4, height / 4, width / 2, height / 2);
+			g.dispose();
+			
+			int pitch = RGB565Converter.getPitch(width);
+			Memory memory = new Memory(pitch * height);
+			ByteBuffer buffer = null;
+			for (int warmup = 0; warmup < 3; warmup++) {
+				convertPerPixel(image, memory, pitch);
+				buffer = RGB565Converter.convert(image, buffer, pitch);
+			}
+			
+			long start = System.nanoTime();
+			for (int t = 0; t < ITERATIONS; t++) {
+				convertPerPixel(image, memory, pitch);
+			}
+			long perPixel = (System.nanoTime() - start) / ITERATIONS;
+			
+			start = System.nanoTime();
+			for (int t = 0; t < ITERATIONS; t++) {
+				buffer = RGB565Converter.convert(image, buffer, pitch);
+			}
+			long bulk = (System.nanoTime() - start) / ITERATIONS;
+			System.out.printf("type %d %dx%d: per pixel %.1fms, bulk %.1fms%n", type, width, height, perPixel / 1e6, bulk / 1e6);
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package org.area515.resinprinter.display;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FileUtils;
+import org.area515.resinprinter.display.RecordingDisplay.Frame;
+import org.area515.resinprinter.display.RecordingDisplay.FrameType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class RecordingDisplayTest {
+	private static final int WIDTH = 40;
+	private static final int HEIGHT = 30;
+	
+	private BufferedImage buildSlice(int layer) {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+		for (int y = 0; y < layer; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				image.getRaster().setSample(x, y, 0, 255);
+			}
+		}
+		return image;
+	}
+	
+	@Test
+	public void framesAreRecordedInOrder() throws Exception {
+		File directory = Files.createTempDirectory("recording").toFile();
+		try {
+			GraphicsOutputInterface display = new RecordingDisplay(RecordingDisplay.NAME, new Rectangle(0, 0, WIDTH, HEIGHT), directory).initializeDisplay("Recording display:0");
+			RecordingDisplay recording = (RecordingDisplay)display;
+			display.showBlankImage();
+			for (int layer = 1; layer <= 3; layer++) {
+				long presented = display.showImageAndWait(buildSlice(layer), true);
+				Assert.assertEquals(presented, recording.getFrames().get(recording.getFrames().size() - 1).getPresentedNanos());
+				display.showBlankImage();
+			}
+			display.showGridImage(10);
+			display.dispose();
+			
+			List<Frame> frames = recording.getFrames();
+			Assert.assertEquals(8, frames.size());
+			Assert.assertEquals(3, recording.getSliceCount());
+			for (int layer = 1; layer <= 3; layer++) {
+				Frame frame = frames.get(layer * 2 - 1);
+				Assert.assertEquals(FrameType.Image, frame.getType());
+				Assert.assertEquals(layer, frame.getSliceNumber());
+				Assert.assertEquals(layer * WIDTH, frame.getArea());
+				Assert.assertEquals(RecordingDisplay.checksum(buildSlice(layer)), frame.getChecksum());
+				Assert.assertTrue(frame.getPresentedNanos() >= frames.get(layer * 2 - 2).getPresentedNanos());
+				
+				BufferedImage written = ImageIO.read(new File(recording.getDirectory(), frame.getFileName()));
+				Assert.assertEquals(frame.getChecksum(), RecordingDisplay.checksum(written));
+			}
+			Assert.assertEquals(FrameType.Blank, frames.get(0).getType());
+			Assert.assertNull(frames.get(0).getFileName());
+			Assert.assertEquals(FrameType.Grid, frames.get(7).getType());
+			
+			List<String> lines = Files.readAllLines(new File(recording.getDirectory(), RecordingDisplay.INDEX_FILE).toPath(), StandardCharsets.UTF_8);
+			Assert.assertEquals(frames.size(), lines.size());
+			ObjectMapper mapper = new ObjectMapper();
+			for (int t = 0; t < lines.size(); t++) {
+				JsonNode node = mapper.readTree(lines.get(t));
+				Assert.assertEquals(t, node.get("index").asInt());
+				Assert.assertEquals(frames.get(t).getType().name(), node.get("type").asText());
+				Assert.assertEquals(frames.get(t).getChecksum(), node.get("checksum").asLong());
+			}
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+	
+	@Test
+	public void newRecordingReplacesTheLastOne() throws Exception {
+		File directory = Files.createTempDirectory("recording").toFile();
+		try {
+			RecordingDisplay first = new RecordingDisplay(RecordingDisplay.NAME, new Rectangle(0, 0, WIDTH, HEIGHT), directory);
+			for (int layer = 1; layer <= 3; layer++) {
+				first.showImage(buildSlice(layer), true);
+			}
+			first.dispose();
+
+			//Like a restarted host that records into the same directory
+			RecordingDisplay second = new RecordingDisplay(RecordingDisplay.NAME, new Rectangle(0, 0, WIDTH, HEIGHT), directory);
+			second.showImage(buildSlice(5), true);
+			second.dispose();
+			second.showBlankImage();
+			second.dispose();
+
+			List<String> lines = Files.readAllLines(new File(directory, RecordingDisplay.INDEX_FILE).toPath(), StandardCharsets.UTF_8);
+			Assert.assertEquals(2, lines.size());
+			Assert.assertEquals(1, new ObjectMapper().readTree(lines.get(1)).get("index").asInt());
+			Frame frame = second.getFrames().get(0);
+			Assert.assertEquals(RecordingDisplay.checksum(buildSlice(5)), frame.getChecksum());
+			Assert.assertEquals(frame.getChecksum(), RecordingDisplay.checksum(ImageIO.read(new File(directory, frame.getFileName()))));
+			Assert.assertEquals(2, directory.list().length);
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void checksumOnlyDependsOnColors() {
+		BufferedImage gray = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_BINARY);
+		BufferedImage color = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_4BYTE_ABGR);
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				int rgb = (x + y) % 3 == 0?0xffffffff:0xff000000;
+				gray.setRGB(x, y, rgb);
+				color.setRGB(x, y, rgb);
+			}
+		}
+		Assert.assertEquals(RecordingDisplay.checksum(gray), RecordingDisplay.checksum(color));
+		
+		RecordingDisplay display = new RecordingDisplay("memory", new Rectangle(0, 0, WIDTH, HEIGHT), null);
+		display.showImage(color, false);
+		Assert.assertEquals(0, display.getSliceCount());
+		Assert.assertNull(display.getFrames().get(0).getFileName());
+	}
+}
@@ -0,0 +1,88 @@
+package org.area515.resinprinter.display.dispmanx;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RGB565ConverterTest {
+	private static final int WIDTH = 37;
+	private static final int HEIGHT = 11;
+	
+	private BufferedImage buildSlice(int type) {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, type);
+		Random random = new Random(type);
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				image.setRGB(x, y, random.nextInt());
+			}
+		}
+		return image;
+	}
+	
+	@Test
+	public void framesMatchPerPixelConversion() {
+		int pitch = RGB565Converter.getPitch(WIDTH);
+		Assert.assertEquals(0, pitch % 32);
+		ByteBuffer pixels = null;
+		for (int type : new int[]{
+				BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_BYTE_BINARY,
+				BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_USHORT_GRAY}) {
+			BufferedImage image = buildSlice(type);
+			ByteBuffer lastPixels = pixels;
+			pixels = RGB565Converter.convert(image, pixels, pitch);
+			if (lastPixels != null) {
+				Assert.assertSame(lastPixels, pixels);
+			}
+			Assert.assertTrue(pixels.isDirect());
+			Assert.assertEquals(0, pixels.position());
+			Assert.assertEquals(pitch * HEIGHT, pixels.limit());
+			for (int y = 0; y < HEIGHT; y++) {
+				for (int x = 0; x < WIDTH; x++) {
+					//Gray levels are shown as they are stored, getRGB() would convert them from a linear color space
+					int rgb = type == BufferedImage.TYPE_BYTE_GRAY?image.getRaster().getSample(x, y, 0) * 0x010101:image.getRGB(x, y);
+					Assert.assertEquals(type + " at " + x + "," + y, RGB565Converter.toRGB565(rgb), pixels.getShort(y * pitch + x * 2));
+				}
+				for (int x = WIDTH * 2; x < pitch; x++) {
+					Assert.assertEquals(0, pixels.get(y * pitch + x));
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void onlyChangedRowsAreConverted() {
+		int pitch = RGB565Converter.getPitch(WIDTH);
+		BufferedImage image = buildSlice(BufferedImage.TYPE_INT_RGB);
+		ByteBuffer pixels = RGB565Converter.convert(image, null, pitch);
+		ByteBuffer before = ByteBuffer.allocate(pitch * HEIGHT).order(ByteOrder.LITTLE_ENDIAN);
+		before.put(pixels);
+		pixels.position(0);
+
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				image.setRGB(x, y, ~image.getRGB(x, y));
+			}
+		}
+		Assert.assertSame(pixels, RGB565Converter.convert(image, pixels, pitch, 3, 7));
+		Assert.assertEquals(0, pixels.position());
+		Assert.assertEquals(pitch * HEIGHT, pixels.limit());
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				short expected = y >= 3 && y < 7?RGB565Converter.toRGB565(image.getRGB(x, y)):before.getShort(y * pitch + x * 2);
+				Assert.assertEquals(x + "," + y, expected, pixels.getShort(y * pitch + x * 2));
+			}
+		}
+	}
+
+	@Test
+	public void primaryColors() {
+		Assert.assertEquals((short)0xf800, RGB565Converter.toRGB565(0xff0000));
+		Assert.assertEquals((short)0x07e0, RGB565Converter.toRGB565(0x00ff00));
+		Assert.assertEquals((short)0x001f, RGB565Converter.toRGB565(0x0000ff));
+		Assert.assertEquals((short)0xffff, RGB565Converter.toRGB565(0xffffff));
+	}
+}
@@ -0,0 +1,188 @@
+package org.area515.resinprinter.display.fbdev;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FramebufferDeviceTest {
+	private static final int WIDTH = 20;
+	private static final int HEIGHT = 10;
+	
+	private BufferedImage buildSlice(int type, int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, type);
+		Random random = new Random(type);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				image.setRGB(x, y, 0xff000000 | random.nextInt());
+			}
+		}
+		return image;
+	}
+	
+	private int readPixel(byte[] framebuffer, FramebufferFormat format, int stride, int page, int x, int y) {
+		int index = page * stride * HEIGHT + y * stride + x * format.getBytesPerPixel();
+		switch (format) {
+		case ARGB8888:
+		case RGB888:
+			return (framebuffer[index] & 0xff) | ((framebuffer[index + 1] & 0xff) << 8) | ((framebuffer[index + 2] & 0xff) << 16);
+		case RGB565:
+			int pixel = (framebuffer[index] & 0xff) | ((framebuffer[index + 1] & 0xff) << 8);
+			return ((pixel & 0xf800) << 8) | ((pixel & 0x7e0) << 5) | ((pixel & 0x1f) << 3);
+		default:
+			return (framebuffer[index] & 0xff) * 0x010101;
+		}
+	}
+	
+	private int truncate(int rgb, FramebufferFormat format) {
+		byte[] pixel = new byte[format.getBytesPerPixel()];
+		format.encode(rgb, pixel, 0);
+		return readPixel(pixel, format, 0, 0, 0, 0);
+	}
+	
+	@Test
+	public void slicesAreDrawnIntoTheHiddenPageAndPanned() throws Exception {
+		File directory = Files.createTempDirectory("fbdev").toFile();
+		try {
+			for (FramebufferFormat format : FramebufferFormat.values()) {
+				for (int type : new int[]{BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_BYTE_BINARY, BufferedImage.TYPE_INT_RGB}) {
+					File deviceFile = new File(directory, "fb" + format + type);
+					File panFile = new File(directory, "pan" + format + type);
+					int stride = WIDTH * format.getBytesPerPixel() + 8;
+					Assert.assertTrue(deviceFile.createNewFile());
+					FramebufferDevice device = new FramebufferDevice("test", deviceFile, format, WIDTH, HEIGHT, stride, 2, panFile);
+					
+					BufferedImage slice = buildSlice(type, WIDTH, HEIGHT);
+					device.showImage(slice, true);
+					Assert.assertEquals("0," + HEIGHT, new String(Files.readAllBytes(panFile.toPath()), StandardCharsets.US_ASCII));
+					byte[] framebuffer = Files.readAllBytes(deviceFile.toPath());
+					Assert.assertEquals(stride * HEIGHT * 2, framebuffer.length);
+					for (int y = 0; y < HEIGHT; y++) {
+						for (int x = 0; x < WIDTH; x++) {
+							//Gray levels are shown as they are stored, getRGB() would convert them from a linear color space
+							int expected = type == BufferedImage.TYPE_BYTE_GRAY?slice.getRaster().getSample(x, y, 0) * 0x010101:slice.getRGB(x, y);
+							Assert.assertEquals(format + " " + type + " at " + x + "," + y, truncate(expected, format), readPixel(framebuffer, format, stride, 1, x, y));
+						}
+					}
+					
+					device.showBlankImage();
+					Assert.assertEquals("0,0", new String(Files.readAllBytes(panFile.toPath()), StandardCharsets.US_ASCII));
+					framebuffer = Files.readAllBytes(deviceFile.toPath());
+					for (int index = 0; index < stride * HEIGHT; index++) {
+						Assert.assertEquals(0, framebuffer[index]);
+					}
+					device.dispose();
+				}
+			}
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+	
+	private BufferedImage buildLitSlice(Rectangle litBounds) {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+		for (int y = litBounds.y; y < litBounds.y + litBounds.height; y++) {
+			for (int x = litBounds.x; x < litBounds.x + litBounds.width; x++) {
+				image.getRaster().setSample(x, y, 0, 200);
+			}
+		}
+		return image;
+	}
+	
+	@Test
+	public void onlyChangedRegionsAreRedrawn() throws Exception {
+		File directory = Files.createTempDirectory("fbdev").toFile();
+		try {
+			File deviceFile = new File(directory, "fb0");
+			Assert.assertTrue(deviceFile.createNewFile());
+			FramebufferFormat format = FramebufferFormat.GRAY8;
+			FramebufferDevice device = new FramebufferDevice("test", deviceFile, format, WIDTH, HEIGHT, WIDTH, 2, new File(directory, "pan"));
+			Rectangle first = new Rectangle(2, 2, 5, 3);
+			Rectangle second = new Rectangle(4, 3, 6, 4);
+			device.showBlankImage();
+			device.showImageAndWait(buildLitSlice(first), first, true);
+			device.showBlankImage();
+			
+			//Anything outside of the lit bounds of both slices must be left alone
+			try (RandomAccessFile access = new RandomAccessFile(deviceFile, "rw")) {
+				access.seek(WIDTH * 8 + 15);
+				access.write(99);
+			}
+			device.showImageAndWait(buildLitSlice(second), second, true);
+			byte[] framebuffer = Files.readAllBytes(deviceFile.toPath());
+			Assert.assertEquals(99, readPixel(framebuffer, format, WIDTH, 0, 15, 8) & 0xff);
+			Assert.assertEquals(0, readPixel(framebuffer, format, WIDTH, 0, 2, 2));
+			Assert.assertEquals(200, readPixel(framebuffer, format, WIDTH, 0, 9, 6) & 0xff);
+			for (int y = 0; y < HEIGHT; y++) {
+				for (int x = 0; x < WIDTH; x++) {
+					if (x != 15 || y != 8) {
+						Assert.assertEquals(x + "," + y, second.contains(x, y)?200:0, readPixel(framebuffer, format, WIDTH, 0, x, y) & 0xff);
+					}
+				}
+			}
+			
+			//Slices that don't come with lit bounds are drawn completely
+			device.showBlankImage();
+			device.showImage(buildLitSlice(second), true);
+			framebuffer = Files.readAllBytes(deviceFile.toPath());
+			Assert.assertEquals(0, readPixel(framebuffer, format, WIDTH, 0, 15, 8));
+			device.dispose();
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+	
+	@Test
+	public void smallerSlicesAreCenteredOverBlack() throws Exception {
+		File deviceFile = File.createTempFile("fbdev", ".raw");
+		try {
+			FramebufferDevice device = new FramebufferDevice("test", deviceFile, FramebufferFormat.RGB888, WIDTH, HEIGHT, WIDTH * 3, 1, null);
+			BufferedImage slice = new BufferedImage(WIDTH - 4, HEIGHT - 2, BufferedImage.TYPE_4BYTE_ABGR);
+			slice.setRGB(0, 0, 0xffffffff);
+			slice.setRGB(1, 0, 0x80ff8000);
+			device.showImage(slice, true);
+			
+			byte[] framebuffer = Files.readAllBytes(deviceFile.toPath());
+			Assert.assertEquals(0, readPixel(framebuffer, FramebufferFormat.RGB888, WIDTH * 3, 0, 1, 0));
+			Assert.assertEquals(0xffffff, readPixel(framebuffer, FramebufferFormat.RGB888, WIDTH * 3, 0, 2, 1));
+			Assert.assertEquals(0x804000, readPixel(framebuffer, FramebufferFormat.RGB888, WIDTH * 3, 0, 3, 1));
+			device.dispose();
+		} finally {
+			deviceFile.delete();
+		}
+	}
+	
+	@Test
+	public void geometryIsReadFromSysfs() throws Exception {
+		File directory = Files.createTempDirectory("fbdev").toFile();
+		try {
+			File deviceFile = new File(directory, "fb0");
+			Assert.assertTrue(deviceFile.createNewFile());
+			FileUtils.writeStringToFile(new File(directory, "bits_per_pixel"), "16\n");
+			FileUtils.writeStringToFile(new File(directory, "stride"), "48\n");
+			FileUtils.writeStringToFile(new File(directory, "virtual_size"), WIDTH + "," + (HEIGHT * 2) + "\n");
+			FileUtils.writeStringToFile(new File(directory, "modes"), "U:" + WIDTH + "x" + HEIGHT + "p-0\n");
+			FileUtils.writeStringToFile(new File(directory, "pan"), "0,0\n");
+			
+			FramebufferDevice device = new FramebufferDevice("test", deviceFile, directory);
+			Assert.assertEquals("test", device.buildIDString());
+			Assert.assertEquals(WIDTH, device.getBoundary().width);
+			Assert.assertEquals(HEIGHT, device.getBoundary().height);
+			device.showGridImage(5);
+			Assert.assertEquals("0," + HEIGHT, FileUtils.readFileToString(new File(directory, "pan")));
+			Assert.assertEquals(48 * HEIGHT * 2, deviceFile.length());
+			device.dispose();
+			
+			Assert.assertNull(new FramebufferDevice("missing", new File(directory, "fb1"), directory).buildIDString());
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+}
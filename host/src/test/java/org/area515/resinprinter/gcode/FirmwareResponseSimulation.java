@@ -31,6 +31,8 @@ public class FirmwareResponseSimulation {
 		
 		Mockito.when(printer.getConfiguration()).thenReturn(configuration);
 		Mockito.when(printer.getConfiguration().getMachineConfig()).thenReturn(machine);
+		//Responses are read on another thread, so they need a moment to arrive
+		Mockito.when(machine.getPrinterResponseTimeoutMillis()).thenReturn(1000);
 		Mockito.when(printer.getPrinterFirmwareSerialPort()).thenReturn(serial);
 		Mockito.when(printJob.getPrinter()).thenReturn(printer);
 		return printJob;
@@ -46,7 +48,11 @@ public class FirmwareResponseSimulation {
 		} else {
 			Mockito.when(printer.getPrinterFirmwareSerialPort().read()).thenReturn(data.getBytes()).thenReturn(null);
 		}
-		Assert.assertEquals(data==null?"":data, control.sendGcodeAndRespectPrinter(printJob, "G21"));
+		try {
+			Assert.assertEquals(data==null?"":data, control.sendGcodeAndRespectPrinter(printJob, "G21"));
+		} finally {
+			control.close();
+		}
 	}
 	
 	@Parameters
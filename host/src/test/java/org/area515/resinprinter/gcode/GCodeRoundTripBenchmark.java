@@ -0,0 +1,77 @@
+package org.area515.resinprinter.gcode;
+
+import java.io.IOException;
+
+import org.area515.resinprinter.job.PrintJob;
+import org.area515.resinprinter.serial.SerialCommunicationsPort;
+import org.area515.resinprinter.serial.SimulatedFirmwareCommPort;
+import org.area515.util.IOUtilities;
+import org.area515.util.IOUtilities.ParseState;
+import org.mockito.Mockito;
+
+public class GCodeRoundTripBenchmark {
+	private static final String[] LAYER_GCODE = {"G91", "G1 Z5 F6000", "G1 Z-4.95 F6000", "M400", "M106 S255"};
+	private static final int LAYERS = 20;
+
+	private static SimulatedFirmwareCommPort buildFirmware(long latencyMillis, long processingMillis) {
+		SimulatedFirmwareCommPort port = new SimulatedFirmwareCommPort();
+		port.setLatencyMicros(latencyMillis * 1000 / 2);
+		port.setProcessingMicros(processingMillis * 1000);
+		port.setWelcomeMessage(null);
+		port.open("Benchmark", 1000, null);
+		return port;
+	}
+
+	private static long timeLayers(GCodeControl control, PrintJob printJob, boolean streamed) throws IOException {
+		long start = System.nanoTime();
+		for (int layer = 0; layer < LAYERS; layer++) {
+			if (streamed) {
+				control.streamGCode(printJob, String.join("\n", LAYER_GCODE), true);
+			} else {
+				for (String gcode : LAYER_GCODE) {
+					control.sendGcodeAndRespectPrinter(printJob, gcode);
+				}
+			}
+		}
+		return (System.nanoTime() - start) / LAYERS;
+	}
+
+	//The way GCodeControl used to wait for a response, sleeping CPU_LIMITING_DELAY whenever nothing was there
+	private static void sendPolling(SerialCommunicationsPort port, String gcode) throws IOException {
+		StringBuilder builder = new StringBuilder();
+		port.write((gcode + "\n").getBytes());
+		ParseState state;
+		do {
+			state = IOUtilities.readLine(null, port, builder, 0, 10000, IOUtilities.CPU_LIMITING_DELAY);
+		} while (!state.currentLine.startsWith("ok"));
+	}
+
+	//java -cp lib/*:. org.area515.resinprinter.gcode.GCodeRoundTripBenchmark 16 1
+	public static void main(String[] args) throws IOException {
+		long latencyMillis = args.length > 0?Long.parseLong(args[0]):16;
+		long processingMillis = args.length > 1?Long.parseLong(args[1]):1;
+
+		SimulatedFirmwareCommPort pollingPort = buildFirmware(latencyMillis, processingMillis);
+		long start = System.nanoTime();
+		for (int layer = 0; layer < LAYERS; layer++) {
+			for (String gcode : LAYER_GCODE) {
+				sendPolling(pollingPort, gcode);
+			}
+		}
+		long polling = (System.nanoTime() - start) / LAYERS;
+		long motion = pollingPort.getMotionMillis() / LAYERS;
+
+		PrintJob printJob = FirmwareResponseSimulation.buildTestPrintJob();
+		Mockito.when(printJob.getPrinter().getPrinterFirmwareSerialPort()).thenReturn(buildFirmware(latencyMillis, processingMillis));
+		Mockito.when(printJob.getPrinter().isPrintActive()).thenReturn(true);
+		Mockito.when(printJob.getPrinter().getConfiguration().getMachineConfig().getGCodeCommandsInFlight()).thenReturn(LAYER_GCODE.length);
+		GCodeControl control = new eGENERICGCodeControl(printJob.getPrinter());
+		try {
+			long queued = timeLayers(control, printJob, false);
+			long streamed = timeLayers(control, printJob, true);
+			System.out.printf("%d gcodes and %dms of motion per layer with %dms round trip and %dms firmware processing: polling %.1fms, line reader %.1fms, streamed %.1fms per layer%n", LAYER_GCODE.length, motion, latencyMillis, processingMillis, polling / 1e6, queued / 1e6, streamed / 1e6);
+		} finally {
+			control.close();
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package org.area515.resinprinter.gcode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.area515.resinprinter.job.PrintJob;
+import org.area515.resinprinter.printer.ComPortSettings;
+import org.area515.resinprinter.printer.MachineConfig;
+import org.area515.resinprinter.serial.SerialCommunicationsPort;
+import org.area515.resinprinter.serial.SimulatedFirmwareCommPort;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class GCodeStreamingTest {
+	//Acknowledges one gcode every few milliseconds, so that gcodes pile up when they are sent ahead
+	private static class BufferedFirmwarePort implements SerialCommunicationsPort {
+		private List<String> received = new ArrayList<String>();
+		private int acknowledged;
+		private int maxInFlight;
+		private long nextResponse;
+		private String errorGCode;
+
+		public BufferedFirmwarePort(String errorGCode) {
+			this.errorGCode = errorGCode;
+		}
+
+		public void open(String controllingDevice, int timeout, ComPortSettings settings) {}
+		public void close() {}
+		public void setName(String name) {}
+		public String getName() {
+			return "Buffered firmware";
+		}
+		public void restartCommunications() {}
+
+		public synchronized void write(byte[] gcode) {
+			if (received.size() == acknowledged) {
+				nextResponse = System.currentTimeMillis() + 5;
+			}
+			received.add(new String(gcode).trim());
+			maxInFlight = Math.max(maxInFlight, received.size() - acknowledged);
+		}
+
+		public synchronized byte[] read() {
+			if (acknowledged == received.size() || System.currentTimeMillis() < nextResponse) {
+				return null;
+			}
+
+			nextResponse = System.currentTimeMillis() + 5;
+			String gcode = received.get(acknowledged++);
+			return (gcode.equals(errorGCode)?"Error: Failed " + gcode + "\n":"ok\n").getBytes();
+		}
+
+		public synchronized List<String> getReceived() {
+			return new ArrayList<String>(received);
+		}
+		public synchronized int getMaxInFlight() {
+			return maxInFlight;
+		}
+	}
+
+	private static PrintJob buildPrintJob(SerialCommunicationsPort port, int commandsInFlight, Integer bytesInFlight) {
+		PrintJob printJob = FirmwareResponseSimulation.buildTestPrintJob();
+		MachineConfig machine = printJob.getPrinter().getConfiguration().getMachineConfig();
+		Mockito.when(machine.getGCodeCommandsInFlight()).thenReturn(commandsInFlight);
+		Mockito.when(machine.getGCodeBytesInFlight()).thenReturn(bytesInFlight);
+		Mockito.when(printJob.getPrinter().getPrinterFirmwareSerialPort()).thenReturn(port);
+		Mockito.when(printJob.getPrinter().isPrintActive()).thenReturn(true);
+		return printJob;
+	}
+
+	private static SimulatedFirmwareCommPort buildFirmware(double timeScale) {
+		SimulatedFirmwareCommPort port = new SimulatedFirmwareCommPort();
+		port.setTimeScale(timeScale);
+		port.setWelcomeMessage(null);
+		port.open("Simulated printer", 1000, null);
+		return port;
+	}
+
+	private static String stream(SerialCommunicationsPort port, int commandsInFlight, Integer bytesInFlight, String gcodes) throws IOException {
+		PrintJob printJob = buildPrintJob(port, commandsInFlight, bytesInFlight);
+		GCodeControl control = new eGENERICGCodeControl(printJob.getPrinter());
+		try {
+			return control.streamGCode(printJob, gcodes, true);
+		} finally {
+			control.close();
+		}
+	}
+
+	@Test
+	public void commandsAreKeptInFlightUpToTheWindow() throws IOException {
+		BufferedFirmwarePort port = new BufferedFirmwarePort(null);
+		String responses = stream(port, 3, null, "G1 Z1\nG1 Z2\n;comment\nG1 Z3\nG1 Z4\nG1 Z5\nG1 Z6");
+		Assert.assertEquals("ok\nok\nok\nok\nok\nok\n", responses);
+		Assert.assertEquals(6, port.getReceived().size());
+		Assert.assertEquals(3, port.getMaxInFlight());
+	}
+
+	@Test
+	public void stockLiftTemplateIsStreamed() throws IOException {
+		BufferedFirmwarePort port = new BufferedFirmwarePort(null);
+		//The lift gcode of the stock Photocentric profiles, every command ends with an empty comment
+		String responses = stream(port, 4, null, "G1 Z5.0 F50.0;\nG1 Z-4.95 F180;\nM17;\n;<delay> 15;");
+		Assert.assertEquals("ok\nok\nok\n", responses);
+		Assert.assertEquals(3, port.getReceived().size());
+		Assert.assertEquals(3, port.getMaxInFlight());
+	}
+
+	@Test
+	public void bytesInFlightLimitTheWindow() throws IOException {
+		BufferedFirmwarePort port = new BufferedFirmwarePort(null);
+		stream(port, 8, 14, "G1 Z1\nG1 Z2\nG1 Z3\nG1 Z4\nG1 Z5\nG1 Z6");
+		Assert.assertEquals(6, port.getReceived().size());
+		Assert.assertEquals(2, port.getMaxInFlight());
+	}
+
+	@Test
+	public void streamStopsAtFirstError() throws IOException {
+		BufferedFirmwarePort port = new BufferedFirmwarePort("G1 Z2");
+		String responses = stream(port, 3, null, "G1 Z1\nG1 Z2\nG1 Z3\nG1 Z4\nG1 Z5\nG1 Z6");
+		Assert.assertEquals("ok\nError: Failed G1 Z2\nok\nok\n", responses);
+		//G1 Z3 and G1 Z4 were already in flight when the error came back
+		Assert.assertEquals(4, port.getReceived().size());
+	}
+
+	@Test
+	public void streamWaitsForSimulatedMotion() throws IOException {
+		SimulatedFirmwareCommPort port = buildFirmware(0.05);
+		long start = System.currentTimeMillis();
+		String responses = stream(port, 4, null, "G91\nG1 Z5 F300\nG1 Z-4.95 F300\nM400\nM106 S255");
+		Assert.assertEquals("ok\nok\nok\nok\nok\n", responses);
+		//Both moves take about 2 seconds at full scale, the M400 holds the stream until they are done
+		Assert.assertTrue(System.currentTimeMillis() - start >= 99);
+		Assert.assertEquals(2, port.getMaxPlannedMoves());
+	}
+
+	@Test
+	public void lateResponseIsNotTakenByTheNextGCode() throws IOException {
+		SimulatedFirmwareCommPort port = buildFirmware(1.0);
+		port.injectResponse("M114", "X:1.00 Y:2.00 Z:3.00\nok\n", 1);
+		PrintJob printJob = buildPrintJob(port, 1, null);
+		GCodeControl control = new eGENERICGCodeControl(printJob.getPrinter());
+		try {
+			//The dwell takes longer than the 1 second response timeout, so its ok arrives after we gave up on it
+			Assert.assertEquals("", control.sendGcode("G4 P1500"));
+			Assert.assertEquals("X:1.00 Y:2.00 Z:3.00\nok\n", control.sendGcode("M114"));
+		} finally {
+			control.close();
+		}
+	}
+
+	@Test
+	public void stoppedStreamLeavesNoResponsesBehind() throws IOException {
+		SimulatedFirmwareCommPort port = buildFirmware(1.0);
+		port.setProcessingMicros(150000);
+		port.injectResponse("M114", "X:1.00 Y:2.00 Z:3.00\nok\n", 1);
+		PrintJob printJob = buildPrintJob(port, 4, null);
+		//The print stops once the firmware has received four gcodes, before any of them have been acknowledged
+		Mockito.when(printJob.getPrinter().isPrintActive()).thenAnswer(invocation -> port.getReceived().size() < 4);
+		GCodeControl control = new eGENERICGCodeControl(printJob.getPrinter());
+		try {
+			Assert.assertEquals("", control.streamGCode(printJob, "G1 Z1\nG1 Z2\nG1 Z3\nG1 Z4\nG1 Z5\nG1 Z6", true));
+			Assert.assertEquals("X:1.00 Y:2.00 Z:3.00\nok\n", control.sendGcode("M114"));
+		} finally {
+			control.close();
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package org.area515.resinprinter.job;
 
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.File;
 
@@ -11,11 +12,14 @@ import org.area515.resinprinter.display.InappropriateDeviceException;
 import org.area515.resinprinter.gcode.eGENERICGCodeControl;
 import org.area515.resinprinter.job.AbstractPrintFileProcessor.DataAid;
 import org.area515.resinprinter.job.Customizer.PrinterStep;
+import org.area515.resinprinter.job.render.CurrentImageRenderer;
+import org.area515.resinprinter.job.render.RenderedData;
 import org.area515.resinprinter.printer.BuildDirection;
 import org.area515.resinprinter.printer.MachineConfig;
 import org.area515.resinprinter.printer.MachineConfig.MonitorDriverConfig;
 import org.area515.resinprinter.printer.Printer;
 import org.area515.resinprinter.printer.PrinterConfiguration;
+import org.area515.resinprinter.printer.RenderingFormat;
 import org.area515.resinprinter.printer.SlicingProfile;
 import org.area515.resinprinter.printer.SlicingProfile.InkConfig;
 import org.area515.resinprinter.serial.SerialCommunicationsPort;
@@ -23,6 +27,7 @@ import org.area515.resinprinter.server.HostProperties;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
@@ -179,13 +184,14 @@ public class AbstractPrintFileProcessorTest {
 			processor.printImageAndPerformPostProcessing(aid, scriptEngine, image);
 			Assert.fail("Must throw InappropriateDeviceException");
 		} catch (InappropriateDeviceException e) {
-			Mockito.verify(printJob.getPrintFileProcessor(), Mockito.times(2)).getBuildAreaMM(Mockito.any(PrintJob.class));
+			//Templates only compute the build area when they use it
+			Mockito.verify(printJob.getPrintFileProcessor(), Mockito.times(1)).getBuildAreaMM(Mockito.any(PrintJob.class));
 		}
 		Mockito.when(printJob.getPrinter().getConfiguration().getSlicingProfile().getZLiftDistanceGCode()).thenReturn("G99 ${1 + buildAreaMM * 2} ;dependent on buildArea");
 		try {
 			aid.customizer.setNextStep(PrinterStep.PerformExposure);
 			processor.printImageAndPerformPostProcessing(aid, scriptEngine, image);
-			Mockito.verify(printJob.getPrintFileProcessor(), Mockito.times(5)).getBuildAreaMM(Mockito.any(PrintJob.class));
+			Mockito.verify(printJob.getPrintFileProcessor(), Mockito.times(3)).getBuildAreaMM(Mockito.any(PrintJob.class));
 		} catch (InappropriateDeviceException e) {
 			Assert.fail("Should not throw InappropriateDeviceException");
 		}
@@ -204,7 +210,7 @@ public class AbstractPrintFileProcessorTest {
 			processor.printImageAndPerformPostProcessing(aid, scriptEngine, image);
 			Assert.fail("Must throw InappropriateDeviceException");
 		} catch (InappropriateDeviceException e) {
-			Mockito.verify(printJob.getPrintFileProcessor(), Mockito.times(2)).getBuildAreaMM(Mockito.any(PrintJob.class));
+			Mockito.verify(printJob.getPrintFileProcessor(), Mockito.times(1)).getBuildAreaMM(Mockito.any(PrintJob.class));
 		}
 	}
 
@@ -239,4 +245,90 @@ public class AbstractPrintFileProcessorTest {
 		//The two executes are for getZLiftDistanceGCode and the life gcode itself
 		Mockito.verify(printJob.getPrinter().getGCodeControl(), Mockito.times(2)).executeGCodeWithTemplating(Mockito.any(PrintJob.class), Mockito.anyString(), Mockito.anyBoolean());
 	}
+
+	@Test
+	public void exposureStartsWhenImageIsPresented() throws Exception {
+		AbstractPrintFileProcessor processor = createNewPrintFileProcessor();
+		PrintJob printJob = createTestPrintJob(processor);
+		Mockito.when(printJob.getExposureTime()).thenReturn(300);
+		Mockito.when(printJob.getPrinter().showImageAndWait(Mockito.any(BufferedImage.class), Mockito.any(Rectangle.class), Mockito.anyBoolean())).thenAnswer(new Answer<Long>() {
+			@Override
+			public Long answer(InvocationOnMock invocation) throws Throwable {
+				Thread.sleep(200);
+				return System.nanoTime();
+			}
+		});
+		DataAid aid = processor.initializeJobCacheWithDataAid(printJob);
+		aid.customizer.setNextStep(PrinterStep.PerformExposure);
+		long start = System.currentTimeMillis();
+		processor.printImageAndPerformPostProcessing(aid, scriptEngine, image);
+		long printTime = System.currentTimeMillis() - start;
+		Assert.assertTrue("Exposure was shortened:" + printTime, printTime >= 500);
+		
+		ArgumentCaptor<Long> displayLatency = ArgumentCaptor.forClass(Long.class);
+		Mockito.verify(printJob).addDisplayLatency(displayLatency.capture());
+		Assert.assertTrue("Display latency wasn't recorded:" + displayLatency.getValue(), displayLatency.getValue() >= 200);
+	}
+
+	@Test
+	public void litBoundsOfRenderedSlicesArePassedToTheDisplay() throws Exception {
+		AbstractPrintFileProcessor processor = createNewPrintFileProcessor();
+		PrintJob printJob = createTestPrintJob(processor);
+		Mockito.when(printJob.getPrinter().getConfiguration().getSlicingProfile().getxResolution()).thenReturn(20);
+		Mockito.when(printJob.getPrinter().getConfiguration().getSlicingProfile().getyResolution()).thenReturn(4);
+		Mockito.when(printJob.getPrinter().getConfiguration().getMachineConfig().getRenderingFormat()).thenReturn(RenderingFormat.Gray);
+		DataAid aid = processor.initializeJobCacheWithDataAid(printJob);
+
+		CurrentImageRenderer renderer = new CurrentImageRenderer(aid, processor, "slice") {
+			@Override
+			public BufferedImage renderImage(BufferedImage image) {
+				image = buildImage(10, 2);
+				image.setRGB(2, 0, 0xffffffff);
+				image.setRGB(3, 0, 0xffffffff);
+				return image;
+			}
+		};
+		RenderedData data = renderer.call();
+		aid.cache.setCurrentRenderingPointer("slice");
+		aid.customizer.setNextStep(PrinterStep.PerformExposure);
+		processor.printImageAndPerformPostProcessing(aid, scriptEngine, data.getPrintableImage());
+		
+		//The slice is centered on the printer
+		ArgumentCaptor<Rectangle> litBounds = ArgumentCaptor.forClass(Rectangle.class);
+		Mockito.verify(printJob.getPrinter()).showImageAndWait(Mockito.same(data.getPrintableImage()), litBounds.capture(), Mockito.eq(true));
+		Assert.assertEquals(new Rectangle(7, 1, 2, 1), litBounds.getValue());
+	}
+
+	@Test
+	public void monochromePrinterRendersOneBitImages() throws Exception {
+		AbstractPrintFileProcessor processor = createNewPrintFileProcessor();
+		PrintJob printJob = createTestPrintJob(processor);
+		Mockito.when(printJob.getPrinter().getConfiguration().getSlicingProfile().getxResolution()).thenReturn(20);
+		Mockito.when(printJob.getPrinter().getConfiguration().getSlicingProfile().getyResolution()).thenReturn(4);
+		Mockito.when(printJob.getPrinter().getConfiguration().getMachineConfig().getRenderingFormat()).thenReturn(RenderingFormat.Monochrome);
+		DataAid aid = processor.initializeJobCacheWithDataAid(printJob);
+
+		CurrentImageRenderer renderer = new CurrentImageRenderer(aid, processor, "slice") {
+			@Override
+			public BufferedImage renderImage(BufferedImage image) {
+				image = buildImage(10, 2);
+				for (int x = 0; x < 9; x++) {
+					image.setRGB(x, 0, 0xffffffff);
+				}
+				image.setRGB(9, 1, 0xffffffff);
+				return image;
+			}
+		};
+		RenderedData data = renderer.call();
+		Assert.assertEquals(BufferedImage.TYPE_BYTE_BINARY, data.getPreTransformedImage().getType());
+		Assert.assertEquals(10, data.getArea(), 0);
+
+		//The slice is centered on the printer
+		BufferedImage printImage = data.getPrintableImage();
+		Assert.assertEquals(BufferedImage.TYPE_BYTE_BINARY, printImage.getType());
+		Assert.assertEquals(0xff000000, printImage.getRGB(4, 1));
+		Assert.assertEquals(0xffffffff, printImage.getRGB(5, 1));
+		Assert.assertEquals(0xffffffff, printImage.getRGB(14, 2));
+		Assert.assertEquals(0xff000000, printImage.getRGB(14, 1));
+	}
 }
@@ -0,0 +1,87 @@
+package org.area515.resinprinter.job.render;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AffineRasterCopyTest {
+	private static final int[] TYPES = new int[]{BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_BYTE_BINARY};
+	
+	private BufferedImage buildSource(int type) {
+		BufferedImage image = new BufferedImage(37, 21, type);
+		Random random = new Random(type);
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				image.setRGB(x, y, random.nextInt());
+			}
+		}
+		return image;
+	}
+	
+	private BufferedImage buildBlackImage(int type) {
+		BufferedImage image = new BufferedImage(50, 45, type);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.BLACK);
+		g.fillRect(0, 0, image.getWidth(), image.getHeight());
+		g.dispose();
+		return image;
+	}
+	
+	private AffineTransform buildTransform(double tx, double ty, double degrees, double xScale, double yScale) {
+		AffineTransform transform = new AffineTransform();
+		transform.translate(tx, ty);
+		transform.rotate(Math.toRadians(degrees));
+		transform.scale(xScale, yScale);
+		return transform;
+	}
+	
+	@Test
+	public void copyMatchesGraphics() {
+		AffineTransform[] transforms = new AffineTransform[] {
+			new AffineTransform(),
+			buildTransform(5, 12, 0, 1, 1),
+			buildTransform(-7, -3, 0, 1, 1),
+			buildTransform(40, 3, 0, -1, 1),
+			buildTransform(2, 30, 0, 1, -1),
+			buildTransform(40, 30, 180, 1, 1),
+			buildTransform(30, 1, 90, 1, 1),
+			buildTransform(3, 44, 270, 1, 1),
+			buildTransform(25, 40, -90, -1, 1),
+			buildTransform(60, -10, 90, 1, 1),
+		};
+		for (int type : TYPES) {
+			BufferedImage source = buildSource(type);
+			for (AffineTransform transform : transforms) {
+				Assert.assertTrue(AffineRasterCopy.isPixelAligned(transform));
+				
+				BufferedImage expected = buildBlackImage(type);
+				Graphics2D g = expected.createGraphics();
+				g.drawImage(source, transform, null);
+				g.dispose();
+				
+				BufferedImage actual = buildBlackImage(type);
+				Assert.assertTrue(AffineRasterCopy.draw(source, transform, actual));
+				for (int y = 0; y < expected.getHeight(); y++) {
+					for (int x = 0; x < expected.getWidth(); x++) {
+						Assert.assertEquals(type + " " + transform + " " + x + "," + y, expected.getRGB(x, y), actual.getRGB(x, y));
+					}
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void unalignedTransformsAreLeftToGraphics() {
+		Assert.assertFalse(AffineRasterCopy.isPixelAligned(buildTransform(0.5, 0, 0, 1, 1)));
+		Assert.assertFalse(AffineRasterCopy.isPixelAligned(buildTransform(0, 0, 45, 1, 1)));
+		Assert.assertFalse(AffineRasterCopy.isPixelAligned(buildTransform(0, 0, 0, 2, 1)));
+		Assert.assertFalse(AffineRasterCopy.isPixelAligned(buildTransform(0, 0, 0, 0, 1)));
+		Assert.assertFalse(AffineRasterCopy.draw(buildSource(BufferedImage.TYPE_BYTE_GRAY), new AffineTransform(), buildBlackImage(BufferedImage.TYPE_4BYTE_ABGR)));
+		Assert.assertFalse(AffineRasterCopy.draw(buildSource(BufferedImage.TYPE_INT_ARGB), new AffineTransform(), buildBlackImage(BufferedImage.TYPE_INT_ARGB)));
+	}
+}
@@ -0,0 +1,137 @@
+package org.area515.resinprinter.job.render;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.RadialGradientPaint;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.area515.resinprinter.printer.MachineConfig.MonitorDriverConfig;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BulbMaskTest {
+	private static final int WIDTH = 64;
+	private static final int HEIGHT = 48;
+	private static final Map<String, Object> NO_INPUTS = Collections.emptyMap();
+	
+	private Paint buildMaskPaint() {
+		return new RadialGradientPaint(new Point2D.Double(WIDTH / 2, HEIGHT / 2), WIDTH / 2, new float[]{0f, 1f}, new Color[]{new Color(0, 0, 0, 0), new Color(0, 0, 0, 200)});
+	}
+	
+	private BufferedImage buildSlice(int type) {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, type);
+		Random random = new Random(type);
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				image.setRGB(x, y, 0xff000000 | random.nextInt());
+			}
+		}
+		return image;
+	}
+	
+	@Test
+	public void maskMatchesPaint() {
+		BulbMask mask = BulbMask.rasterize(buildMaskPaint(), WIDTH, HEIGHT);
+		for (int type : new int[]{BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_GRAY}) {
+			BufferedImage expected = buildSlice(type);
+			Graphics2D g = expected.createGraphics();
+			g.setPaint(buildMaskPaint());
+			g.fillRect(0, 0, WIDTH, HEIGHT);
+			g.dispose();
+			
+			BufferedImage actual = buildSlice(type);
+			Assert.assertTrue(mask.apply(actual));
+			for (int y = 0; y < HEIGHT; y++) {
+				for (int x = 0; x < WIDTH; x++) {
+					Assert.assertEquals(type + " " + x + "," + y, expected.getRGB(x, y), actual.getRGB(x, y));
+				}
+			}
+		}
+		
+		Assert.assertFalse(mask.apply(new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB)));
+		Assert.assertFalse(mask.apply(new BufferedImage(WIDTH + 1, HEIGHT, BufferedImage.TYPE_BYTE_GRAY)));
+	}
+	
+	@Test
+	public void coloredPaintIsNotAMask() {
+		Assert.assertNull(BulbMask.rasterize(Color.ORANGE, WIDTH, HEIGHT));
+	}
+	
+	@Test
+	public void storedMaskIsReplacedWhenSettingsChange() throws Exception {
+		File printerDir = Files.createTempDirectory("bulbMask").toFile();
+		try {
+			MonitorDriverConfig monitor = new MonitorDriverConfig();
+			monitor.setUseMask(true);
+			String key = BulbMask.buildKey("gradient", monitor, WIDTH, HEIGHT, NO_INPUTS);
+			Assert.assertEquals(key, BulbMask.buildKey("gradient", monitor, WIDTH, HEIGHT, NO_INPUTS));
+			Assert.assertNotEquals(key, BulbMask.buildKey("other gradient", monitor, WIDTH, HEIGHT, NO_INPUTS));
+			
+			File maskFile = BulbMask.getMaskFile(printerDir, "printer", key);
+			Assert.assertNull(BulbMask.read(maskFile, WIDTH, HEIGHT));
+			BulbMask mask = BulbMask.rasterize(buildMaskPaint(), WIDTH, HEIGHT);
+			mask.write(maskFile, "printer");
+			
+			BufferedImage expected = buildSlice(BufferedImage.TYPE_BYTE_GRAY);
+			mask.apply(expected);
+			BufferedImage actual = buildSlice(BufferedImage.TYPE_BYTE_GRAY);
+			Assert.assertTrue(BulbMask.read(maskFile, WIDTH, HEIGHT).apply(actual));
+			Assert.assertArrayEquals(
+					(byte[])expected.getRaster().getDataElements(0, 0, WIDTH, HEIGHT, null), 
+					(byte[])actual.getRaster().getDataElements(0, 0, WIDTH, HEIGHT, null));
+			
+			monitor.setDLP_X_Res(1024);
+			File newMaskFile = BulbMask.getMaskFile(printerDir, "printer", BulbMask.buildKey("gradient", monitor, WIDTH, HEIGHT, NO_INPUTS));
+			Assert.assertNotEquals(maskFile, newMaskFile);
+			mask.write(newMaskFile, "printer");
+			Assert.assertFalse(maskFile.exists());
+			Assert.assertTrue(newMaskFile.exists());
+		} finally {
+			FileUtils.deleteDirectory(printerDir);
+		}
+	}
+
+	@Test
+	public void jobVariablesReadByTheScriptArePartOfTheKey() throws Exception {
+		MonitorDriverConfig monitor = new MonitorDriverConfig();
+		Map<String, Object> inputs = new HashMap<>();
+		inputs.put("$bulbHours", 100.0);
+		String key = BulbMask.buildKey("gradient", monitor, WIDTH, HEIGHT, inputs);
+		Assert.assertEquals(key, BulbMask.buildKey("gradient", monitor, WIDTH, HEIGHT, new HashMap<>(inputs)));
+		Assert.assertNotEquals(key, BulbMask.buildKey("gradient", monitor, WIDTH, HEIGHT, NO_INPUTS));
+		inputs.put("$bulbHours", 200.0);
+		Assert.assertNotEquals(key, BulbMask.buildKey("gradient", monitor, WIDTH, HEIGHT, inputs));
+
+		inputs.put("now", new Date());
+		Assert.assertNull(BulbMask.buildKey("gradient", monitor, WIDTH, HEIGHT, inputs));
+	}
+
+	@Test
+	public void storedMasksCanBeDeleted() throws Exception {
+		File printerDir = Files.createTempDirectory("bulbMask").toFile();
+		try {
+			File maskFile = BulbMask.getMaskFile(printerDir, "printer", BulbMask.buildKey("gradient", new MonitorDriverConfig(), WIDTH, HEIGHT, NO_INPUTS));
+			File otherMaskFile = BulbMask.getMaskFile(printerDir, "printer 2", BulbMask.buildKey("gradient", new MonitorDriverConfig(), WIDTH, HEIGHT, NO_INPUTS));
+			BulbMask mask = BulbMask.rasterize(buildMaskPaint(), WIDTH, HEIGHT);
+			mask.write(maskFile, "printer");
+			mask.write(otherMaskFile, "printer 2");
+
+			Assert.assertEquals(1, BulbMask.delete(printerDir, "printer"));
+			Assert.assertFalse(maskFile.exists());
+			Assert.assertTrue(otherMaskFile.exists());
+			Assert.assertEquals(0, BulbMask.delete(printerDir, "printer"));
+		} finally {
+			FileUtils.deleteDirectory(printerDir);
+		}
+	}
+}
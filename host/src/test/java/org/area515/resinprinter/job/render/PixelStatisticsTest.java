@@ -0,0 +1,87 @@
+package org.area515.resinprinter.job.render;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PixelStatisticsTest {
+	private static final int[] TYPES = new int[]{BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_BYTE_BINARY};
+	
+	private BufferedImage buildSlice(int type, int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, type);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.BLACK);
+		g.fillRect(0, 0, width, height);
+		g.setColor(Color.WHITE);
+		g.fillOval(width / 5, height / 7, width / 2, height / 2);
+		g.fillRect(width - 9, height - 3, 5, 2);
+		g.dispose();
+		return image;
+	}
+	
+	private void assertMatchesPixels(BufferedImage image, PixelStatistics statistics) {
+		long[] quadrants = new long[4];
+		Rectangle bounds = null;
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				if ((image.getRGB(x, y) & 0xffffff) != 0) {
+					quadrants[(y < image.getHeight() / 2?0:2) + (x < image.getWidth() / 2?0:1)]++;
+					if (bounds == null) {
+						bounds = new Rectangle(x, y, 1, 1);
+					} else {
+						bounds.add(new Rectangle(x, y, 1, 1));
+					}
+				}
+			}
+		}
+		Assert.assertEquals(quadrants[0] + quadrants[1] + quadrants[2] + quadrants[3], statistics.getArea());
+		Assert.assertEquals(quadrants[PixelStatistics.TOP_LEFT], statistics.getQuadrantArea(PixelStatistics.TOP_LEFT));
+		Assert.assertEquals(quadrants[PixelStatistics.TOP_RIGHT], statistics.getQuadrantArea(PixelStatistics.TOP_RIGHT));
+		Assert.assertEquals(quadrants[PixelStatistics.BOTTOM_LEFT], statistics.getQuadrantArea(PixelStatistics.BOTTOM_LEFT));
+		Assert.assertEquals(quadrants[PixelStatistics.BOTTOM_RIGHT], statistics.getQuadrantArea(PixelStatistics.BOTTOM_RIGHT));
+		Assert.assertEquals(bounds, statistics.getBounds());
+	}
+	
+	@Test
+	public void statisticsMatchPixels() throws InterruptedException {
+		for (int type : TYPES) {
+			BufferedImage image = buildSlice(type, 101, 37);
+			PixelStatistics statistics = PixelStatistics.compute(image, null);
+			Assert.assertTrue(statistics.getArea() > 0);
+			assertMatchesPixels(image, statistics);
+		}
+	}
+	
+	@Test
+	public void bandsMatchSingleThread() throws InterruptedException {
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			for (int type : TYPES) {
+				BufferedImage image = buildSlice(type, 1023, 517);
+				PixelStatistics statistics = PixelStatistics.compute(image, pool);
+				assertMatchesPixels(image, statistics);
+				Assert.assertEquals(PixelStatistics.compute(image, null).toString(), statistics.toString());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	@Test
+	public void blackImageHasNoBounds() throws InterruptedException {
+		PixelStatistics statistics = PixelStatistics.compute(new BufferedImage(10, 10, BufferedImage.TYPE_4BYTE_ABGR), null);
+		Assert.assertEquals(0, statistics.getArea());
+		Assert.assertNull(statistics.getBounds());
+		Assert.assertEquals(0, statistics.getQuadrantCoverage(PixelStatistics.BOTTOM_RIGHT), 0);
+		
+		BufferedImage white = new BufferedImage(5, 3, BufferedImage.TYPE_BYTE_GRAY);
+		white.getRaster().setDataElements(0, 0, 5, 3, new byte[]{-1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1});
+		Assert.assertEquals(1, PixelStatistics.compute(white, null).getQuadrantCoverage(PixelStatistics.BOTTOM_RIGHT), 0);
+		Assert.assertFalse(PixelStatistics.isSupported(new BufferedImage(5, 3, BufferedImage.TYPE_INT_RGB)));
+	}
+}
@@ -0,0 +1,46 @@
+package org.area515.resinprinter.job.render;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RenderingCacheTest {
+	@Test
+	public void movingPointerGivesImageBackToPool() {
+		RenderingCache cache = new RenderingCache();
+		ImageBufferPool pool = cache.getImagePool();
+		
+		BufferedImage trueImage = pool.borrow(40, 30, BufferedImage.TYPE_BYTE_GRAY);
+		cache.getOrCreateIfMissing(Boolean.TRUE).setBorrowedPrintableImage(trueImage);
+		BufferedImage falseImage = pool.borrow(40, 30, BufferedImage.TYPE_BYTE_GRAY);
+		cache.getOrCreateIfMissing(Boolean.FALSE).setBorrowedPrintableImage(falseImage);
+		Assert.assertEquals(0, pool.getHits());
+		Assert.assertEquals(2, pool.getMisses());
+		Assert.assertEquals(2 * 40 * 30, pool.getBytesInFlight());
+		
+		//Pointing at the same data again must not give away the image that is being printed
+		cache.setCurrentRenderingPointer(Boolean.TRUE);
+		Assert.assertSame(trueImage, cache.getCurrentImage());
+		
+		cache.setCurrentRenderingPointer(Boolean.FALSE);
+		Assert.assertNull(cache.getOrCreateIfMissing(Boolean.TRUE).getPrintableImage());
+		Assert.assertSame(falseImage, cache.getCurrentImage());
+		Assert.assertEquals(40 * 30, pool.getBytesInFlight());
+		
+		Assert.assertSame(trueImage, pool.borrow(40, 30, BufferedImage.TYPE_BYTE_GRAY));
+		Assert.assertEquals(1, pool.getHits());
+		Assert.assertNotSame(trueImage, pool.borrow(40, 30, BufferedImage.TYPE_4BYTE_ABGR));
+		Assert.assertEquals(3, pool.getMisses());
+	}
+	
+	@Test
+	public void imagesThatWereNotBorrowedAreKept() {
+		RenderingCache cache = new RenderingCache();
+		BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_BYTE_GRAY);
+		cache.getOrCreateIfMissing(Boolean.TRUE).setPrintableImage(image);
+		cache.setCurrentRenderingPointer(Boolean.FALSE);
+		Assert.assertSame(image, cache.getOrCreateIfMissing(Boolean.TRUE).getPrintableImage());
+		Assert.assertEquals(0, cache.getImagePool().getBytesInFlight());
+	}
+}
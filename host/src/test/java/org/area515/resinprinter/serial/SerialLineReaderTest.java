@@ -0,0 +1,104 @@
+package org.area515.resinprinter.serial;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class SerialLineReaderTest {
+	private static final Pattern OK_PATTERN = Pattern.compile("(?i)(ok|error:)(.*)\r?\n");
+
+	@Test
+	public void linesAreSplitAndResponsesDetected() throws IOException, InterruptedException {
+		SerialCommunicationsPort port = Mockito.mock(SerialCommunicationsPort.class);
+		Mockito.when(port.read())
+			.thenReturn("X:0.0 Y:".getBytes())
+			.thenReturn("3.0\nok".getBytes())
+			.thenReturn("\nError: Bad\r\n".getBytes())
+			.thenReturn(null);
+		SerialLineReader reader = new SerialLineReader(port, OK_PATTERN);
+		try {
+			SerialLineReader.Line line = reader.readLine(1000);
+			Assert.assertEquals("X:0.0 Y:3.0\n", line.getText());
+			Assert.assertNull(line.getResponseMatcher());
+
+			line = reader.readLine(1000);
+			Assert.assertEquals("ok\n", line.getText());
+			Assert.assertEquals("ok", line.getResponseMatcher().group(1));
+
+			line = reader.readLine(1000);
+			Assert.assertEquals("Error: Bad\r\n", line.getText());
+			Assert.assertEquals(" Bad", line.getResponseMatcher().group(2));
+
+			Assert.assertNull(reader.readLine(50));
+		} finally {
+			reader.close();
+		}
+		Assert.assertFalse(reader.isRunning());
+	}
+
+	@Test
+	public void readFailuresAreHandedToTheWaitingThread() throws IOException, InterruptedException {
+		SerialCommunicationsPort port = Mockito.mock(SerialCommunicationsPort.class);
+		Mockito.when(port.read())
+			.thenThrow(new IOException("Port closed"))
+			.thenReturn("ok\n".getBytes())
+			.thenReturn(null);
+		SerialLineReader reader = new SerialLineReader(port, OK_PATTERN);
+		try {
+			//Give the reader a chance to fail before waiting
+			Thread.sleep(50);
+			try {
+				reader.readLine(1000);
+				Assert.fail("The exception from the port should have been thrown");
+			} catch (IOException e) {
+				Assert.assertEquals("Port closed", e.getMessage());
+			}
+			Assert.assertEquals("ok\n", reader.readLine(1000).getText());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void consolePortAnswersEveryLineOnce() throws IOException, InterruptedException {
+		ConsoleCommPort port = ConsoleCommPort.getNextAvailableConsoleCommPort();
+		port.open("Test", 1000, null);
+		SerialLineReader reader = new SerialLineReader(port, OK_PATTERN);
+		try {
+			Assert.assertEquals("Console chitchat\n", reader.readLine(1000).getText());
+			port.write("G91\nG1 Z1\n".getBytes());
+			reader.expectResponse();
+			Assert.assertNotNull(reader.readLine(1000).getResponseMatcher());
+			Assert.assertNotNull(reader.readLine(1000).getResponseMatcher());
+			Assert.assertNull(reader.readLine(50));
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void clearForgetsUnreadLinesAndOwedResponses() throws IOException, InterruptedException {
+		ConsoleCommPort port = ConsoleCommPort.getNextAvailableConsoleCommPort();
+		port.open("Test", 1000, null);
+		SerialLineReader reader = new SerialLineReader(port, OK_PATTERN);
+		try {
+			reader.expectResponse();
+			reader.expectResponse();
+			port.write("G91\n".getBytes());
+			Assert.assertEquals("Console chitchat\n", reader.readLine(1000).getText());
+			Assert.assertNotNull(reader.readLine(1000).getResponseMatcher());
+			Assert.assertEquals(1, reader.getOutstandingResponses());
+
+			port.write("G1 Z1\n".getBytes());
+			Thread.sleep(50);
+			reader.clear();
+			Assert.assertEquals(0, reader.getOutstandingResponses());
+			Assert.assertNull(reader.readLine(50));
+		} finally {
+			reader.close();
+		}
+	}
+}
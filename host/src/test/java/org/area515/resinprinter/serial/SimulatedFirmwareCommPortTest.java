@@ -0,0 +1,78 @@
+package org.area515.resinprinter.serial;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SimulatedFirmwareCommPortTest {
+	private long now;
+
+	private SimulatedFirmwareCommPort createPort() {
+		SimulatedFirmwareCommPort port = new SimulatedFirmwareCommPort();
+		port.setClock(() -> now);
+		port.setBaudRate(0);
+		port.setWelcomeMessage(null);
+		port.open("Simulated printer", 1000, null);
+		return port;
+	}
+
+	private String readAt(SimulatedFirmwareCommPort port, double millis) {
+		now = (long)(millis * 1000000);
+		byte[] data = port.read();
+		return data == null?null:new String(data);
+	}
+
+	@Test
+	public void movesTakeAsLongAsTheirFeedRate() {
+		SimulatedFirmwareCommPort port = createPort();
+		port.write("G91\nG1 Z5 F300\nM400\n".getBytes());
+		Assert.assertEquals("ok\nok\n", readAt(port, 0));
+		Assert.assertNull(readAt(port, 999));
+		Assert.assertEquals("ok\n", readAt(port, 1000));
+		Assert.assertEquals(1000, port.getMotionMillis());
+	}
+
+	@Test
+	public void fullPlannerQueueHoldsBackTheOk() {
+		SimulatedFirmwareCommPort port = createPort();
+		port.setPlannerQueueDepth(2);
+		port.write("G91\nG1 Z1 F60\nG1 Z1\nG1 Z1\nG4 P500\n".getBytes());
+		Assert.assertEquals("ok\nok\nok\n", readAt(port, 0));
+		Assert.assertEquals("ok\n", readAt(port, 1000));
+		Assert.assertNull(readAt(port, 3499));
+		Assert.assertEquals("ok\n", readAt(port, 3500));
+		Assert.assertEquals(2, port.getMaxPlannedMoves());
+	}
+
+	@Test
+	public void bytesTakeAsLongAsTheBaudRate() {
+		SimulatedFirmwareCommPort port = createPort();
+		port.setBaudRate(9600);
+		port.setLatencyMicros(1000);
+
+		//1ms to the firmware, 4 bytes there, 1ms back and 3 bytes back at 10 bits a byte
+		port.write("G90\n".getBytes());
+		Assert.assertNull(readAt(port, 9.2));
+		Assert.assertEquals("ok\n", readAt(port, 9.3));
+	}
+
+	@Test
+	public void linesAreDroppedWhenTheReceiveBufferIsFull() {
+		SimulatedFirmwareCommPort port = createPort();
+		port.setReceiveBufferBytes(16);
+		port.write("G4 P1000\nM106 S255\nM106 S0\n".getBytes());
+		Assert.assertEquals(Arrays.asList("M106 S0"), port.getDroppedLines());
+		Assert.assertEquals("ok\nok\n", readAt(port, 1000));
+	}
+
+	@Test
+	public void injectedFaultsReplaceTheOk() {
+		SimulatedFirmwareCommPort port = createPort();
+		port.injectResponse("G1 Z2.*", "Error: Failed G1 Z2\n", 1);
+		port.injectTimeout("M114", 1);
+		port.write("N1 G1 Z1 F6000*12\nG1 Z2 ; second\nM114\nG1 Z2\nM114\n".getBytes());
+		Assert.assertEquals("ok\nError: Failed G1 Z2\nok\nok\n", readAt(port, 1000));
+		Assert.assertEquals(Arrays.asList("G1 Z1 F6000", "G1 Z2", "M114", "G1 Z2", "M114"), port.getReceived());
+	}
+}
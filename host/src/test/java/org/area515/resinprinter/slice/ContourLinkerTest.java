@@ -0,0 +1,110 @@
+package org.area515.resinprinter.slice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.area515.resinprinter.stl.Line3d;
+import org.area515.resinprinter.stl.Mesh3d;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ContourLinkerTest {
+	//A unit cube with outward facing normals and counterclockwise winding, optionally without its first side wall
+	private Mesh3d buildCube(boolean open) {
+		Mesh3d mesh = new Mesh3d(12);
+		for (int z = 0; z < 2; z++) {
+			for (int y = 0; y < 2; y++) {
+				for (int x = 0; x < 2; x++) {
+					mesh.addVertex(x, y, z);
+				}
+			}
+		}
+		mesh.addFacet(0, 2, 3, 0, 0, -1);
+		mesh.addFacet(0, 3, 1, 0, 0, -1);
+		mesh.addFacet(4, 5, 7, 0, 0, 1);
+		mesh.addFacet(4, 7, 6, 0, 0, 1);
+		if (!open) {
+			mesh.addFacet(0, 1, 5, 0, -1, 0);
+		}
+		mesh.addFacet(0, 5, 4, 0, -1, 0);
+		mesh.addFacet(2, 6, 7, 0, 1, 0);
+		mesh.addFacet(2, 7, 3, 0, 1, 0);
+		mesh.addFacet(0, 4, 6, -1, 0, 0);
+		mesh.addFacet(0, 6, 2, -1, 0, 0);
+		mesh.addFacet(1, 3, 7, 1, 0, 0);
+		mesh.addFacet(1, 7, 5, 1, 0, 0);
+		mesh.buildEdgeAdjacency();
+		return mesh;
+	}
+
+	private void link(Mesh3d mesh, double z, List<List<Line3d>> closedLoops, List<List<Line3d>> openChains) {
+		ContourLinker linker = new ContourLinker(mesh);
+		for (int t = 0; t < mesh.getFacetCount(); t++) {
+			linker.addFacet(t, z);
+		}
+		linker.link(closedLoops, openChains);
+	}
+
+	private void assertLinked(List<Line3d> loop, boolean closed) {
+		for (int t = 0; t < loop.size() - (closed?0:1); t++) {
+			Line3d line = loop.get(t);
+			Line3d next = loop.get((t + 1) % loop.size());
+			Assert.assertEquals(line.getPointTwo().x, next.getPointOne().x, 0);
+			Assert.assertEquals(line.getPointTwo().y, next.getPointOne().y, 0);
+		}
+	}
+
+	@Test
+	public void sliceThroughMiddle() {
+		List<List<Line3d>> closedLoops = new ArrayList<List<Line3d>>();
+		List<List<Line3d>> openChains = new ArrayList<List<Line3d>>();
+		link(buildCube(false), 0.5, closedLoops, openChains);
+		Assert.assertEquals(1, closedLoops.size());
+		Assert.assertEquals(8, closedLoops.get(0).size());
+		Assert.assertEquals(0, openChains.size());
+		assertLinked(closedLoops.get(0), true);
+	}
+
+	@Test
+	public void sliceOnTopFace() {
+		List<List<Line3d>> closedLoops = new ArrayList<List<Line3d>>();
+		List<List<Line3d>> openChains = new ArrayList<List<Line3d>>();
+		link(buildCube(false), 1, closedLoops, openChains);
+		Assert.assertEquals(1, closedLoops.size());
+		Assert.assertEquals(4, closedLoops.get(0).size());
+		assertLinked(closedLoops.get(0), true);
+	}
+
+	@Test
+	public void missingFacetLeavesOneOpenChain() {
+		List<List<Line3d>> closedLoops = new ArrayList<List<Line3d>>();
+		List<List<Line3d>> openChains = new ArrayList<List<Line3d>>();
+		link(buildCube(true), 0.5, closedLoops, openChains);
+		Assert.assertEquals(0, closedLoops.size());
+		Assert.assertEquals(1, openChains.size());
+		Assert.assertEquals(7, openChains.get(0).size());
+		assertLinked(openChains.get(0), false);
+	}
+
+	@Test
+	public void relinkMatchesLink() {
+		Mesh3d mesh = buildCube(false);
+		List<List<Line3d>> closedLoops = new ArrayList<List<Line3d>>();
+		List<List<Line3d>> openChains = new ArrayList<List<Line3d>>();
+		ContourLinker linker = new ContourLinker(mesh);
+		Assert.assertFalse(linker.relink(0.6, closedLoops, openChains));
+
+		link(mesh, 0.6, closedLoops, openChains);
+		List<List<Line3d>> relinkedLoops = new ArrayList<List<Line3d>>();
+		for (int t = 0; t < mesh.getFacetCount(); t++) {
+			linker.addFacet(t, 0.3);
+		}
+		linker.link(new ArrayList<List<Line3d>>(), openChains);
+		Assert.assertTrue(linker.relink(0.6, relinkedLoops, openChains));
+		Assert.assertEquals(0, openChains.size());
+		Assert.assertEquals(closedLoops.toString(), relinkedLoops.toString());
+
+		linker.reset();
+		Assert.assertFalse(linker.relink(0.6, relinkedLoops, openChains));
+	}
+}
@@ -0,0 +1,176 @@
+package org.area515.resinprinter.slice;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LayerStoreTest {
+	private ZSlicer buildSlicer() {
+		return new ZSlicer(1, 5, 5, 0.1, 0.05, true, false, new CloseOffMend());
+	}
+
+	private BufferedImage buildImage(ZSlicer slicer) {
+		return new BufferedImage((int)slicer.getWidthPixels(), (int)slicer.getHeightPixels(), BufferedImage.TYPE_4BYTE_ABGR);
+	}
+
+	private void deleteStore(File cacheDirectory) {
+		for (File layerDirectory : cacheDirectory.listFiles()) {
+			for (File layer : layerDirectory.listFiles()) {
+				layer.delete();
+			}
+			layerDirectory.delete();
+		}
+		cacheDirectory.delete();
+	}
+
+	@Test
+	public void preSlicedLayersMatchSlicedLayers() throws Exception {
+		File model = new File(LayerStoreTest.class.getResource("Drive_gear.stl").toURI());
+		File cacheDirectory = Files.createTempDirectory("sliceCache").toFile();
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			ZSlicer loadedSlicer = buildSlicer();
+			loadedSlicer.loadFile(model, null, null);
+			int firstZ = loadedSlicer.getZMinIndex();
+			int lastZ = loadedSlicer.getZMaxIndex() + 1;
+
+			LayerStore store = LayerStore.open(cacheDirectory, model, "profile");
+			Assert.assertEquals(lastZ - firstZ + 1, store.preSlice(loadedSlicer, firstZ, lastZ, executor, 3));
+			Assert.assertEquals(0, LayerStore.open(cacheDirectory, model, "profile").preSlice(loadedSlicer, firstZ, lastZ, executor, 3));
+			Assert.assertNotEquals(store.getLayerDirectory(), LayerStore.open(cacheDirectory, model, "other profile").getLayerDirectory());
+			Assert.assertNull(store.readLayer(lastZ + 1));
+
+			ZSlicer slicer = buildSlicer();
+			slicer.loadFile(model, null, null);
+			for (int z = firstZ; z <= lastZ; z++) {
+				slicer.setZIndex(z);
+				slicer.colorizePolygons(null, null);
+				BufferedImage sliced = buildImage(slicer);
+				Graphics2D g2 = sliced.createGraphics();
+				slicer.paintSlice(g2, true);
+				g2.dispose();
+
+				BufferedImage stored = buildImage(slicer);
+				g2 = stored.createGraphics();
+				g2.drawImage(store.readLayer(z), 0, 0, null);
+				g2.dispose();
+				for (int y = 0; y < sliced.getHeight(); y++) {
+					for (int x = 0; x < sliced.getWidth(); x++) {
+						Assert.assertEquals("Layer " + z + " at " + x + "," + y, sliced.getRGB(x, y), stored.getRGB(x, y));
+					}
+				}
+			}
+		} finally {
+			executor.shutdown();
+			deleteStore(cacheDirectory);
+		}
+	}
+
+	private LayerStore openStore(File cacheDirectory, String model, long lastOpened) throws Exception {
+		File modelFile = new File(cacheDirectory.getParentFile(), cacheDirectory.getName() + "." + model);
+		Files.write(modelFile.toPath(), model.getBytes(StandardCharsets.UTF_8));
+		LayerStore store = LayerStore.open(cacheDirectory, modelFile, "profile");
+		store.writeLayer(0, new BufferedImage(64, 64, BufferedImage.TYPE_BYTE_BINARY));
+		store.getLayerDirectory().setLastModified(lastOpened);
+		return store;
+	}
+
+	@Test
+	public void leastRecentlyOpenedStoresAreEvicted() throws Exception {
+		File cacheDirectory = Files.createTempDirectory("sliceCache").toFile();
+		try {
+			long now = System.currentTimeMillis();
+			LayerStore expired = openStore(cacheDirectory, "expired", now - 40000);
+			LayerStore oldest = openStore(cacheDirectory, "oldest", now - 3000);
+			LayerStore older = openStore(cacheDirectory, "older", now - 2000);
+			LayerStore newest = openStore(cacheDirectory, "newest", now - 1000);
+			LayerStore inUse = openStore(cacheDirectory, "in use", now - 50000);
+			long storeBytes = FileUtils.sizeOfDirectory(newest.getLayerDirectory());
+
+			Assert.assertEquals(0, LayerStore.evict(cacheDirectory, 0, 0, inUse));
+			Assert.assertEquals(1, LayerStore.evict(cacheDirectory, 0, 30000, inUse));
+			Assert.assertFalse(expired.getLayerDirectory().exists());
+			Assert.assertEquals(1, LayerStore.evict(cacheDirectory, storeBytes * 3, 30000, inUse));
+			Assert.assertFalse(oldest.getLayerDirectory().exists());
+			Assert.assertTrue(older.getLayerDirectory().exists());
+			Assert.assertTrue(newest.getLayerDirectory().exists());
+			Assert.assertTrue(inUse.getLayerDirectory().exists());
+
+			Assert.assertEquals(2, LayerStore.evict(cacheDirectory, 1, 0, inUse));
+			Assert.assertTrue(inUse.getLayerDirectory().exists());
+		} finally {
+			for (File modelFile : cacheDirectory.getParentFile().listFiles((dir, name) -> name.startsWith(cacheDirectory.getName() + "."))) {
+				modelFile.delete();
+			}
+			deleteStore(cacheDirectory);
+		}
+	}
+
+	@Test
+	public void storesAreDeletedWithTheirModel() throws Exception {
+		File cacheDirectory = Files.createTempDirectory("sliceCache").toFile();
+		File model = File.createTempFile("model", ".stl");
+		File otherModel = File.createTempFile("otherModel", ".stl");
+		try {
+			Files.write(model.toPath(), "model".getBytes(StandardCharsets.UTF_8));
+			Files.write(otherModel.toPath(), "other model".getBytes(StandardCharsets.UTF_8));
+			LayerStore store = LayerStore.open(cacheDirectory, model, "profile");
+			LayerStore otherProfileStore = LayerStore.open(cacheDirectory, model, "other profile");
+			LayerStore otherStore = LayerStore.open(cacheDirectory, otherModel, "profile");
+
+			model.delete();
+			Assert.assertEquals(2, LayerStore.delete(cacheDirectory, model));
+			Assert.assertFalse(store.getLayerDirectory().exists());
+			Assert.assertFalse(otherProfileStore.getLayerDirectory().exists());
+			Assert.assertTrue(otherStore.getLayerDirectory().exists());
+		} finally {
+			model.delete();
+			otherModel.delete();
+			deleteStore(cacheDirectory);
+		}
+	}
+
+	@Test
+	public void stlErrorsAreStoredWithTheirLayers() throws Exception {
+		File model = new File(LayerStoreTest.class.getResource("NonManifoldBox.stl").toURI());
+		File cacheDirectory = Files.createTempDirectory("sliceCache").toFile();
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			ZSlicer loadedSlicer = buildSlicer();
+			loadedSlicer.loadFile(model, null, null);
+			int firstZ = loadedSlicer.getZMinIndex();
+			int lastZ = loadedSlicer.getZMaxIndex() + 1;
+			LayerStore.open(cacheDirectory, model, "profile").preSlice(loadedSlicer, firstZ, lastZ, executor, 3);
+
+			//A later print of the same model takes every layer from the store without slicing it
+			LayerStore store = LayerStore.open(cacheDirectory, model, "profile");
+			Assert.assertEquals(0, store.preSlice(loadedSlicer, firstZ, lastZ, executor, 3));
+			ZSlicer slicer = buildSlicer();
+			slicer.loadFile(model, null, null);
+			int errors = 0;
+			for (int z = firstZ; z <= lastZ; z++) {
+				slicer.setZIndex(z);
+				slicer.colorizePolygons(null, null);
+				List<StlError> storedErrors = store.readErrors(z, loadedSlicer);
+				Assert.assertEquals("Layer " + z, slicer.getStlErrors().toString(), storedErrors.toString());
+				for (int t = 0; t < storedErrors.size(); t++) {
+					Assert.assertEquals(slicer.getStlErrors().get(t).getType(), storedErrors.get(t).getType());
+				}
+				errors += storedErrors.size();
+			}
+			Assert.assertTrue(errors > 0);
+		} finally {
+			executor.shutdown();
+			deleteStore(cacheDirectory);
+		}
+	}
+}
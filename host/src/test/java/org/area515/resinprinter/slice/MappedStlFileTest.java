@@ -0,0 +1,137 @@
+package org.area515.resinprinter.slice;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MappedStlFileTest {
+	private ZSlicer buildSlicer() {
+		return new ZSlicer(1, 5, 5, 0.1, 0.05, true, false, new CloseOffMend());
+	}
+
+	private File getFixture(String name) throws URISyntaxException {
+		return new File(MappedStlFileTest.class.getResource(name).toURI());
+	}
+
+	private void assertSameModel(String name) throws Exception {
+		ZSlicer streamed = buildSlicer();
+		try (InputStream stream = MappedStlFileTest.class.getResourceAsStream(name)) {
+			streamed.loadFile(stream, 1024.0, 500.0);
+		}
+		ZSlicer mapped = buildSlicer();
+		mapped.loadFile(getFixture(name), 1024.0, 500.0);
+
+		Assert.assertEquals(streamed.getTriangleCount(), mapped.getTriangleCount());
+		Assert.assertEquals(streamed.getZMinIndex(), mapped.getZMinIndex());
+		Assert.assertEquals(streamed.getZMaxIndex(), mapped.getZMaxIndex());
+		Assert.assertEquals(1.0, mapped.getLoadProgress(), 0);
+		for (int t = 0; t < mapped.getTriangleCount(); t++) {
+			Assert.assertEquals(streamed.getTriangle(t).toString(), mapped.getTriangle(t).toString());
+		}
+	}
+
+	@Test
+	public void mappedBinaryMatchesStream() throws Exception {
+		assertSameModel("CornerBracket_2.stl");
+		assertSameModel("Drive_gear.stl");
+	}
+
+	@Test
+	public void asciiFileFallsBackToStream() throws Exception {
+		assertSameModel("lenscap-36mm.stl");
+	}
+
+	//Enough facets for several decode ranges, with random facets so that each range has its own bounds
+	private File writeRandomBinaryStl(int facets) throws IOException {
+		File stl = File.createTempFile("random", ".stl");
+		ByteBuffer buffer = ByteBuffer.allocate(84 + facets * 50).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.position(80);
+		buffer.putInt(facets);
+		Random random = new Random(515);
+		for (int facet = 0; facet < facets; facet++) {
+			buffer.putFloat(0).putFloat(0).putFloat(1);
+			for (int vertex = 0; vertex < 9; vertex++) {
+				buffer.putFloat(random.nextFloat() * (facet + 1) / 1000);
+			}
+			buffer.putShort((short)0);
+		}
+		buffer.flip();
+		try (FileChannel channel = FileChannel.open(stl.toPath(), StandardOpenOption.WRITE)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+		return stl;
+	}
+
+	@Test
+	public void parallelLoadMatchesSequentialLoad() throws Exception {
+		File stl = writeRandomBinaryStl(70000);
+		ForkJoinPool parallelPool = new ForkJoinPool(4);
+		ForkJoinPool sequentialPool = new ForkJoinPool(1);
+		try {
+			ZSlicer parallel = buildSlicer();
+			parallel.setLoadPool(parallelPool);
+			parallel.loadFile(stl, 1024.0, 500.0);
+			ZSlicer sequential = buildSlicer();
+			sequential.setLoadPool(sequentialPool);
+			sequential.loadFile(stl, 1024.0, 500.0);
+
+			Assert.assertEquals(70000, parallel.getTriangleCount());
+			Assert.assertEquals(sequential.getTriangleCount(), parallel.getTriangleCount());
+			for (int t = 0; t < parallel.getTriangleCount(); t++) {
+				Assert.assertEquals(sequential.getTriangle(t).toString(), parallel.getTriangle(t).toString());
+				Assert.assertEquals(Integer.valueOf(t), parallel.getTriangle(t).getOriginalIndex());
+				Assert.assertEquals(sequential.getTriangle(t).getOriginalIndex(), parallel.getTriangle(t).getOriginalIndex());
+			}
+
+			StlFile<?, ?> parallelFile = parallel.getStlFile();
+			StlFile<?, ?> sequentialFile = sequential.getStlFile();
+			Assert.assertEquals(sequentialFile.getXmin(), parallelFile.getXmin(), 0);
+			Assert.assertEquals(sequentialFile.getXmax(), parallelFile.getXmax(), 0);
+			Assert.assertEquals(sequentialFile.getYmin(), parallelFile.getYmin(), 0);
+			Assert.assertEquals(sequentialFile.getYmax(), parallelFile.getYmax(), 0);
+			Assert.assertEquals(sequentialFile.getZmin(), parallelFile.getZmin(), 0);
+			Assert.assertEquals(sequentialFile.getZmax(), parallelFile.getZmax(), 0);
+			Assert.assertEquals(sequential.getZMinIndex(), parallel.getZMinIndex());
+			Assert.assertEquals(sequential.getZMaxIndex(), parallel.getZMaxIndex());
+		} finally {
+			parallelPool.shutdown();
+			sequentialPool.shutdown();
+			stl.delete();
+		}
+	}
+
+	@Test
+	public void truncatedFileIsRejected() throws Exception {
+		File truncated = File.createTempFile("truncated", ".stl");
+		try {
+			Files.copy(getFixture("CornerBracket_2.stl").toPath(), truncated.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			try (RandomAccessFile file = new RandomAccessFile(truncated, "rw")) {
+				file.setLength(file.length() - 25);
+			}
+
+			try {
+				buildSlicer().loadFile(truncated, 1024.0, 500.0);
+				Assert.fail("Truncated file should not load");
+			} catch (IOException e) {
+				Assert.assertTrue(e.getMessage(), e.getMessage().contains("faces"));
+			}
+		} finally {
+			truncated.delete();
+		}
+	}
+}
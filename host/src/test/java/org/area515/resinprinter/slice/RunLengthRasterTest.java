@@ -0,0 +1,68 @@
+package org.area515.resinprinter.slice;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RunLengthRasterTest {
+	private RunLengthRaster buildRaster() {
+		RunLengthRaster raster = new RunLengthRaster(-2, 12);
+		raster.addRun(-1, 3, 5);
+		raster.addRun(2, -4, 1);
+		raster.addRun(2, 4, 4);
+		raster.addRun(2, 6, 30);
+		raster.addRun(7, 0, 19);
+		raster.addRun(12, 2, 3);
+		return raster;
+	}
+
+	private BufferedImage paintWithGraphics(RunLengthRaster raster, int type) {
+		BufferedImage image = new BufferedImage(20, 10, type);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.white);
+		raster.paint(g);
+		g.dispose();
+		return image;
+	}
+
+	private void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				Assert.assertEquals(x + "," + y, expected.getRGB(x, y), actual.getRGB(x, y));
+			}
+		}
+	}
+
+	@Test
+	public void directPaintMatchesGraphics() {
+		RunLengthRaster raster = buildRaster();
+		Assert.assertEquals(6, raster.getRunCount());
+		Assert.assertEquals(3 + 6 + 1 + 25 + 20 + 2, raster.getArea());
+		for (int type : new int[]{BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_4BYTE_ABGR_PRE, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_BYTE_BINARY}) {
+			BufferedImage image = new BufferedImage(20, 10, type);
+			Assert.assertTrue(raster.paint(image));
+			assertSamePixels(paintWithGraphics(raster, type), image);
+		}
+	}
+
+	@Test
+	public void directPaintIntoSubimage() {
+		RunLengthRaster raster = buildRaster();
+		for (int type : new int[]{BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_BINARY}) {
+			BufferedImage parent = new BufferedImage(40, 30, type);
+			BufferedImage image = parent.getSubimage(11, 5, 20, 10);
+			Assert.assertTrue(raster.paint(image));
+			assertSamePixels(paintWithGraphics(raster, type), image);
+			Assert.assertEquals(0, parent.getRGB(10, 12) & 0xffffff);
+			Assert.assertEquals(0, parent.getRGB(31, 12) & 0xffffff);
+		}
+	}
+
+	@Test
+	public void unsupportedImageIsLeftAlone() {
+		Assert.assertFalse(buildRaster().paint(new BufferedImage(20, 10, BufferedImage.TYPE_INT_ARGB)));
+	}
+}
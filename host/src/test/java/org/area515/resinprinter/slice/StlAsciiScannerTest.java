@@ -0,0 +1,94 @@
+package org.area515.resinprinter.slice;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StlAsciiScannerTest {
+	private StlAsciiScanner buildScanner(String contents) {
+		return new StlAsciiScanner(new ByteArrayInputStream(contents.getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	private ZSlicer buildSlicer() {
+		return new ZSlicer(1, 5, 5, 0.1, 0.05, true, false, new CloseOffMend());
+	}
+
+	@Test
+	public void numbersMatchJdk() throws IOException {
+		List<String> numbers = new ArrayList<String>();
+		String[] fixed = {"0", "-0", "+1", "1.", ".5", "-0.000", "30.000000", "1e3", "1E-3", "-2.5e+001", "0.00012",
+				"123456789012345678", "0.1234567890123456789", "1e-30", "4.9e-324", "1.7976931348623157E308", "3.4028235E38",
+				"NaN", "-Infinity", "1d", "0x1p3"};
+		for (String number : fixed) {
+			numbers.add(number);
+		}
+		Random random = new Random(0);
+		for (int t = 0; t < 2000; t++) {
+			double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12) - 6);
+			numbers.add(String.format(Locale.ENGLISH, "%e", value));
+			numbers.add(String.format(Locale.ENGLISH, "%f", value));
+			numbers.add(Float.toString((float)value));
+			numbers.add(Double.toString(value));
+		}
+
+		StringBuilder line = new StringBuilder();
+		for (String number : numbers) {
+			line.append(number).append(' ');
+		}
+		StlAsciiScanner scanner = buildScanner(line.toString());
+		for (String number : numbers) {
+			Assert.assertTrue(number, scanner.getNumber());
+			Assert.assertEquals(number, Double.doubleToLongBits(Double.parseDouble(number)), Double.doubleToLongBits(scanner.nval));
+		}
+		Assert.assertFalse(scanner.getNumber());
+	}
+
+	@Test
+	public void tokensAndLines() throws IOException {
+		StringBuilder longWord = new StringBuilder();
+		for (int t = 0; t < 100000; t++) {
+			longWord.append('a');
+		}
+		StlAsciiScanner scanner = buildScanner("SOLID " + longWord + "\r\n\tFacet\rnormal 1-2\n");
+		scanner.nextToken();
+		Assert.assertTrue(scanner.isWord(StlAsciiScanner.SOLID));
+		scanner.nextToken();
+		Assert.assertEquals(longWord.toString(), scanner.getWord());
+		scanner.nextToken();
+		Assert.assertEquals(StlAsciiScanner.TT_EOL, scanner.ttype);
+		Assert.assertEquals(2, scanner.lineno());
+		scanner.nextToken();
+		Assert.assertTrue(scanner.isWord(StlAsciiScanner.FACET));
+		Assert.assertFalse(scanner.isWord(StlAsciiScanner.ENDFACET));
+		scanner.skipLine();
+		Assert.assertEquals(3, scanner.lineno());
+		scanner.nextToken();
+		Assert.assertTrue(scanner.isWord(StlAsciiScanner.NORMAL));
+		Assert.assertFalse(scanner.getNumber());
+		scanner.skipLine();
+		scanner.nextToken();
+		Assert.assertEquals(StlAsciiScanner.TT_EOF, scanner.ttype);
+	}
+
+	@Test
+	public void formatErrorsReportLine() throws IOException {
+		String stl = "solid test\n" +
+				"facet normal 0 0 1\n" +
+				"outer loop\n" +
+				"vertex 0 0 0\n" +
+				"vertex 1 0 x\n";
+		try {
+			buildSlicer().loadFile(new ByteArrayInputStream(stl.getBytes(StandardCharsets.US_ASCII)), 1024.0, 500.0);
+			Assert.fail("Bad coordinate should not load");
+		} catch (IOException e) {
+			Assert.assertEquals("Format Error: expecting coordinate on line 5", e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package org.area515.resinprinter.slice;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.area515.resinprinter.printer.BuildDirection;
+import org.area515.resinprinter.stl.Triangle3d;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+@RunWith(Parameterized.class)
+public class ZIntervalIndexTest {
+    private static final Logger logger = LogManager.getLogger();
+
+	private static final int MAX_SLICES_TO_CHECK = 2000;
+
+	private FillFile fillFile;
+	private ZSlicer slicer;
+	private Triangle3d[] triangles;
+	private ZIntervalIndex index;
+
+	public ZIntervalIndexTest(FillFile fillFile) throws IOException {
+		this.fillFile = fillFile;
+		slicer = new ZSlicer(
+				fillFile.getStlScale(),
+				fillFile.getPixelsPerMMX(),
+				fillFile.getPixelsPerMMY(),
+				fillFile.getzSliceResolution(),
+				fillFile.getzSliceOffset(),
+				true,
+				false,
+				new CloseOffMend());
+		slicer.loadFile(ZIntervalIndexTest.class.getResourceAsStream(fillFile.getFileName()), 1024.0, 500.0);
+		triangles = slicer.getAllTriangles().toArray(new Triangle3d[slicer.getAllTriangles().size()]);
+		double[] minZ = new double[triangles.length];
+		double[] maxZ = new double[triangles.length];
+		for (int t = 0; t < triangles.length; t++) {
+			minZ[t] = triangles[t].getMinZ();
+			maxZ[t] = triangles[t].getMaxZ();
+		}
+		index = new ZIntervalIndex(minZ, maxZ);
+	}
+
+	//Some fixtures have an enormous number of slices, so only sample a bounded number of them
+	private int getSliceStep() {
+		return Math.max(1, (slicer.getZMaxIndex() - slicer.getZMinIndex()) / MAX_SLICES_TO_CHECK);
+	}
+
+	private double getActualZ(int z) {
+		return (double)z * fillFile.getzSliceResolution() + fillFile.getzSliceOffset();
+	}
+
+	private List<Integer> bruteForce(double actualZ) {
+		List<Integer> found = new ArrayList<Integer>();
+		for (int t = 0; t < triangles.length; t++) {
+			if (triangles[t].intersectsZ(actualZ)) {
+				found.add(t);
+			}
+		}
+		return found;
+	}
+
+	private void checkDirection(BuildDirection direction) {
+		int start = direction == BuildDirection.Bottom_Up?slicer.getZMinIndex() - 1:slicer.getZMaxIndex() + 1;
+		int end = direction == BuildDirection.Bottom_Up?slicer.getZMaxIndex() + 1:slicer.getZMinIndex() - 1;
+		for (int z = start; direction.isSliceAvailable(z, end); z += direction.getVector() * getSliceStep()) {
+			double actualZ = getActualZ(z);
+			List<Integer> expected = bruteForce(actualZ);
+			int[] actual = index.findIntersecting(actualZ);
+			Assert.assertEquals(fillFile.getFileName() + " slice:" + z, expected.size(), actual.length);
+			for (int t = 0; t < actual.length; t++) {
+				Assert.assertEquals(fillFile.getFileName() + " slice:" + z, expected.get(t).intValue(), actual[t]);
+			}
+		}
+	}
+
+	@Test
+	public void matchesFullScanBottomUp() {
+		checkDirection(BuildDirection.Bottom_Up);
+	}
+
+	@Test
+	public void matchesFullScanTopDown() {
+		checkDirection(BuildDirection.Top_Down);
+	}
+
+	@Test
+	public void compareTimings() {
+		int passes = 5;
+		int step = getSliceStep();
+		long candidates = 0;
+		long start = System.nanoTime();
+		for (int pass = 0; pass < passes; pass++) {
+			for (int z = slicer.getZMinIndex(); z <= slicer.getZMaxIndex(); z += step) {
+				candidates += bruteForce(getActualZ(z)).size();
+			}
+		}
+		long fullScan = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int pass = 0; pass < passes; pass++) {
+			for (int z = slicer.getZMinIndex(); z <= slicer.getZMaxIndex(); z += step) {
+				candidates -= index.findIntersecting(getActualZ(z)).length;
+			}
+		}
+		long indexed = System.nanoTime() - start;
+
+		Assert.assertEquals(0, candidates);
+		logger.info("{} triangles:{} slices:{} full scan:{}ms interval index:{}ms",
+				fillFile.getFileName(),
+				triangles.length,
+				(slicer.getZMaxIndex() - slicer.getZMinIndex()) / step + 1,
+				fullScan / passes / 1000000.0,
+				indexed / passes / 1000000.0);
+	}
+
+	@Parameters
+	public static Object[] data() throws IOException {
+		Map<FillFile, FillFile> points = SlicePointUtils.loadPoints();
+		return points.values().toArray();
+	}
+}
@@ -0,0 +1,144 @@
+package org.area515.resinprinter.stl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Mesh3dTest {
+	//A unit cube with outward facing normals and counterclockwise winding
+	private Mesh3d buildCube() {
+		Mesh3d mesh = new Mesh3d(12);
+		for (int z = 0; z < 2; z++) {
+			for (int y = 0; y < 2; y++) {
+				for (int x = 0; x < 2; x++) {
+					mesh.addVertex(x, y, z);
+				}
+			}
+		}
+		mesh.addFacet(0, 2, 3, 0, 0, -1);
+		mesh.addFacet(0, 3, 1, 0, 0, -1);
+		mesh.addFacet(4, 5, 7, 0, 0, 1);
+		mesh.addFacet(4, 7, 6, 0, 0, 1);
+		mesh.addFacet(0, 1, 5, 0, -1, 0);
+		mesh.addFacet(0, 5, 4, 0, -1, 0);
+		mesh.addFacet(2, 6, 7, 0, 1, 0);
+		mesh.addFacet(2, 7, 3, 0, 1, 0);
+		mesh.addFacet(0, 4, 6, -1, 0, 0);
+		mesh.addFacet(0, 6, 2, -1, 0, 0);
+		mesh.addFacet(1, 3, 7, 1, 0, 0);
+		mesh.addFacet(1, 7, 5, 1, 0, 0);
+		return mesh;
+	}
+
+	private List<Line3d> slice(Mesh3d mesh, double z) {
+		List<Line3d> lines = new ArrayList<Line3d>();
+		for (int t = 0; t < mesh.getFacetCount(); t++) {
+			Line3d line = mesh.getZIntersection(t, z);
+			if (line != null) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+
+	//Every line must end exactly where another line starts for the outline to be closed
+	private void assertClosed(List<Line3d> lines) {
+		nextLine : for (Line3d line : lines) {
+			for (Line3d other : lines) {
+				if (line.getPointTwo().x == other.getPointOne().x && line.getPointTwo().y == other.getPointOne().y) {
+					continue nextLine;
+				}
+			}
+			Assert.fail("Outline isn't closed after:" + line);
+		}
+	}
+
+	@Test
+	public void sliceThroughMiddle() {
+		List<Line3d> lines = slice(buildCube(), 0.5);
+		Assert.assertEquals(8, lines.size());
+		assertClosed(lines);
+	}
+
+	@Test
+	public void sliceOnBottomFace() {
+		List<Line3d> lines = slice(buildCube(), 0);
+		Assert.assertEquals(4, lines.size());
+		assertClosed(lines);
+	}
+
+	@Test
+	public void sliceOnTopFace() {
+		List<Line3d> lines = slice(buildCube(), 1);
+		Assert.assertEquals(4, lines.size());
+		assertClosed(lines);
+	}
+
+	@Test
+	public void sliceOutsideOfMesh() {
+		Assert.assertEquals(0, slice(buildCube(), 1.5).size());
+		Assert.assertEquals(0, slice(buildCube(), -0.5).size());
+	}
+
+	@Test
+	public void trimToSize() {
+		Mesh3d mesh = new Mesh3d(1000);
+		mesh.addFacet(mesh.addVertex(0, 0, 0), mesh.addVertex(1, 0, 0), mesh.addVertex(0, 1, 0), 0, 0, 1);
+		mesh.trimToSize();
+		Assert.assertEquals(1, mesh.getFacetCount());
+		Assert.assertEquals(3 * 3 * 8 + 3 * 8 + 3 * 4, mesh.getMemoryFootprint());
+		Assert.assertEquals(1, mesh.getTriangle(0).getPoints().get(1).x, 0);
+	}
+
+	@Test
+	public void weldVerticesAndBuildAdjacency() {
+		Mesh3d cube = buildCube();
+		//Give every facet its own copy of its vertices like an stl file would
+		Mesh3d mesh = new Mesh3d(cube.getFacetCount());
+		mesh.setFacetCount(cube.getFacetCount());
+		for (int t = 0; t < cube.getFacetCount(); t++) {
+			Point3d p1 = cube.getPoint(t, 0);
+			Point3d p2 = cube.getPoint(t, 1);
+			Point3d p3 = cube.getPoint(t, 2);
+			Point3d normal = cube.getNormal(t);
+			mesh.setFacet(t, p1.x, p1.y, p1.z, p2.x, p2.y, p2.z, p3.x, p3.y, p3.z, normal.x, normal.y, normal.z);
+		}
+		Assert.assertEquals(36, mesh.getVertexCount());
+		Assert.assertEquals(28, mesh.weldVertices());
+		Assert.assertEquals(8, mesh.getVertexCount());
+
+		mesh.buildEdgeAdjacency();
+		for (int t = 0; t < mesh.getFacetCount(); t++) {
+			for (int edge = 0; edge < 3; edge++) {
+				int neighbor = mesh.getNeighbor(t, edge);
+				Assert.assertNotEquals(-1, neighbor);
+				Assert.assertNotEquals(t, neighbor);
+				boolean pointsBack = false;
+				for (int otherEdge = 0; otherEdge < 3; otherEdge++) {
+					pointsBack |= mesh.getNeighbor(neighbor, otherEdge) == t;
+				}
+				Assert.assertTrue(pointsBack);
+			}
+		}
+		Assert.assertEquals(cube.getTriangle(5).toString(), mesh.getTriangle(5).toString());
+	}
+
+	@Test
+	public void openAndNonManifoldEdgesHaveNoNeighbor() {
+		Mesh3d mesh = new Mesh3d(3);
+		int a = mesh.addVertex(0, 0, 0);
+		int b = mesh.addVertex(1, 0, 0);
+		//Three facets hinged on the edge a-b
+		mesh.addFacet(a, b, mesh.addVertex(0, 1, 0), 0, 0, 1);
+		mesh.addFacet(b, a, mesh.addVertex(0, 0, 1), 0, -1, 0);
+		mesh.addFacet(b, a, mesh.addVertex(0, -1, 0), 0, 0, 1);
+		mesh.buildEdgeAdjacency();
+		for (int t = 0; t < mesh.getFacetCount(); t++) {
+			for (int edge = 0; edge < 3; edge++) {
+				Assert.assertEquals(-1, mesh.getNeighbor(t, edge));
+			}
+		}
+	}
+}
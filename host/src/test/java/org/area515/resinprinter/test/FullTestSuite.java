@@ -1,6 +1,10 @@
 package org.area515.resinprinter.test;
 
+import org.area515.resinprinter.display.RecordingDisplayTest;
+import org.area515.resinprinter.display.dispmanx.RGB565ConverterTest;
+import org.area515.resinprinter.display.fbdev.FramebufferDeviceTest;
 import org.area515.resinprinter.gcode.FirmwareResponseSimulation;
+import org.area515.resinprinter.gcode.GCodeStreamingTest;
 import org.area515.resinprinter.gcode.TestGCodeTemplating;
 import org.area515.resinprinter.http.TestByteSession;
 import org.area515.resinprinter.image.ConvertCWMaskToTransparencyMask;
@@ -9,18 +13,33 @@ import org.area515.resinprinter.inkdetection.visual.LineTest;
 import org.area515.resinprinter.inkdetection.visual.TestVisualPrintMaterialDetector;
 import org.area515.resinprinter.job.AbstractPrintFileProcessorTest;
 import org.area515.resinprinter.job.TestCustomizer;
+import org.area515.resinprinter.job.render.AffineRasterCopyTest;
+import org.area515.resinprinter.job.render.BulbMaskTest;
+import org.area515.resinprinter.job.render.PixelStatisticsTest;
+import org.area515.resinprinter.job.render.RenderingCacheTest;
 import org.area515.resinprinter.network.LinuxNetworkManagerTest;
 import org.area515.resinprinter.printer.DetectFirmwareMock;
 import org.area515.resinprinter.projector.HexCodeBasedProjectorTesting;
 import org.area515.resinprinter.security.KeystoreSecurityTest;
 import org.area515.resinprinter.security.SerializeMessageAsJson;
 import org.area515.resinprinter.security.keystore.RendezvousExchange;
+import org.area515.resinprinter.serial.SerialLineReaderTest;
+import org.area515.resinprinter.serial.SimulatedFirmwareCommPortTest;
 import org.area515.resinprinter.services.MachineServiceTest;
 import org.area515.resinprinter.services.TestScriptAndTemplating;
 import org.area515.resinprinter.slice.CheckSlicePoints;
+import org.area515.resinprinter.slice.ContourLinkerTest;
+import org.area515.resinprinter.slice.LayerStoreTest;
+import org.area515.resinprinter.slice.MappedStlFileTest;
+import org.area515.resinprinter.slice.RunLengthRasterTest;
+import org.area515.resinprinter.slice.StlAsciiScannerTest;
+import org.area515.resinprinter.slice.ZIntervalIndexTest;
+import org.area515.resinprinter.stl.Mesh3dTest;
 import org.area515.resinprinter.stl.ZSlicingGeometry;
 import org.area515.resinprinter.util.cron.RunCronPredictor;
 import org.area515.util.IOUtilitiesTest;
+import org.area515.util.PrintJobScriptContextTest;
+import org.area515.util.TemplateEngineTest;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
@@ -32,17 +51,36 @@ import org.junit.runners.Suite;
 	LineTest.class,
 	LinuxNetworkManagerTest.class,
 	AbstractPrintFileProcessorTest.class,
+	RenderingCacheTest.class,
+	AffineRasterCopyTest.class,
+	BulbMaskTest.class,
+	PixelStatisticsTest.class,
+	FramebufferDeviceTest.class,
+	RecordingDisplayTest.class,
+	RGB565ConverterTest.class,
 	TestScriptAndTemplating.class,
 	HexCodeBasedProjectorTesting.class,
 	DetectFirmwareMock.class,
 	FirmwareResponseSimulation.class,
+	GCodeStreamingTest.class,
+	SerialLineReaderTest.class,
+	SimulatedFirmwareCommPortTest.class,
 	ConvertCWMaskToTransparencyMask.class,
 	CheckSlicePoints.class,
 	ZSlicingGeometry.class,
+	ZIntervalIndexTest.class,
+	Mesh3dTest.class,
+	MappedStlFileTest.class,
+	StlAsciiScannerTest.class,
+	ContourLinkerTest.class,
+	LayerStoreTest.class,
+	RunLengthRasterTest.class,
 	KeystoreSecurityTest.class,
 	SerializeMessageAsJson.class,
 	RendezvousExchange.class,
 	TestGCodeTemplating.class,
+	TemplateEngineTest.class,
+	PrintJobScriptContextTest.class,
 	TestByteSession.class,
 	TestCustomizer.class,
 	MachineServiceTest.class,
@@ -0,0 +1,117 @@
+package org.area515.util;
+
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+
+import org.area515.resinprinter.job.AbstractPrintFileProcessorTest;
+import org.area515.resinprinter.job.PrintFileProcessor;
+import org.area515.resinprinter.job.PrintJob;
+import org.area515.resinprinter.printer.SlicingProfile.InkConfig;
+import org.area515.resinprinter.server.HostProperties;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class PrintJobScriptContextTest {
+	private static final String EXPOSURE_TIME = "var value = $FirstLayerTime;\nif ($CURSLICE > $NumFirstLayers) {\n\tvalue = $LayerTime\n}\nvalue";
+
+	private static PrintJob createPrintJob() throws Exception {
+		PrintFileProcessor<?,?> processor = Mockito.mock(PrintFileProcessor.class);
+		PrintJob mockJob = AbstractPrintFileProcessorTest.createTestPrintJob(processor);
+		InkConfig inkConfig = mockJob.getPrinter().getConfiguration().getSlicingProfile().getSelectedInkConfig();
+		Mockito.when(inkConfig.getFirstLayerExposureTime()).thenReturn(20000);
+		Mockito.when(inkConfig.getExposureTime()).thenReturn(8000);
+		Mockito.when(inkConfig.getNumberOfFirstLayers()).thenReturn(3);
+
+		PrintJob printJob = new PrintJob(null);
+		printJob.setPrinter(mockJob.getPrinter());
+		printJob.setPrintFileProcessor(processor);
+		return printJob;
+	}
+
+	@Test
+	public void arithmeticMatchesScriptEngine() throws Exception {
+		ScriptEngine engine = HostProperties.Instance().buildScriptEngine();
+		Bindings bindings = engine.getBindings(ScriptContext.ENGINE_SCOPE);
+		Map<String, Object> values = new HashMap<>();
+		values.put("$CURSLICE", 7);
+		values.put("$buildAreaMM", 2.5);
+		values.put("$bulbHours", Double.NaN);
+		bindings.putAll(values);
+
+		String[] scripts = {"$CURSLICE", "$buildAreaMM;", "($CURSLICE)", "$CURSLICE * 2", "$CURSLICE / 2", "-$CURSLICE", "100.0 - 0.02 * $buildAreaMM",
+				"($CURSLICE + 1) % 3", "$CURSLICE / 0", "4.5 + 1.5e-3 * $buildAreaMM", "$bulbHours * 2", " 2 * - $CURSLICE ; "};
+		for (String script : scripts) {
+			ArithmeticExpression expression = ArithmeticExpression.parse(script);
+			Assert.assertNotNull(script, expression);
+			Object expected = engine.eval(script);
+			Object actual = expression.evaluate(values::get);
+			Assert.assertEquals(script, expected, actual);
+			Assert.assertEquals(script, expected.getClass(), actual.getClass());
+		}
+
+		Assert.assertTrue(ArithmeticExpression.parse("(1 + 2) * 3").isConstant());
+		Assert.assertNull(ArithmeticExpression.parse("$printer").evaluate(name -> new Object()));
+		for (String script : new String[] {"", "Math.pow($buildAreaMM, 1)", "var value = 5;", "$CURSLICE $CURSLICE", "1 +", "(1", "08", "0x10", "1.2.3", "--$CURSLICE", "1 // comment", "$CURSLICE > 3"}) {
+			Assert.assertNull(script, ArithmeticExpression.parse(script));
+		}
+	}
+
+	@Test
+	public void scriptsFollowTheJobBetweenLayers() throws Exception {
+		PrintJob printJob = createPrintJob();
+		ScriptEngine engine = HostProperties.Instance().buildScriptEngine();
+		for (int slice = 1; slice < 6; slice++) {
+			printJob.setCurrentSlice(slice);
+			Assert.assertEquals(slice <= 3?20000:8000, TemplateEngine.runScript(printJob, printJob.getPrinter(), engine, EXPOSURE_TIME, "exposure time script", null));
+			Assert.assertEquals(slice * 2.0, TemplateEngine.runScript(printJob, printJob.getPrinter(), engine, "$CURSLICE * 2", "exposure time script", null));
+		}
+		Assert.assertSame(printJob.getScriptContext(engine), TemplateEngine.getScriptContext(printJob, printJob.getPrinter(), engine));
+
+		//Scripts are cached by their source, so an edited script with the same name is picked up
+		Assert.assertEquals(8001.0, TemplateEngine.runScript(printJob, printJob.getPrinter(), engine, EXPOSURE_TIME + " + 1", "exposure time script", null));
+		Assert.assertEquals(5, TemplateEngine.runScript(printJob, printJob.getPrinter(), engine, "5", "exposure time script", null));
+	}
+
+	@Test
+	public void overridesOnlyApplyToOneScript() throws Exception {
+		PrintJob printJob = createPrintJob();
+		printJob.setCurrentSlice(2);
+		ScriptEngine engine = HostProperties.Instance().buildScriptEngine();
+		Map<String, Object> overrides = new HashMap<>();
+		overrides.put("$CURSLICE", 10.0);
+		Assert.assertEquals(8000, TemplateEngine.runScript(printJob, printJob.getPrinter(), engine, EXPOSURE_TIME, "exposure time script", overrides));
+		Assert.assertEquals(10.0, TemplateEngine.runScript(printJob, printJob.getPrinter(), engine, "$CURSLICE", "slice", overrides));
+
+		Assert.assertEquals(20000, TemplateEngine.runScript(printJob, printJob.getPrinter(), engine, EXPOSURE_TIME, "exposure time script", null));
+		Assert.assertEquals(2, TemplateEngine.runScript(printJob, printJob.getPrinter(), engine, "$CURSLICE", "slice", null));
+	}
+
+	@Test
+	public void throwawayEngineContextIsntKeptOnTheJob() throws Exception {
+		PrintJob printJob = createPrintJob();
+		printJob.setCurrentSlice(4);
+		ScriptEngine engine = HostProperties.Instance().buildScriptEngine();
+		PrintJobScriptContext scriptContext = new PrintJobScriptContext(printJob, printJob.getPrinter(), engine);
+		BufferedImage platformImage = new BufferedImage(20, 10, BufferedImage.TYPE_4BYTE_ABGR);
+		BufferedImage printImage = new BufferedImage(10, 10, BufferedImage.TYPE_4BYTE_ABGR);
+		Assert.assertEquals(14.0, TemplateEngine.runScriptInImagingContext(platformImage, printImage, scriptContext, null, "$CURSLICE + centerX", "test script", false));
+		Assert.assertNull(printJob.getScriptContext(engine));
+	}
+
+	@Test
+	public void jobValuesReadByAScript() throws Exception {
+		PrintJob printJob = createPrintJob();
+		printJob.setCurrentSlice(4);
+		PrintJobScriptContext scriptContext = new PrintJobScriptContext(printJob, printJob.getPrinter(), HostProperties.Instance().buildScriptEngine());
+		Map<String, Object> values = scriptContext.getJobValuesReadBy("var fade = $LayerTime / 1000;\n$CURSLICE > fade?$CURSLICE:$FirstLayerTime2", "gradient");
+		Assert.assertEquals(2, values.size());
+		Assert.assertEquals(8000, values.get("$LayerTime"));
+		Assert.assertEquals(4, values.get("$CURSLICE"));
+	}
+}
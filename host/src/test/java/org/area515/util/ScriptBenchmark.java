@@ -0,0 +1,108 @@
+package org.area515.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+
+import org.area515.resinprinter.job.PrintJob;
+import org.area515.resinprinter.job.render.StubPrintFileProcessor;
+import org.area515.resinprinter.printer.Printer;
+import org.area515.resinprinter.server.HostProperties;
+import org.area515.resinprinter.services.PrinterService;
+
+public class ScriptBenchmark {
+	private static final int ITERATIONS = 20000;
+	//The exposure time and lift calculators of the stock Photocentric profiles and a couple of simple calculators
+	private static final String[] CALCULATORS = {
+			"var value = $FirstLayerTime;\nif ($CURSLICE > $NumFirstLayers) {\n\tvalue = $LayerTime\n}\nvalue",
+			"var minLift = 4.5;\nvar value = 8.0;\nif ($CURSLICE > $NumFirstLayers) {\nvalue = minLift  +  0.0015*Math.pow($buildAreaMM,1);\n}\nvalue",
+			"$LayerTime",
+			"100.0 - 0.02 * $buildAreaMM"};
+
+	private static Map<String, CompiledScript> scriptsByName = new HashMap<>();
+
+	//The way TemplateEngine used to run a script, every variable put again and a compiled script looked up by name
+	private static Object runScriptWithAllBindings(PrintJob job, Printer printer, ScriptEngine engine, String script, String scriptName) throws Exception {
+		Bindings bindings = engine.getBindings(ScriptContext.ENGINE_SCOPE);
+		bindings.put("now", new Date());
+		bindings.put("$shutterOpen", printer.isShutterOpen());
+		Integer bulbHours = printer.getCachedBulbHours();
+		bindings.put("$bulbHours", bulbHours == null || bulbHours < 0?Double.NaN:new Double(bulbHours));
+		bindings.put("$CURSLICE", job.getCurrentSlice());
+		bindings.put("$LayerThickness", printer.getConfiguration().getSlicingProfile().getSelectedInkConfig().getSliceHeight());
+		bindings.put("$ZDir", printer.getConfiguration().getSlicingProfile().getDirection().getVector());
+		bindings.put("$ZLiftRate", job.getZLiftSpeed());
+		bindings.put("$ZLiftDist", job.getZLiftDistance());
+		Double buildArea = job.getPrintFileProcessor().getBuildAreaMM(job);
+		bindings.put("$buildAreaMM", buildArea == null || buildArea < 0?Double.NaN:buildArea);
+		bindings.put("$LayerTime", printer.getConfiguration().getSlicingProfile().getSelectedInkConfig().getExposureTime());
+		bindings.put("$FirstLayerTime", printer.getConfiguration().getSlicingProfile().getSelectedInkConfig().getFirstLayerExposureTime());
+		bindings.put("$NumFirstLayers", printer.getConfiguration().getSlicingProfile().getSelectedInkConfig().getNumberOfFirstLayers());
+		bindings.put("$SlideTiltVal", printer.getConfiguration().getSlicingProfile().getSlideTiltValue());
+		bindings.put("$buildPlatformXPixels", printer.getConfiguration().getSlicingProfile().getxResolution());
+		bindings.put("$buildPlatformYPixels", printer.getConfiguration().getSlicingProfile().getyResolution());
+		bindings.put("pixelsPerMMX", printer.getConfiguration().getSlicingProfile().getDotsPermmX());
+		bindings.put("pixelsPerMMY", printer.getConfiguration().getSlicingProfile().getDotsPermmY());
+		bindings.put("hostProperties", HostProperties.Instance());
+		bindings.put("job", job);
+		bindings.put("printer", printer);
+		bindings.put(ScriptEngine.FILENAME, scriptName);
+
+		CompiledScript compiledScript = scriptsByName.get(scriptName);
+		if (compiledScript == null) {
+			compiledScript = ((Compilable)engine).compile(script);
+			scriptsByName.put(scriptName, compiledScript);
+		}
+		return compiledScript.eval(bindings);
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	//java -cp lib/*:. org.area515.util.ScriptBenchmark
+	public static void main(String[] args) throws Exception {
+		Printer printer = PrinterService.INSTANCE.createTemplatePrinter();
+		PrintJob job = new PrintJob(null);
+		job.setPrinter(printer);
+		job.setPrintFileProcessor(new StubPrintFileProcessor<Object, Object>());
+
+		for (int calculator = 0; calculator < CALCULATORS.length; calculator++) {
+			String script = CALCULATORS[calculator];
+			String scriptName = "calculator " + calculator;
+			ScriptEngine allBindingsEngine = HostProperties.Instance().buildScriptEngine();
+			ScriptEngine contextEngine = HostProperties.Instance().buildScriptEngine();
+			for (int warmup = 0; warmup < ITERATIONS; warmup++) {
+				job.setCurrentSlice(warmup);
+				runScriptWithAllBindings(job, printer, allBindingsEngine, script, scriptName);
+				TemplateEngine.runScript(job, printer, contextEngine, script, scriptName, null);
+			}
+
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			for (int t = 0; t < ITERATIONS; t++) {
+				job.setCurrentSlice(t);
+				runScriptWithAllBindings(job, printer, allBindingsEngine, script, scriptName);
+			}
+			long allBindingsTime = (System.nanoTime() - start) / ITERATIONS;
+			long allBindingsBytes = (allocatedBytes() - bytes) / ITERATIONS;
+
+			bytes = allocatedBytes();
+			start = System.nanoTime();
+			for (int t = 0; t < ITERATIONS; t++) {
+				job.setCurrentSlice(t);
+				TemplateEngine.runScript(job, printer, contextEngine, script, scriptName, null);
+			}
+			long contextTime = (System.nanoTime() - start) / ITERATIONS;
+			long contextBytes = (allocatedBytes() - bytes) / ITERATIONS;
+			System.out.printf("%-28s all bindings %.1fus %d bytes, script context %.1fus %d bytes per layer%n", script.split("\n")[0], allBindingsTime / 1e3, allBindingsBytes, contextTime / 1e3, contextBytes);
+		}
+	}
+}
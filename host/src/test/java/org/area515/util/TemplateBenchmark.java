@@ -0,0 +1,111 @@
+package org.area515.util;
+
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.area515.resinprinter.job.PrintJob;
+import org.area515.resinprinter.job.render.StubPrintFileProcessor;
+import org.area515.resinprinter.printer.Printer;
+import org.area515.resinprinter.server.HostProperties;
+import org.area515.resinprinter.services.PrinterService;
+
+import freemarker.cache.StringTemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateExceptionHandler;
+
+public class TemplateBenchmark {
+	private static final int ITERATIONS = 20000;
+	//The header, footer and lift templates of the stock Photocentric profiles
+	private static final String[] TEMPLATES = {
+			"G91;\nM17;",
+			"M18",
+			"G1 Z${ZLiftDist} F${ZLiftRate};\nG1 Z-${(ZLiftDist - LayerThickness)} F180;\nM17;\n;<delay> 1500;"};
+
+	private static StringTemplateLoader templateLoader = new StringTemplateLoader();
+	private static Configuration config;
+
+	//The way TemplateEngine used to build a template, a copy of every variable and a template lookup by its source
+	private static String buildDataWithCopiedMap(PrintJob job, Printer printer, String templateString) throws Exception {
+		if (config == null) {
+			config = new Configuration(Configuration.VERSION_2_3_21);
+			config.setDefaultEncoding("UTF-8");
+			config.setTemplateLoader(templateLoader);
+			config.setBooleanFormat("yes,no");
+		}
+
+		Map<String, Object> root = new HashMap<String, Object>();
+		root.put("now", new Date());
+		root.put("shutterOpen", printer.isShutterOpen());
+		root.put("bulbHours", printer.getCachedBulbHours());
+		root.put("CURSLICE", job.getCurrentSlice());
+		root.put("LayerThickness", printer.getConfiguration().getSlicingProfile().getSelectedInkConfig().getSliceHeight());
+		root.put("ZDir", printer.getConfiguration().getSlicingProfile().getDirection().getVector());
+		root.put("ZLiftRate", job.getZLiftSpeed());
+		root.put("ZLiftDist", job.getZLiftDistance());
+		Double buildArea = job.getPrintFileProcessor().getBuildAreaMM(job);
+		root.put("buildAreaMM", buildArea == null || buildArea < 0?null:buildArea);
+		root.put("LayerTime", printer.getConfiguration().getSlicingProfile().getSelectedInkConfig().getExposureTime());
+		root.put("FirstLayerTime", printer.getConfiguration().getSlicingProfile().getSelectedInkConfig().getFirstLayerExposureTime());
+		root.put("NumFirstLayers", printer.getConfiguration().getSlicingProfile().getSelectedInkConfig().getNumberOfFirstLayers());
+		root.put("SlideTiltVal", printer.getConfiguration().getSlicingProfile().getSlideTiltValue());
+		root.put("buildPlatformXPixels", printer.getConfiguration().getSlicingProfile().getxResolution());
+		root.put("buildPlatformYPixels", printer.getConfiguration().getSlicingProfile().getyResolution());
+		root.put("pixelsPerMMX", printer.getConfiguration().getSlicingProfile().getDotsPermmX());
+		root.put("pixelsPerMMY", printer.getConfiguration().getSlicingProfile().getDotsPermmY());
+		root.put("hostProperties", HostProperties.Instance());
+		root.put("job", job);
+		root.put("printer", printer);
+
+		Object source = templateLoader.findTemplateSource(templateString);
+		if (source == null) {
+			templateLoader.putTemplate(templateString, templateString);
+		}
+		Template template = config.getTemplate(templateString);
+		template.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
+		StringWriter out = new StringWriter();
+		template.process(root, out);
+		return out.toString();
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	//java -cp lib/*:. org.area515.util.TemplateBenchmark
+	public static void main(String[] args) throws Exception {
+		Printer printer = PrinterService.INSTANCE.createTemplatePrinter();
+		PrintJob job = new PrintJob(null);
+		job.setPrinter(printer);
+		job.setPrintFileProcessor(new StubPrintFileProcessor<Object, Object>());
+		job.setZLiftDistance(5);
+		job.setZLiftSpeed(50);
+
+		for (String template : TEMPLATES) {
+			for (int warmup = 0; warmup < ITERATIONS; warmup++) {
+				buildDataWithCopiedMap(job, printer, template);
+				TemplateEngine.buildData(job, printer, template);
+			}
+
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			for (int t = 0; t < ITERATIONS; t++) {
+				buildDataWithCopiedMap(job, printer, template);
+			}
+			long copiedTime = (System.nanoTime() - start) / ITERATIONS;
+			long copiedBytes = (allocatedBytes() - bytes) / ITERATIONS;
+
+			bytes = allocatedBytes();
+			start = System.nanoTime();
+			for (int t = 0; t < ITERATIONS; t++) {
+				TemplateEngine.buildData(job, printer, template);
+			}
+			long cachedTime = (System.nanoTime() - start) / ITERATIONS;
+			long cachedBytes = (allocatedBytes() - bytes) / ITERATIONS;
+			System.out.printf("%-12s copied map %.1fus %d bytes, cached template and lazy model %.1fus %d bytes per call%n", template.split("\n")[0], copiedTime / 1e3, copiedBytes, cachedTime / 1e3, cachedBytes);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package org.area515.util;
+
+import org.area515.resinprinter.job.AbstractPrintFileProcessorTest;
+import org.area515.resinprinter.job.PrintFileProcessor;
+import org.area515.resinprinter.job.PrintJob;
+import org.area515.resinprinter.printer.SlicingProfile.InkConfig;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TemplateEngineTest {
+	private static final String LIFT = "G1 Z${ZLiftDist} F${ZLiftRate};\nG1 Z-${(ZLiftDist - LayerThickness)} F180;\nM17;\n;<delay> 1500;";
+
+	private static PrintJob createPrintJob(PrintFileProcessor<?,?> processor) throws Exception {
+		PrintJob mockJob = AbstractPrintFileProcessorTest.createTestPrintJob(processor);
+		InkConfig inkConfig = mockJob.getPrinter().getConfiguration().getSlicingProfile().getSelectedInkConfig();
+		Mockito.when(inkConfig.getSliceHeight()).thenReturn(0.05);
+
+		PrintJob printJob = new PrintJob(null);
+		printJob.setPrinter(mockJob.getPrinter());
+		printJob.setPrintFileProcessor(processor);
+		printJob.setZLiftDistance(5);
+		printJob.setZLiftSpeed(50);
+		return printJob;
+	}
+
+	@Test
+	public void templatesAreOnlyParsedOnce() throws Exception {
+		String source = "G1 Z${ZLiftDist}";
+		Assert.assertSame(TemplateEngine.getTemplate(source), TemplateEngine.getTemplate(new String(source)));
+		Assert.assertNotSame(TemplateEngine.getTemplate(source), TemplateEngine.getTemplate(source + " "));
+	}
+
+	@Test
+	public void liftTemplateIsEvaluatedFromTheJob() throws Exception {
+		PrintFileProcessor<?,?> processor = Mockito.mock(PrintFileProcessor.class);
+		PrintJob printJob = createPrintJob(processor);
+		Assert.assertEquals("G1 Z5 F50;\nG1 Z-4.95 F180;\nM17;\n;<delay> 1500;", TemplateEngine.buildData(printJob, printJob.getPrinter(), LIFT));
+
+		//The model reads the job every time, so it's kept for the whole job
+		printJob.setZLiftDistance(6);
+		Assert.assertEquals("G1 Z6 F50;\nG1 Z-5.95 F180;\nM17;\n;<delay> 1500;", TemplateEngine.buildData(printJob, printJob.getPrinter(), LIFT));
+		Assert.assertSame(printJob.getTemplateModel(), TemplateEngine.getTemplateModel(printJob, printJob.getPrinter()));
+
+		//The build area isn't computed for templates that don't use it
+		Mockito.verify(processor, Mockito.never()).getBuildAreaMM(Mockito.any(PrintJob.class));
+	}
+
+	@Test
+	public void missingBuildAreaReturnsNull() throws Exception {
+		PrintFileProcessor<?,?> processor = Mockito.mock(PrintFileProcessor.class);
+		PrintJob printJob = createPrintJob(processor);
+		Mockito.when(processor.getBuildAreaMM(Mockito.any(PrintJob.class))).thenReturn(null);
+		Assert.assertNull(TemplateEngine.buildData(printJob, printJob.getPrinter(), "G1 Z${buildAreaMM}"));
+
+		Mockito.when(processor.getBuildAreaMM(Mockito.any(PrintJob.class))).thenReturn(12.5);
+		Assert.assertEquals("G1 Z12.5", TemplateEngine.buildData(printJob, printJob.getPrinter(), "G1 Z${buildAreaMM}"));
+	}
+}